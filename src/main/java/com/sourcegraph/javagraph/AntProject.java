@@ -13,9 +13,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 public class AntProject implements Project {
@@ -27,7 +29,7 @@ public class AntProject implements Project {
     /**
      * Keeps mapping between JAR files and dependencies computed via JAR's SHA1
      */
-    private static Map<Path, RawDependency> dependencyCache = new HashMap<>();
+    private static Map<Path, Optional<RawDependency>> dependencyCache = new ConcurrentHashMap<>();
 
     /**
      * This set keeps known Ant types that might be executed while collecting data
@@ -77,7 +79,10 @@ public class AntProject implements Project {
         executables.add("javacc");
     }
 
-    private static ErrorTolerantJavac lastJavac;
+    /**
+     * Project reference that holds last executed javac task
+     */
+    private static final String LAST_JAVAC_REFERENCE = "srclib.lastJavac";
 
     public AntProject(SourceUnit unit) {
         this.unit = unit;
@@ -118,15 +123,46 @@ public class AntProject implements Project {
 
     @Override
     public RawDependency getDepForJAR(Path jarFile) {
+        return getDepForJAR(jarFile, PathUtil.CWD);
+    }
+
+    @Override
+    public RawDependency getDepForJAR(Path jarFile, Path workingDir) {
         for (RawDependency dependency : unit.Data.Dependencies) {
             if (dependency.file != null &&
-                    jarFile.equals(PathUtil.CWD.resolve(dependency.file).toAbsolutePath())) {
+                    jarFile.equals(workingDir.resolve(dependency.file).toAbsolutePath())) {
                 return dependency;
             }
         }
         return null;
     }
 
+    /**
+     * @return build files source units found by {@link #findAllSourceUnits()} are made of: build.xml files
+     * found by repository walk
+     * @throws IOException
+     */
+    static Collection<Path> getBuildInputs() throws IOException {
+        return ScanUtil.findMatchingFiles("build.xml");
+    }
+
+    /**
+     * @return files build.xml files import, known only after build files were evaluated by the current scan
+     * (see {@link CachingProjectHelper#reset()})
+     * @throws IOException
+     */
+    static Collection<Path> getImportedFiles() throws IOException {
+        Collection<Path> buildFiles = getBuildInputs();
+        Collection<Path> ret = new HashSet<>();
+        for (File file : CachingProjectHelper.getParsedFiles()) {
+            Path path = file.toPath().toAbsolutePath().normalize();
+            if (!buildFiles.contains(path)) {
+                ret.add(path);
+            }
+        }
+        return ret;
+    }
+
     /**
      * Retrieves all source units from current working directory by scanning for build.xml files and processing them
      *
@@ -135,35 +171,42 @@ public class AntProject implements Project {
      */
     public static Collection<SourceUnit> findAllSourceUnits() throws IOException {
 
-        PrintStream out = System.out;
-        try {
-            // redirecting all possible output to stderr to avoid mixing it with toolchain's output
-            System.setOut(System.err);
-            LOGGER.debug("Retrieving source units");
+        LOGGER.debug("Retrieving source units");
 
-            // step 1 : process all pom.xml files
-            Collection<Path> buildXmlFiles = ScanUtil.findMatchingFiles("build.xml");
+        CachingProjectHelper.register();
 
-            Collection<SourceUnit> ret = new ArrayList<>();
-
-            for (Path buildXml : buildXmlFiles) {
+        // step 1 : process all build.xml files, each one is evaluated in its own Ant project
+        Collection<Path> buildXmlFiles = ScanUtil.findMatchingFiles("build.xml");
 
+        Collection<Callable<SourceUnit>> tasks = new ArrayList<>();
+        for (Path buildXml : buildXmlFiles) {
+            tasks.add(() -> {
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Processing Ant file {}", buildXml.toAbsolutePath());
                 }
                 try {
-                    ret.add(getSourceUnit(buildXml));
+                    return getSourceUnit(buildXml);
                 } catch (Exception e) {
                     LOGGER.warn("Error processing Ant file {}", buildXml.toAbsolutePath(), e);
+                    return null;
+                }
+            });
+        }
+
+        Collection<SourceUnit> ret = new ArrayList<>();
+        try {
+            for (SourceUnit unit : WorkerPool.invokeAll(tasks)) {
+                if (unit != null) {
+                    ret.add(unit);
                 }
             }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
 
-            LOGGER.debug("Retrieved source units");
+        LOGGER.debug("Retrieved source units");
 
-            return ret;
-        } finally {
-            System.setOut(out);
-        }
+        return ret;
     }
 
     public static boolean is(SourceUnit unit) {
@@ -249,7 +292,7 @@ public class AntProject implements Project {
                     MacroInstance macroinstance = (MacroInstance) task.getRuntimeConfigurableWrapper().getProxy();
                     macroinstance.execute();
 
-                    javac = lastJavac;
+                    javac = project.getReference(LAST_JAVAC_REFERENCE);
                 } else {
                     LOGGER.debug("Found javac {}:{}", target.getName(), task.getTaskName());
                     prepare(project, target);
@@ -300,19 +343,22 @@ public class AntProject implements Project {
             if (file.isFile()) {
 
                 Path jarPath = file.toPath();
-                RawDependency dependency;
-                if (dependencyCache.containsKey(jarPath)) {
-                    dependency = dependencyCache.get(jarPath);
-                } else {
-                    dependency = MavenCentralUtils.searchInCentral(jarPath);
-                    if (dependency != null) {
-                        dependency.file = file.toString();
-                        dependency.scope = StringUtils.EMPTY;
+                Optional<RawDependency> dependency = dependencyCache.get(jarPath);
+                if (dependency == null) {
+                    // looking up outside of the map's lock, network call should not block other build files
+                    RawDependency found = MavenCentralUtils.searchInCentral(jarPath);
+                    if (found != null) {
+                        found.file = file.toString();
+                        found.scope = StringUtils.EMPTY;
+                    }
+                    dependency = Optional.ofNullable(found);
+                    Optional<RawDependency> existing = dependencyCache.putIfAbsent(jarPath, dependency);
+                    if (existing != null) {
+                        dependency = existing;
                     }
-                    dependencyCache.put(jarPath, dependency);
                 }
-                if (dependency != null) {
-                    unit.Data.Dependencies.add(dependency);
+                if (dependency.isPresent()) {
+                    unit.Data.Dependencies.add(dependency.get());
                 }
             }
         }
@@ -610,7 +656,8 @@ public class AntProject implements Project {
         @Override
         public void execute() throws BuildException {
 
-            lastJavac = this;
+            // macro instances do not expose tasks they execute, keeping reference to the last javac
+            getProject().addReference(LAST_JAVAC_REFERENCE, this);
 
             resetFileLists();
 
@@ -0,0 +1,414 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Location of artifact caches: Maven local repository and Gradle user home.
+ * By default each repository keeps its own caches in the current working directory.
+ * If shared cache directory is configured (SRCLIB_JAVA_CACHE_DIR environment variable or srclib.java.cacheDir
+ * system property) all the repositories use the same caches. Access to shared Maven artifacts is guarded by
+ * per-artifact file locks (see {@link ArtifactLocks}), so that multiple processes may work with the same cache
+ * concurrently. If cache size limit is configured as well (SRCLIB_JAVA_CACHE_SIZE environment variable
+ * or srclib.java.cacheSize system property, for example 20G), least recently used Maven artifacts are evicted
+ * when the limit is exceeded. Eviction pass runs at most once an hour across all the processes, skips entries used
+ * during the last day (graphs of units scanned recently may still need them) and entries someone holds lock of.
+ * Lock files of evicted entries are deleted along with them.
+ * Gradle user home is shared as is, Gradle takes care of concurrent access itself
+ */
+public class ArtifactCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactCache.class);
+
+    private static final String CACHE_DIR_PROPERTY = "srclib.java.cacheDir";
+    private static final String CACHE_DIR_ENV = "SRCLIB_JAVA_CACHE_DIR";
+    private static final String CACHE_SIZE_PROPERTY = "srclib.java.cacheSize";
+    private static final String CACHE_SIZE_ENV = "SRCLIB_JAVA_CACHE_SIZE";
+
+    private static final String MAVEN_DIR = "maven";
+    private static final String GRADLE_DIR = "gradle";
+    private static final String SCAN_DIR = "scan";
+    private static final String LOCKS_DIR = ".locks";
+
+    /**
+     * Maven repository sub-directory that keeps generated sources, each sub-directory of it is an evictable entry
+     */
+    private static final String GENERATED_DIR = ".srclib-generated";
+
+    /**
+     * File in locks directory that remembers time of the last eviction pass
+     */
+    private static final String EVICT_STAMP = "evict.stamp";
+
+    /**
+     * Lock key of eviction pass
+     */
+    private static final String EVICT_KEY = ":evict";
+
+    /**
+     * Minimum interval between eviction passes, milliseconds
+     */
+    private static final long EVICT_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Entries used more recently than that are never evicted, milliseconds
+     */
+    private static final long MIN_IDLE_TIME = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Maximum time to wait for a lock acquired out of order, milliseconds
+     */
+    private static final long OUT_OF_ORDER_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Shared cache root or null if caches are not shared
+     */
+    private static final Path root;
+
+    /**
+     * Maximum size of shared Maven repository in bytes, 0 means unlimited
+     */
+    private static final long maxSize;
+
+    /**
+     * Locks of shared cache entries, null if caches are not shared
+     */
+    private static final ArtifactLocks locks;
+
+    /**
+     * Cache entries used by the current scan, they should not be evicted, entry => time it was touched last
+     */
+    private static final Map<Path, Long> used = new ConcurrentHashMap<>();
+
+    static {
+        String dir = getSetting(CACHE_DIR_PROPERTY, CACHE_DIR_ENV);
+        root = StringUtils.isEmpty(dir) ? null : Paths.get(dir).toAbsolutePath().normalize();
+        maxSize = parseSize(getSetting(CACHE_SIZE_PROPERTY, CACHE_SIZE_ENV));
+        if (root != null) {
+            LOGGER.debug("Using shared artifact cache {}", root);
+            locks = new ArtifactLocks(root.resolve(LOCKS_DIR), OUT_OF_ORDER_TIMEOUT);
+        } else {
+            locks = null;
+        }
+    }
+
+    private ArtifactCache() {
+    }
+
+    /**
+     * @return true if artifact caches are shared between repositories
+     */
+    public static boolean isShared() {
+        return root != null;
+    }
+
+    /**
+     * @return shared Maven repository directory or null if caches are not shared
+     */
+    public static Path getMavenRepository() {
+        return root == null ? null : root.resolve(MAVEN_DIR);
+    }
+
+    /**
+     * @return shared Gradle user home or null if caches are not shared
+     */
+    public static Path getGradleUserHome() {
+        return root == null ? null : root.resolve(GRADLE_DIR);
+    }
+
+    /**
+     * @return shared directory to keep scan results in or null if caches are not shared
+     */
+    public static Path getScanCacheRoot() {
+        return root == null ? null : root.resolve(SCAN_DIR);
+    }
+
+    /**
+     * Acquires exclusive locks that guard given cache keys, see {@link ArtifactLocks}. Does nothing if caches
+     * are not shared
+     *
+     * @param keys cache keys (for example, groupId:artifactId:version)
+     * @return handle that releases acquired locks when closed
+     * @throws IOException
+     */
+    public static Closeable lock(Collection<String> keys) throws IOException {
+        if (root == null || keys.isEmpty()) {
+            return () -> {
+            };
+        }
+        return locks.lock(keys);
+    }
+
+    /**
+     * Forgets cache entries used by the previous scan, should be called before each scan
+     */
+    public static void reset() {
+        used.clear();
+    }
+
+    /**
+     * Marks cache entry (Maven artifact directory) as recently used. Modification time of entry is updated
+     * on the first use and then at most once per eviction interval, so that entries used by long-running
+     * process do not look idle to other processes
+     *
+     * @param file file that belongs to cache entry
+     */
+    public static void touch(File file) {
+        if (root == null || file == null) {
+            return;
+        }
+        Path dir = file.toPath().toAbsolutePath().normalize();
+        if (Files.isRegularFile(dir)) {
+            dir = dir.getParent();
+        }
+        if (!dir.startsWith(root)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long touched = used.get(dir);
+        if (touched != null && now - touched < EVICT_INTERVAL) {
+            return;
+        }
+        used.put(dir, now);
+        try {
+            Files.setLastModifiedTime(dir, FileTime.fromMillis(now));
+        } catch (IOException e) {
+            LOGGER.debug("Unable to update modification time of {}", dir, e);
+        }
+    }
+
+    /**
+     * Runs eviction pass over shared Maven repository unless another process did it less than an hour ago or does
+     * it right now. Does nothing if caches are not shared or there is no size limit
+     */
+    public static void evict() {
+        if (root == null || maxSize <= 0) {
+            return;
+        }
+        Path stamp = root.resolve(LOCKS_DIR).resolve(EVICT_STAMP);
+        if (System.currentTimeMillis() - getLastModifiedTime(stamp) < EVICT_INTERVAL) {
+            return;
+        }
+        try {
+            Closeable lock = locks.tryLock(EVICT_KEY);
+            if (lock == null) {
+                return;
+            }
+            try {
+                if (System.currentTimeMillis() - getLastModifiedTime(stamp) < EVICT_INTERVAL) {
+                    return;
+                }
+                FileUtils.touch(stamp.toFile());
+                Path repository = getMavenRepository();
+                if (Files.isDirectory(repository)) {
+                    evict(repository, maxSize, System.currentTimeMillis() - MIN_IDLE_TIME, locks, used.keySet());
+                }
+            } finally {
+                lock.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to evict entries of shared artifact cache {}", root, e);
+        }
+    }
+
+    /**
+     * Evicts least recently used entries (artifact version directories and generated sources) from Maven repository
+     * until its size fits a given limit. Lock files of evicted entries are deleted as well
+     *
+     * @param repository  Maven repository directory
+     * @param maxSize     maximum size of repository in bytes
+     * @param idleBefore  entries modified after this time (milliseconds since epoch) are kept
+     * @param locks       locks of cache entries, entries locked by someone else are kept
+     * @param keep        entries to keep
+     * @return size of repository in bytes after eviction
+     * @throws IOException
+     */
+    static long evict(Path repository,
+                      long maxSize,
+                      long idleBefore,
+                      ArtifactLocks locks,
+                      Set<Path> keep) throws IOException {
+        Map<Path, Long> entries = new HashMap<>();
+        collectEntries(repository, entries);
+        long size = 0;
+        for (Long entrySize : entries.values()) {
+            size += entrySize;
+        }
+        if (size <= maxSize) {
+            return size;
+        }
+        LOGGER.debug("Shared artifact cache size is {} bytes, evicting entries", size);
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path entry : entries.keySet()) {
+            modified.put(entry, getLastModifiedTime(entry));
+        }
+        List<Path> candidates = new ArrayList<>(entries.keySet());
+        candidates.removeAll(keep);
+        candidates.removeIf(entry -> modified.get(entry) > idleBefore);
+        candidates.sort(Comparator.comparing(modified::get));
+        for (Path entry : candidates) {
+            if (size <= maxSize) {
+                break;
+            }
+            String key = getKey(repository, entry);
+            Closeable lock = locks.tryLock(key);
+            if (lock == null) {
+                LOGGER.debug("Keeping {} which is in use", entry);
+                continue;
+            }
+            try {
+                FileUtils.deleteDirectory(entry.toFile());
+                size -= entries.get(entry);
+                locks.delete(key);
+                LOGGER.debug("Evicted {}", entry);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to evict {}", entry, e);
+            } finally {
+                lock.close();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Computes cache key of Maven repository entry
+     *
+     * @param repository Maven repository directory
+     * @param entry      entry directory
+     * @return groupId:artifactId:version for artifact version directories, generated sources key for generated
+     * sources
+     */
+    private static String getKey(Path repository, Path entry) {
+        Path relative = repository.relativize(entry);
+        int count = relative.getNameCount();
+        if (count == 2 && relative.getName(0).toString().equals(GENERATED_DIR)) {
+            return GENERATED_DIR + ':' + relative.getName(1);
+        }
+        if (count < 3) {
+            return relative.toString();
+        }
+        StringBuilder groupId = new StringBuilder();
+        for (int i = 0; i < count - 2; i++) {
+            if (i > 0) {
+                groupId.append('.');
+            }
+            groupId.append(relative.getName(i));
+        }
+        return groupId.toString() + ':' + relative.getName(count - 2) + ':' + relative.getName(count - 1);
+    }
+
+    /**
+     * Collects evictable entries of Maven repository: directories that contain POM or JAR files,
+     * and sub-directories of generated sources directory
+     *
+     * @param repository Maven repository directory
+     * @param entries    map to fill (directory => size in bytes)
+     * @throws IOException
+     */
+    private static void collectEntries(Path repository, Map<Path, Long> entries) throws IOException {
+        Map<Path, Long> sizes = new HashMap<>();
+        Set<Path> artifactDirs = new HashSet<>();
+        Path generated = repository.resolve(GENERATED_DIR);
+        Files.walkFileTree(repository, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.getFileName().toString().equals(LOCKS_DIR)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (dir.getParent() != null && dir.getParent().equals(generated)) {
+                    entries.put(dir, FileUtils.sizeOfDirectory(dir.toFile()));
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                Path dir = file.getParent();
+                sizes.merge(dir, attrs.size(), Long::sum);
+                String name = file.getFileName().toString();
+                if (name.endsWith(".pom") || name.endsWith(".jar")) {
+                    artifactDirs.add(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        for (Path dir : artifactDirs) {
+            entries.put(dir, sizes.get(dir));
+        }
+    }
+
+    /**
+     * @param path path to check
+     * @return last modification time of a given path, 0 if unknown
+     */
+    private static long getLastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param property system property name
+     * @param env      environment variable name
+     * @return value of system property if set, otherwise value of environment variable
+     */
+    private static String getSetting(String property, String env) {
+        String value = System.getProperty(property);
+        if (StringUtils.isEmpty(value)) {
+            value = System.getenv(env);
+        }
+        return value;
+    }
+
+    /**
+     * @param size size specification, number of bytes optionally followed by K, M, or G
+     * @return size in bytes, 0 if size is not set or invalid
+     */
+    static long parseSize(String size) {
+        if (StringUtils.isBlank(size)) {
+            return 0;
+        }
+        size = size.trim().toUpperCase();
+        long multiplier = 1;
+        switch (size.charAt(size.length() - 1)) {
+            case 'K':
+                multiplier = FileUtils.ONE_KB;
+                break;
+            case 'M':
+                multiplier = FileUtils.ONE_MB;
+                break;
+            case 'G':
+                multiplier = FileUtils.ONE_GB;
+                break;
+        }
+        if (multiplier > 1) {
+            size = size.substring(0, size.length() - 1);
+        }
+        try {
+            return Long.parseLong(size.trim()) * multiplier;
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid cache size {}", size);
+            return 0;
+        }
+    }
+}
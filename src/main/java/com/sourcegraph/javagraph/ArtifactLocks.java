@@ -0,0 +1,309 @@
+package com.sourcegraph.javagraph;
+
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive locks of shared artifact cache entries, one lock per cache key (for example, groupId:artifactId:version).
+ * Each lock guards its key both from threads of the current process and from other processes (by means of file lock
+ * in lock directory). Keys of a single request are acquired in sorted order. Thread that already holds some keys
+ * may acquire more of them: keys that sort after the ones held are waited for as usual, keys that would break
+ * the order are waited for no longer than a given timeout, so that two lock owners can never wait for each
+ * other forever. Lock file may be deleted by its owner, lock of deleted file is not taken into account
+ */
+class ArtifactLocks {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactLocks.class);
+
+    private static final String LOCK_EXTENSION = ".lock";
+
+    /**
+     * Interval to poll file lock with when it's acquired out of order
+     */
+    private static final long POLL_INTERVAL = 50;
+
+    private final Path dir;
+
+    /**
+     * Maximum time to wait for a lock acquired out of order, milliseconds
+     */
+    private final long outOfOrderTimeout;
+
+    /**
+     * Locks in use, key => lock. Lock is removed once nobody holds or waits for it
+     */
+    private final Map<String, KeyLock> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Keys held by current thread, key => number of acquisitions
+     */
+    private final ThreadLocal<NavigableMap<String, Integer>> held = ThreadLocal.withInitial(TreeMap::new);
+
+    /**
+     * @param dir               directory to keep lock files in
+     * @param outOfOrderTimeout maximum time to wait for a lock that is acquired out of order, milliseconds
+     */
+    ArtifactLocks(Path dir, long outOfOrderTimeout) {
+        this.dir = dir;
+        this.outOfOrderTimeout = outOfOrderTimeout;
+    }
+
+    /**
+     * Acquires locks of given keys, waits if needed
+     *
+     * @param keys cache keys to lock
+     * @return handle that releases acquired locks when closed
+     * @throws IOException if lock can't be acquired, including timeout of out of order acquisition
+     */
+    Closeable lock(Collection<String> keys) throws IOException {
+        Deque<String> acquired = new ArrayDeque<>();
+        NavigableMap<String, Integer> heldKeys = held.get();
+        try {
+            for (String key : new TreeSet<>(keys)) {
+                boolean ordered = heldKeys.isEmpty() ||
+                        heldKeys.containsKey(key) ||
+                        key.compareTo(heldKeys.lastKey()) > 0;
+                if (!acquire(key, ordered ? -1 : outOfOrderTimeout)) {
+                    throw new IOException("Timed out waiting for lock of " + key + " while holding " +
+                            heldKeys.keySet());
+                }
+                acquired.push(key);
+            }
+        } catch (IOException e) {
+            release(acquired);
+            throw e;
+        }
+        return () -> release(acquired);
+    }
+
+    /**
+     * Acquires lock of a given key if nobody holds it
+     *
+     * @param key cache key to lock
+     * @return handle that releases lock when closed, null if key is locked by another thread or process
+     * @throws IOException
+     */
+    Closeable tryLock(String key) throws IOException {
+        if (!acquire(key, 0)) {
+            return null;
+        }
+        return () -> release(new ArrayDeque<>(Collections.singleton(key)));
+    }
+
+    /**
+     * Acquires lock of a given key
+     *
+     * @param key     key to lock
+     * @param timeout maximum time to wait in milliseconds, negative value means no limit
+     * @return true if lock was acquired
+     * @throws IOException
+     */
+    private boolean acquire(String key, long timeout) throws IOException {
+        KeyLock lock = locks.compute(key, (k, v) -> {
+            if (v == null) {
+                v = new KeyLock(getFile(k));
+            }
+            v.users++;
+            return v;
+        });
+        boolean ok = false;
+        try {
+            ok = lock.acquire(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for lock of " + key, e);
+        } finally {
+            if (!ok) {
+                unuse(key);
+            }
+        }
+        if (ok) {
+            held.get().merge(key, 1, Integer::sum);
+        }
+        return ok;
+    }
+
+    /**
+     * Deletes lock file of a given key. Should be called by thread that holds the key, before releasing it:
+     * whoever waits for the deleted file, takes lock of a new one instead
+     *
+     * @param key cache key
+     */
+    void delete(String key) {
+        Path file = getFile(key);
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.debug("Unable to delete lock file {}", file, e);
+        }
+    }
+
+    /**
+     * Releases keys in order they are listed
+     *
+     * @param keys keys to release, last acquired first
+     */
+    private void release(Deque<String> keys) {
+        NavigableMap<String, Integer> heldKeys = held.get();
+        while (!keys.isEmpty()) {
+            String key = keys.pop();
+            heldKeys.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+            KeyLock lock = locks.get(key);
+            if (lock != null) {
+                lock.release();
+                unuse(key);
+            }
+        }
+    }
+
+    /**
+     * Forgets lock of a given key if nobody holds or waits for it
+     *
+     * @param key lock key
+     */
+    private void unuse(String key) {
+        locks.computeIfPresent(key, (k, v) -> --v.users == 0 ? null : v);
+    }
+
+    /**
+     * @param key cache key
+     * @return lock file of a given key
+     */
+    private Path getFile(String key) {
+        String hash = Hashing.sha1().hashString(key, StandardCharsets.UTF_8).toString();
+        return dir.resolve(hash.substring(0, 2)).resolve(hash + LOCK_EXTENSION);
+    }
+
+    /**
+     * Lock of a single key, combines lock for threads of the current process with file lock for other processes
+     */
+    private static final class KeyLock {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Path file;
+        private FileChannel channel;
+        private FileLock fileLock;
+
+        /**
+         * Number of threads that hold or wait for the lock, guarded by lock map
+         */
+        private int users;
+
+        KeyLock(Path file) {
+            this.file = file;
+        }
+
+        /**
+         * Acquires lock, file lock is taken only by the outermost acquisition of the owning thread
+         *
+         * @param timeout maximum time to wait in milliseconds, negative value means no limit
+         * @return true if lock was acquired
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        boolean acquire(long timeout) throws IOException, InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            if (timeout < 0) {
+                lock.lock();
+            } else if (!lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            if (lock.getHoldCount() > 1) {
+                return true;
+            }
+            try {
+                while (true) {
+                    Files.createDirectories(file.getParent());
+                    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    Object fileKey = getFileKey();
+                    if (timeout < 0) {
+                        fileLock = channel.lock();
+                    } else {
+                        while ((fileLock = channel.tryLock()) == null) {
+                            if (System.currentTimeMillis() >= deadline) {
+                                close();
+                                lock.unlock();
+                                return false;
+                            }
+                            Thread.sleep(POLL_INTERVAL);
+                        }
+                    }
+                    // lock file might be deleted (see ArtifactLocks.delete) while we were waiting for it,
+                    // taking lock of the new file then
+                    if (isCurrent(fileKey)) {
+                        return true;
+                    }
+                    fileLock.release();
+                    close();
+                }
+            } catch (IOException | OverlappingFileLockException | InterruptedException e) {
+                close();
+                lock.unlock();
+                if (e instanceof OverlappingFileLockException) {
+                    throw new IOException("Lock file " + file + " is already locked by this process", e);
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * @return file key (for example, inode) of lock file, null if unknown
+         */
+        private Object getFileKey() {
+            try {
+                return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @param fileKey file key of lock file taken when it was opened, null if unknown
+         * @return true if lock file still exists and is the one opened
+         */
+        private boolean isCurrent(Object fileKey) {
+            if (!Files.exists(file)) {
+                return false;
+            }
+            return fileKey == null || fileKey.equals(getFileKey());
+        }
+
+        /**
+         * Releases lock, file lock is released by the outermost acquisition of the owning thread
+         */
+        void release() {
+            if (lock.getHoldCount() == 1) {
+                try {
+                    fileLock.release();
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to release lock {}", file, e);
+                }
+                close();
+            }
+            lock.unlock();
+        }
+
+        private void close() {
+            IOUtils.closeQuietly(channel);
+            fileLock = null;
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.sourcegraph.javagraph;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SyncContext;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.impl.SyncContextFactory;
+import org.eclipse.aether.metadata.Metadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+
+/**
+ * Synchronizes access to artifacts and metadata of shared Maven repository, relies on per-artifact locks
+ * provided by {@link ArtifactCache}
+ */
+public class ArtifactSyncContextFactory implements SyncContextFactory {
+
+    @Override
+    public SyncContext newInstance(RepositorySystemSession session, boolean shared) {
+        return new ArtifactSyncContext();
+    }
+
+    /**
+     * Holds locks acquired by Aether until context is closed
+     */
+    private static class ArtifactSyncContext implements SyncContext {
+
+        private final Deque<Closeable> locks = new ArrayDeque<>();
+
+        @Override
+        public void acquire(Collection<? extends Artifact> artifacts, Collection<? extends Metadata> metadatas) {
+            Collection<String> keys = new HashSet<>();
+            if (artifacts != null) {
+                for (Artifact artifact : artifacts) {
+                    keys.add(artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' +
+                            artifact.getBaseVersion());
+                }
+            }
+            if (metadatas != null) {
+                for (Metadata metadata : metadatas) {
+                    keys.add(getKey(metadata));
+                }
+            }
+            try {
+                locks.push(ArtifactCache.lock(keys));
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to lock shared artifact cache", e);
+            }
+        }
+
+        /**
+         * @param metadata repository metadata
+         * @return key of metadata, version-level metadata shares key with artifacts of the same version
+         */
+        private static String getKey(Metadata metadata) {
+            StringBuilder key = new StringBuilder(metadata.getGroupId());
+            if (!metadata.getArtifactId().isEmpty()) {
+                key.append(':').append(metadata.getArtifactId());
+                if (!metadata.getVersion().isEmpty()) {
+                    key.append(':').append(metadata.getVersion());
+                }
+            }
+            return key.toString();
+        }
+
+        @Override
+        public void close() {
+            while (!locks.isEmpty()) {
+                try {
+                    locks.pop().close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -1,19 +1,27 @@
 package com.sourcegraph.javagraph;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
-import org.codehaus.plexus.util.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Extracts build meta information from source unit build file (pom.xml or .gradle)
@@ -192,9 +200,50 @@ public class BuildAnalysis {
 
         private static final String REPO_DIR = ".gradle-srclib";
 
+        /**
+         * Gradle user home sub-directory that keeps project cache directories, one per build file
+         */
+        private static final String PROJECT_CACHE_DIR = "srclib-project-cache";
+
+        /**
+         * Project cache directories not used for that long are removed, milliseconds
+         */
+        private static final long PROJECT_CACHE_MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+        /**
+         * Prefix of warnings reported by init script
+         */
+        private static final String WARNING_PREFIX = "SRCLIB-WARNING";
+
+        /**
+         * Tells if Gradle daemon should be used
+         */
+        private static boolean daemon;
+
+        /**
+         * Init script extracted from resources, shared by all Gradle invocations made by the current process
+         */
+        private static Path initScript;
+
+        /**
+         * Tells if stale project cache directories were already removed by the current process
+         */
+        private static boolean projectCacheCleaned;
+
         private Gradle() {
         }
 
+        /**
+         * Enables or disables use of Gradle daemon. When enabled, each Gradle version starts a daemon once and then
+         * reuses it for every build file of the current scan and for subsequent scans, so that Gradle startup and
+         * build script compilation costs are paid only once
+         *
+         * @param daemon true to use Gradle daemon
+         */
+        public static void setDaemon(boolean daemon) {
+            Gradle.daemon = daemon;
+        }
+
         /**
          * Collects meta information from a gradle build file
          *
@@ -205,19 +254,11 @@ public class BuildAnalysis {
          * @throws IOException
          */
         public static BuildInfo[] collectMetaInformation(Path wrapper, Path build) throws IOException {
-            Path modifiedGradleScriptFile = Files.createTempFile("srclib-collect-meta", "gradle");
-            Path gradleCacheDir = Files.createTempDirectory("gradle-cache");
+            Path modifiedGradleScriptFile = getInitScript();
+            Path gradleCacheDir = getProjectCacheDir(build);
+            Path metaDir = Files.createTempDirectory("srclib-gradle-meta");
 
             try {
-                InputStream inputStream = Gradle.class.getResourceAsStream(TASK_CODE_RESOURCE);
-                OutputStream outputStream = new FileOutputStream(modifiedGradleScriptFile.toString(), false);
-                try {
-                    IOUtils.copy(inputStream, outputStream);
-                } finally {
-                    IOUtils.closeQuietly(inputStream);
-                    IOUtils.closeQuietly(outputStream);
-                }
-
                 String wrapperPath = "INTERNAL_ERROR";
                 if (wrapper != null) {
                     wrapperPath = wrapper.toAbsolutePath().toString();
@@ -232,6 +273,11 @@ public class BuildAnalysis {
                 gradleArgs.add(gradleCacheDir.toString());
                 // disabling parallel builds
                 gradleArgs.add("-Dorg.gradle.parallel=false");
+                // init script writes meta information files there
+                gradleArgs.add("-Dsrclib.metaDir=" + metaDir.toAbsolutePath());
+                if (daemon) {
+                    gradleArgs.add("--daemon");
+                }
                 // turning off Gradle version check
                 // see https://discuss.gradle.org/t/gradle-thinks-2-10-is-less-than-2-2-when-resolving-plugins/13434/3
                 // it blocks indexing of github.com/facebook/react-native for example
@@ -265,8 +311,7 @@ public class BuildAnalysis {
                 pb.directory(new File(workDir.toString()));
                 pb.redirectErrorStream(true);
                 BufferedReader in = null;
-                Collection<BuildInfo> results = new ArrayList<>();
-                BuildInfo info = null;
+                boolean failed = false;
 
                 try {
                     Process process = pb.start();
@@ -277,176 +322,294 @@ public class BuildAnalysis {
                     while ((line = in.readLine()) != null) {
                         if ("BUILD FAILED".equals(line)) {
                             LOGGER.error("Failed to process {} - gradle build failed. Output was: {}", build, output);
-                            results.clear();
+                            failed = true;
                             break;
                         }
-                        String meta[] = parseMeta(line);
-                        if (meta == null) {
+                        if (line.startsWith(WARNING_PREFIX)) {
+                            LOGGER.warn("gradle: {}", line.substring(WARNING_PREFIX.length()).trim());
+                        } else {
                             LOGGER.debug("gradle: {}", line);
-                            continue;
-                        }
-                        String prefix = meta[0];
-                        String payload = meta[1];
-                        switch (prefix) {
-                            case "SRCLIB-ARTIFACT":
-                                info = new BuildInfo();
-                                results.add(info);
-                                info.attrs.artifactID = payload;
-                                break;
-                            case "SRCLIB-GROUP":
-                                if (info == null) {
-                                    continue;
-                                }
-                                info.attrs.groupID = POMAttrs.groupId(payload);
-                                break;
-                            case "SRCLIB-DEPENDENCY":
-                                if (info == null) {
-                                    continue;
-                                }
-                                String[] parts = payload.split(":", 5);
-                                info.dependencies.add(new RawDependency(
-                                        POMAttrs.groupId(parts[1]), // GroupID
-                                        parts[2], // ArtifactID
-                                        parts[3], // Version
-                                        parts[0], // Scope
-                                        parts.length > 4 ? parts[4] : null // file
-                                ));
-                                break;
-                            case "SRCLIB-DESCRIPTION":
-                                if (info == null) {
-                                    continue;
-                                }
-                                info.attrs.description = payload;
-                                break;
-                            case "SRCLIB-VERSION":
-                                if (info == null) {
-                                    continue;
-                                }
-                                info.version = payload;
-                                break;
-                            case "SRCLIB-CLASSPATH":
-                                if (info == null) {
-                                    continue;
-                                }
-                                for (String path : payload.split(SystemUtils.PATH_SEPARATOR)) {
-                                    if (!StringUtils.isEmpty(path)) {
-                                        info.classPath.add(path);
-                                    }
-                                }
-                                break;
-                            case "SRCLIB-BOOTCLASSPATH":
-                                if (info == null) {
-                                    continue;
-                                }
-                                for (String path : payload.split(SystemUtils.PATH_SEPARATOR)) {
-                                    if (!StringUtils.isEmpty(path)) {
-                                        info.bootClassPath.add(path);
-                                    }
-                                }
-                                break;
-                            case "SRCLIB-SOURCEFILE":
-                                if (info == null) {
-                                    continue;
-                                }
-                                File file = PathUtil.CWD.resolve(payload).toFile();
-                                if (file.isFile()) {
-                                    info.sources.add(file.getAbsolutePath());
-                                }
-                                break;
-                            case "SRCLIB-SOURCEDIR":
-                                if (info == null) {
-                                    continue;
-                                }
-                                String tokens[] = payload.split(":", 4);
-                                String unitName = POMAttrs.groupId(tokens[0]) + '/' + tokens[1];
-                                info.sourceDirs.add(new SourcePathElement(unitName, tokens[2], tokens[3]));
-                                break;
-                            case "SRCLIB-SOURCEVERSION":
-                                if (info == null) {
-                                    continue;
-                                }
-                                if (info.sourceVersion == null || info.sourceVersion.compareTo(payload) < 0) {
-                                    info.sourceVersion = payload;
-                                }
-                                break;
-                            case "SRCLIB-PROJECTDIR":
-                                if (info == null) {
-                                    continue;
-                                }
-                                info.projectDir = payload;
-                                break;
-                            case "SRCLIB-ROOTDIR":
-                                if (info == null) {
-                                    continue;
-                                }
-                                info.rootDir = payload;
-                                break;
-                            case "SRCLIB-ENCODING":
-                                if (info == null) {
-                                    continue;
-                                }
-                                info.sourceEncoding = payload;
-                                break;
-                            case "SRCLIB-PROJECTDEPENDENCY":
-                                if (info == null) {
-                                    continue;
-                                }
-                                String depTokens[] = payload.split(":", 3);
-                                info.projectDependencies.add(new ProjectDependency(POMAttrs.groupId(depTokens[0]),
-                                        depTokens[1],
-                                        depTokens[2]));
-                                break;
-                            case "SRCLIB-GRADLEFILE":
-                                if (info == null) {
-                                    continue;
-                                }
-                                info.buildFile = payload;
-                                break;
-                            case "SRCLIB-ANDROID-SDK":
-                                if (info == null) {
-                                    continue;
-                                }
-                                info.androidSdk = payload;
-                                break;
-                            case "SRCLIB-WARNING":
-                                LOGGER.warn("gradle: {}", payload);
-                                break;
-                            default:
-                                LOGGER.debug("gradle: {}", line);
-                                output.append(line).append(IOUtils.LINE_SEPARATOR);
+                            output.append(line).append(IOUtils.LINE_SEPARATOR);
                         }
                     }
+                    if (failed) {
+                        process.destroy();
+                    } else {
+                        process.waitFor();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
                 } finally {
                     IOUtils.closeQuietly(in);
                 }
 
-                return results.toArray(new BuildInfo[results.size()]);
+                if (failed) {
+                    return new BuildInfo[0];
+                }
+                return readMetaInformation(metaDir);
             } finally {
-                FileUtils.deleteDirectory(gradleCacheDir.toString());
-                Files.deleteIfExists(modifiedGradleScriptFile);
+                FileUtils.deleteQuietly(metaDir.toFile());
             }
         }
 
         /**
-         * @return Gradle user home to be used.
-         * ~/.gradle-srclib
+         * Reads meta information files produced by init script, one file per Gradle project
+         *
+         * @param metaDir directory with meta information files
+         * @return build info objects in the order of project paths
+         * @throws IOException
          */
-        private static String getGradleUserHome() {
-            return new File(PathUtil.CWD.toFile(), REPO_DIR).getAbsolutePath();
+        private static BuildInfo[] readMetaInformation(Path metaDir) throws IOException {
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(metaDir)) {
+                files = stream.sorted().collect(Collectors.toList());
+            }
+            Collection<BuildInfo> results = new ArrayList<>();
+            Collection<String> sources = new ArrayList<>();
+            for (Path file : files) {
+                try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+                    results.add(readBuildInfo(reader, sources));
+                }
+            }
+            // checking source files existence in bulk, listing each directory only once
+            Collection<String> existing = PathUtil.filterExistingFiles(sources);
+            for (BuildInfo info : results) {
+                info.sources.retainAll(existing);
+            }
+            return results.toArray(new BuildInfo[results.size()]);
         }
 
         /**
-         * Parses metadata line, expected format is PREFIX-SPACE-CONTENT
+         * Reads single project's meta information object
          *
-         * @param line line to parse
-         * @return two-elements array, where first item is a prefix and second item is content
+         * @param reader  JSON reader positioned at the beginning of object
+         * @param sources collects source files of all projects, their existence is checked later
+         * @return build info object
+         * @throws IOException
          */
-        private static String[] parseMeta(String line) {
-            int idx = line.indexOf(' ');
-            if (-1 == idx)
+        private static BuildInfo readBuildInfo(JsonReader reader, Collection<String> sources) throws IOException {
+            BuildInfo info = new BuildInfo();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "artifact":
+                        info.attrs.artifactID = nextString(reader);
+                        break;
+                    case "group":
+                        info.attrs.groupID = POMAttrs.groupId(nextString(reader));
+                        break;
+                    case "description":
+                        info.attrs.description = nextString(reader);
+                        break;
+                    case "version":
+                        info.version = nextString(reader);
+                        break;
+                    case "dependencies":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            Map<String, String> dependency = readObject(reader);
+                            info.dependencies.add(new RawDependency(
+                                    POMAttrs.groupId(dependency.get("group")),
+                                    dependency.get("name"),
+                                    dependency.get("version"),
+                                    dependency.get("scope"),
+                                    dependency.get("file")
+                            ));
+                        }
+                        reader.endArray();
+                        break;
+                    case "classPath":
+                        readArray(reader, info.classPath);
+                        break;
+                    case "bootClassPath":
+                        readArray(reader, info.bootClassPath);
+                        break;
+                    case "sourceFiles":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            String source = PathUtil.CWD.resolve(reader.nextString()).toAbsolutePath().toString();
+                            info.sources.add(source);
+                            sources.add(source);
+                        }
+                        reader.endArray();
+                        break;
+                    case "sourceDirs":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            Map<String, String> dir = readObject(reader);
+                            String unitName = POMAttrs.groupId(dir.get("group")) + '/' + dir.get("name");
+                            info.sourceDirs.add(new SourcePathElement(unitName, dir.get("version"), dir.get("dir")));
+                        }
+                        reader.endArray();
+                        break;
+                    case "sourceVersion":
+                        String sourceVersion = nextString(reader);
+                        if (info.sourceVersion == null || info.sourceVersion.compareTo(sourceVersion) < 0) {
+                            info.sourceVersion = sourceVersion;
+                        }
+                        break;
+                    case "projectDir":
+                        info.projectDir = nextString(reader);
+                        break;
+                    case "rootDir":
+                        info.rootDir = nextString(reader);
+                        break;
+                    case "encoding":
+                        info.sourceEncoding = nextString(reader);
+                        break;
+                    case "projectDependencies":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            Map<String, String> dependency = readObject(reader);
+                            info.projectDependencies.add(new ProjectDependency(
+                                    POMAttrs.groupId(dependency.get("name")),
+                                    dependency.get("group"),
+                                    dependency.get("buildFile")));
+                        }
+                        reader.endArray();
+                        break;
+                    case "buildFile":
+                        info.buildFile = nextString(reader);
+                        break;
+                    case "androidSdk":
+                        info.androidSdk = nextString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return info;
+        }
+
+        /**
+         * Reads flat object that maps names to strings
+         *
+         * @param reader JSON reader positioned at the beginning of object
+         * @return map name => value, null values are kept as nulls
+         * @throws IOException
+         */
+        private static Map<String, String> readObject(JsonReader reader) throws IOException {
+            Map<String, String> ret = new HashMap<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                ret.put(reader.nextName(), nextString(reader));
+            }
+            reader.endObject();
+            return ret;
+        }
+
+        /**
+         * Reads array of non-empty strings
+         *
+         * @param reader JSON reader positioned at the beginning of array
+         * @param target collection to add strings to
+         * @throws IOException
+         */
+        private static void readArray(JsonReader reader, Collection<String> target) throws IOException {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String value = nextString(reader);
+                if (!StringUtils.isEmpty(value)) {
+                    target.add(value);
+                }
+            }
+            reader.endArray();
+        }
+
+        /**
+         * @param reader JSON reader
+         * @return next string value or null if next value is null
+         * @throws IOException
+         */
+        private static String nextString(JsonReader reader) throws IOException {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
                 return null;
-            return new String[]{line.substring(0, idx), line.substring(idx + 1).trim()};
+            }
+            return reader.nextString();
+        }
+
+        /**
+         * @return init script that collects meta information, extracts it from resources on first call
+         * @throws IOException
+         */
+        private static synchronized Path getInitScript() throws IOException {
+            if (initScript != null && Files.isRegularFile(initScript)) {
+                return initScript;
+            }
+            initScript = Files.createTempFile("srclib-collect-meta", "gradle");
+            initScript.toFile().deleteOnExit();
+            try (InputStream inputStream = Gradle.class.getResourceAsStream(TASK_CODE_RESOURCE)) {
+                Files.copy(inputStream, initScript, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return initScript;
         }
 
+        /**
+         * Project cache directory keeps compiled build scripts and other per-project Gradle state. Directories are
+         * kept in Gradle user home (instead of .gradle in the project directory) and survive between runs,
+         * each build file gets its own directory keyed by hash of build file location and content.
+         * Modification time of directory tells when it was used last, directories not used for 30 days are removed
+         * (once per process, see {@link #cleanProjectCacheDirs(Path, long)})
+         *
+         * @param build path to build file
+         * @return project cache directory to use for a given build file
+         * @throws IOException
+         */
+        private static Path getProjectCacheDir(Path build) throws IOException {
+            Hasher hasher = Hashing.sha1().newHasher();
+            Path path = build.toAbsolutePath().normalize();
+            hasher.putString(path.toString(), StandardCharsets.UTF_8);
+            if (Files.isRegularFile(path)) {
+                hasher.putBytes(Files.readAllBytes(path));
+            }
+            Path root = Paths.get(getGradleUserHome(), PROJECT_CACHE_DIR);
+            Path ret = root.resolve(hasher.hash().toString());
+            Files.createDirectories(ret);
+            Files.setLastModifiedTime(ret, FileTime.fromMillis(System.currentTimeMillis()));
+            synchronized (Gradle.class) {
+                if (!projectCacheCleaned) {
+                    projectCacheCleaned = true;
+                    cleanProjectCacheDirs(root, System.currentTimeMillis() - PROJECT_CACHE_MAX_AGE);
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Removes project cache directories that were not used since a given time. Directory in use is touched
+         * right before Gradle starts, so only directories of build files that were changed or removed long ago
+         * (or not scanned for a long time) go away
+         *
+         * @param root       directory that keeps project cache directories
+         * @param usedBefore directories modified before this time (milliseconds since epoch) are removed
+         */
+        static void cleanProjectCacheDirs(Path root, long usedBefore) {
+            File[] dirs = root.toFile().listFiles(File::isDirectory);
+            if (dirs == null) {
+                return;
+            }
+            for (File dir : dirs) {
+                if (dir.lastModified() < usedBefore) {
+                    LOGGER.debug("Removing stale Gradle project cache directory {}", dir);
+                    FileUtils.deleteQuietly(dir);
+                }
+            }
+        }
+
+        /**
+         * @return Gradle user home to be used.
+         * ~/.gradle-srclib or shared one if configured
+         */
+        private static String getGradleUserHome() {
+            Path shared = ArtifactCache.getGradleUserHome();
+            if (shared != null) {
+                return shared.toString();
+            }
+            return new File(PathUtil.CWD.toFile(), REPO_DIR).getAbsolutePath();
+        }
     }
 }
@@ -0,0 +1,280 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Location;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelperRepository;
+import org.apache.tools.ant.helper.AntXMLContext;
+import org.apache.tools.ant.helper.ProjectHelper2;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.resources.FileProvider;
+import org.apache.tools.ant.util.FileUtils;
+import org.xml.sax.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ant project helper that parses each imported build file only once. Many build.xml files usually import the same
+ * common build files, instead of parsing them again and again helper records SAX events produced by parser
+ * for the first time and then replays them (with the same locations) for every project that imports given file.
+ * Evaluation of imported files (targets, macros and so on) still happens per project, because Ant binds
+ * them to the project being configured
+ */
+public class CachingProjectHelper extends ProjectHelper2 {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingProjectHelper.class);
+
+    private static final FileUtils FILE_UTILS = FileUtils.getFileUtils();
+
+    /**
+     * Project reference that holds parsing context, ProjectHelper2 keeps it private
+     */
+    private static final String REFID_CONTEXT = "ant.parsing.context";
+
+    /**
+     * Recorded SAX events of imported build files, keyed by file location, size and modification time
+     */
+    private static final Map<String, List<Event>> cache = new ConcurrentHashMap<>();
+
+    /**
+     * All local build files parsed since the last {@link #reset()}, both main and imported ones
+     */
+    private static final Set<File> parsedFiles = ConcurrentHashMap.newKeySet();
+
+    private static boolean registered;
+
+    /**
+     * Registers helper in Ant's helpers repository (imported files are parsed by helpers provided by repository),
+     * should be called before any project is configured
+     */
+    static synchronized void register() {
+        if (!registered) {
+            ProjectHelperRepository.getInstance().registerProjectHelper(CachingProjectHelper.class);
+            registered = true;
+        }
+    }
+
+    /**
+     * Forgets build files parsed by the previous scan, recorded events are kept (they are keyed by file size
+     * and modification time)
+     */
+    static void reset() {
+        parsedFiles.clear();
+    }
+
+    /**
+     * @return all local build files parsed since the last {@link #reset()}, both main and imported ones
+     */
+    static Collection<File> getParsedFiles() {
+        return Collections.unmodifiableSet(parsedFiles);
+    }
+
+    @Override
+    public void parse(Project project, Object source, RootHandler handler) throws BuildException {
+        File buildFile = getFile(source);
+        if (buildFile != null) {
+            parsedFiles.add(FILE_UTILS.normalize(buildFile.getAbsolutePath()));
+        }
+        if (buildFile == null || getImportStack().size() < 2) {
+            // main build file is parsed only once anyway
+            super.parse(project, source, handler);
+            return;
+        }
+        buildFile = FILE_UTILS.normalize(buildFile.getAbsolutePath());
+        String key = buildFile + ":" + buildFile.length() + ":" + buildFile.lastModified();
+        List<Event> events = cache.get(key);
+        if (events == null) {
+            AntXMLContext context = (AntXMLContext) project.getReference(REFID_CONTEXT);
+            RecordingHandler recorder = new RecordingHandler(context, handler);
+            super.parse(project, source, recorder);
+            cache.put(key, Collections.unmodifiableList(recorder.events));
+            return;
+        }
+
+        LOGGER.debug("Using cached parse results of {}", buildFile);
+        AntXMLContext context = (AntXMLContext) project.getReference(REFID_CONTEXT);
+        context.setBuildFile(buildFile);
+        ReplayLocator locator = new ReplayLocator(FILE_UTILS.toURI(buildFile.getAbsolutePath()));
+        handler.setDocumentLocator(locator);
+        try {
+            for (Event event : events) {
+                locator.line = event.line;
+                locator.column = event.column;
+                event.action.replay(handler);
+            }
+        } catch (SAXParseException e) {
+            Location location = new Location(e.getSystemId(), e.getLineNumber(), e.getColumnNumber());
+            Throwable t = e.getException();
+            if (t instanceof BuildException) {
+                BuildException be = (BuildException) t;
+                if (be.getLocation() == Location.UNKNOWN_LOCATION) {
+                    be.setLocation(location);
+                }
+                throw be;
+            }
+            throw new BuildException(e.getMessage(), t == null ? e : t, location);
+        } catch (SAXException e) {
+            Throwable t = e.getException();
+            if (t instanceof BuildException) {
+                throw (BuildException) t;
+            }
+            throw new BuildException(e.getMessage(), t == null ? e : t);
+        }
+    }
+
+    /**
+     * @param source build file source
+     * @return local file denoted by source or null if source is not a local file
+     */
+    private static File getFile(Object source) {
+        if (source instanceof File) {
+            return (File) source;
+        }
+        if (source instanceof Resource) {
+            FileProvider fp = ((Resource) source).as(FileProvider.class);
+            if (fp != null) {
+                return fp.getFile();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Single SAX event replayed to handler
+     */
+    private interface SaxAction {
+        void replay(RootHandler handler) throws SAXException;
+    }
+
+    /**
+     * SAX event and location in source document where it was produced
+     */
+    private static class Event {
+
+        private final int line;
+        private final int column;
+        private final SaxAction action;
+
+        Event(Locator locator, SaxAction action) {
+            this.line = locator == null ? 0 : locator.getLineNumber();
+            this.column = locator == null ? 0 : locator.getColumnNumber();
+            this.action = action;
+        }
+    }
+
+    /**
+     * Root handler that passes SAX events to the original one and records them
+     */
+    private static class RecordingHandler extends RootHandler {
+
+        private final RootHandler delegate;
+
+        private final List<Event> events = new ArrayList<>();
+
+        private Locator locator;
+
+        RecordingHandler(AntXMLContext context, RootHandler delegate) {
+            super(context, getMainHandler());
+            this.delegate = delegate;
+        }
+
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) {
+            return delegate.resolveEntity(publicId, systemId);
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+            delegate.setDocumentLocator(locator);
+        }
+
+        @Override
+        public void startDocument() throws SAXException {
+            record(RootHandler::startDocument);
+            delegate.startDocument();
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            record(RootHandler::endDocument);
+            delegate.endDocument();
+        }
+
+        @Override
+        public void startElement(String uri, String tag, String qname, Attributes attrs) throws SAXParseException {
+            AttributesImpl copy = new AttributesImpl(attrs);
+            record(handler -> handler.startElement(uri, tag, qname, copy));
+            delegate.startElement(uri, tag, qname, attrs);
+        }
+
+        @Override
+        public void endElement(String uri, String name, String qName) throws SAXException {
+            record(handler -> handler.endElement(uri, name, qName));
+            delegate.endElement(uri, name, qName);
+        }
+
+        @Override
+        public void characters(char[] buf, int start, int count) throws SAXParseException {
+            char copy[] = new char[count];
+            System.arraycopy(buf, start, copy, 0, count);
+            record(handler -> handler.characters(copy, 0, copy.length));
+            delegate.characters(buf, start, count);
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            record(handler -> handler.startPrefixMapping(prefix, uri));
+            delegate.startPrefixMapping(prefix, uri);
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) {
+            record(handler -> handler.endPrefixMapping(prefix));
+            delegate.endPrefixMapping(prefix);
+        }
+
+        private void record(SaxAction action) {
+            events.add(new Event(locator, action));
+        }
+    }
+
+    /**
+     * Locator that reports location of the event being replayed
+     */
+    private static class ReplayLocator implements Locator {
+
+        private final String systemId;
+        private int line;
+        private int column;
+
+        ReplayLocator(String systemId) {
+            this.systemId = systemId;
+        }
+
+        @Override
+        public String getPublicId() {
+            return null;
+        }
+
+        @Override
+        public String getSystemId() {
+            return systemId;
+        }
+
+        @Override
+        public int getLineNumber() {
+            return line;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return column;
+        }
+    }
+}
@@ -74,6 +74,104 @@ public class Def {
         this.unitType = unitType;
     }
 
+    /**
+     * @return definition key
+     */
+    public DefKey getDefKey() {
+        return defKey;
+    }
+
+    /**
+     * @return element kind, for example "CLASS" or "METHOD"
+     */
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     * @return definition name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return source file
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @return ident start offset
+     */
+    public int getIdentStart() {
+        return identStart;
+    }
+
+    /**
+     * @return ident end offset
+     */
+    public int getIdentEnd() {
+        return identEnd;
+    }
+
+    /**
+     * @return definition start offset
+     */
+    public int getDefStart() {
+        return defStart;
+    }
+
+    /**
+     * @return definition end offset
+     */
+    public int getDefEnd() {
+        return defEnd;
+    }
+
+    /**
+     * @return modifiers, may be null
+     */
+    public List<String> getModifiers() {
+        return modifiers;
+    }
+
+    /**
+     * @return package name
+     */
+    public String getPackage() {
+        return pkg;
+    }
+
+    /**
+     * @return doc comment, may be null
+     */
+    public String getDoc() {
+        return doc;
+    }
+
+    /**
+     * @return type expression, may be null
+     */
+    public String getTypeExpr() {
+        return typeExpr;
+    }
+
+    /**
+     * @return source unit name
+     */
+    public String getUnitName() {
+        return unitName;
+    }
+
+    /**
+     * @return source unit type
+     */
+    public String getUnitType() {
+        return unitType;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -119,7 +217,8 @@ public class Def {
     }
 
     /**
-     * JSON serialization rules for definition objects
+     * JSON serialization rules for definition objects. File path is written as is, graph context makes it relative
+     * to unit's working directory before definition leaves grapher
      */
     static class JSONSerializer implements JsonSerializer<Def> {
 
@@ -128,7 +227,7 @@ public class Def {
             JsonObject object = new JsonObject();
 
             if (sym.file != null) {
-                object.add("File", new JsonPrimitive(PathUtil.relativizeCwd(sym.file)));
+                object.add("File", new JsonPrimitive(sym.file));
             }
 
             object.add("Name", new JsonPrimitive(sym.name));
@@ -13,6 +13,7 @@ import java.io.Reader;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.List;
 
 public class DepresolveCommand {
 
@@ -42,6 +43,15 @@ public class DepresolveCommand {
         } finally {
             IOUtils.closeQuietly(r);
         }
+        JSONUtil.writeJSON(resolve(unit));
+    }
+
+    /**
+     * Resolves dependencies of a given source unit
+     * @param unit source unit to resolve dependencies of
+     * @return resolved dependencies, including implicit ones (JDK, Android)
+     */
+    List<DepResolution> resolve(SourceUnit unit) {
         LOGGER.info("Resolving dependencies of {}", unit.Name);
 
         Project project = unit.getProject();
@@ -80,8 +90,7 @@ public class DepresolveCommand {
                 resolutions.add(new DepResolution(null, ResolvedTarget.jdk()));
             }
         }
-
-        JSONUtil.writeJSON(resolutions);
+        return resolutions;
     }
 
 }
@@ -0,0 +1,398 @@
+package com.sourcegraph.javagraph;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.json.JSONObject;
+import org.json.XML;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maven's POM data embedded into source unit. Holds parsed Maven model and converts it into JSON only when source unit
+ * is being written, so POM file is neither re-read from disk nor kept in memory as a JSON tree.
+ * <p>
+ * Embedded POM is written only: source units srclib sends back to graph and depresolve commands do not need it, so
+ * its JSON is skipped when source unit is read (see {@link Adapter})
+ */
+@JsonAdapter(EmbeddedPOM.Adapter.class)
+public class EmbeddedPOM {
+
+    private static final String PROJECT = "project";
+
+    private static final String CONTENT = "content";
+
+    /**
+     * Attributes {@link MavenXpp3Writer} sets on project element
+     */
+    private static final Map<String, String> PROJECT_ATTRIBUTES = new LinkedHashMap<>();
+
+    static {
+        PROJECT_ATTRIBUTES.put("xsi:schemaLocation",
+                "http://maven.apache.org/POM/4.0.0 http://maven.apache.org/xsd/maven-4.0.0.xsd");
+        PROJECT_ATTRIBUTES.put("xmlns", "http://maven.apache.org/POM/4.0.0");
+        PROJECT_ATTRIBUTES.put("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
+    }
+
+    /**
+     * Order in which {@link MavenXpp3Writer} writes top-level elements, it mixes fields of model and its superclass.
+     * Other model objects are written own fields first
+     */
+    private static final List<String> PROJECT_ELEMENTS = Arrays.asList(
+            "modelVersion", "parent", "groupId", "artifactId", "version", "packaging", "name", "description", "url",
+            "inceptionYear", "organization", "licenses", "developers", "contributors", "mailingLists",
+            "prerequisites", "modules", "scm", "issueManagement", "ciManagement", "distributionManagement",
+            "properties", "dependencyManagement", "dependencies", "repositories", "pluginRepositories", "build",
+            "reports", "reporting", "profiles");
+
+    /**
+     * Model fields {@link MavenXpp3Writer} does not write, in addition to fields of {@link File} and {@link Map} types
+     * (source locations and lookup caches)
+     */
+    private static final Collection<String> SKIPPED_FIELDS = new HashSet<>(Arrays.asList(
+            "Model.modelEncoding",
+            "ConfigurationContainer.inheritanceApplied",
+            "Plugin.key",
+            "PluginExecution.priority",
+            "Profile.source",
+            "Resource.mergeId"));
+
+    /**
+     * Maps model class to its fields that form POM elements, own fields first
+     */
+    private static final Map<Class<?>, List<Field>> FIELDS = new ConcurrentHashMap<>();
+
+    /**
+     * Maps model class to its instance that holds default values, {@link MavenXpp3Writer} omits elements whose values
+     * are default ones
+     */
+    private static final Map<Class<?>, Object> DEFAULTS = new ConcurrentHashMap<>();
+
+    /**
+     * Parsed POM model
+     */
+    private transient Model model;
+
+    /**
+     * Top-level POM elements to include, null means all
+     */
+    private transient Collection<String> fields;
+
+    /**
+     * @param model parsed POM model
+     */
+    EmbeddedPOM(Model model) {
+        this.model = model;
+    }
+
+    /**
+     * @return parsed POM model
+     */
+    Model getModel() {
+        return model;
+    }
+
+    /**
+     * Limits the set of POM elements to be written
+     *
+     * @param fields top-level POM elements (such as groupId, scm, dependencies) to include, null means all
+     */
+    void setFields(Collection<String> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Writes POM model as JSON object, walking model objects directly: JSON matches the one
+     * {@link XML#toJSONObject(String)} makes of POM file {@link MavenXpp3Writer} writes. Repeated elements become
+     * arrays, element that has only text becomes value, attributes and text of other elements become keys.
+     * Top-level elements not selected are skipped without being converted, and only one top-level element
+     * is held in memory at a time
+     *
+     * @param out writer to write JSON object that contains single "project" key to
+     * @throws IOException
+     */
+    void write(JsonWriter out) throws IOException {
+        out.beginObject();
+        if (model == null) {
+            out.endObject();
+            return;
+        }
+        out.name(PROJECT);
+        out.beginObject();
+        for (Map.Entry<String, String> attribute : PROJECT_ATTRIBUTES.entrySet()) {
+            if (fields == null || fields.contains(attribute.getKey())) {
+                out.name(attribute.getKey());
+                writeValue(out, JSONObject.stringToValue(attribute.getValue()));
+            }
+        }
+        // top-level elements of model are never repeated
+        for (Field field : getFields(Model.class)) {
+            Object value = getValue(field, model);
+            if (value == null) {
+                continue;
+            }
+            String name = getName(field, value);
+            if (fields != null && !fields.contains(name)) {
+                continue;
+            }
+            value = toElement(value, field);
+            if (value != JSONObject.NULL) {
+                out.name(name);
+                writeValue(out, value);
+            }
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    /**
+     * @param field model field
+     * @param o     model object
+     * @return value of field to be written, null if element is omitted
+     * @throws IOException
+     */
+    private static Object getValue(Field field, Object o) throws IOException {
+        Object value;
+        Object defaultValue;
+        try {
+            value = field.get(o);
+            defaultValue = field.get(getDefaults(field.getDeclaringClass()));
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+        if (value == null || value.equals(defaultValue) ||
+                (value instanceof Collection && ((Collection<?>) value).isEmpty()) ||
+                (value instanceof Properties && ((Properties) value).isEmpty())) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * @param field model field
+     * @param value field value
+     * @return name of POM element that holds value
+     */
+    private static String getName(Field field, Object value) {
+        return value instanceof Xpp3Dom ? ((Xpp3Dom) value).getName() : field.getName();
+    }
+
+    /**
+     * Converts value of model field into element value
+     *
+     * @param value field value
+     * @param field model field, tells the names of list items
+     * @return element's value: object (name => values), text, or empty string
+     * @throws IOException
+     */
+    private static Object toElement(Object value, Field field) throws IOException {
+        if (value instanceof Xpp3Dom) {
+            return toElement((Xpp3Dom) value);
+        }
+        if (value instanceof Properties) {
+            Properties properties = (Properties) value;
+            Map<String, List<Object>> element = new LinkedHashMap<>();
+            for (String name : properties.stringPropertyNames()) {
+                accumulate(element, name, toText(properties.getProperty(name)));
+            }
+            return element;
+        }
+        if (value instanceof List) {
+            String itemName = getItemName(field.getName());
+            Map<String, List<Object>> element = new LinkedHashMap<>();
+            for (Object item : (List<?>) value) {
+                accumulate(element, itemName, item instanceof String ? toText((String) item) : toElement(item));
+            }
+            return element;
+        }
+        if (value instanceof String || value instanceof Boolean) {
+            return toText(String.valueOf(value));
+        }
+        return toElement(value);
+    }
+
+    /**
+     * @param o model object
+     * @return element's value: object (name => values) or empty string
+     * @throws IOException
+     */
+    private static Object toElement(Object o) throws IOException {
+        Map<String, List<Object>> element = new LinkedHashMap<>();
+        for (Field field : getFields(o.getClass())) {
+            Object value = getValue(field, o);
+            if (value != null) {
+                accumulate(element, getName(field, value), toElement(value, field));
+            }
+        }
+        return element.isEmpty() ? "" : element;
+    }
+
+    /**
+     * @param dom configuration element
+     * @return element's value: object (name => values), text, or empty string
+     */
+    private static Object toElement(Xpp3Dom dom) {
+        Map<String, List<Object>> element = new LinkedHashMap<>();
+        for (String name : dom.getAttributeNames()) {
+            accumulate(element, name, JSONObject.stringToValue(dom.getAttribute(name)));
+        }
+        for (Xpp3Dom child : dom.getChildren()) {
+            accumulate(element, child.getName(), toElement(child));
+        }
+        if (dom.getValue() != null) {
+            String text = dom.getValue().trim();
+            if (!text.isEmpty()) {
+                accumulate(element, CONTENT, JSONObject.stringToValue(text));
+            }
+        }
+        if (element.isEmpty()) {
+            return "";
+        }
+        if (element.size() == 1 && element.containsKey(CONTENT)) {
+            List<Object> content = element.get(CONTENT);
+            return content.size() == 1 ? content.get(0) : content;
+        }
+        return element;
+    }
+
+    /**
+     * @param text text of element
+     * @return element's value: text converted the way {@link XML#toJSONObject(String)} converts it or empty string
+     */
+    private static Object toText(String text) {
+        text = text.trim();
+        return text.isEmpty() ? "" : JSONObject.stringToValue(text);
+    }
+
+    /**
+     * @param listName name of list element, such as "dependencies"
+     * @return name of list item element, such as "dependency"
+     */
+    private static String getItemName(String listName) {
+        if (listName.endsWith("ies")) {
+            return listName.substring(0, listName.length() - 3) + 'y';
+        }
+        return listName.substring(0, listName.length() - 1);
+    }
+
+    /**
+     * @param type model class
+     * @return fields of model class and its superclasses that form POM elements in the order they are written
+     */
+    private static List<Field> getFields(Class<?> type) {
+        return FIELDS.computeIfAbsent(type, k -> {
+            List<Field> ret = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) ||
+                            File.class.isAssignableFrom(field.getType()) ||
+                            Map.class.isAssignableFrom(field.getType()) && !Properties.class.equals(field.getType()) ||
+                            SKIPPED_FIELDS.contains(c.getSimpleName() + '.' + field.getName())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    ret.add(field);
+                }
+            }
+            if (type == Model.class) {
+                ret.sort(Comparator.comparingInt(field -> PROJECT_ELEMENTS.indexOf(field.getName())));
+            }
+            return ret;
+        });
+    }
+
+    /**
+     * @param type model class
+     * @return new instance of model class that holds default values
+     */
+    private static Object getDefaults(Class<?> type) {
+        return DEFAULTS.computeIfAbsent(type, k -> {
+            try {
+                return type.newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException("Unable to instantiate " + type, e);
+            }
+        });
+    }
+
+    /**
+     * Adds value to element, values of the same name form an array
+     *
+     * @param element element to update
+     * @param name    name of value
+     * @param value   value to add
+     */
+    private static void accumulate(Map<String, List<Object>> element, String name, Object value) {
+        element.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+    }
+
+    /**
+     * Writes value produced by {@link #toElement(Object)}. Nulls are omitted from objects the same way JSON objects
+     * produced by {@link XML#toJSONObject(String)} are written
+     *
+     * @param out   target writer
+     * @param value value to write
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private static void writeValue(JsonWriter out, Object value) throws IOException {
+        if (value instanceof Map) {
+            out.beginObject();
+            for (Map.Entry<String, List<Object>> entry : ((Map<String, List<Object>>) value).entrySet()) {
+                List<Object> values = entry.getValue();
+                if (values.size() == 1 && values.get(0) == JSONObject.NULL) {
+                    continue;
+                }
+                out.name(entry.getKey());
+                // single array value is wrapped into another array, as JSONObject.accumulate does
+                writeValue(out, values.size() == 1 && !(values.get(0) instanceof List) ? values.get(0) : values);
+            }
+            out.endObject();
+        } else if (value instanceof List) {
+            out.beginArray();
+            for (Object item : (List<Object>) value) {
+                writeValue(out, item);
+            }
+            out.endArray();
+        } else if (value == JSONObject.NULL) {
+            out.beginObject().endObject();
+        } else if (value instanceof Number) {
+            out.value((Number) value);
+        } else if (value instanceof Boolean) {
+            out.value((Boolean) value);
+        } else {
+            out.value(String.valueOf(value));
+        }
+    }
+
+    /**
+     * Writes embedded POM, skips it when source unit is read: POM is not needed to graph source unit or to resolve its
+     * dependencies. Type adapters registered with Gson (such as scan cache's one) take precedence
+     */
+    static class Adapter extends TypeAdapter<EmbeddedPOM> {
+
+        @Override
+        public void write(JsonWriter out, EmbeddedPOM value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                value.write(out);
+            }
+        }
+
+        @Override
+        public EmbeddedPOM read(JsonReader in) throws IOException {
+            in.skipValue();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,608 @@
+package com.sourcegraph.javagraph;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.Trees;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Persistent cache of definitions and references found in each source file of a unit. Each file is remembered
+ * along with SHA-1 hash of its content, hash of its signatures (non-private classes and members it declares),
+ * and unit files it refers to. On the next run files whose content did not change are not attributed and their
+ * definitions and references are replayed from cache. Files that refer to a file whose signatures changed are
+ * graphed again; if their own signatures (which include members they inherit) change as well, so are files that
+ * refer to them, and so on.
+ * <p>
+ * Cache entry of a unit is dropped as a whole when unit's inputs fingerprint changes (compiler options, class path
+ * and source path content, srclib-java and JDK versions), when unit's file list changes, or when set of top-level
+ * classes declared by unit changes (new class may shadow one that files referred to before)
+ * <p>
+ * If caller knows which files changed since the previous run (for example, from VCS), only changed files are given
+ * to javac, other files of unit are reached through source path (source roots are remembered by cache entry).
+ * Changed files are compared with entered signatures of their previous versions, files that depend on changed
+ * signatures (according to references recorded by the previous run) are compiled as well
+ */
+class FileGraphCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileGraphCache.class);
+
+    private static final String ENTRY_EXTENSION = ".json";
+
+    private static final String DEF = "def";
+
+    private static final String REF = "ref";
+
+    private final Path dir;
+
+    private final Gson gson = new Gson();
+
+    /**
+     * @param dir directory to keep cache entries in
+     */
+    FileGraphCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return directory cache entries are kept in
+     */
+    Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Loads cache entry of unit
+     * @param unit source unit to graph
+     * @param workingDir directory unit's relative paths are resolved against
+     * @param javacOpts compiler options unit is graphed with
+     * @param inputs boot class path, class path, and source path entries. Sizes and modification times of their
+     *               files (except unit's own files) make a part of unit's fingerprint
+     * @param files normalized absolute paths of unit's source files, in order they are graphed
+     * @param changedFiles normalized absolute paths of files changed since the previous run, null if unknown.
+     *                     Files not listed are supposed to be the same as cached
+     * @return session to graph unit with
+     * @throws IOException
+     */
+    Session open(SourceUnit unit,
+                 Path workingDir,
+                 Collection<String> javacOpts,
+                 Collection<Path> inputs,
+                 List<String> files,
+                 Collection<String> changedFiles) throws IOException {
+        Path entryFile = dir.resolve(Hashing.sha1().
+                hashString(workingDir + "\n" + unit.Name + "\n" + unit.Type, StandardCharsets.UTF_8) +
+                ENTRY_EXTENSION);
+        String fingerprint = getFingerprint(javacOpts, inputs, new HashSet<>(files));
+        Entry previous = null;
+        if (Files.isRegularFile(entryFile)) {
+            try (Reader r = Files.newBufferedReader(entryFile, StandardCharsets.UTF_8)) {
+                previous = gson.fromJson(r, Entry.class);
+            } catch (IOException | JsonParseException e) {
+                LOGGER.warn("Unable to read file cache entry {}", entryFile, e);
+            }
+            if (previous != null && !fingerprint.equals(previous.fingerprint)) {
+                LOGGER.debug("Inputs of {} changed, dropping file cache entry", unit.Name);
+                previous = null;
+            }
+        }
+        return new Session(unit, entryFile, fingerprint, previous, files,
+                changedFiles == null ? null : new HashSet<>(changedFiles));
+    }
+
+    /**
+     * @param javacOpts compiler options
+     * @param inputs class path and source path entries
+     * @param files unit's own files to skip
+     * @return hash of compiler options, tool versions, and sizes and modification times of input files
+     * @throws IOException
+     */
+    private static String getFingerprint(Collection<String> javacOpts,
+                                         Collection<Path> inputs,
+                                         Set<String> files) throws IOException {
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(Main.getVersion(), StandardCharsets.UTF_8).putChar('\n');
+        hasher.putString(System.getProperty("java.version"), StandardCharsets.UTF_8).putChar('\n');
+        for (String opt : javacOpts) {
+            hasher.putString(opt, StandardCharsets.UTF_8).putChar('\n');
+        }
+        for (Path input : inputs) {
+            if (!Files.exists(input)) {
+                continue;
+            }
+            Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (!files.contains(file.toString())) {
+                        hasher.putString(file.toString(), StandardCharsets.UTF_8).
+                                putLong(attrs.size()).
+                                putLong(attrs.lastModifiedTime().toMillis());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Computes hash of signatures declared by compilation unit, should be called once classes are entered
+     * @param unit compilation unit
+     * @param trees trees
+     * @param classes set to fill with simple names of top-level classes declared by compilation unit
+     * @return hash of non-private classes and members (kinds, modifiers, names, and types)
+     */
+    private static String getSignature(CompilationUnitTree unit, Trees trees, Set<String> classes) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        TreePath root = new TreePath(unit);
+        for (Tree typeDecl : unit.getTypeDecls()) {
+            Element element = trees.getElement(new TreePath(root, typeDecl));
+            if (element instanceof TypeElement) {
+                classes.add(element.getSimpleName().toString());
+                putSignature(hasher, element);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Adds signature of element and its non-private members to hash
+     * @param hasher hash to update
+     * @param element element to add
+     */
+    private static void putSignature(Hasher hasher, Element element) {
+        Set<Modifier> modifiers = element.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return;
+        }
+        hasher.putString(element.getKind().name(), StandardCharsets.UTF_8).putChar(' ').
+                putString(modifiers.toString(), StandardCharsets.UTF_8).putChar(' ').
+                putString(element.getSimpleName(), StandardCharsets.UTF_8).putChar(' ').
+                putString(String.valueOf(element.asType()), StandardCharsets.UTF_8).putChar('\n');
+        if (element instanceof TypeElement) {
+            TypeElement typeElement = (TypeElement) element;
+            hasher.putString(String.valueOf(typeElement.getSuperclass()), StandardCharsets.UTF_8).putChar('\n');
+            for (TypeMirror type : typeElement.getInterfaces()) {
+                hasher.putString(String.valueOf(type), StandardCharsets.UTF_8).putChar('\n');
+            }
+            for (Element member : typeElement.getEnclosedElements()) {
+                putSignature(hasher, member);
+            }
+            putInheritedSignatures(hasher, typeElement, new HashSet<>());
+        } else if (element instanceof ExecutableElement) {
+            for (TypeMirror type : ((ExecutableElement) element).getThrownTypes()) {
+                hasher.putString(String.valueOf(type), StandardCharsets.UTF_8).putChar('\n');
+            }
+        }
+        hasher.putChar('}');
+    }
+
+    /**
+     * Adds signatures of members class inherits to hash, so that files that refer to class through its
+     * subclasses are graphed again when class changes
+     * @param hasher hash to update
+     * @param element class
+     * @param seen supertypes visited
+     */
+    private static void putInheritedSignatures(Hasher hasher, TypeElement element, Set<TypeElement> seen) {
+        List<TypeMirror> supertypes = new ArrayList<>(element.getInterfaces());
+        supertypes.add(element.getSuperclass());
+        for (TypeMirror supertype : supertypes) {
+            if (!(supertype instanceof DeclaredType)) {
+                continue;
+            }
+            Element superElement = ((DeclaredType) supertype).asElement();
+            if (superElement instanceof TypeElement && seen.add((TypeElement) superElement)) {
+                hasher.putString(String.valueOf(supertype), StandardCharsets.UTF_8).putChar('{');
+                for (Element member : superElement.getEnclosedElements()) {
+                    putSignature(hasher, member);
+                }
+                hasher.putChar('}');
+                putInheritedSignatures(hasher, (TypeElement) superElement, seen);
+            }
+        }
+    }
+
+    /**
+     * @param file source file path
+     * @param pkg package file declares, may be null
+     * @return directory that contains package directories of file, null if file's location does not match
+     * its package
+     */
+    private static String getSourceRoot(String file, String pkg) {
+        Path root = Paths.get(file).getParent();
+        if (pkg != null) {
+            String[] names = pkg.split("\\.");
+            for (int i = names.length - 1; i >= 0; i--) {
+                if (root == null || !root.getFileName().toString().equals(names[i])) {
+                    return null;
+                }
+                root = root.getParent();
+            }
+        }
+        return root == null ? null : root.toString();
+    }
+
+    /**
+     * @param file source file path
+     * @param entry cache entry of file
+     * @return true if file declares top-level classes whose names do not match file name, such classes
+     * cannot be found through source path
+     */
+    private static boolean hasSecondaryClasses(String file, FileEntry entry) {
+        String baseName = FilenameUtils.getBaseName(file);
+        return entry.classes == null || entry.classes.stream().anyMatch(name -> !name.equals(baseName));
+    }
+
+    /**
+     * Graphing of a single unit backed by cache entry
+     */
+    class Session {
+
+        private final SourceUnit unit;
+
+        private final Path entryFile;
+
+        /**
+         * Entry loaded, null if there is no entry or it does not match current inputs
+         */
+        private final Entry previous;
+
+        /**
+         * Entry of current run
+         */
+        private final Entry current;
+
+        /**
+         * Unit's source files, in order they are graphed
+         */
+        private final List<String> files;
+
+        /**
+         * Files changed since the previous run, null if unknown
+         */
+        private final Set<String> changedFiles;
+
+        /**
+         * Entries of files parsed by the current run
+         */
+        private final Map<String, FileEntry> parsed = new HashMap<>();
+
+        /**
+         * Files to attribute and scan, computed by {@link #computeDirty()}
+         */
+        private Set<String> dirty;
+
+        private Session(SourceUnit unit,
+                        Path entryFile,
+                        String fingerprint,
+                        Entry previous,
+                        List<String> files,
+                        Set<String> changedFiles) {
+            this.unit = unit;
+            this.entryFile = entryFile;
+            this.previous = previous;
+            this.files = files;
+            this.changedFiles = changedFiles;
+            this.current = new Entry();
+            this.current.fingerprint = fingerprint;
+        }
+
+        /**
+         * @return unit's source files, in order they are graphed
+         */
+        List<String> getFiles() {
+            return files;
+        }
+
+        /**
+         * @return files to give to javac: changed files and files that declare top-level classes source path lookup
+         * cannot find if changed files are known and cache entry matches unit's files, all the files otherwise
+         */
+        Set<String> getSources() {
+            Set<String> ret = new LinkedHashSet<>();
+            if (changedFiles == null || !isFileListCached() ||
+                    previous.files.values().stream().anyMatch(entry -> entry.root == null)) {
+                ret.addAll(files);
+                return ret;
+            }
+            for (String file : files) {
+                if (changedFiles.contains(file) || hasSecondaryClasses(file, previous.files.get(file))) {
+                    ret.add(file);
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * @return source roots of unit's files, known if cache entry matches unit's files
+         */
+        Collection<Path> getSourceRoots() {
+            Collection<Path> ret = new LinkedHashSet<>();
+            if (isFileListCached()) {
+                for (FileEntry entry : previous.files.values()) {
+                    if (entry.root != null) {
+                        ret.add(Paths.get(entry.root));
+                    }
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * @param file source file path
+         * @return package name file declared in the previous run, null if there is no such file or package
+         */
+        String getPackage(String file) {
+            FileEntry entry = previous == null ? null : previous.files.get(file);
+            return entry == null ? null : entry.pkg;
+        }
+
+        /**
+         * Registers unit's source file given to javac, should be called for each file once classes are entered
+         * @param file source file path
+         * @param compilationUnit compilation unit of file
+         * @param trees trees
+         * @throws IOException
+         */
+        void addFile(String file, CompilationUnitTree compilationUnit, Trees trees) throws IOException {
+            FileEntry entry = new FileEntry();
+            entry.hash = Hashing.sha1().hashBytes(Files.readAllBytes(Paths.get(file))).toString();
+            entry.classes = new TreeSet<>();
+            entry.signature = getSignature(compilationUnit, trees, entry.classes);
+            if (compilationUnit.getPackageName() != null) {
+                entry.pkg = compilationUnit.getPackageName().toString();
+            }
+            entry.root = getSourceRoot(file, entry.pkg);
+            parsed.put(file, entry);
+        }
+
+        /**
+         * Decides which files should be graphed again: new and modified files, and files that refer to files
+         * given to javac whose signatures changed. All the files are dirty if there is no usable
+         * cache entry or if some file declares different package or top-level classes than before. Files that
+         * were not given to javac are supposed to be the same as cached
+         * @return files to attribute and scan, caller should compile them all
+         */
+        Set<String> computeDirty() {
+            dirty = new HashSet<>();
+            current.files.clear();
+            boolean reuse = isFileListCached();
+            for (String file : files) {
+                FileEntry entry = parsed.get(file);
+                if (entry == null) {
+                    entry = reuse ? previous.files.get(file) : new FileEntry();
+                } else if (reuse) {
+                    FileEntry cached = previous.files.get(file);
+                    reuse = Objects.equals(cached.pkg, entry.pkg) && Objects.equals(cached.classes, entry.classes);
+                }
+                current.files.put(file, entry);
+            }
+            if (!reuse) {
+                dirty.addAll(files);
+                return dirty;
+            }
+            Map<String, Set<String>> dependents = new HashMap<>();
+            for (Map.Entry<String, FileEntry> entry : previous.files.entrySet()) {
+                if (entry.getValue().deps != null) {
+                    for (String dep : entry.getValue().deps) {
+                        dependents.computeIfAbsent(dep, k -> new HashSet<>()).add(entry.getKey());
+                    }
+                }
+            }
+            for (Map.Entry<String, FileEntry> entry : current.files.entrySet()) {
+                String file = entry.getKey();
+                FileEntry cached = previous.files.get(file);
+                if (cached.records == null || !cached.hash.equals(entry.getValue().hash)) {
+                    dirty.add(file);
+                }
+                // signatures of files not given to javac are known to be the same. Dependents of dependents
+                // become dirty only if signatures of dependents change, that is known once they are compiled:
+                // caller compiles dirty files and calls this method again
+                if (parsed.containsKey(file) && !cached.signature.equals(entry.getValue().signature)) {
+                    dirty.addAll(dependents.getOrDefault(file, Collections.emptySet()));
+                }
+            }
+            LOGGER.debug("{} of {} files of {} should be graphed", dirty.size(), current.files.size(), unit.Name);
+            return dirty;
+        }
+
+        /**
+         * @return true if cache entry lists the same files unit consists of
+         */
+        private boolean isFileListCached() {
+            return previous != null && previous.files.keySet().equals(new HashSet<>(files));
+        }
+
+        /**
+         * @param file source file path
+         * @return true if file should be attributed and scanned
+         */
+        boolean isDirty(String file) {
+            return dirty.contains(file);
+        }
+
+        /**
+         * Passes cached definitions and references of clean file to writer
+         * @param file source file path
+         * @param writer target to pass definitions and references to
+         * @throws IOException
+         */
+        void replay(String file, GraphWriter writer) throws IOException {
+            FileEntry entry = previous.files.get(file);
+            for (JsonObject record : entry.records) {
+                if (record.has(DEF)) {
+                    writer.writeDef(gson.fromJson(record.get(DEF), Def.class));
+                } else {
+                    writer.writeRef(gson.fromJson(record.get(REF), Ref.class));
+                }
+            }
+            FileEntry currentEntry = current.files.get(file);
+            currentEntry.deps = entry.deps;
+            currentEntry.records = entry.records;
+        }
+
+        /**
+         * @param file source file path
+         * @param writer target to pass definitions and references to
+         * @return writer that remembers definitions and references of dirty file before passing them to a given
+         * writer, {@link Recorder#commit()} should be called once file is scanned
+         */
+        Recorder record(String file, GraphWriter writer) {
+            return new Recorder(file, current.files.get(file), writer);
+        }
+
+        /**
+         * Writes cache entry of current run
+         */
+        void save() {
+            try {
+                Files.createDirectories(dir);
+                Path tmp = Files.createTempFile(dir, entryFile.getFileName().toString(), ".tmp");
+                try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    gson.toJson(current, w);
+                }
+                Files.move(tmp, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                LOGGER.debug("Wrote file cache entry of {} to {}", unit.Name, entryFile);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to write file cache entry of {}", unit.Name, e);
+            }
+        }
+
+        /**
+         * Remembers definitions and references of a single file and files it refers to
+         */
+        class Recorder implements GraphWriter {
+
+            private final String file;
+
+            private final FileEntry entry;
+
+            private final GraphWriter target;
+
+            private final List<JsonObject> records = new ArrayList<>();
+
+            private final Set<String> deps = new TreeSet<>();
+
+            private Recorder(String file, FileEntry entry, GraphWriter target) {
+                this.file = file;
+                this.entry = entry;
+                this.target = target;
+            }
+
+            @Override
+            public void writeRef(Ref r) throws IOException {
+                JsonObject record = new JsonObject();
+                record.add(REF, gson.toJsonTree(r));
+                records.add(record);
+                URI origin = r.defKey.getOrigin();
+                if (origin != null && "file".equals(origin.getScheme())) {
+                    String dep = Paths.get(origin).toString();
+                    if (!dep.equals(file) && current.files.containsKey(dep)) {
+                        deps.add(dep);
+                    }
+                }
+                target.writeRef(r);
+            }
+
+            @Override
+            public void writeDef(Def s) throws IOException {
+                JsonObject record = new JsonObject();
+                record.add(DEF, gson.toJsonTree(s));
+                records.add(record);
+                target.writeDef(s);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                target.flush();
+            }
+
+            /**
+             * Marks file as scanned completely, so that its definitions and references may be cached
+             */
+            void commit() {
+                entry.records = records;
+                entry.deps = new ArrayList<>(deps);
+            }
+        }
+    }
+
+    /**
+     * Cache entry of a unit
+     */
+    private static class Entry {
+
+        /**
+         * Hash of unit's inputs, see {@link #getFingerprint(Collection, Collection, Set)}
+         */
+        String fingerprint;
+
+        /**
+         * Source file path => file entry
+         */
+        Map<String, FileEntry> files = new LinkedHashMap<>();
+    }
+
+    /**
+     * Cache entry of a source file
+     */
+    private static class FileEntry {
+
+        /**
+         * SHA-1 of file content
+         */
+        String hash;
+
+        /**
+         * Hash of signatures declared by file
+         */
+        String signature;
+
+        /**
+         * Package file declares, null if none
+         */
+        String pkg;
+
+        /**
+         * Source root directory of file (directory that contains package directories), null if file is located
+         * in a directory that does not match its package
+         */
+        String root;
+
+        /**
+         * Simple names of top-level classes file declares
+         */
+        Set<String> classes;
+
+        /**
+         * Unit files this file refers to
+         */
+        List<String> deps;
+
+        /**
+         * Definitions and references found in file, in order they were found, null if file was not scanned
+         * completely
+         */
+        List<JsonObject> records;
+    }
+}
@@ -0,0 +1,398 @@
+package com.sourcegraph.javagraph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Pattern;
+
+/**
+ * Expands Ant-style globs (where "**" matches zero or more directories, "*" and "?" match characters within
+ * single path element) into the list of matching files.
+ * Each glob is split into literal prefix (where walk starts from) and the rest of path elements. Directories are
+ * walked in parallel, each directory is descended into only if some glob may match entries inside of it
+ */
+public class GlobExpander {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GlobExpander.class);
+
+    private static final String ANY_DIRS = "**";
+
+    private final Path baseDir;
+
+    private final boolean skipIgnored;
+
+    /**
+     * Exclusion rules of base directory, none if ignored directories are walked too
+     */
+    private final IgnoreRules rootRules;
+
+    /**
+     * Exclusion rules of directories located in base directory, directory => rules
+     */
+    private final Map<Path, IgnoreRules> dirRules = new ConcurrentHashMap<>();
+
+    /**
+     * Globs grouped by directory walk starts from
+     */
+    private final Map<Path, Collection<Glob>> globsByRoot = new TreeMap<>();
+
+    /**
+     * Files matched by globs that have no wildcards
+     */
+    private final Collection<Path> literals = new ArrayList<>();
+
+    /**
+     * @param baseDir   directory relative globs are resolved against
+     * @param patterns  globs to expand, absolute ones are allowed as well
+     * @param rootRules exclusion rules of base directory (see {@link ScanUtil#getRootRules(Path, Path)}), directories
+     *                  ignored by them and by .gitignore files of sub-directories are not walked. Null to walk every
+     *                  directory
+     */
+    public GlobExpander(Path baseDir, Collection<String> patterns, IgnoreRules rootRules) {
+        this.baseDir = baseDir.toAbsolutePath().normalize();
+        this.skipIgnored = rootRules != null;
+        this.rootRules = skipIgnored ? rootRules : IgnoreRules.NONE;
+        for (String pattern : patterns) {
+            compile(pattern);
+        }
+        mergeNestedRoots();
+    }
+
+    /**
+     * Expands globs
+     *
+     * @return sorted list of absolute paths of matching files, each file is listed once
+     */
+    public List<String> expand() {
+        Set<String> found = ConcurrentHashMap.newKeySet();
+        for (Path literal : literals) {
+            if (Files.isRegularFile(literal)) {
+                found.add(literal.toString());
+            }
+        }
+        Collection<ExpandTask> tasks = new ArrayList<>();
+        Set<Path> visitedLinks = ConcurrentHashMap.newKeySet();
+        for (Map.Entry<Path, Collection<Glob>> entry : globsByRoot.entrySet()) {
+            if (!Files.isDirectory(entry.getKey())) {
+                continue;
+            }
+            Collection<State> states = new ArrayList<>();
+            for (Glob glob : entry.getValue()) {
+                states.add(new State(glob, 0));
+            }
+            tasks.add(new ExpandTask(entry.getKey(), states, found, visitedLinks));
+        }
+        if (!tasks.isEmpty()) {
+            WorkerPool.getPool().invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        }
+        List<String> ret = new ArrayList<>(found);
+        ret.sort(String::compareTo);
+        return ret;
+    }
+
+    /**
+     * Compiles single glob. Glob that ends with separator matches everything inside of a given directory
+     *
+     * @param pattern glob to compile
+     */
+    private void compile(String pattern) {
+        String normalized = pattern.replace('\\', '/');
+        if (normalized.endsWith("/")) {
+            normalized += ANY_DIRS;
+        }
+        boolean absolute = normalized.startsWith("/");
+        List<String> elements = new ArrayList<>();
+        for (String element : normalized.split("/")) {
+            if (!element.isEmpty() && !element.equals(".")) {
+                elements.add(element);
+            }
+        }
+        int wildcard = 0;
+        while (wildcard < elements.size() && !isWildcard(elements.get(wildcard))) {
+            wildcard++;
+        }
+        Path root = absolute ? baseDir.getRoot() : baseDir;
+        for (String element : elements.subList(0, wildcard)) {
+            root = root.resolve(element);
+        }
+        root = root.normalize();
+        if (wildcard == elements.size()) {
+            literals.add(root);
+            return;
+        }
+        globsByRoot.computeIfAbsent(root, k -> new ArrayList<>()).
+                add(new Glob(elements.subList(wildcard, elements.size())));
+    }
+
+    /**
+     * Walks from the outermost directories only: globs that start in sub-directory of other glob's
+     * root directory are moved to the latter, literal path elements are prepended to them
+     */
+    private void mergeNestedRoots() {
+        Map<Path, Collection<Glob>> merged = new TreeMap<>();
+        for (Map.Entry<Path, Collection<Glob>> entry : globsByRoot.entrySet()) {
+            Path root = entry.getKey();
+            Path outer = null;
+            for (Path candidate : merged.keySet()) {
+                if (root.startsWith(candidate)) {
+                    outer = candidate;
+                    break;
+                }
+            }
+            if (outer == null) {
+                merged.put(root, new ArrayList<>(entry.getValue()));
+                continue;
+            }
+            List<String> prefix = new ArrayList<>();
+            for (Path element : outer.relativize(root)) {
+                prefix.add(element.toString());
+            }
+            for (Glob glob : entry.getValue()) {
+                merged.get(outer).add(glob.prepend(prefix));
+            }
+        }
+        globsByRoot.clear();
+        globsByRoot.putAll(merged);
+    }
+
+    /**
+     * @param element path element
+     * @return true if path element contains wildcards
+     */
+    private static boolean isWildcard(String element) {
+        return element.indexOf('*') >= 0 || element.indexOf('?') >= 0;
+    }
+
+    /**
+     * Compiled glob, sequence of path element matchers
+     */
+    private static class Glob {
+
+        private final List<String> elements;
+
+        /**
+         * Compiled path elements, null for "**" and for literal ones
+         */
+        private final List<Pattern> patterns;
+
+        Glob(List<String> elements) {
+            this.elements = new ArrayList<>(elements);
+            this.patterns = new ArrayList<>(elements.size());
+            for (String element : elements) {
+                patterns.add(element.equals(ANY_DIRS) || !isWildcard(element) ? null : toPattern(element));
+            }
+        }
+
+        /**
+         * @param prefix literal path elements
+         * @return glob that starts with given path elements
+         */
+        Glob prepend(List<String> prefix) {
+            List<String> ret = new ArrayList<>(prefix);
+            ret.addAll(elements);
+            return new Glob(ret);
+        }
+
+        /**
+         * @param index index of path element
+         * @param name  entry name
+         * @return true if path element at given index (other than "**") matches entry name
+         */
+        boolean matches(int index, String name) {
+            Pattern pattern = patterns.get(index);
+            return pattern == null ? elements.get(index).equals(name) : pattern.matcher(name).matches();
+        }
+
+        /**
+         * @param index index of path element
+         * @return true if path element at given index is "**"
+         */
+        boolean isAnyDirs(int index) {
+            return index < elements.size() && elements.get(index).equals(ANY_DIRS);
+        }
+
+        /**
+         * @param index index of path element
+         * @return true if all path elements starting from a given one were matched or may match nothing
+         */
+        boolean isComplete(int index) {
+            for (int i = index; i < elements.size(); i++) {
+                if (!isAnyDirs(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Converts path element with wildcards into regular expression
+         *
+         * @param element path element
+         * @return compiled regular expression
+         */
+        private static Pattern toPattern(String element) {
+            StringBuilder regex = new StringBuilder();
+            for (char c : element.toCharArray()) {
+                if (c == '*') {
+                    regex.append(".*");
+                } else if (c == '?') {
+                    regex.append('.');
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return Pattern.compile(regex.toString());
+        }
+    }
+
+    /**
+     * Position in glob: glob and index of path element to match next
+     */
+    private static class State {
+
+        private final Glob glob;
+        private final int index;
+
+        State(Glob glob, int index) {
+            this.glob = glob;
+            this.index = index;
+        }
+
+        /**
+         * Matches directory entry
+         *
+         * @param name entry name
+         * @param next receives states to continue with inside of entry, if entry is a directory
+         * @return true if entry matches glob completely
+         */
+        boolean advance(String name, Collection<State> next) {
+            boolean complete = false;
+            int i = index;
+            // "**" may match nothing, trying all the following path elements as well
+            while (glob.isAnyDirs(i)) {
+                next.add(new State(glob, i));
+                complete |= glob.isComplete(i);
+                i++;
+            }
+            if (i < glob.elements.size() && glob.matches(i, name)) {
+                next.add(new State(glob, i + 1));
+                complete |= glob.isComplete(i + 1);
+            }
+            return complete;
+        }
+
+        /**
+         * @return true if nothing more may be matched
+         */
+        boolean isExhausted() {
+            return index >= glob.elements.size();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            State state = (State) o;
+            return index == state.index && glob == state.glob;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(glob) + index;
+        }
+    }
+
+    /**
+     * Matches entries of single directory, each sub-directory that may contain matching entries
+     * is processed by its own fork/join task
+     */
+    private class ExpandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Collection<State> states;
+        private final Set<String> found;
+        private final Set<Path> visitedLinks;
+
+        /**
+         * @param dir          directory to process
+         * @param states       positions in globs entries of directory should match
+         * @param found        receives matching files
+         * @param visitedLinks real paths of symbolic links to directories walked so far, to avoid cycles
+         */
+        ExpandTask(Path dir, Collection<State> states, Set<String> found, Set<Path> visitedLinks) {
+            this.dir = dir;
+            this.states = states;
+            this.found = found;
+            this.visitedLinks = visitedLinks;
+        }
+
+        @Override
+        protected void compute() {
+            Collection<ExpandTask> subTasks = new ArrayList<>();
+            IgnoreRules rules = skipIgnored ?
+                    ScanUtil.getIgnoreRules(baseDir, rootRules, dir, dirRules) :
+                    IgnoreRules.NONE;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    String name = entry.getFileName().toString();
+                    Collection<State> next = new LinkedHashSet<>();
+                    boolean complete = false;
+                    for (State state : states) {
+                        complete |= state.advance(name, next);
+                    }
+                    next.removeIf(State::isExhausted);
+                    if (!complete && next.isEmpty()) {
+                        continue;
+                    }
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (attrs.isRegularFile()) {
+                        if (complete) {
+                            found.add(entry.toString());
+                        }
+                    } else if (attrs.isDirectory() && !next.isEmpty()) {
+                        if (rules.isIgnored(entry, true) || !visit(entry)) {
+                            continue;
+                        }
+                        subTasks.add(new ExpandTask(entry, next, found, visitedLinks));
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                LOGGER.debug("Unable to list {}", dir, e);
+            }
+            invokeAll(subTasks);
+        }
+
+        /**
+         * @param subDir sub-directory to walk
+         * @return false if sub-directory is a symbolic link to directory that was walked already
+         */
+        private boolean visit(Path subDir) {
+            if (!Files.isSymbolicLink(subDir)) {
+                return true;
+            }
+            try {
+                return visitedLinks.add(subDir.toRealPath());
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
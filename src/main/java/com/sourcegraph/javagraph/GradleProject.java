@@ -8,8 +8,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Path;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 /**
@@ -20,22 +24,40 @@ public class GradleProject implements Project {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GradleProject.class);
 
+    /**
+     * Name of directory that holds build logic of Gradle build
+     */
+    private static final String BUILD_SRC = "buildSrc";
+
+    /**
+     * Top-level buildSrc directories made by Gradle builds, they are not build inputs
+     */
+    private static final Collection<String> BUILD_SRC_OUTPUTS = Arrays.asList("build", ".gradle");
+
     private SourceUnit unit;
 
     /**
      * Maps gradle build files path to list of build info associated with a given build file. Each build file refers
      * to map source unit name -> build info.
      */
-    private static Map<Path, Map<String, BuildAnalysis.BuildInfo>> buildInfoCache = new HashMap<>();
+    private static Map<Path, Map<String, BuildAnalysis.BuildInfo>> buildInfoCache = new ConcurrentHashMap<>();
     /**
      * Maps source unit name to build info
      */
-    private static Map<String, BuildAnalysis.BuildInfo> unitCache = new HashMap<>();
+    private static Map<String, BuildAnalysis.BuildInfo> unitCache = new ConcurrentHashMap<>();
 
     public GradleProject(SourceUnit unit) {
         this.unit = unit;
     }
 
+    /**
+     * Forgets build info collected so far, build files will be analyzed again
+     */
+    static void reset() {
+        buildInfoCache.clear();
+        unitCache.clear();
+    }
+
     /**
      * Extracts all artifacts from a given Gradle build file
      * @param build Gradle build file location
@@ -43,7 +65,9 @@ public class GradleProject implements Project {
      * @throws IOException
      */
     public static Map<String, BuildAnalysis.BuildInfo> getGradleAttrs(Path build) throws IOException {
-        return getBuildInfo(build);
+        Map<String, BuildAnalysis.BuildInfo> ret = getBuildInfo(build, null);
+        unitCache.putAll(ret);
+        return ret;
     }
 
     /**
@@ -124,8 +148,13 @@ public class GradleProject implements Project {
 
     @Override
     public RawDependency getDepForJAR(Path jarFile) throws Exception {
+        return getDepForJAR(jarFile, PathUtil.CWD);
+    }
+
+    @Override
+    public RawDependency getDepForJAR(Path jarFile, Path workingDir) {
         for (RawDependency dependency : unit.Data.Dependencies) {
-            if (dependency.file != null && jarFile.equals(PathUtil.CWD.resolve(dependency.file))) {
+            if (dependency.file != null && jarFile.equals(workingDir.resolve(dependency.file))) {
                 return dependency;
             }
         }
@@ -141,19 +170,24 @@ public class GradleProject implements Project {
      * @param gradleFile Gradle build file to process
      * @param visited holds all visited build files to avoid infinite loops when we scanning repository for build files
      * because some build files may be already taken into account by including them in parent's build file
+     * @param collected collects build info objects extracted from build files, in order of extraction
      * @return list of source units collected
      * @throws IOException
      * @throws XmlPullParserException
      */
     private static Collection<SourceUnit> createSourceUnits(Path gradleFile,
-                                                            Set<Path> visited)
+                                                            Set<Path> visited,
+                                                            Collection<BuildAnalysis.BuildInfo> collected)
             throws IOException, XmlPullParserException {
-        Map<String, BuildAnalysis.BuildInfo> infos = getGradleAttrs(gradleFile);
+        Map<String, BuildAnalysis.BuildInfo> infos = getBuildInfo(gradleFile, collected);
 
         Collection<SourceUnit> ret = new ArrayList<>();
 
         for (BuildAnalysis.BuildInfo info : infos.values()) {
 
+            if (info.buildFile != null) {
+                visited.add(PathUtil.CWD.resolve(info.buildFile).toAbsolutePath().normalize());
+            }
             for (BuildAnalysis.ProjectDependency projectDependency : info.projectDependencies) {
                 if (!StringUtils.isEmpty(projectDependency.buildFile)) {
                     Path p = PathUtil.CWD.resolve(projectDependency.buildFile).toAbsolutePath().normalize();
@@ -187,15 +221,8 @@ public class GradleProject implements Project {
                 unit.Data.Android = true;
             }
 
-            // leave only existing files
-            unit.Files = new LinkedList<>();
-            for (String sourceFile : info.sources) {
-                File f = PathUtil.CWD.resolve(sourceFile).toFile();
-                if (f.isFile()) {
-                    // including only existing files to make 'make' tool happy
-                    unit.Files.add(f.getAbsolutePath());
-                }
-            }
+            // sources are already limited to existing files (absolute paths) to make 'make' tool happy
+            unit.Files = new LinkedList<>(info.sources);
             unit.Data.Dependencies = info.dependencies;
             if (!info.bootClassPath.isEmpty()) {
                 unit.Data.BootClassPath = info.bootClassPath;
@@ -207,6 +234,44 @@ public class GradleProject implements Project {
     }
 
 
+    /**
+     * @return build files source units found by {@link #findAllSourceUnits()} depend on: Gradle scripts,
+     * Gradle properties, Gradle wrapper properties, and sources of buildSrc projects (their plugins may change
+     * source sets) located next to Gradle scripts
+     * @throws IOException
+     */
+    static Collection<Path> getBuildInputs() throws IOException {
+        Collection<Path> ret = new LinkedHashSet<>(ScanUtil.findBuildFiles(name -> name.endsWith(".gradle") ||
+                name.equals("gradle.properties") ||
+                name.equals("gradle-wrapper.properties")));
+        Set<Path> buildSrcDirs = new TreeSet<>();
+        for (Path file : ret) {
+            Path dir = file.getParent().resolve(BUILD_SRC);
+            if (Files.isDirectory(dir)) {
+                buildSrcDirs.add(dir);
+            }
+        }
+        for (Path dir : buildSrcDirs) {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) {
+                    // build outputs of buildSrc change with every build
+                    if (subDir.getParent().equals(dir) && BUILD_SRC_OUTPUTS.contains(subDir.getFileName().toString())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    ret.add(file.toAbsolutePath().normalize());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return ret;
+    }
+
     /**
      * Collects all source units from all Gradle build files in current working directory
      * @return collection of source units
@@ -231,30 +296,45 @@ public class GradleProject implements Project {
         }
 
         gradleFiles.addAll(ScanUtil.findMatchingFiles("build.gradle"));
-        Set<SourceUnit> units = new LinkedHashSet<>();
-        Set<Path> visited = new HashSet<>();
-        for (Path gradleFile : gradleFiles) {
 
-            gradleFile = gradleFile.toAbsolutePath().normalize();
+        // independent Gradle builds are processed concurrently, build files of the same build - one after another.
+        // Builds may include projects located outside of their root (includeFlat, custom project directories),
+        // visited build files are shared so that such projects are not processed again by their own build
+        Collection<Collection<Path>> builds = groupByBuild(gradleFiles);
+        Set<Path> visited = ConcurrentHashMap.newKeySet();
+        Collection<Callable<Collection<SourceUnit>>> tasks = new ArrayList<>();
+        List<Collection<BuildAnalysis.BuildInfo>> collected = new ArrayList<>();
+        for (Collection<Path> build : builds) {
+            Collection<BuildAnalysis.BuildInfo> buildInfos = new ArrayList<>();
+            collected.add(buildInfos);
+            tasks.add(() -> createSourceUnits(build, visited, buildInfos));
+        }
+        if (builds.size() > 1) {
+            LOGGER.debug("Processing {} independent Gradle builds", builds.size());
+        }
 
-            if (visited.contains(gradleFile)) {
-                continue;
+        // builds that processed the same project concurrently produce the same unit, the first build wins
+        Map<String, SourceUnit> units = new LinkedHashMap<>();
+        try {
+            for (Collection<SourceUnit> buildUnits : WorkerPool.invokeAll(tasks)) {
+                for (SourceUnit unit : buildUnits) {
+                    units.putIfAbsent(unit.Name, unit);
+                }
             }
-            LOGGER.debug("Processing Gradle file {}", gradleFile);
-            visited.add(gradleFile);
-
-            try {
-                units.addAll(createSourceUnits(gradleFile, visited));
-            } catch (Exception e) {
-                LOGGER.warn("An error occurred while processing Gradle file {}",
-                        gradleFile, e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        // filling units cache in a stable order, so that results do not depend on order builds were completed in
+        for (Collection<BuildAnalysis.BuildInfo> buildInfos : collected) {
+            for (BuildAnalysis.BuildInfo info : buildInfos) {
+                unitCache.put(info.getName(), info);
             }
         }
 
         LOGGER.debug("Resolving source unit dependencies");
 
         try {
-            collectSourceUnitsDependencies(units);
+            collectSourceUnitsDependencies(units.values());
         } catch (Exception e) {
             LOGGER.warn("An error occurred while resolving source unit dependencies", e);
         }
@@ -262,16 +342,81 @@ public class GradleProject implements Project {
         LOGGER.debug("Resolved source unit dependencies");
 
         LOGGER.debug("Retrieved source units");
+        return units.values();
+    }
+
+    /**
+     * Collects all source units from build files that belong to the same Gradle build
+     * @param gradleFiles build files to process
+     * @param visited build files visited so far by all builds, updated concurrently
+     * @param collected collects build info objects extracted from build files, in order of extraction
+     * @return collection of source units
+     */
+    private static Collection<SourceUnit> createSourceUnits(Collection<Path> gradleFiles,
+                                                            Set<Path> visited,
+                                                            Collection<BuildAnalysis.BuildInfo> collected) {
+        Collection<SourceUnit> units = new ArrayList<>();
+        for (Path gradleFile : gradleFiles) {
+
+            if (!visited.add(gradleFile)) {
+                continue;
+            }
+            LOGGER.debug("Processing Gradle file {}", gradleFile);
+
+            try {
+                units.addAll(createSourceUnits(gradleFile, visited, collected));
+            } catch (Exception e) {
+                LOGGER.warn("An error occurred while processing Gradle file {}",
+                        gradleFile, e);
+            }
+        }
         return units;
     }
 
+    /**
+     * Splits build files into groups, one group per independent Gradle build. Build is rooted at the directory
+     * that contains settings.gradle, all build files located below it (including ones that belong to nested
+     * builds) are the parts of the same build. Build files that are not located below any settings.gradle form
+     * builds of their own
+     * @param gradleFiles build files to split, root build file first
+     * @return groups of build files, each group keeps original order of build files
+     * @throws IOException
+     */
+    private static Collection<Collection<Path>> groupByBuild(Collection<Path> gradleFiles) throws IOException {
+        Collection<Path> roots = new ArrayList<>();
+        for (Path settings : ScanUtil.findMatchingFiles("settings.gradle")) {
+            roots.add(settings.getParent());
+        }
+        File rootSettings = PathUtil.CWD.resolve("settings.gradle").toFile();
+        if (rootSettings.isFile()) {
+            roots.add(PathUtil.CWD);
+        }
+
+        Map<Path, Collection<Path>> ret = new LinkedHashMap<>();
+        for (Path gradleFile : gradleFiles) {
+            gradleFile = gradleFile.toAbsolutePath().normalize();
+            Path build = gradleFile;
+            for (Path root : roots) {
+                if (gradleFile.startsWith(root) && (build == gradleFile || build.startsWith(root))) {
+                    // the outermost settings.gradle wins
+                    build = root;
+                }
+            }
+            ret.computeIfAbsent(build, k -> new ArrayList<>()).add(gradleFile);
+        }
+        return ret.values();
+    }
+
     /**
      * Retrieving build information from a given build file
      * @param path path to build file
+     * @param collected if not null, collects build info objects of build file, including ones taken from cache
      * @return map (source unit id -> build info) extracted by meta information script
      * @throws IOException
      */
-    private static Map<String, BuildAnalysis.BuildInfo> getBuildInfo(Path path) throws IOException {
+    private static Map<String, BuildAnalysis.BuildInfo> getBuildInfo(Path path,
+                                                                     Collection<BuildAnalysis.BuildInfo> collected)
+            throws IOException {
         path = path.toAbsolutePath().normalize();
         Map<String, BuildAnalysis.BuildInfo> ret = buildInfoCache.get(path);
         if (ret == null) {
@@ -295,94 +440,92 @@ public class GradleProject implements Project {
                     }
                 }
                 ret.put(unitId, info);
-                unitCache.put(unitId, info);
+                if (collected != null) {
+                    collected.add(info);
+                }
             }
             buildInfoCache.put(path, ret);
+        } else if (collected != null) {
+            // build file might be processed by another build or as a sub-project, its units still belong to this one
+            collected.addAll(ret.values());
         }
         return ret;
     }
 
     /**
-     * Collects all build info from given source unit and its dependencies
-     * @param unitId unit ID to collect all dependencies for
-     * @return list of build info that includes self and all dependencies
-     * @throws IOException
+     * Lists identifiers of source units given unit directly depends on
+     * @param info build info to collect dependencies of
+     * @return identifiers of source units given unit depends on
      */
-    private static Collection<BuildAnalysis.BuildInfo> collectBuildInfo(String unitId) throws IOException {
-        Set<String> visited = new HashSet<>();
-        Collection<BuildAnalysis.BuildInfo> infos = new LinkedHashSet<>();
-        collectBuildInfo(unitId, infos, visited);
-        return infos;
-    }
-
-    /**
-     * Collects all build info from given source unit and its dependencies
-     * @param unitId unit ID to collect all dependencies for
-     * @param infos collection to fill with found information
-     * @param visited set to control visited source units to avoid infinite loops
-     * @throws IOException
-     */
-    private static void collectBuildInfo(String unitId,
-                                         Collection<BuildAnalysis.BuildInfo> infos,
-                                         Set<String> visited) throws IOException {
-        visited.add(unitId);
-        BuildAnalysis.BuildInfo info = unitCache.get(unitId);
-        if (info == null) {
-            return;
-        }
-        infos.add(info);
-
+    private static Collection<String> getUnitDependencies(BuildAnalysis.BuildInfo info) {
+        Collection<String> ret = new ArrayList<>();
         for (BuildAnalysis.ProjectDependency projectDependency : info.projectDependencies) {
-            String depId = projectDependency.artifactID + '/' + projectDependency.groupID;
-            if (!visited.contains(depId)) {
-                collectBuildInfo(depId, infos, visited);
-            }
+            ret.add(projectDependency.artifactID + '/' + projectDependency.groupID);
         }
         // alexsaveliev: github.com/elastic/elasticsearch declares project dependencies as external
         // in order to resolve it, we'll check if there is an source unit with the same name and version
         // as declared in external dependency and use unit's sourcepath if found
         for (RawDependency raw : info.dependencies) {
             String id = raw.groupID + '/' + raw.artifactID;
-            info = unitCache.get(id);
-            if (info != null && info.version.equals(raw.version)) {
-                if (!visited.contains(id)) {
-                    collectBuildInfo(id, infos, visited);
-                }
+            BuildAnalysis.BuildInfo dependency = unitCache.get(id);
+            if (dependency != null && dependency.version.equals(raw.version)) {
+                ret.add(id);
             }
         }
+        return ret;
     }
 
     /**
-     * Collects source unit dependencies, updates classpath and sourcepath of each source unit based on dependencies
+     * Collects source unit dependencies, updates classpath and sourcepath of each source unit based on dependencies.
+     * Transitive closure of each unit is computed only once, classpath entries and classpath directories
+     * contributed by each unit are computed only once as well and shared between all dependent units
      * @param units units to process
-     * @throws IOException
      */
-    private static void collectSourceUnitsDependencies(Collection<SourceUnit> units) throws IOException {
+    private static void collectSourceUnitsDependencies(Collection<SourceUnit> units) {
+
+        TransitiveClosure<String, BuildAnalysis.BuildInfo> closure = new TransitiveClosure<>(unitCache::get,
+                GradleProject::getUnitDependencies);
+        Map<BuildAnalysis.BuildInfo, Collection<String>> classPaths = new HashMap<>();
+        Map<BuildAnalysis.BuildInfo, Collection<String>> classPathDirs = new HashMap<>();
+
         for (SourceUnit unit : units) {
-            Collection<BuildAnalysis.BuildInfo> infos = collectBuildInfo(unit.Name);
-            Collection<String> classpathSet = new HashSet<>();
-
-            List<SourcePathElement> sourcepath = new LinkedList<>();
-            for (BuildAnalysis.BuildInfo info : infos) {
-                classpathSet.addAll(info.classPath);
-                classpathSet.addAll(info.dependencies.stream().filter(dependency ->
-                        !StringUtils.isEmpty(dependency.file)).map(dependency ->
-                        dependency.file).
-                        collect(Collectors.toList()));
-                sourcepath.addAll(info.sourceDirs);
-                for (String path : info.classPath) {
-                    File file = PathUtil.CWD.resolve(path).toFile();
-                    if (file.isDirectory()) {
-                        sourcepath.add(new SourcePathElement(unit.Name,
-                                info.version,
-                                path));
-                    }
+            // class path is the same for all units that share closure, source path elements made of
+            // class path directories are named after unit being processed
+            unit.Data.ClassPath = closure.flatten(unit.Name,
+                    info -> classPaths.computeIfAbsent(info, GradleProject::getClassPath));
+            unit.Data.SourcePath = closure.flatten(unit.Name, info -> {
+                Collection<SourcePathElement> sourcepath = new ArrayList<>(info.sourceDirs);
+                for (String path : classPathDirs.computeIfAbsent(info, GradleProject::getClassPathDirs)) {
+                    sourcepath.add(new SourcePathElement(unit.Name,
+                            info.version,
+                            path));
                 }
-            }
-
-            unit.Data.ClassPath = classpathSet;
-            unit.Data.SourcePath = sourcepath;
+                return sourcepath;
+            });
         }
     }
 
+    /**
+     * @param info build info
+     * @return classpath entries contributed by a given unit: unit's classpath and files of its dependencies
+     */
+    private static Collection<String> getClassPath(BuildAnalysis.BuildInfo info) {
+        Collection<String> ret = new ArrayList<>(info.classPath);
+        ret.addAll(info.dependencies.stream().filter(dependency ->
+                !StringUtils.isEmpty(dependency.file)).map(dependency ->
+                dependency.file).
+                collect(Collectors.toList()));
+        return ret;
+    }
+
+    /**
+     * @param info build info
+     * @return unit's classpath entries that denote directories
+     */
+    private static Collection<String> getClassPathDirs(BuildAnalysis.BuildInfo info) {
+        return info.classPath.stream().filter(path ->
+                PathUtil.CWD.resolve(path).toFile().isDirectory()).
+                collect(Collectors.toList());
+    }
+
 }
@@ -0,0 +1,550 @@
+package com.sourcegraph.javagraph;
+
+import com.beust.jcommander.Parameter;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Graphs many source units in a single process. Source units are read as a stream of JSON objects, one per line.
+ * Each worker thread keeps its own javac file manager, so boot class path and class path jars are opened and
+ * indexed once per thread rather than once per unit. Dependency resolution results are shared by all units
+ * (see {@link Resolver}).
+ * <p>
+ * For each unit a single line JSON record {"index": N, "unit": "...", "type": "...", "status": 0, ...} is written
+ * to stdout in the same order units were read. Record holds unit's graph ("graph") or, if output directory is set,
+ * name of the file graph was written to ("file"). Failed units have non-zero status and "error" message, they do
+ * not stop the batch.
+ * <p>
+ * With "--dependency-order" units are graphed after units of the same input they depend on (see
+ * {@link UnitScheduler}), with "--single-compilation" units with compatible compiler settings and dependencies
+ * are compiled together (see {@link ReactorGrapher}). In both cases records are still written in input order
+ */
+public class GraphBatchCommand {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphBatchCommand.class);
+
+    @Parameter(names = {"--input"}, description = "File to read source units from (one JSON object per line) instead of stdin")
+    String input;
+
+    @Parameter(names = {"--output-dir"}, description = "Directory to write graph of each unit to (as separate JSON files) instead of embedding graphs into records written to stdout")
+    String outputDir;
+
+    @Parameter(names = {"-j", "--jobs"}, description = "Number of source units graphed concurrently")
+    int jobs = 1;
+
+    @Parameter(names = {"--dependency-order"}, description = "Graph units after units of the same input they depend on (according to source path and dependencies), reads all units before graphing starts")
+    boolean dependencyOrder;
+
+    @Parameter(names = {"--stubs-dir"}, description = "With --dependency-order, directory to write class files of units that compile without errors to, units read classes of units they depend on from there instead of their sources")
+    String stubsDir;
+
+    @Parameter(names = {"--single-compilation"}, description = "Compile all units of the input that share source version, encoding, and boot class path and agree on versions of dependencies they have in common with a single javac invocation, reads all units before graphing starts. Groups javac reports errors for are graphed unit by unit")
+    boolean singleCompilation;
+
+    @Parameter(names = {"--exclude-file"}, description = "Path to a file in .gitignore format listing directories to skip while expanding source unit globs. When given, directories ignored by .gitignore files are skipped as well, otherwise globs match files in every directory")
+    String excludeFile;
+
+    @Parameter(names = {"--file-cache"}, description = "Directory to cache definitions and references of each source file in, files that did not change since the previous run are not attributed again. Ignored with --single-compilation and --stubs-dir")
+    String fileCache;
+
+    @Parameter(names = {"--result-cache"}, description = "Directory (local or on shared file system) to cache graphs of source units in, keyed by fingerprint of unit's inputs. Units whose graphs are cached are not compiled. Ignored with --single-compilation and --stubs-dir")
+    String resultCache;
+
+    @Parameter(names = {"--result-cache-size"}, description = "Size limit of result cache directory, for example 500M or 2G. Least recently used graphs are evicted once the limit is exceeded, 0 disables eviction")
+    String resultCacheSize = "1G";
+
+    /**
+     * Directory source units' relative paths and command's relative paths are resolved against
+     */
+    private final Path workingDir;
+
+    /**
+     * File managers made by worker threads so far
+     */
+    private final Collection<StandardJavaFileManager> fileManagers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * File manager of the current worker thread
+     */
+    private final ThreadLocal<StandardJavaFileManager> fileManager = ThreadLocal.withInitial(() -> {
+        StandardJavaFileManager ret = ToolProvider.getSystemJavaCompiler().
+                getStandardFileManager(null, null, null);
+        fileManagers.add(ret);
+        return ret;
+    });
+
+    /**
+     * Exclusion rules of working directory units' globs are expanded with, null if globs match files in every directory
+     */
+    private IgnoreRules ignoreRules;
+
+    /**
+     * Makes command that works in current working directory
+     */
+    public GraphBatchCommand() {
+        this(PathUtil.CWD);
+    }
+
+    /**
+     * @param workingDir directory source units' relative paths and command's relative paths are resolved against
+     */
+    GraphBatchCommand(Path workingDir) {
+        this.workingDir = workingDir.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Main method
+     */
+    public void Execute() {
+        if (!StringUtils.isEmpty(excludeFile)) {
+            ignoreRules = ScanUtil.getRootRules(workingDir, workingDir.resolve(excludeFile).normalize());
+        }
+
+        Reader r = null;
+        PrintStream out = System.out;
+        // javac and build tools should not mix their output with records
+        System.setOut(System.err);
+        try {
+            if (!StringUtils.isEmpty(input)) {
+                r = Files.newBufferedReader(workingDir.resolve(input), StandardCharsets.UTF_8);
+            } else {
+                r = new InputStreamReader(System.in, StandardCharsets.UTF_8);
+            }
+            run(r, out);
+        } catch (Exception e) {
+            LOGGER.error("Unexpected error occurred while graphing source units", e);
+            System.exit(1);
+        } finally {
+            IOUtils.closeQuietly(r);
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Graphs source units read from a given reader according to command's options
+     * @param r source of units, one JSON object per line
+     * @param out stream to write records to
+     * @throws Exception
+     */
+    void run(Reader r, OutputStream out) throws Exception {
+        if (singleCompilation && dependencyOrder) {
+            throw new IllegalArgumentException("--single-compilation cannot be combined with --dependency-order");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(jobs, 1));
+        try {
+            Path outputPath = null;
+            if (!StringUtils.isEmpty(outputDir)) {
+                outputPath = workingDir.resolve(outputDir);
+                Files.createDirectories(outputPath);
+            }
+            if (singleCompilation) {
+                processTogether(new BufferedReader(r), executor, outputPath, out);
+            } else if (dependencyOrder) {
+                Path stubsPath = StringUtils.isEmpty(stubsDir) ? null : workingDir.resolve(stubsDir);
+                processInDependencyOrder(new BufferedReader(r), executor, outputPath, stubsPath, out);
+            } else {
+                process(new BufferedReader(r), executor, outputPath, out);
+            }
+        } finally {
+            executor.shutdownNow();
+            for (StandardJavaFileManager manager : fileManagers) {
+                IOUtils.closeQuietly(manager);
+            }
+            fileManagers.clear();
+        }
+    }
+
+    /**
+     * Reads source units and graphs them, keeping at most "jobs" units in flight, writes records in input order
+     * @param reader source of units
+     * @param executor executor to graph units with
+     * @param outputPath directory to write graphs to, may be null
+     * @param out stream to write records to
+     * @throws Exception
+     */
+    private void process(BufferedReader reader,
+                         ExecutorService executor,
+                         Path outputPath,
+                         OutputStream out) throws Exception {
+        Deque<Future<Record>> inFlight = new ArrayDeque<>();
+        String line;
+        int index = 0;
+        while ((line = reader.readLine()) != null) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+            String unitData = line;
+            int unitIndex = index++;
+            inFlight.add(executor.submit(() -> graph(unitIndex, unitData, fileManager.get(), outputPath)));
+            if (inFlight.size() >= Math.max(jobs, 1)) {
+                JSONUtil.writeJSONLine(inFlight.remove().get(), out);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            JSONUtil.writeJSONLine(inFlight.remove().get(), out);
+        }
+    }
+
+    /**
+     * Reads all source units and graphs them so that each unit starts after units it depends on are done
+     * (see {@link UnitScheduler}), keeping at most "jobs" units in flight, writes records in input order.
+     * If stubs directory is set, units write their signature stubs there and dependent units use them
+     * instead of sources of units they depend on (see {@link SignatureStubs})
+     * @param reader source of units
+     * @param executor executor to graph units with
+     * @param outputPath directory to write graphs to, may be null
+     * @param stubsPath directory to write signature stubs to, may be null
+     * @param out stream to write records to
+     * @throws Exception
+     */
+    private void processInDependencyOrder(BufferedReader reader,
+                                          ExecutorService executor,
+                                          Path outputPath,
+                                          Path stubsPath,
+                                          OutputStream out) throws Exception {
+        Map<Integer, Record> malformed = new HashMap<>();
+        List<SourceUnit> units = readUnits(reader, malformed);
+
+        OrderedWriter writer = new OrderedWriter(units.size(), out);
+        new UnitScheduler(units).<Record>run(executor, jobs, (index, upstreamRecords) -> {
+            Record record = malformed.get(index);
+            if (record != null) {
+                return record;
+            }
+            SourceUnit unit = units.get(index);
+            GraphContext context = newContext(unit, fileManager.get());
+            if (stubsPath != null && unit != null) {
+                context.setStubOutput(stubsPath.resolve(getBaseName(index, unit)));
+                for (Record upstream : upstreamRecords.values()) {
+                    if (upstream.stubs != null) {
+                        try {
+                            context.addUpstreamStubs(upstream.unit, upstream.stubs);
+                        } catch (IOException e) {
+                            LOGGER.warn("Unable to read signature stubs of {}", upstream.unit, e);
+                        }
+                    }
+                }
+            }
+            return graph(index, context, outputPath);
+        }, (index, record) -> writer.write(record));
+    }
+
+    /**
+     * Reads all source units and compiles units with compatible compiler settings together
+     * (see {@link ReactorGrapher}). Groups of units are graphed concurrently, keeping at most "jobs" groups in flight,
+     * records are written in input order
+     * @param reader source of units
+     * @param executor executor to graph units with
+     * @param outputPath directory to write graphs to, may be null
+     * @param out stream to write records to
+     * @throws Exception
+     */
+    private void processTogether(BufferedReader reader,
+                                 ExecutorService executor,
+                                 Path outputPath,
+                                 OutputStream out) throws Exception {
+        Map<Integer, Record> malformed = new HashMap<>();
+        List<SourceUnit> units = readUnits(reader, malformed);
+
+        // units that cannot be read or examined are graphed alone
+        List<List<Integer>> groups = ReactorGrapher.group(units);
+
+        CompletionService<List<Record>> completion = new ExecutorCompletionService<>(executor);
+        for (List<Integer> group : groups) {
+            completion.submit(() -> {
+                List<Record> ret = new ArrayList<>();
+                List<Integer> indexes = new ArrayList<>();
+                List<GraphContext> contexts = new ArrayList<>();
+                for (Integer index : group) {
+                    Record record = malformed.get(index);
+                    if (record != null) {
+                        ret.add(record);
+                    } else {
+                        indexes.add(index);
+                        contexts.add(newContext(units.get(index), fileManager.get()));
+                    }
+                }
+                List<GraphResult> results = new ReactorGrapher(contexts, workingDir, fileManager.get()).graph();
+                for (int i = 0; i < indexes.size(); i++) {
+                    GraphResult result = results.get(i);
+                    ret.add(toRecord(indexes.get(i), contexts.get(i).getUnit(), () -> result, outputPath));
+                }
+                return ret;
+            });
+        }
+
+        OrderedWriter writer = new OrderedWriter(units.size(), out);
+        for (int i = 0; i < groups.size(); i++) {
+            for (Record record : completion.take().get()) {
+                writer.write(record);
+            }
+        }
+    }
+
+    /**
+     * @param unit source unit to graph
+     * @param fileManager file manager to reuse
+     * @return context of unit in working directory, unit's globs skip directories excluded by exclusion file
+     */
+    private GraphContext newContext(SourceUnit unit, StandardJavaFileManager fileManager) {
+        GraphContext context = new GraphContext(unit, workingDir, fileManager);
+        context.setIgnoreRules(ignoreRules);
+        return context;
+    }
+
+    /**
+     * Reads all source units
+     * @param reader source of units
+     * @param malformed map to fill with records of units that cannot be read, unit index => record
+     * @return units read, null for units that cannot be read
+     * @throws IOException
+     */
+    private static List<SourceUnit> readUnits(BufferedReader reader, Map<Integer, Record> malformed)
+            throws IOException {
+        List<SourceUnit> units = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+            try {
+                units.add(new Gson().fromJson(line, SourceUnit.class));
+            } catch (JsonParseException e) {
+                malformed.put(units.size(), malformed(units.size(), e));
+                units.add(null);
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Graphs single unit, never throws
+     * @param index index of unit in input
+     * @param unitData unit in JSON format
+     * @param fileManager file manager to reuse
+     * @param outputPath directory to write graph to, may be null
+     * @return record that describes result
+     */
+    private Record graph(int index,
+                         String unitData,
+                         StandardJavaFileManager fileManager,
+                         Path outputPath) {
+        SourceUnit unit;
+        try {
+            unit = new Gson().fromJson(unitData, SourceUnit.class);
+        } catch (JsonParseException e) {
+            return malformed(index, e);
+        }
+        return graph(index, newContext(unit, fileManager), outputPath);
+    }
+
+    /**
+     * Graphs single unit, never throws
+     * @param index index of unit in input
+     * @param context context of unit to graph
+     * @param outputPath directory to write graph to, may be null
+     * @return record that describes result
+     */
+    private Record graph(int index,
+                         GraphContext context,
+                         Path outputPath) {
+        if (!StringUtils.isEmpty(fileCache)) {
+            context.setFileCache(workingDir.resolve(fileCache));
+        }
+        if (StringUtils.isEmpty(resultCache) || context.getStubOutput() != null) {
+            return toRecord(index, context.getUnit(), context::graph, outputPath);
+        }
+        SourceUnit unit = context.getUnit();
+        GraphResultCache cache = new GraphResultCache(workingDir.resolve(resultCache),
+                ArtifactCache.parseSize(resultCacheSize));
+        String key = null;
+        try {
+            key = cache.getKey(context);
+            Path cached = cache.get(key);
+            if (cached != null) {
+                LOGGER.info("Graph of {} is taken from result cache", unit.Name);
+                return toRecord(index, unit, cached, outputPath);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Unable to compute fingerprint of {}", unit.Name, e);
+        }
+        String resultKey = key;
+        return toRecord(index, unit, () -> {
+            GraphResult result = context.graph();
+            if (result.isSuccess() && resultKey != null) {
+                cache.put(resultKey, result.getGraph());
+            }
+            return result;
+        }, outputPath);
+    }
+
+    /**
+     * Makes record of graphed unit, writes unit's graph if needed, never throws
+     * @param index index of unit in input
+     * @param unit graphed unit
+     * @param graphing builds graph of unit
+     * @param outputPath directory to write graph to, may be null
+     * @return record that describes result
+     */
+    private Record toRecord(int index,
+                            SourceUnit unit,
+                            Supplier<GraphResult> graphing,
+                            Path outputPath) {
+        Record record = new Record();
+        record.index = index;
+        try {
+            record.unit = unit.Name;
+            record.type = unit.Type;
+            GraphResult result = graphing.get();
+            if (!result.isSuccess()) {
+                throw result.getError();
+            }
+            record.stubs = result.getStubs();
+            GraphCommand.Graph graph = result.getGraph();
+            if (outputPath == null) {
+                record.graph = graph;
+            } else {
+                Path file = outputPath.resolve(getFileName(index, unit));
+                try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+                    JSONUtil.writeJSON(graph, os);
+                }
+                record.file = PathUtil.relativize(workingDir, file);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Unable to graph source unit #{} {}", index, StringUtils.defaultString(record.unit), e);
+            record.status = 1;
+            record.error = e.toString();
+        }
+        return record;
+    }
+
+    /**
+     * Makes record of unit whose graph was taken from result cache, copies unit's graph if needed, never throws
+     * @param index index of unit in input
+     * @param unit graphed unit
+     * @param cached file that holds cached graph
+     * @param outputPath directory to write graph to, may be null
+     * @return record that describes result
+     */
+    private Record toRecord(int index,
+                            SourceUnit unit,
+                            Path cached,
+                            Path outputPath) {
+        Record record = new Record();
+        record.index = index;
+        record.unit = unit.Name;
+        record.type = unit.Type;
+        try {
+            if (outputPath == null) {
+                try (Reader r = Files.newBufferedReader(cached, StandardCharsets.UTF_8)) {
+                    record.graph = new JsonParser().parse(r);
+                }
+            } else {
+                Path file = outputPath.resolve(getFileName(index, unit));
+                Files.copy(cached, file, StandardCopyOption.REPLACE_EXISTING);
+                record.file = PathUtil.relativize(workingDir, file);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Unable to read cached graph of source unit #{} {}", index, unit.Name, e);
+            record.status = 1;
+            record.error = e.toString();
+        }
+        return record;
+    }
+
+    /**
+     * @param index index of unit in input
+     * @param e parse error
+     * @return record that describes unit that cannot be read
+     */
+    private static Record malformed(int index, JsonParseException e) {
+        LOGGER.error("Unable to read source unit #{}", index, e);
+        Record record = new Record();
+        record.index = index;
+        record.status = 1;
+        record.error = "Malformed source unit: " + e.getMessage();
+        return record;
+    }
+
+    /**
+     * @param index index of unit in input
+     * @param unit source unit
+     * @return name of file to write unit's graph to, index keeps names of units with the same name unique
+     */
+    private static String getFileName(int index, SourceUnit unit) {
+        return getBaseName(index, unit) + ".graph.json";
+    }
+
+    /**
+     * @param index index of unit in input
+     * @param unit source unit
+     * @return name of file or directory to write unit's data to, unique for each unit
+     */
+    private static String getBaseName(int index, SourceUnit unit) {
+        return String.valueOf(index) + '-' + StringUtils.defaultString(unit.Name).replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * Writes records in input order as soon as all the preceding records are written
+     */
+    private static class OrderedWriter {
+
+        private final Record[] records;
+
+        private final OutputStream out;
+
+        /**
+         * Index of the next record to write
+         */
+        private int next;
+
+        OrderedWriter(int size, OutputStream out) {
+            this.records = new Record[size];
+            this.out = out;
+        }
+
+        void write(Record record) throws IOException {
+            records[record.index] = record;
+            while (next < records.length && records[next] != null) {
+                JSONUtil.writeJSONLine(records[next], out);
+                records[next++] = null;
+            }
+        }
+    }
+
+    /**
+     * Result of graphing single unit
+     */
+    private static class Record {
+        int index;
+        String unit;
+        String type;
+        int status;
+        String error;
+        String file;
+        /**
+         * Graph built or JSON of cached graph
+         */
+        Object graph;
+        /**
+         * Directory signature stubs of unit were written to, not reported
+         */
+        transient Path stubs;
+    }
+}
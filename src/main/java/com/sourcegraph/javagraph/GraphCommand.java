@@ -4,16 +4,18 @@ import com.beust.jcommander.Parameter;
 import com.google.gson.Gson;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.codehaus.plexus.util.DirectoryScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.stream.Collectors;
 
 public class GraphCommand {
 
@@ -22,21 +24,28 @@ public class GraphCommand {
     @Parameter(names = {"--debug-unit-file"}, description = "The path to a source unit input file, which will be read as though it came from stdin. Used to mimic stdin when you can't actually pipe to stdin (e.g., in IntelliJ run configurations).")
     String debugUnitFile;
 
-    /**
-     * The Source Unit that is read in from STDIN. Defined here, so that it can be
-     * accessed within the anonymous classes below.
-     */
-    public static SourceUnit unit;
+    @Parameter(names = {"--exclude-file"}, description = "Path to a file in .gitignore format listing directories to skip while expanding source unit globs. When given, directories ignored by .gitignore files are skipped as well, otherwise globs match files in every directory")
+    String excludeFile;
+
+    @Parameter(names = {"--file-cache"}, description = "Directory to cache definitions and references of each source file in, files that did not change since the previous run (and do not depend on changed signatures) are not attributed again")
+    String fileCache;
+
+    @Parameter(names = {"--changed-files"}, description = "With --file-cache, path to a file listing files changed since the previous run (one per line, relative to current directory, for example output of git diff --name-only). Only changed files and files depending on their changed signatures are compiled")
+    String changedFiles;
+
+    @Parameter(names = {"--result-cache"}, description = "Directory (local or on shared file system) to cache graphs of source units in, keyed by fingerprint of unit's inputs. If graph of unit with the same inputs is cached, it is printed without compiling unit")
+    String resultCache;
+
+    @Parameter(names = {"--result-cache-size"}, description = "Size limit of result cache directory, for example 500M or 2G. Least recently used graphs are evicted once the limit is exceeded, 0 disables eviction")
+    String resultCacheSize = "1G";
 
     /**
      * Main method
      */
-    @SuppressWarnings("unchecked")
     public void Execute() {
 
-        final Graph graph = new Graph(); // Final graphJavaFiles object that is serialized to stdout
-        final GraphData rawGraph = new GraphData(); // Raw graphJavaFiles from the tree traversal
         Reader r = null;
+        SourceUnit unit = null;
         try {
             if (!StringUtils.isEmpty(debugUnitFile)) {
                 LOGGER.debug("Reading source unit JSON data from {}", debugUnitFile);
@@ -52,73 +61,89 @@ public class GraphCommand {
         } finally {
             IOUtils.closeQuietly(r);
         }
-        LOGGER.info("Building graph for {}", unit.Name);
 
-        Project proj = unit.getProject();
-        Resolver rs = new Resolver(proj, unit);
         try {
-            Grapher grapher = new Grapher(unit,
-                    rawGraph);
-            LOGGER.debug("Starting graph collection");
-            Collection<String> files = new ArrayList<>();
-            if (unit.Files != null) {
-                files.addAll(unit.Files);
-            }
-            files.addAll(collectFilesUsingGlobs(unit.Globs));
-            Collection<String> extraFiles = unit.Data.ExtraSourceFiles;
-            if (extraFiles != null) {
-                files.addAll(extraFiles);
-            }
-            grapher.graphFilesAndDirs(files);
-            LOGGER.debug("Graph collection complete");
-            grapher.close();
-
-            LOGGER.debug("Collecting defs");
-            graph.Defs = rawGraph.defs;
-            for (Def def : rawGraph.defs) {
-                // Ignore empty docstrings.
-                if (def.doc != null) {
-                    graph.Docs.add(new Doc(def));
-                }
-            }
-            LOGGER.debug("Collecting refs");
-            for (Ref ref : rawGraph.refs) {
-                ResolvedTarget target = rs.resolveOrigin(ref.defKey.getOrigin());
-                if (target != null) {
-                    ref.setDefTarget(target);
-                }
-            }
-            graph.Refs = rawGraph.refs;
+            writeGraph(unit, System.out);
+            System.out.flush();
         } catch (Exception e) {
             LOGGER.error("Unexpected error occurred while building graph", e);
             System.exit(1);
         }
+    }
+
+    /**
+     * Writes graph of a given source unit in current working directory. If result cache is configured and holds
+     * graph of unit with the same inputs, cached graph is copied without compiling unit
+     * @param unit source unit to build graph for
+     * @param out stream to write graph to, in JSON format
+     * @throws Exception if graph cannot be built
+     */
+    void writeGraph(SourceUnit unit, OutputStream out) throws Exception {
+        if (StringUtils.isEmpty(resultCache)) {
+            JSONUtil.writeJSON(graph(unit), out);
+            return;
+        }
+        GraphResultCache cache = new GraphResultCache(PathUtil.CWD.resolve(resultCache),
+                ArtifactCache.parseSize(resultCacheSize));
+        String key = null;
+        try {
+            key = cache.getKey(newContext(unit));
+            Path cached = cache.get(key);
+            if (cached != null) {
+                LOGGER.info("Graph of {} is taken from result cache", unit.Name);
+                Files.copy(cached, out);
+                return;
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Unable to compute fingerprint of {}", unit.Name, e);
+        }
+        Graph graph = graph(unit);
+        Path stored = key == null ? null : cache.put(key, graph);
+        if (stored != null) {
+            Files.copy(stored, out);
+        } else {
+            JSONUtil.writeJSON(graph, out);
+        }
+    }
 
-        JSONUtil.writeJSON(graph);
+    /**
+     * @param unit source unit to graph
+     * @return context of unit in current working directory, unit's globs skip directories excluded by exclusion file
+     */
+    private GraphContext newContext(SourceUnit unit) {
+        GraphContext context = new GraphContext(unit);
+        if (!StringUtils.isEmpty(excludeFile)) {
+            context.setIgnoreRules(ScanUtil.getRootRules(PathUtil.CWD,
+                    PathUtil.CWD.resolve(excludeFile).normalize()));
+        }
+        return context;
     }
 
     /**
-     * Collects files using globs if any
-     * @param globs globs
-     * @return list of files matching given globs
+     * Builds graph of a given source unit in current working directory
+     * @param unit source unit to build graph for
+     * @return definitions, references, and docs found
+     * @throws Exception if graph cannot be built
      */
-    private Collection<String> collectFilesUsingGlobs(List<String> globs) {
-        if (globs == null || globs.isEmpty()) {
-            return Collections.emptyList();
+    Graph graph(SourceUnit unit) throws Exception {
+        GraphContext context = newContext(unit);
+        if (!StringUtils.isEmpty(fileCache)) {
+            context.setFileCache(PathUtil.CWD.resolve(fileCache));
+        }
+        if (!StringUtils.isEmpty(changedFiles)) {
+            if (StringUtils.isEmpty(fileCache)) {
+                throw new IllegalArgumentException("--changed-files requires --file-cache");
+            }
+            context.setChangedFiles(Files.readAllLines(PathUtil.CWD.resolve(changedFiles)).stream().
+                    filter(StringUtils::isNotBlank).
+                    map(String::trim).
+                    collect(Collectors.toList()));
         }
-        LOGGER.info("Collecting files using globs");
-        final DirectoryScanner directoryScanner = new DirectoryScanner();
-        String globsArray[] = new String[globs.size()];
-        globs.toArray(globsArray);
-        directoryScanner.setIncludes(globsArray);
-        directoryScanner.setExcludes(new String[] {".gradle-srclib/**", ".m2-srclib/**"});
-        directoryScanner.setBasedir(PathUtil.CWD.toString());
-        directoryScanner.scan();
-        Collection<String> files = new LinkedList<>();
-        for (String fileName : directoryScanner.getIncludedFiles()) {
-            files.add(PathUtil.concat(PathUtil.CWD, fileName).toString());
+        GraphResult result = context.graph();
+        if (!result.isSuccess()) {
+            throw result.getError();
         }
-        return files;
+        return result.getGraph();
     }
 
     /**
@@ -153,7 +178,8 @@ public class GraphCommand {
             //TODO(rameshvarun): Render javadoc string?
             Format = "text/html";
             Data = def.doc;
-            File = PathUtil.relativizeCwd(def.file);
+            // definition's file is already relative to unit's working directory (see GraphContext.Emitter)
+            File = def.file;
             Unit = def.unitName;
         }
     }
@@ -0,0 +1,383 @@
+package com.sourcegraph.javagraph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.tools.StandardJavaFileManager;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * State of graphing of a single source unit: the unit itself, directory unit's relative paths are resolved against,
+ * and caches that live as long as graphing lasts. Graph contexts share nothing mutable, thus different source units
+ * may be graphed concurrently, each one in its own context. Context is not supposed to be used by more than one
+ * thread at a time
+ */
+public class GraphContext {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphContext.class);
+
+    private final SourceUnit unit;
+
+    private final Path workingDir;
+
+    private final StandardJavaFileManager fileManager;
+
+    private final Origins origins = new Origins();
+
+    /**
+     * Directory to write signature stubs of unit to, null if stubs are not needed
+     */
+    private Path stubOutput;
+
+    /**
+     * True if grapher wrote signature stubs
+     */
+    private boolean stubsWritten;
+
+    /**
+     * Upstream unit name => its signature stubs to use instead of unit's sources from source path
+     */
+    private final Map<String, SignatureStubs> upstreamStubs = new LinkedHashMap<>();
+
+    /**
+     * Cache of definitions and references of unit's files, null if files are always graphed
+     */
+    private FileGraphCache fileCache;
+
+    /**
+     * Files changed since the previous run, null if unknown
+     */
+    private Collection<String> changedFiles;
+
+    /**
+     * Exclusion rules of working directory unit's globs are expanded with, null if globs match files
+     * in every directory
+     */
+    private IgnoreRules ignoreRules;
+
+    /**
+     * Makes context that resolves paths against current working directory
+     * @param unit source unit to graph
+     */
+    public GraphContext(SourceUnit unit) {
+        this(unit, PathUtil.CWD, null);
+    }
+
+    /**
+     * @param unit source unit to graph
+     * @param workingDir directory source unit's relative paths (files, class path, source path) are resolved against
+     * @param fileManager file manager to reuse, null to make new one. Shared file manager should not be used
+     *                    by more than one context at a time
+     */
+    public GraphContext(SourceUnit unit, Path workingDir, StandardJavaFileManager fileManager) {
+        this.unit = unit;
+        this.workingDir = workingDir.toAbsolutePath().normalize();
+        this.fileManager = fileManager;
+    }
+
+    /**
+     * @return source unit to graph
+     */
+    public SourceUnit getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return directory source unit's relative paths are resolved against
+     */
+    public Path getWorkingDir() {
+        return workingDir;
+    }
+
+    /**
+     * @return file manager to reuse or null
+     */
+    StandardJavaFileManager getFileManager() {
+        return fileManager;
+    }
+
+    /**
+     * @return resolver of java file objects of program elements
+     */
+    Origins getOrigins() {
+        return origins;
+    }
+
+    /**
+     * Asks to write signature stubs of unit (see {@link SignatureStubs}) while graphing. Stubs are written only
+     * if unit compiles without errors
+     * @param stubOutput directory to write stubs to, existing directory is cleaned first
+     */
+    public void setStubOutput(Path stubOutput) {
+        this.stubOutput = stubOutput;
+    }
+
+    /**
+     * @return directory to write signature stubs of unit to, null if stubs are not needed
+     */
+    Path getStubOutput() {
+        return stubOutput;
+    }
+
+    /**
+     * Marks signature stubs as written
+     */
+    void setStubsWritten() {
+        stubsWritten = true;
+    }
+
+    /**
+     * Makes grapher read classes of a given upstream unit from its signature stubs: stub directory goes to class path
+     * and unit's entries are removed from source path. Does nothing if directory holds no complete stubs
+     * @param unitName name of unit current unit depends on, as listed in source path
+     * @param stubDir directory stubs of upstream unit were written to
+     * @throws IOException
+     */
+    public void addUpstreamStubs(String unitName, Path stubDir) throws IOException {
+        SignatureStubs stubs = SignatureStubs.read(stubDir);
+        if (stubs == null) {
+            LOGGER.debug("No signature stubs of {} found in {}", unitName, stubDir);
+            return;
+        }
+        upstreamStubs.put(unitName, stubs);
+        origins.addStubs(stubs);
+    }
+
+    /**
+     * @return upstream unit name => its signature stubs
+     */
+    Map<String, SignatureStubs> getUpstreamStubs() {
+        return upstreamStubs;
+    }
+
+    /**
+     * Makes grapher replay definitions and references of files that did not change since the previous run
+     * (see {@link FileGraphCache}) instead of attributing them. Ignored if signature stubs are written
+     * @param cacheDir directory to keep file cache entries in, null to graph all the files
+     */
+    public void setFileCache(Path cacheDir) {
+        this.fileCache = cacheDir == null ? null : new FileGraphCache(cacheDir);
+    }
+
+    /**
+     * @return cache of definitions and references of unit's files, null if files are always graphed
+     */
+    FileGraphCache getFileCache() {
+        return fileCache;
+    }
+
+    /**
+     * Tells which files changed since the previous run backed by file cache (see {@link #setFileCache(Path)}),
+     * so that other files are not given to javac at all. Files not listed are supposed to be the same as cached
+     * @param changedFiles paths of changed files, relative to working directory (for example, VCS diff output),
+     *                     may list files of other units. Null if unknown
+     */
+    public void setChangedFiles(Collection<String> changedFiles) {
+        this.changedFiles = changedFiles;
+    }
+
+    /**
+     * Makes unit's globs skip ignored directories
+     * @param ignoreRules exclusion rules of working directory (see {@link ScanUtil#getRootRules(Path, Path)}),
+     *                    null if globs match files in every directory
+     */
+    public void setIgnoreRules(IgnoreRules ignoreRules) {
+        this.ignoreRules = ignoreRules;
+    }
+
+    /**
+     * @return paths of files changed since the previous run, null if unknown
+     */
+    Collection<String> getChangedFiles() {
+        return changedFiles;
+    }
+
+    /**
+     * Builds graph of source unit, never throws
+     * @return graph built or failure
+     */
+    public GraphResult graph() {
+        try {
+            GraphCommand.Graph graph = build();
+            return new GraphResult(graph, stubsWritten ? stubOutput : null);
+        } catch (Exception e) {
+            LOGGER.debug("Unable to build graph for {}", unit.Name, e);
+            return new GraphResult(e);
+        }
+    }
+
+    /**
+     * Builds graph of source unit
+     * @return definitions, references, and docs found, file paths are relative to working directory
+     * @throws Exception
+     */
+    private GraphCommand.Graph build() throws Exception {
+        final GraphData rawGraph = new GraphData();
+        graph(rawGraph);
+        return toGraph(rawGraph);
+    }
+
+    /**
+     * @param rawGraph definitions and references collected
+     * @return graph to serialize
+     */
+    static GraphCommand.Graph toGraph(GraphData rawGraph) {
+        final GraphCommand.Graph graph = new GraphCommand.Graph(); // Final graphJavaFiles object that is serialized to stdout
+        graph.Defs = rawGraph.defs;
+        for (Def def : rawGraph.defs) {
+            // Ignore empty docstrings.
+            if (def.doc != null) {
+                graph.Docs.add(new GraphCommand.Doc(def));
+            }
+        }
+        graph.Refs = rawGraph.refs;
+        return graph;
+    }
+
+    /**
+     * Builds graph of source unit and passes definitions and references to a given writer as soon as they are found.
+     * Definitions and references passed are final: file paths are relative to working directory and references
+     * point to units and repositories of definitions they refer to
+     * @param writer target to pass definitions and references to
+     * @throws Exception
+     */
+    void graph(GraphWriter writer) throws Exception {
+        LOGGER.info("Building graph for {}", unit.Name);
+
+        Emitter emitter = newEmitter(writer);
+        Grapher grapher = new Grapher(this, emitter);
+        LOGGER.debug("Starting graph collection");
+        Collection<String> files = getFiles();
+        try {
+            grapher.graphFilesAndDirs(files);
+            LOGGER.debug("Graph collection complete");
+        } finally {
+            grapher.close();
+        }
+        emitter.check();
+    }
+
+    /**
+     * @return files and directories unit consists of: listed files, files matching unit's globs, and extra files
+     */
+    Collection<String> getFiles() {
+        Collection<String> files = new ArrayList<>();
+        if (unit.Files != null) {
+            files.addAll(unit.Files);
+        }
+        files.addAll(collectFilesUsingGlobs(unit.Globs));
+        Collection<String> extraFiles = unit.Data.ExtraSourceFiles;
+        if (extraFiles != null) {
+            files.addAll(extraFiles);
+        }
+        return files;
+    }
+
+    /**
+     * @param writer target to pass definitions and references to
+     * @return writer that makes definitions and references of unit final and passes them to a given writer
+     * @throws Exception
+     */
+    Emitter newEmitter(GraphWriter writer) throws Exception {
+        return new Emitter(writer, new Resolver(unit.getProject(), unit, workingDir));
+    }
+
+    /**
+     * Collects files using globs if any. Globs match files in every directory unless exclusion rules are set
+     * (see {@link #setIgnoreRules(IgnoreRules)}), then directories ignored by them and by .gitignore files are skipped
+     * @param globs globs
+     * @return list of files matching given globs
+     */
+    private Collection<String> collectFilesUsingGlobs(List<String> globs) {
+        if (globs == null || globs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        LOGGER.info("Collecting files using globs");
+        return new GlobExpander(workingDir, globs, ignoreRules).expand();
+    }
+
+    /**
+     * Makes definitions and references produced by grapher final and passes them to target writer
+     */
+    class Emitter implements GraphWriter {
+
+        private final GraphWriter target;
+
+        private final Resolver resolver;
+
+        /**
+         * First failure to resolve reference's origin or to pass definition or reference to target writer.
+         * Grapher skips compilation units writer fails on, thus failure is reported once graphing is complete
+         */
+        private Exception error;
+
+        Emitter(GraphWriter target, Resolver resolver) {
+            this.target = target;
+            this.resolver = resolver;
+        }
+
+        @Override
+        public void writeRef(Ref r) throws IOException {
+            if (r.file != null) {
+                r.file = PathUtil.relativize(workingDir, workingDir.resolve(r.file));
+            }
+            ResolvedTarget resolved;
+            try {
+                resolved = resolver.resolveOrigin(r.defKey.getOrigin());
+            } catch (Exception e) {
+                // grapher skips refs writer fails on, remembering failure to report it once graphing is complete
+                fail(e);
+                return;
+            }
+            if (resolved != null) {
+                r.setDefTarget(resolved);
+            }
+            try {
+                target.writeRef(r);
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public void writeDef(Def s) throws IOException {
+            if (s.file != null) {
+                s.file = PathUtil.relativize(workingDir, workingDir.resolve(s.file));
+            }
+            try {
+                target.writeDef(s);
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        /**
+         * Remembers the first failure
+         * @param e failure
+         */
+        private void fail(Exception e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+
+        /**
+         * Reports failure to resolve reference's origin or to write definition or reference if any
+         * @throws Exception
+         */
+        void check() throws Exception {
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.sourcegraph.javagraph;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of graphing of a single source unit: either graph or failure
+ */
+public class GraphResult {
+
+    private final GraphCommand.Graph graph;
+
+    private final Exception error;
+
+    private final Path stubs;
+
+    GraphResult(GraphCommand.Graph graph, Path stubs) {
+        this.graph = graph;
+        this.error = null;
+        this.stubs = stubs;
+    }
+
+    GraphResult(Exception error) {
+        this.graph = null;
+        this.error = error;
+        this.stubs = null;
+    }
+
+    /**
+     * @return true if graph was built
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return graph built or null on failure
+     */
+    GraphCommand.Graph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return failure or null if graph was built
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * @return directory signature stubs of unit were written to, null if stubs were not requested or
+     * unit did not compile cleanly
+     */
+    public Path getStubs() {
+        return stubs;
+    }
+}
@@ -0,0 +1,477 @@
+package com.sourcegraph.javagraph;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of whole graphs of source units. Graph is stored under a fingerprint of everything graph depends on:
+ * source unit itself, content of unit's files, content of boot class path, class path, and source path entries,
+ * compiler settings, srclib-java and JDK versions. If fingerprint of unit matches cached one, graph is taken
+ * from cache without starting javac.
+ * <p>
+ * Paths that make a part of fingerprint are relative to working directory (files found in directory entries
+ * of class path and source path are relative to these entries), so that checkouts of the same repository in different
+ * directories share cache entries. Paths located outside of working directory stay absolute.
+ * <p>
+ * Files are hashed in parallel. Hashes of files are memoized by path, size, and modification time for the lifetime
+ * of process and are remembered in cache directory as well (per jar file, per directory entry, and per unit's file
+ * list), so that unchanged files are not read again by the next run. Unit's files found in source path directories
+ * are hashed once, as unit's files.
+ * <p>
+ * Cache directory may be local or located on shared file system, entries are written atomically. When cache
+ * directory grows beyond size limit, least recently used entries and memos are evicted, at most once an hour.
+ * Entries read or written during the last hour are kept
+ */
+class GraphResultCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphResultCache.class);
+
+    private static final String ENTRY_EXTENSION = ".graph.json";
+
+    /**
+     * Sub-directory to keep memoized hashes of jar files in
+     */
+    private static final String JARS_DIR = "jars";
+
+    /**
+     * Sub-directory to keep memoized hashes of files of directories and units in
+     */
+    private static final String DIRS_DIR = "dirs";
+
+    /**
+     * File that remembers time of the last eviction pass
+     */
+    private static final String EVICT_STAMP = "evict.stamp";
+
+    /**
+     * Minimum interval between eviction passes, milliseconds
+     */
+    private static final long EVICT_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Files used more recently than that are never evicted, milliseconds
+     */
+    private static final long MIN_IDLE_TIME = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Path, size, and modification time of file => SHA-1 of file content
+     */
+    private static final Map<String, String> HASHES = new ConcurrentHashMap<>();
+
+    private final Path dir;
+
+    /**
+     * Size limit of cache directory in bytes, 0 if there is no limit
+     */
+    private final long maxSize;
+
+    /**
+     * @param dir directory to keep cache entries in
+     * @param maxSize size limit of cache directory in bytes, 0 if there is no limit
+     */
+    GraphResultCache(Path dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Computes fingerprint of unit's inputs
+     * @param context context of unit to graph
+     * @return key to look up graph of unit in cache
+     * @throws Exception
+     */
+    String getKey(GraphContext context) throws Exception {
+        SourceUnit unit = context.getUnit();
+        Path workingDir = context.getWorkingDir();
+        Project project = unit.getProject();
+
+        Hasher hasher = Hashing.sha1().newHasher();
+        putString(hasher, Main.getVersion());
+        putString(hasher, System.getProperty("java.version"));
+        putString(hasher, new Gson().toJson(unit));
+        putString(hasher, StringUtils.defaultString(project.getSourceCodeVersion()));
+        putString(hasher, StringUtils.defaultString(project.getSourceCodeEncoding()));
+
+        List<Path> files = Grapher.collectFiles(workingDir, context.getFiles()).stream().
+                map(file -> Paths.get(file).toAbsolutePath().normalize()).
+                collect(Collectors.toList());
+        Set<Path> unitFiles = new HashSet<>(files);
+
+        putPaths(hasher, "bootclasspath", Grapher.getBootClassPath(project), workingDir, unitFiles);
+        putPaths(hasher, "classpath", project.getClassPath(), workingDir, unitFiles);
+        putPaths(hasher, "sourcepath", project.getSourcePath(), workingDir, unitFiles);
+
+        putString(hasher, "files");
+        Memo memo = new Memo(getMemoFile(DIRS_DIR, "unit\n" + workingDir + "\n" + unit.Name + "\n" + unit.Type));
+        putHashes(hasher, files, workingDir, memo);
+        memo.save();
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @param key unit's fingerprint
+     * @return file that holds cached graph in JSON format, null if there is no such graph
+     */
+    Path get(String key) {
+        Path file = dir.resolve(key + ENTRY_EXTENSION);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        touch(file);
+        return file;
+    }
+
+    /**
+     * Stores graph, never throws
+     * @param key unit's fingerprint
+     * @param graph graph to store
+     * @return file that holds graph in JSON format, null if graph cannot be stored
+     */
+    Path put(String key, GraphCommand.Graph graph) {
+        try {
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                JSONUtil.writeJSON(graph, os);
+            }
+            Path file = dir.resolve(key + ENTRY_EXTENSION);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+            return file;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to store graph {} in result cache", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds class path or source path entries and content of their files to hash
+     * @param hasher hash to update
+     * @param name name of path
+     * @param paths path entries, may be null
+     * @param workingDir directory to resolve entries against
+     * @param unitFiles unit's own files, they are hashed separately
+     * @throws IOException
+     */
+    private void putPaths(Hasher hasher,
+                          String name,
+                          Collection<String> paths,
+                          Path workingDir,
+                          Set<Path> unitFiles) throws IOException {
+        putString(hasher, name);
+        if (paths == null) {
+            return;
+        }
+        for (String path : paths) {
+            Path entry = workingDir.resolve(path).toAbsolutePath().normalize();
+            putString(hasher, PathUtil.relativize(workingDir, entry));
+            if (Files.isDirectory(entry)) {
+                List<Path> files;
+                try (Stream<Path> stream = Files.walk(entry)) {
+                    files = stream.filter(file -> Files.isRegularFile(file) && !unitFiles.contains(file)).
+                            sorted().
+                            collect(Collectors.toList());
+                }
+                Memo memo = new Memo(getMemoFile(DIRS_DIR, "dir\n" + entry));
+                putHashes(hasher, files, entry, memo);
+                memo.save();
+            } else if (Files.isRegularFile(entry)) {
+                putHashes(hasher, Collections.singletonList(entry), entry.getParent(), null);
+            }
+        }
+    }
+
+    /**
+     * Adds paths and content hashes of given files to hash, files are hashed in parallel
+     * @param hasher hash to update
+     * @param files files to add
+     * @param base directory paths of files are relative to
+     * @param memo memoized hashes of files of base directory, null to use jar memos
+     * @throws IOException
+     */
+    private void putHashes(Hasher hasher, List<Path> files, Path base, Memo memo) throws IOException {
+        List<String> hashes;
+        try {
+            hashes = files.parallelStream().map(file -> {
+                try {
+                    return hash(file, base, memo);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (int i = 0; i < files.size(); i++) {
+            putString(hasher, PathUtil.relativize(base, files.get(i)));
+            putString(hasher, hashes.get(i));
+        }
+    }
+
+    /**
+     * @param file file to hash
+     * @param base directory memo keeps paths relative to
+     * @param memo memoized hashes of files of base directory, null to use jar memos
+     * @return SHA-1 of file content, memoized by file path, size, and modification time
+     * @throws IOException
+     */
+    private String hash(Path file, Path base, Memo memo) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        String stamp = attrs.size() + " " + attrs.lastModifiedTime().toMillis();
+        String memoKey = file + "\n" + stamp;
+        String ret = HASHES.get(memoKey);
+        if (ret == null && memo != null) {
+            ret = memo.get(PathUtil.relativize(base, file), stamp);
+        }
+        if (ret != null) {
+            if (memo != null) {
+                memo.put(PathUtil.relativize(base, file), stamp, ret);
+            }
+            HASHES.put(memoKey, ret);
+            return ret;
+        }
+        boolean jar = memo == null && file.getFileName().toString().endsWith(".jar");
+        Path jarMemo = getMemoFile(JARS_DIR, file.toString());
+        if (jar) {
+            ret = readMemo(jarMemo, stamp);
+        }
+        if (ret == null) {
+            ret = com.google.common.io.Files.hash(file.toFile(), Hashing.sha1()).toString();
+            if (jar) {
+                writeMemo(jarMemo, stamp + " " + ret);
+            }
+        }
+        if (memo != null) {
+            memo.put(PathUtil.relativize(base, file), stamp, ret);
+        }
+        HASHES.put(memoKey, ret);
+        return ret;
+    }
+
+    /**
+     * @param subDir sub-directory of cache directory
+     * @param key memo key
+     * @return file to keep memo in
+     */
+    private Path getMemoFile(String subDir, String key) {
+        return dir.resolve(subDir).resolve(Hashing.sha1().hashString(key, StandardCharsets.UTF_8).toString());
+    }
+
+    /**
+     * Runs eviction pass over cache directory unless another pass ran less than an hour ago, never throws
+     */
+    private void evict() {
+        if (maxSize <= 0) {
+            return;
+        }
+        Path stamp = dir.resolve(EVICT_STAMP);
+        try {
+            if (Files.exists(stamp) &&
+                    System.currentTimeMillis() - Files.getLastModifiedTime(stamp).toMillis() < EVICT_INTERVAL) {
+                return;
+            }
+            touch(stamp);
+            evict(dir, maxSize, System.currentTimeMillis() - MIN_IDLE_TIME);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to evict entries of result cache {}", dir, e);
+        }
+    }
+
+    /**
+     * Evicts least recently used files (graphs, memoized hashes, and temporary files left behind) from cache
+     * directory until its size fits a given limit
+     * @param dir cache directory
+     * @param maxSize maximum size of cache directory in bytes
+     * @param idleBefore files modified after this time (milliseconds since epoch) are kept
+     * @return size of cache directory in bytes after eviction
+     * @throws IOException
+     */
+    static long evict(Path dir, long maxSize, long idleBefore) throws IOException {
+        Map<Path, BasicFileAttributes> files = new HashMap<>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!file.getFileName().toString().equals(EVICT_STAMP)) {
+                    files.put(file, attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        long size = 0;
+        for (BasicFileAttributes attrs : files.values()) {
+            size += attrs.size();
+        }
+        if (size <= maxSize) {
+            return size;
+        }
+        LOGGER.debug("Result cache size is {} bytes, evicting entries", size);
+        List<Path> candidates = new ArrayList<>(files.keySet());
+        candidates.removeIf(file -> files.get(file).lastModifiedTime().toMillis() > idleBefore);
+        candidates.sort(Comparator.comparing(file -> files.get(file).lastModifiedTime()));
+        for (Path file : candidates) {
+            if (size <= maxSize) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(file);
+                size -= files.get(file).size();
+                LOGGER.debug("Evicted {}", file);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to evict {}", file, e);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Marks file as recently used, never throws
+     * @param file file to touch
+     */
+    private static void touch(Path file) {
+        try {
+            if (Files.exists(file)) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } else {
+                Files.createDirectories(file.getParent());
+                Files.createFile(file);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Unable to update modification time of {}", file, e);
+        }
+    }
+
+    /**
+     * @param memo file that keeps memoized hash of jar file
+     * @param stamp size and modification time of jar file
+     * @return memoized hash of jar file, null if there is no hash or jar file changed
+     */
+    private static String readMemo(Path memo, String stamp) {
+        try {
+            String content = new String(Files.readAllBytes(memo), StandardCharsets.UTF_8);
+            if (content.startsWith(stamp + " ")) {
+                touch(memo);
+                return content.substring(stamp.length() + 1).trim();
+            }
+        } catch (IOException e) {
+            // no memo yet
+        }
+        return null;
+    }
+
+    /**
+     * Writes memoized hash of jar file, never throws
+     * @param memo file to write
+     * @param content size, modification time, and hash of jar file
+     */
+    private static void writeMemo(Path memo, String content) {
+        try {
+            Files.createDirectories(memo.getParent());
+            Path tmp = Files.createTempFile(memo.getParent(), memo.getFileName().toString(), ".tmp");
+            Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, memo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.debug("Unable to memoize hash of jar file in {}", memo, e);
+        }
+    }
+
+    private static void putString(Hasher hasher, String s) {
+        hasher.putString(s, StandardCharsets.UTF_8).putChar('\n');
+    }
+
+    /**
+     * Memoized hashes of files of a directory or of unit's file list, kept in a single file of cache directory.
+     * Saved memo lists files hashed since it was read, thus files removed from directory are forgotten
+     */
+    private static class Memo {
+
+        private static final Type TYPE = new TypeToken<Map<String, String>>() {}.getType();
+
+        private final Path file;
+
+        /**
+         * Relative file path => size, modification time, and hash, as read
+         */
+        private final Map<String, String> previous;
+
+        /**
+         * Relative file path => size, modification time, and hash of files hashed
+         */
+        private final Map<String, String> current = new ConcurrentHashMap<>();
+
+        /**
+         * @param file file memo is kept in
+         */
+        Memo(Path file) {
+            this.file = file;
+            Map<String, String> hashes = null;
+            if (Files.isRegularFile(file)) {
+                try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    hashes = new Gson().fromJson(r, TYPE);
+                } catch (IOException | JsonParseException e) {
+                    LOGGER.debug("Unable to read memoized hashes {}", file, e);
+                }
+            }
+            previous = hashes == null ? Collections.emptyMap() : hashes;
+        }
+
+        /**
+         * @param path relative file path
+         * @param stamp size and modification time of file
+         * @return memoized hash of file, null if there is no hash or file changed
+         */
+        String get(String path, String stamp) {
+            String value = previous.get(path);
+            if (value != null && value.startsWith(stamp + " ")) {
+                return value.substring(stamp.length() + 1);
+            }
+            return null;
+        }
+
+        /**
+         * @param path relative file path
+         * @param stamp size and modification time of file
+         * @param hash hash of file
+         */
+        void put(String path, String stamp, String hash) {
+            current.put(path, stamp + " " + hash);
+        }
+
+        /**
+         * Writes memo if it changed, marks it as recently used otherwise, never throws
+         */
+        void save() {
+            if (current.equals(previous)) {
+                touch(file);
+                return;
+            }
+            try {
+                Files.createDirectories(file.getParent());
+                Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+                try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    new Gson().toJson(new TreeMap<>(current), w);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.debug("Unable to memoize hashes in {}", file, e);
+            }
+        }
+    }
+}
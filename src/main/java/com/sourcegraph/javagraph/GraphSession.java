@@ -0,0 +1,96 @@
+package com.sourcegraph.javagraph;
+
+import com.google.gson.Gson;
+
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+
+/**
+ * In-process graphing API for JVM-based tools. Session graphs source units one after another and passes
+ * definitions and references of each unit to a caller-provided {@link GraphWriter} as soon as they are found,
+ * nothing is written to stdout and failures are reported as exceptions.
+ * <p>
+ * Session keeps javac file manager and dependency resolution caches between units, so reusing a session
+ * for all units of repository is cheaper than making a new one for each unit. Session may be shared by threads,
+ * units are graphed one at a time; to graph units concurrently use a session per thread.
+ * <pre>
+ * try (GraphSession session = new GraphSession(repoDir)) {
+ *     for (SourceUnit unit : units) {
+ *         session.graph(unit, writer);
+ *     }
+ * }
+ * </pre>
+ */
+public class GraphSession implements Closeable {
+
+    private final Path workingDir;
+
+    private StandardJavaFileManager fileManager;
+
+    private boolean closed;
+
+    /**
+     * Makes session that resolves source units' relative paths against current working directory
+     */
+    public GraphSession() {
+        this(PathUtil.CWD);
+    }
+
+    /**
+     * @param workingDir directory source units' relative paths (files, class path, source path) are resolved against,
+     *                   usually repository root units were produced by scan in
+     */
+    public GraphSession(Path workingDir) {
+        this.workingDir = workingDir.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Reads source unit produced by scan (or given to graph command)
+     * @param reader source of unit in JSON format
+     * @return source unit
+     */
+    public static SourceUnit readUnit(Reader reader) {
+        return new Gson().fromJson(reader, SourceUnit.class);
+    }
+
+    /**
+     * Graphs source unit. Definitions and references passed to writer have file paths relative to session's
+     * working directory, references are resolved to units and repositories of definitions they refer to
+     * @param unit source unit to graph
+     * @param writer target to pass definitions and references to
+     * @throws Exception if unit cannot be graphed, in this case writer may have received part of unit's graph
+     */
+    public synchronized void graph(SourceUnit unit, GraphWriter writer) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("Graph session is closed");
+        }
+        if (fileManager == null) {
+            fileManager = ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, null);
+        }
+        new GraphContext(unit, workingDir, fileManager).graph(writer);
+    }
+
+    /**
+     * @return directory source units' relative paths are resolved against
+     */
+    public Path getWorkingDir() {
+        return workingDir;
+    }
+
+    /**
+     * Releases resources held by session
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (fileManager != null) {
+            fileManager.close();
+            fileManager = null;
+        }
+    }
+}
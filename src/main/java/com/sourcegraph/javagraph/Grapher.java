@@ -2,21 +2,28 @@ package com.sourcegraph.javagraph;
 
 import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.Tree;
 import com.sun.source.util.JavacTask;
 import com.sun.source.util.TreePath;
 import com.sun.source.util.Trees;
+import com.sun.tools.javac.api.JavacTaskImpl;
+import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.tree.JCTree;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
 import javax.tools.*;
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static com.sun.tools.javac.util.Position.NOPOS;
 
@@ -27,11 +34,48 @@ public class Grapher {
     private final JavaCompiler compiler;
     private final DiagnosticCollector<JavaFileObject> diags;
     private final StandardJavaFileManager fileManager;
-    private final GraphWriter emit;
+    /**
+     * True if file manager was made by grapher and should be closed by it
+     */
+    private final boolean ownFileManager;
     private final List<String> javacOpts;
 
+    /**
+     * Resolved boot class path, class path, and source path entries
+     */
+    private final List<Path> inputPaths = new ArrayList<>();
+
+    /**
+     * Resolved source path entries
+     */
+    private final List<Path> sourcePathEntries = new ArrayList<>();
+
+    /**
+     * Source unit and writer of compilation units that belong to no other target
+     */
+    private final Target defaultTarget;
+
+    /**
+     * Source file path => source unit and writer, used when units are compiled together
+     */
+    private final Map<String, Target> targets;
+
     private final SourceUnit unit;
 
+    /**
+     * Directory unit's relative paths are resolved against
+     */
+    private final Path workingDir;
+
+    private final Origins origins;
+
+    private final GraphContext context;
+
+    /**
+     * Number of errors reported by javac
+     */
+    private int errorCount;
+
     /**
      * Constructs new grapher object
      * @param unit source unit
@@ -40,30 +84,60 @@ public class Grapher {
      */
     public Grapher(SourceUnit unit,
                    GraphWriter emit) throws Exception {
-        this.unit = unit;
-        this.emit = emit;
+        this(new GraphContext(unit), emit);
+    }
+
+    /**
+     * Constructs new grapher object
+     * @param context graph context that provides source unit, working directory, and file manager to reuse.
+     *                Shared file manager keeps jar files opened and indexed between source units.
+     *                If context provides no file manager, grapher makes its own one which is closed by {@link #close()}
+     * @param emit target responsible for emitting definitions and references
+     * @throws Exception
+     */
+    public Grapher(GraphContext context,
+                   GraphWriter emit) throws Exception {
+        this(context, new Target(context.getUnit(), emit), Collections.emptyMap());
+    }
+
+    /**
+     * Constructs grapher that compiles sources of several source units together and passes definitions and
+     * references found in each source file to source unit (and writer) file belongs to
+     * @param context graph context that provides compiler settings (class path, source path, and so on) suitable
+     *                for all the units, working directory, and file manager to reuse
+     * @param targets source file path (as passed to {@link #graphFiles(Collection)}) => source unit and writer
+     * @throws Exception
+     */
+    Grapher(GraphContext context,
+            Map<String, Target> targets) throws Exception {
+        this(context, null, targets);
+    }
+
+    private Grapher(GraphContext context,
+                    Target defaultTarget,
+                    Map<String, Target> targets) throws Exception {
+        this.context = context;
+        this.unit = context.getUnit();
+        this.defaultTarget = defaultTarget;
+        this.targets = targets;
+        this.workingDir = context.getWorkingDir();
+        this.origins = context.getOrigins();
 
         compiler = ToolProvider.getSystemJavaCompiler();
         diags = new DiagnosticCollector<>();
-        fileManager = compiler.getStandardFileManager(diags, null, null);
+        ownFileManager = context.getFileManager() == null;
+        fileManager = ownFileManager ? compiler.getStandardFileManager(diags, null, null) : context.getFileManager();
 
         javacOpts = new ArrayList<>();
 
-        Collection<String> bootClassPath = unit.getProject().getBootClassPath();
-        if (bootClassPath == null) {
-            String envBootClasspath = System.getProperty("sun.boot.class.path");
-            if (StringUtils.isEmpty(envBootClasspath)) {
-                LOGGER.error("System property sun.boot.class.path is not set. It is required to load rt.jar.");
-                System.exit(1);
-            }
-            bootClassPath = Arrays.asList(envBootClasspath.split(SystemUtils.PATH_SEPARATOR));
-        }
+        Collection<String> bootClassPath = getBootClassPath(unit.getProject());
         Collection<File> bootClassPathFiles  = new ArrayList<>();
         Collection<String> resolvedBootClassPath = new ArrayList<>();
         for (String path : bootClassPath) {
-            Path resolvedPath = PathUtil.CWD.resolve(path).toAbsolutePath();
+            Path resolvedPath = workingDir.resolve(path).toAbsolutePath();
             bootClassPathFiles.add(resolvedPath.toFile());
             resolvedBootClassPath.add(resolvedPath.toString());
+            inputPaths.add(resolvedPath);
         }
 
         fileManager.setLocation(StandardLocation.PLATFORM_CLASS_PATH, bootClassPathFiles);
@@ -75,34 +149,51 @@ public class Grapher {
         }
         Collection<File> classPathFiles = new ArrayList<>();
         Collection<String> resolvedClassPath = new ArrayList<>();
+        // signature stubs of upstream units go first, like their sources would be preferred as the newest
+        for (SignatureStubs stubs : context.getUpstreamStubs().values()) {
+            classPathFiles.add(stubs.getDir().toFile());
+            resolvedClassPath.add(stubs.getDir().toString());
+        }
         for (String path : classPath) {
-            Path resolvedPath = PathUtil.CWD.resolve(path).toAbsolutePath();
+            Path resolvedPath = workingDir.resolve(path).toAbsolutePath();
             classPathFiles.add(resolvedPath.toFile());
             resolvedClassPath.add(resolvedPath.toString());
+            inputPaths.add(resolvedPath);
         }
 
         fileManager.setLocation(StandardLocation.CLASS_PATH, classPathFiles);
         javacOpts.add("-classpath");
         javacOpts.add(StringUtils.join(resolvedClassPath, SystemUtils.PATH_SEPARATOR));
 
-        Collection<String> sourcePath = unit.getProject().getSourcePath();
+        Collection<String> sourcePath = getSourcePath();
         if (sourcePath != null && !sourcePath.isEmpty()) {
             javacOpts.add("-sourcepath");
             Collection<String> resolvedSourcePath = new ArrayList<>();
             Collection<File> sourcePathFiles = new ArrayList<>();
             for (String path : sourcePath) {
-                Path resolvedPath = PathUtil.CWD.resolve(path).toAbsolutePath();
+                Path resolvedPath = workingDir.resolve(path).toAbsolutePath();
                 resolvedSourcePath.add(resolvedPath.toString());
                 sourcePathFiles.add(resolvedPath.toFile());
+                inputPaths.add(resolvedPath);
+                sourcePathEntries.add(resolvedPath.normalize());
             }
             javacOpts.add(StringUtils.join(resolvedSourcePath, SystemUtils.PATH_SEPARATOR));
             fileManager.setLocation(StandardLocation.SOURCE_PATH, sourcePathFiles);
+        } else if (!ownFileManager) {
+            // dropping source path of previous unit
+            fileManager.setLocation(StandardLocation.SOURCE_PATH, null);
         }
 
         // Speed up compilation by not doing dataflow, code gen, etc.
         javacOpts.add("-XDcompilePolicy=attr");
         javacOpts.add("-XDshouldStopPolicyIfError=ATTR");
-        javacOpts.add("-XDshouldStopPolicyIfNoError=ATTR");
+        if (context.getStubOutput() == null) {
+            javacOpts.add("-XDshouldStopPolicyIfNoError=ATTR");
+        } else {
+            // signature stubs are produced by code generation
+            javacOpts.add("-XDshouldStopPolicyIfNoError=GENERATE");
+            javacOpts.add("-g:none");
+        }
 
         String sourceVersion = unit.getProject().getSourceCodeVersion();
         if (!StringUtils.isEmpty(sourceVersion)) {
@@ -126,6 +217,24 @@ public class Grapher {
 
     }
 
+    /**
+     * @param project project to compile
+     * @return boot class path of project or boot class path of current JVM if project does not define one
+     * @throws Exception
+     */
+    static Collection<String> getBootClassPath(Project project) throws Exception {
+        Collection<String> bootClassPath = project.getBootClassPath();
+        if (bootClassPath == null) {
+            String envBootClasspath = System.getProperty("sun.boot.class.path");
+            if (StringUtils.isEmpty(envBootClasspath)) {
+                throw new IllegalStateException("System property sun.boot.class.path is not set. " +
+                        "It is required to load rt.jar.");
+            }
+            bootClassPath = Arrays.asList(envBootClasspath.split(SystemUtils.PATH_SEPARATOR));
+        }
+        return bootClassPath;
+    }
+
     /**
      * Builds a graph of given files and directories.
      * @param filePaths collection of file path elements to graph sources of. If element is a file it will be scheduled
@@ -134,34 +243,40 @@ public class Grapher {
      * @throws IOException
      */
     public void graphFilesAndDirs(Collection<String> filePaths) throws IOException {
+        graphFiles(collectFiles(workingDir, filePaths));
+    }
+
+    /**
+     * Collects source files of given files and directories
+     * @param workingDir directory to resolve relative paths against
+     * @param filePaths collection of file path elements, each element should point to existing file/directory.
+     *                  Directories are scanned for java files recursively
+     * @return normalized absolute paths of source files
+     * @throws IOException
+     */
+    static Set<String> collectFiles(Path workingDir, Collection<String> filePaths) throws IOException {
 
         LOGGER.debug("Collecting source files to graph");
-        File root = PathUtil.CWD.toFile();
 
-        final List<String> files = new ArrayList<>();
+        // the same file may be listed more than once (for example, directly and by glob)
+        final Set<String> files = new LinkedHashSet<>();
         for (String filePath : filePaths) {
-            File file = PathUtil.concat(root, filePath);
-            if (!file.exists()) {
-                LOGGER.error("No such file {}", file.getAbsolutePath());
-                System.exit(1);
+            Path path = workingDir.resolve(filePath).normalize();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                LOGGER.error("No such file {}", path);
+                throw e;
             }
-            if (file.isFile()) {
-                files.add(file.toPath().normalize().toString());
-            } else if (file.isDirectory()) {
-                Files.walkFileTree(file.toPath(),
-                        new SimpleFileVisitor<Path>() {
-                            @Override
-                            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                                if (attrs.isRegularFile() && file.toString().endsWith(".java")) {
-                                    files.add(file.normalize().toString());
-                                }
-                                return FileVisitResult.CONTINUE;
-                            }
-                        });
+            if (attrs.isRegularFile()) {
+                files.add(path.toString());
+            } else if (attrs.isDirectory()) {
+                files.addAll(new GlobExpander(path, Collections.singletonList("**/*.java"), null).expand());
             }
         }
         LOGGER.debug("Collected source files to graph");
-        graphFiles(files);
+        return files;
     }
 
     /**
@@ -183,62 +298,350 @@ public class Grapher {
      * @throws IOException
      */
     public void graphJavaFiles(Iterable<? extends JavaFileObject> files) throws IOException {
-        final JavacTask task = (JavacTask) compiler.getTask(null,
-                fileManager,
-                diagnostic -> {
-                    LOGGER.warn("{} javac: {}", unit.Name, diagnostic);
-                },
-                javacOpts,
-                null,
-                files);
+        FileGraphCache fileCache = context.getFileCache();
+        if (fileCache != null && context.getStubOutput() == null && targets.isEmpty()) {
+            graphCachedFiles(fileCache, files);
+            return;
+        }
+        Path stubOutput = context.getStubOutput();
+        Map<String, URI> stubSources = null;
+        if (stubOutput != null) {
+            SignatureStubs.prepare(stubOutput);
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(stubOutput.toFile()));
+            stubSources = new HashMap<>();
+        }
+        errorCount = 0;
+        final JavacTask task = newTask(fileManager, javacOpts, files);
         final Trees trees = Trees.instance(task);
 
-        final Set<String> seenPackages = new HashSet<>();
+        final Map<Target, Set<String>> seenPackages = new HashMap<>();
 
         try {
             Iterable<? extends CompilationUnitTree> units = task.parse();
             task.analyze();
             for (final CompilationUnitTree unit : units) {
 
+                Target target = getTarget(unit.getSourceFile());
+                if (target == null) {
+                    LOGGER.warn("Skipping compilation unit {} that belongs to no source unit", unit.getSourceFile());
+                    continue;
+                }
                 try {
                     ExpressionTree pkgName = unit.getPackageName();
-                    if (pkgName != null && !seenPackages.contains(pkgName.toString()) &&
-                            (isPackageInfo(unit) || !hasPackageInfo(pkgName.toString(), files))) {
-                        seenPackages.add(pkgName.toString());
-                        writePackageSymbol(pkgName, unit, trees);
+                    if (pkgName != null && isPackageOwner(pkgName.toString(),
+                            unit.getSourceFile().getName(),
+                            target,
+                            files,
+                            seenPackages)) {
+                        writePackageSymbol(pkgName, unit, trees, target.unit, target.emit);
                     }
 
                     TreePath root = new TreePath(unit);
-                    new TreeScanner(emit, trees, this.unit).scan(root, null);
+                    new TreeScanner(target.emit, trees, target.unit, origins).scan(root, null);
+                    if (stubSources != null) {
+                        collectStubSources(root, trees, stubSources);
+                    }
                 } catch (Exception e) {
                     LOGGER.warn("Skipping compilation unit {} ({})", unit.getPackageName(), unit.getSourceFile(), e);
+                    // stubs would miss classes of skipped compilation unit
+                    stubSources = null;
                 }
             }
+            if (stubOutput != null) {
+                writeStubs(task, stubOutput, stubSources);
+            }
         } catch (Exception e) {
-            LOGGER.warn("Compilation failed", e);
-            for (Diagnostic<?> diagnostic : diags.getDiagnostics()) {
-                LOGGER.warn("Error on line {} in {}", diagnostic.getLineNumber(), diagnostic.getSource());
+            logCompilationFailure(e);
+            throw new IOException("Compilation failed", e);
+        }
+    }
+
+    /**
+     * Builds a graph of given file objects, definitions and references of files that did not change since
+     * the previous run are replayed from file cache (see {@link FileGraphCache}). If changed files are known,
+     * only changed files and files that depend on their changed signatures are given to javac, the rest of unit's
+     * files are reached through source path
+     * @param fileCache file cache to use
+     * @param files list of file objects to build graphs for
+     * @throws IOException
+     */
+    private void graphCachedFiles(FileGraphCache fileCache,
+                                  Iterable<? extends JavaFileObject> files) throws IOException {
+        Map<String, JavaFileObject> fileObjects = new LinkedHashMap<>();
+        for (JavaFileObject file : files) {
+            fileObjects.put(file.getName(), file);
+        }
+        FileGraphCache.Session cache = fileCache.open(unit,
+                workingDir,
+                javacOpts,
+                inputPaths,
+                new ArrayList<>(fileObjects.keySet()),
+                getChangedFiles());
+
+        final Map<Target, Set<String>> seenPackages = new HashMap<>();
+
+        try {
+            Set<String> sources = cache.getSources();
+            JavacTask task;
+            Trees trees;
+            Map<String, CompilationUnitTree> units;
+            Set<String> dirty;
+            while (true) {
+                errorCount = 0;
+                List<String> opts = javacOpts;
+                JavaFileManager taskFileManager = fileManager;
+                if (sources.size() < fileObjects.size()) {
+                    // files of unit not given to javac are found through their source roots, other files
+                    // of source roots should stay as invisible as they are when all the files are compiled
+                    Collection<Path> roots = cache.getSourceRoots();
+                    opts = withSourceRoots(roots);
+                    taskFileManager = new UnitFilesManager(fileManager, roots, sourcePathEntries,
+                            fileObjects.keySet());
+                }
+                task = newTask(taskFileManager,
+                        opts,
+                        sources.stream().map(fileObjects::get).collect(Collectors.toList()));
+                trees = Trees.instance(task);
+                units = new HashMap<>();
+                for (CompilationUnitTree unit : task.parse()) {
+                    units.put(unit.getSourceFile().getName(), unit);
+                }
+                ((JavacTaskImpl) task).enter();
+                for (Map.Entry<String, CompilationUnitTree> entry : units.entrySet()) {
+                    cache.addFile(entry.getKey(), entry.getValue(), trees);
+                }
+                dirty = cache.computeDirty();
+                if (sources.containsAll(dirty)) {
+                    break;
+                }
+                // files that depend on changed signatures should be compiled too
+                sources.addAll(dirty);
+                LOGGER.debug("Compiling {} of {} files of {}", sources.size(), fileObjects.size(), unit.Name);
+            }
+
+            LOGGER.info("Attributing {} of {} files of {}", dirty.size(), fileObjects.size(), unit.Name);
+            analyze(task, trees, units, dirty);
+
+            for (String file : cache.getFiles()) {
+                CompilationUnitTree unit = units.get(file);
+                String pkg = cache.getPackage(file);
+                if (unit != null) {
+                    pkg = unit.getPackageName() == null ? null : unit.getPackageName().toString();
+                }
+                boolean packageOwner = pkg != null && isPackageOwner(pkg, file, defaultTarget, files, seenPackages);
+                if (!cache.isDirty(file)) {
+                    cache.replay(file, defaultTarget.emit);
+                    continue;
+                }
+                try {
+                    FileGraphCache.Session.Recorder recorder = cache.record(file, defaultTarget.emit);
+                    if (packageOwner) {
+                        writePackageSymbol(unit.getPackageName(), unit, trees, defaultTarget.unit, recorder);
+                    }
+                    new TreeScanner(recorder, trees, defaultTarget.unit, origins).scan(new TreePath(unit), null);
+                    recorder.commit();
+                } catch (Exception e) {
+                    LOGGER.warn("Skipping compilation unit {} ({})", pkg, file, e);
+                }
+            }
+            cache.save();
+        } catch (Exception e) {
+            logCompilationFailure(e);
+            throw new IOException("Compilation failed", e);
+        }
+    }
+
+    /**
+     * @param taskFileManager file manager to use
+     * @param opts compiler options
+     * @param files files to compile
+     * @return javac task that counts errors reported
+     */
+    private JavacTask newTask(JavaFileManager taskFileManager,
+                              List<String> opts,
+                              Iterable<? extends JavaFileObject> files) {
+        return (JavacTask) compiler.getTask(null,
+                taskFileManager,
+                diagnostic -> {
+                    if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                        errorCount++;
+                    }
+                    LOGGER.warn("{} javac: {}", unit.Name, diagnostic);
+                },
+                opts,
+                null,
+                files);
+    }
+
+    /**
+     * Attributes dirty files only, or all the files given to javac if all of them are dirty or package info file
+     * (which declares no classes) is dirty
+     * @param task javac task, classes should be entered
+     * @param trees trees
+     * @param units source file path => compilation unit of files given to javac
+     * @param dirty files to attribute
+     * @throws IOException
+     */
+    private void analyze(JavacTask task,
+                         Trees trees,
+                         Map<String, CompilationUnitTree> units,
+                         Set<String> dirty) throws IOException {
+        if (dirty.size() == units.size() || dirty.stream().anyMatch(file -> file.endsWith("package-info.java"))) {
+            task.analyze();
+            return;
+        }
+        Collection<TypeElement> classes = new ArrayList<>();
+        for (String file : dirty) {
+            TreePath root = new TreePath(units.get(file));
+            for (Tree typeDecl : root.getCompilationUnit().getTypeDecls()) {
+                Element element = trees.getElement(new TreePath(root, typeDecl));
+                if (element instanceof TypeElement) {
+                    classes.add((TypeElement) element);
+                }
+            }
+        }
+        if (!classes.isEmpty()) {
+            ((JavacTaskImpl) task).analyze(classes);
+        }
+    }
+
+    /**
+     * @return normalized absolute paths of files changed since the previous run, null if unknown
+     */
+    private Collection<String> getChangedFiles() {
+        Collection<String> changedFiles = context.getChangedFiles();
+        if (changedFiles == null) {
+            return null;
+        }
+        return changedFiles.stream().
+                map(file -> workingDir.resolve(file).normalize().toString()).
+                collect(Collectors.toList());
+    }
+
+    /**
+     * Prepends given source roots to source path of file manager
+     * @param roots source roots to add
+     * @return compiler options with given source roots prepended to source path
+     * @throws IOException
+     */
+    private List<String> withSourceRoots(Collection<Path> roots) throws IOException {
+        List<String> ret = new ArrayList<>(javacOpts);
+        String sourcePath = roots.stream().map(Path::toString).collect(Collectors.joining(SystemUtils.PATH_SEPARATOR));
+        int pos = ret.indexOf("-sourcepath");
+        if (pos >= 0) {
+            sourcePath += SystemUtils.PATH_SEPARATOR + ret.get(pos + 1);
+            ret.set(pos + 1, sourcePath);
+        } else {
+            ret.add("-sourcepath");
+            ret.add(sourcePath);
+        }
+        Collection<File> sourcePathFiles = new ArrayList<>();
+        for (String path : sourcePath.split(SystemUtils.PATH_SEPARATOR)) {
+            sourcePathFiles.add(new File(path));
+        }
+        fileManager.setLocation(StandardLocation.SOURCE_PATH, sourcePathFiles);
+        return ret;
+    }
+
+    /**
+     * Logs compilation failure
+     * @param e failure
+     */
+    private void logCompilationFailure(Exception e) {
+        LOGGER.warn("Compilation failed", e);
+        for (Diagnostic<?> diagnostic : diags.getDiagnostics()) {
+            LOGGER.warn("Error on line {} in {}", diagnostic.getLineNumber(), diagnostic.getSource());
+        }
+        LOGGER.warn("If the stack trace contains \"task.analyze();\", there's a reasonable chance you're using a buggy compiler.\n"
+                + "As of Nov 7, 2014, the Oracle 8 JDK is one of those compilers.\n"
+                + "See https://bugs.openjdk.java.net/browse/JDK-8062359?page=com.atlassian.jira.plugin.system.issuetabpanels:comment-tabpanel\n"
+                + "and compile OpenJDK 8 with that workaround. OpenJDK 8 build instructions: http://openjdk.java.net/projects/build-infra/guide.html\nWe can remove this once jdk 8u26+ is released. NOTE that you need to install from the jdk8u hg repo, not jdk8 (as that is frozen when the first version of jdk8 was released).");
+    }
+
+    /**
+     * @return unit's source path without entries of upstream units whose signature stubs are used instead
+     * @throws Exception
+     */
+    private Collection<String> getSourcePath() throws Exception {
+        Collection<String> sourcePath = unit.getProject().getSourcePath();
+        Map<String, SignatureStubs> upstreamStubs = context.getUpstreamStubs();
+        if (sourcePath == null || upstreamStubs.isEmpty() || unit.Data.SourcePath == null) {
+            return sourcePath;
+        }
+        Set<String> replaced = new HashSet<>();
+        for (SourcePathElement element : unit.Data.SourcePath) {
+            if (upstreamStubs.containsKey(element.name)) {
+                replaced.add(element.filePath);
             }
-            LOGGER.warn("If the stack trace contains \"task.analyze();\", there's a reasonable chance you're using a buggy compiler.\n"
-                    + "As of Nov 7, 2014, the Oracle 8 JDK is one of those compilers.\n"
-                    + "See https://bugs.openjdk.java.net/browse/JDK-8062359?page=com.atlassian.jira.plugin.system.issuetabpanels:comment-tabpanel\n"
-                    + "and compile OpenJDK 8 with that workaround. OpenJDK 8 build instructions: http://openjdk.java.net/projects/build-infra/guide.html\nWe can remove this once jdk 8u26+ is released. NOTE that you need to install from the jdk8u hg repo, not jdk8 (as that is frozen when the first version of jdk8 was released).");
-            System.exit(1);
         }
+        return sourcePath.stream().filter(path -> !replaced.contains(path)).collect(Collectors.toList());
+    }
+
+    /**
+     * Maps top-level classes of compilation unit to its source file
+     * @param root compilation unit path
+     * @param trees trees
+     * @param stubSources map to fill, top-level class flat name => source file URI
+     */
+    private static void collectStubSources(TreePath root, Trees trees, Map<String, URI> stubSources) {
+        URI source = root.getCompilationUnit().getSourceFile().toUri();
+        for (Tree typeDecl : root.getCompilationUnit().getTypeDecls()) {
+            Element element = trees.getElement(new TreePath(root, typeDecl));
+            if (element instanceof Symbol.ClassSymbol) {
+                stubSources.put(((Symbol.ClassSymbol) element).flatName().toString(), source);
+            }
+        }
+    }
+
+    /**
+     * Generates class files of unit and writes index of signature stubs if unit compiled without errors.
+     * Failure to write stubs does not fail graphing, dependent units read sources through source path instead
+     * @param task javac task, trees should not be used after this call
+     * @param stubOutput directory to write stubs to
+     * @param stubSources top-level class flat name => source file URI, null if some classes were skipped
+     */
+    private void writeStubs(JavacTask task, Path stubOutput, Map<String, URI> stubSources) {
+        if (errorCount > 0 || stubSources == null) {
+            LOGGER.info("{} has compilation errors, signature stubs are not written", unit.Name);
+            return;
+        }
+        try {
+            task.generate();
+            if (errorCount > 0) {
+                LOGGER.info("{} failed to generate class files, signature stubs are not written", unit.Name);
+                return;
+            }
+            SignatureStubs.writeIndex(stubOutput, stubSources);
+            context.setStubsWritten();
+            LOGGER.debug("Wrote signature stubs of {} to {}", unit.Name, stubOutput);
+        } catch (Exception e) {
+            LOGGER.warn("Unable to write signature stubs of {}", unit.Name, e);
+        }
+    }
+
+    /**
+     * @param file source file
+     * @return source unit and writer given file belongs to, null if there is no such unit
+     */
+    private Target getTarget(JavaFileObject file) {
+        Target target = targets.get(file.getName());
+        return target == null ? defaultTarget : target;
     }
 
     /**
      * @param packageName package name to check
-     * @param files list of source unit files
+     * @param target source unit files should belong to
+     * @param files list of compiled files
      * @return true if there is explicit package info file (package-info.java) for the given package in the
-     * given files list
+     * given files list that belong to a given source unit
      */
     private boolean hasPackageInfo(String packageName,
+                                   Target target,
                                    Iterable<? extends JavaFileObject> files) {
         Path p = Paths.get(packageName.replace('.', File.separatorChar)).resolve("package-info.java");
         for (JavaFileObject file : files) {
             Path candidate = Paths.get(file.getName());
-            if (candidate.endsWith(p)) {
+            if (candidate.endsWith(p) && getTarget(file) == target) {
                 return true;
             }
         }
@@ -246,11 +649,35 @@ public class Grapher {
     }
 
     /**
-     * @param unit compilation unit
-     * @return true if given compilation unit matches .../package-info.java
+     * Tells if source file should emit definition of its package: package info file if there is one,
+     * otherwise the first file of package. Marks package as seen
+     * @param packageName package source file declares
+     * @param file source file path
+     * @param target source unit and writer file belongs to
+     * @param files list of compiled files
+     * @param seenPackages source unit and writer => packages emitted so far
+     * @return true if file should emit package definition
+     */
+    private boolean isPackageOwner(String packageName,
+                                   String file,
+                                   Target target,
+                                   Iterable<? extends JavaFileObject> files,
+                                   Map<Target, Set<String>> seenPackages) {
+        Set<String> targetPackages = seenPackages.computeIfAbsent(target, t -> new HashSet<>());
+        if (!targetPackages.contains(packageName) &&
+                (isPackageInfo(file) || !hasPackageInfo(packageName, target, files))) {
+            targetPackages.add(packageName);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param file source file path
+     * @return true if given file matches .../package-info.java
      */
-    private boolean isPackageInfo(CompilationUnitTree unit) {
-        return unit.getSourceFile().getName().endsWith("package-info.java");
+    private boolean isPackageInfo(String file) {
+        return file.endsWith("package-info.java");
     }
 
     /**
@@ -258,11 +685,15 @@ public class Grapher {
      * @param packageTree package AST node
      * @param compilationUnit current compilation unit
      * @param trees trees object
+     * @param unit source unit package belongs to
+     * @param emit target responsible for emitting package definition
      * @throws IOException
      */
     private void writePackageSymbol(ExpressionTree packageTree,
                                     CompilationUnitTree compilationUnit,
-                                    Trees trees) throws IOException {
+                                    Trees trees,
+                                    SourceUnit unit,
+                                    GraphWriter emit) throws IOException {
         Def s = new Def(unit.Name, unit.Type);
         String packageName = packageTree.toString();
         // TODO(sqs): set origin to the JAR this likely came from (it's hard because it could be from multiple JARs)
@@ -270,7 +701,7 @@ public class Grapher {
         s.name = packageName.substring(packageName.lastIndexOf('.') + 1);
         s.kind = "PACKAGE";
         s.pkg = packageName;
-        if (isPackageInfo(compilationUnit)) {
+        if (isPackageInfo(compilationUnit.getSourceFile().getName())) {
             if (packageTree instanceof JCTree.JCFieldAccess) {
                 JCTree.JCFieldAccess fieldAccessTree = (JCTree.JCFieldAccess) packageTree;
                 int start = (int) trees.getSourcePositions().getStartPosition(compilationUnit,
@@ -297,13 +728,30 @@ public class Grapher {
         emit.writeDef(s);
     }
 
+    /**
+     * @return number of errors javac reported while compiling files last time
+     */
+    int getErrorCount() {
+        return errorCount;
+    }
+
     /**
      * Closes grapher and releases underlying resources
      * @throws IOException
      */
     public void close() throws IOException {
-        emit.flush();
-        fileManager.close();
+        if (defaultTarget != null) {
+            defaultTarget.emit.flush();
+        }
+        for (GraphWriter emit : targets.values().stream().
+                map(target -> target.emit).
+                distinct().
+                collect(Collectors.toList())) {
+            emit.flush();
+        }
+        if (ownFileManager) {
+            fileManager.close();
+        }
     }
 
     /**
@@ -318,4 +766,101 @@ public class Grapher {
         }
         return path;
     }
+
+    /**
+     * File manager that lists only unit's own files from source roots added to source path
+     * (see {@link #withSourceRoots(Collection)}). Files of these roots that belong to no unit or to other units
+     * (excluded files, files of sibling units sharing directory) are hidden unless they are reachable through
+     * unit's own source path as well
+     */
+    private static class UnitFilesManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+        private final Collection<Path> roots;
+
+        private final Collection<Path> sourcePath;
+
+        private final Set<Path> files = new HashSet<>();
+
+        /**
+         * @param fileManager file manager to delegate to
+         * @param roots source roots of unit's files added to source path
+         * @param sourcePath unit's own source path entries
+         * @param files paths of unit's source files
+         */
+        UnitFilesManager(JavaFileManager fileManager,
+                         Collection<Path> roots,
+                         Collection<Path> sourcePath,
+                         Collection<String> files) {
+            super(fileManager);
+            this.roots = roots;
+            this.sourcePath = sourcePath;
+            for (String file : files) {
+                this.files.add(Paths.get(file).toAbsolutePath().normalize());
+            }
+        }
+
+        @Override
+        public Iterable<JavaFileObject> list(Location location,
+                                             String packageName,
+                                             Set<JavaFileObject.Kind> kinds,
+                                             boolean recurse) throws IOException {
+            Iterable<JavaFileObject> ret = super.list(location, packageName, kinds, recurse);
+            if (location != StandardLocation.SOURCE_PATH) {
+                return ret;
+            }
+            List<JavaFileObject> visible = new ArrayList<>();
+            for (JavaFileObject file : ret) {
+                if (isVisible(file)) {
+                    visible.add(file);
+                }
+            }
+            return visible;
+        }
+
+        /**
+         * @param file file found in source path
+         * @return true if file belongs to unit or is not located in source roots added
+         */
+        private boolean isVisible(JavaFileObject file) {
+            URI uri = file.toUri();
+            if (!"file".equals(uri.getScheme())) {
+                return true;
+            }
+            Path path = Paths.get(uri).normalize();
+            return files.contains(path) || !isUnder(path, roots) || isUnder(path, sourcePath);
+        }
+
+        /**
+         * @param path path to check
+         * @param dirs directories
+         * @return true if path is located in one of directories
+         */
+        private static boolean isUnder(Path path, Collection<Path> dirs) {
+            for (Path dir : dirs) {
+                if (path.startsWith(dir)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Source unit and writer definitions and references of compilation unit go to
+     */
+    static class Target {
+
+        final SourceUnit unit;
+
+        final GraphWriter emit;
+
+        /**
+         * @param unit source unit
+         * @param emit target responsible for emitting definitions and references of source unit
+         */
+        Target(SourceUnit unit, GraphWriter emit) {
+            this.unit = unit;
+            this.emit = emit;
+        }
+    }
 }
@@ -0,0 +1,254 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Exclusion rules in .gitignore format. Each .gitignore file (as well as exclusion file provided by user) is
+ * compiled into a list of regular expressions once. Rules of a directory are chained with the rules of its
+ * parent directory: the deeper rules take precedence, and within the same file the last matching rule wins,
+ * the same way Git does it
+ */
+public class IgnoreRules {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IgnoreRules.class);
+
+    /**
+     * Name of ignore file looked for in each directory
+     */
+    public static final String GITIGNORE = ".gitignore";
+
+    /**
+     * Empty rules, nothing is ignored
+     */
+    public static final IgnoreRules NONE = new IgnoreRules(null, null, new ArrayList<>());
+
+    private final IgnoreRules parent;
+
+    /**
+     * Directory rules are relative to
+     */
+    private final Path base;
+
+    private final List<Rule> rules;
+
+    private IgnoreRules(IgnoreRules parent, Path base, List<Rule> rules) {
+        this.parent = parent;
+        this.base = base;
+        this.rules = rules;
+    }
+
+    /**
+     * Adds rules on top of the current ones
+     *
+     * @param base  directory rules are relative to
+     * @param lines rules in .gitignore format
+     * @return new rules that take precedence over the current ones, current rules if there was nothing to add
+     */
+    public IgnoreRules add(Path base, Collection<String> lines) {
+        List<Rule> compiled = new ArrayList<>();
+        for (String line : lines) {
+            Rule rule = Rule.compile(line);
+            if (rule != null) {
+                compiled.add(rule);
+            }
+        }
+        if (compiled.isEmpty()) {
+            return this;
+        }
+        return new IgnoreRules(this, base.toAbsolutePath().normalize(), compiled);
+    }
+
+    /**
+     * Adds rules read from file on top of the current ones
+     *
+     * @param base directory rules are relative to
+     * @param file file in .gitignore format, may not exist
+     * @return new rules that take precedence over the current ones, current rules if there was nothing to add
+     */
+    public IgnoreRules add(Path base, Path file) {
+        if (file == null || !Files.isRegularFile(file)) {
+            return this;
+        }
+        try {
+            return add(base, Files.readAllLines(file, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read exclusion rules from {}", file, e);
+            return this;
+        }
+    }
+
+    /**
+     * @param path      path to check, should be located in the directory rules are relative to
+     * @param directory true if path denotes directory
+     * @return true if path is ignored
+     */
+    public boolean isIgnored(Path path, boolean directory) {
+        path = path.toAbsolutePath().normalize();
+        for (IgnoreRules current = this; current != null && current.base != null; current = current.parent) {
+            if (!path.startsWith(current.base) || path.equals(current.base)) {
+                continue;
+            }
+            Path rel = current.base.relativize(path);
+            String relPath = PathUtil.normalize(rel.toString());
+            String name = rel.getFileName() == null ? StringUtils.EMPTY : rel.getFileName().toString();
+            for (int i = current.rules.size() - 1; i >= 0; i--) {
+                Rule rule = current.rules.get(i);
+                if (rule.matches(relPath, name, directory)) {
+                    return !rule.negate;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Single compiled .gitignore rule
+     */
+    private static class Rule {
+
+        private static final String REGEX_SPECIAL_CHARS = "\\.[]{}()<>*+-=!?^$|";
+
+        /**
+         * Rule starts with '!' and re-includes matching paths
+         */
+        private boolean negate;
+
+        /**
+         * Rule ends with '/' and matches only directories
+         */
+        private boolean directoryOnly;
+
+        /**
+         * Rule contains '/' and is matched against path relative to base directory, otherwise against name only
+         */
+        private boolean anchored;
+
+        private Pattern pattern;
+
+        /**
+         * @param line line of .gitignore file
+         * @return compiled rule or null if line is blank or comment
+         */
+        static Rule compile(String line) {
+            if (line.startsWith("#")) {
+                return null;
+            }
+            // trailing spaces are ignored unless escaped
+            String s = line.endsWith("\\ ") ? line : StringUtils.stripEnd(line, " \t");
+            if (s.isEmpty()) {
+                return null;
+            }
+            Rule rule = new Rule();
+            if (s.startsWith("!")) {
+                rule.negate = true;
+                s = s.substring(1);
+            }
+            if (s.endsWith("/")) {
+                rule.directoryOnly = true;
+                s = s.substring(0, s.length() - 1);
+            }
+            if (s.contains("/")) {
+                rule.anchored = true;
+                if (s.startsWith("/")) {
+                    s = s.substring(1);
+                }
+            }
+            if (s.isEmpty()) {
+                return null;
+            }
+            rule.pattern = Pattern.compile(toRegex(s));
+            return rule;
+        }
+
+        /**
+         * @param relPath   path relative to base directory, '/'-separated
+         * @param name      file name
+         * @param directory true if path denotes directory
+         * @return true if rule matches given path
+         */
+        boolean matches(String relPath, String name, boolean directory) {
+            if (directoryOnly && !directory) {
+                return false;
+            }
+            return pattern.matcher(anchored ? relPath : name).matches();
+        }
+
+        /**
+         * Converts .gitignore glob into regular expression
+         *
+         * @param glob glob to convert
+         * @return regular expression
+         */
+        private static String toRegex(String glob) {
+            StringBuilder ret = new StringBuilder();
+            int len = glob.length();
+            for (int i = 0; i < len; i++) {
+                char c = glob.charAt(i);
+                switch (c) {
+                    case '*':
+                        if (i + 1 < len && glob.charAt(i + 1) == '*') {
+                            if (i + 2 < len && glob.charAt(i + 2) == '/') {
+                                // "**/" matches zero or more directories
+                                ret.append("(?:.*/)?");
+                                i += 2;
+                            } else {
+                                ret.append(".*");
+                                i++;
+                            }
+                        } else {
+                            ret.append("[^/]*");
+                        }
+                        break;
+                    case '?':
+                        ret.append("[^/]");
+                        break;
+                    case '[':
+                        int end = glob.indexOf(']', i + 2);
+                        if (end < 0) {
+                            ret.append("\\[");
+                            break;
+                        }
+                        String range = glob.substring(i + 1, end);
+                        if (range.startsWith("!")) {
+                            range = '^' + range.substring(1);
+                        }
+                        ret.append('[').append(range.replace("\\", "\\\\")).append(']');
+                        i = end;
+                        break;
+                    case '\\':
+                        if (i + 1 < len) {
+                            appendLiteral(ret, glob.charAt(++i));
+                        }
+                        break;
+                    default:
+                        appendLiteral(ret, c);
+                }
+            }
+            return ret.toString();
+        }
+
+        /**
+         * Appends character to regular expression, escapes it if needed
+         *
+         * @param regex regular expression being built
+         * @param c     character to append
+         */
+        private static void appendLiteral(StringBuilder regex, char c) {
+            if (REGEX_SPECIAL_CHARS.indexOf(c) >= 0) {
+                regex.append('\\');
+            }
+            regex.append(c);
+        }
+    }
+}
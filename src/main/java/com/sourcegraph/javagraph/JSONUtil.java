@@ -5,6 +5,8 @@ import org.apache.commons.io.IOUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
@@ -29,14 +31,61 @@ public class JSONUtil {
         IOUtils.closeQuietly(w);
     }
 
+    /**
+     * Writes object as UTF-8 JSON, leaves stream open
+     *
+     * @param o   object to write
+     * @param out target stream
+     * @throws IOException
+     */
+    public static void writeJSON(Object o, OutputStream out) throws IOException {
+        Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        try {
+            gson().toJson(o, w);
+        } catch (JsonIOException e) {
+            throw new IOException(e);
+        }
+        w.flush();
+    }
+
+    /**
+     * Writes object as single line of UTF-8 JSON followed by line feed, leaves stream open
+     *
+     * @param o   object to write
+     * @param out target stream
+     * @throws IOException
+     */
+    public static void writeJSONLine(Object o, OutputStream out) throws IOException {
+        Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        try {
+            gson(false).toJson(o, w);
+        } catch (JsonIOException e) {
+            throw new IOException(e);
+        }
+        w.write('\n');
+        w.flush();
+    }
+
     /**
      * Constructs new writer implementation
      *
      * @return configured writer implementation
      */
     private static Gson gson() {
+        return gson(true);
+    }
+
+    /**
+     * Constructs new writer implementation
+     *
+     * @param pretty true to produce indented multi-line JSON
+     * @return configured writer implementation
+     */
+    private static Gson gson(boolean pretty) {
         GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.setPrettyPrinting();
+        if (pretty) {
+            gsonBuilder.setPrettyPrinting();
+        }
         gsonBuilder.disableHtmlEscaping();
         gsonBuilder.registerTypeAdapter(Def.class, new Def.JSONSerializer());
         gsonBuilder.registerTypeAdapter(Ref.class, new Ref.JSONSerializer());
@@ -32,10 +32,14 @@ public class Main {
         ScanCommand scan = new ScanCommand();
         GraphCommand graph = new GraphCommand();
         DepresolveCommand depresolve = new DepresolveCommand();
+        GraphBatchCommand graphBatch = new GraphBatchCommand();
+        ServeCommand serve = new ServeCommand();
 
         jc.addCommand("scan", scan);
         jc.addCommand("graph", graph);
         jc.addCommand("depresolve", depresolve);
+        jc.addCommand("graph-batch", graphBatch);
+        jc.addCommand("serve", serve);
 
         try {
             jc.parse(args);
@@ -54,6 +58,12 @@ public class Main {
             case "depresolve":
                 depresolve.Execute();
                 break;
+            case "graph-batch":
+                graphBatch.Execute();
+                break;
+            case "serve":
+                serve.Execute();
+                break;
             default:
                 LOGGER.error("Unknown command {}", jc.getParsedCommand());
                 jc.usage();
@@ -61,7 +71,10 @@ public class Main {
         }
     }
 
-    private static String getVersion() {
+    /**
+     * @return srclib-java version (Git reference it was built from) or "development"
+     */
+    static String getVersion() {
         String version = "development";
         try {
             InputStream manifestInputStream = Main.class.getResourceAsStream("/META-INF/MANIFEST.MF");
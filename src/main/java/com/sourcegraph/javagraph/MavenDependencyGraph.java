@@ -0,0 +1,361 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.model.Scm;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.ArtifactTypeRegistry;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.collection.DependencyCollectionException;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Dependency graph shared by all the modules of Maven reactor.
+ * Transitive dependencies of each distinct external dependency (group/artifact/version, scope, exclusions) are
+ * collected only once and the collected sub-graph is reused by every module that refers to the same dependency.
+ * Module classpath is derived from the shared sub-graphs, JAR and POM files of all the collected artifacts
+ * are fetched together in a single resolution pass. SCM URL of each artifact is read from its POM file only once
+ */
+class MavenDependencyGraph {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MavenDependencyGraph.class);
+
+    private static final String POM = "pom";
+
+    private final RepositorySystem repositorySystem;
+    private final RepositorySystemSession repositorySystemSession;
+    private final List<RemoteRepository> repositories;
+
+    /**
+     * Collected sub-graphs, dependency key => dependency node (null if nothing was collected)
+     */
+    private final Map<String, DependencyNode> nodes = new HashMap<>();
+
+    /**
+     * Remote repositories to fetch specific artifact from, artifact key => repositories
+     */
+    private final Map<String, List<RemoteRepository>> artifactRepositories = new HashMap<>();
+
+    /**
+     * Resolved files, artifact key (including extension) => file
+     */
+    private final Map<String, File> files = new HashMap<>();
+
+    /**
+     * SCM URLs declared by resolved POM files, artifact key (POM) => URL (null if there is none)
+     */
+    private final Map<String, String> scmUrls = new HashMap<>();
+
+    /**
+     * @param repositorySystem        repository system to use
+     * @param repositorySystemSession repository system session to use
+     * @param repositories            remote repositories to search artifacts in
+     */
+    MavenDependencyGraph(RepositorySystem repositorySystem,
+                         RepositorySystemSession repositorySystemSession,
+                         List<RemoteRepository> repositories) {
+        this.repositorySystem = repositorySystem;
+        this.repositorySystemSession = repositorySystemSession;
+        this.repositories = repositories;
+    }
+
+    /**
+     * Computes artifacts given dependencies depend on, including transitive ones. Sub-graph of each dependency
+     * is collected once and then taken from cache. Conflicts between sub-graphs are resolved the same way Maven does:
+     * nearest artifact wins, if there are multiple artifacts on the same depth then first declared wins
+     *
+     * @param unitId       source unit ID (used for logging)
+     * @param dependencies dependencies to compute artifacts for
+     * @param extension    artifact extension (jar, pom, etc)
+     * @return list of artifacts (not resolved yet), includes direct and transitive dependencies
+     */
+    List<Artifact> getArtifacts(String unitId, Collection<RawDependency> dependencies, String extension) {
+
+        List<DependencyNode> roots = new ArrayList<>();
+        for (RawDependency dependency : dependencies) {
+            DependencyNode node = collect(unitId, dependency, extension);
+            if (node != null) {
+                roots.add(node);
+            }
+        }
+
+        // breadth-first traversal, depth by depth, to emulate Maven's "nearest wins" strategy
+        Set<DependencyNode> winners = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<String> seen = new HashSet<>();
+        List<DependencyNode> level = roots;
+        while (!level.isEmpty()) {
+            List<DependencyNode> nextLevel = new ArrayList<>();
+            for (DependencyNode node : level) {
+                Artifact artifact = node.getArtifact();
+                if (artifact == null || !seen.add(getConflictKey(artifact))) {
+                    continue;
+                }
+                winners.add(node);
+                artifactRepositories.putIfAbsent(getArtifactKey(artifact, null), node.getRepositories());
+                nextLevel.addAll(node.getChildren());
+            }
+            level = nextLevel;
+        }
+
+        // listing winners in pre-order, the same order Maven uses to build classpath
+        List<Artifact> ret = new ArrayList<>();
+        for (DependencyNode root : roots) {
+            listArtifacts(root, winners, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Lists artifacts of selected nodes in pre-order
+     *
+     * @param node    node to start from
+     * @param winners nodes to include, method removes visited ones
+     * @param target  list to add artifacts to
+     */
+    private static void listArtifacts(DependencyNode node, Set<DependencyNode> winners, List<Artifact> target) {
+        if (!winners.remove(node)) {
+            return;
+        }
+        target.add(node.getArtifact());
+        for (DependencyNode child : node.getChildren()) {
+            listArtifacts(child, winners, target);
+        }
+    }
+
+    /**
+     * Fetches JAR (or whatever extension artifact has) and POM files of given artifacts in a single pass.
+     * Artifacts that were resolved before are not requested again
+     *
+     * @param unitId    source unit ID (used for logging)
+     * @param artifacts artifacts to resolve
+     */
+    void resolve(String unitId, Collection<Artifact> artifacts) {
+
+        Map<String, ArtifactRequest> requests = new LinkedHashMap<>();
+        for (Artifact artifact : artifacts) {
+            addRequest(requests, artifact);
+            addRequest(requests, toPomArtifact(artifact));
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+
+        LOGGER.debug("Resolving {} artifacts", requests.size());
+        List<ArtifactResult> results;
+        try {
+            results = repositorySystem.resolveArtifacts(repositorySystemSession, requests.values());
+        } catch (ArtifactResolutionException e) {
+            LOGGER.warn("Failed to resolve some artifacts for {} - {}", unitId, e.getMessage());
+            results = e.getResults();
+        }
+        for (ArtifactResult result : results) {
+            String key = getArtifactKey(result.getRequest().getArtifact());
+            Artifact artifact = result.getArtifact();
+            files.put(key, artifact == null ? null : artifact.getFile());
+        }
+        LOGGER.debug("Resolved artifacts");
+    }
+
+    /**
+     * @param artifact artifact to check
+     * @return artifact's file if artifact was resolved or null
+     */
+    File getFile(Artifact artifact) {
+        return files.get(getArtifactKey(artifact));
+    }
+
+    /**
+     * @param artifact artifact to check
+     * @return artifact's POM file if it was resolved or null
+     */
+    File getPomFile(Artifact artifact) {
+        return files.get(getArtifactKey(toPomArtifact(artifact)));
+    }
+
+    /**
+     * Reads SCM URL from artifact's POM file or takes it from the cache
+     *
+     * @param artifact artifact to check
+     * @return SCM URL declared by artifact's POM file or null if POM file was not resolved or declares no SCM URL
+     */
+    String getScmUrl(Artifact artifact) {
+        String key = getArtifactKey(toPomArtifact(artifact));
+        if (scmUrls.containsKey(key)) {
+            return scmUrls.get(key);
+        }
+        String url = null;
+        File file = files.get(key);
+        if (file != null && file.exists()) {
+            try (FileInputStream inputStream = new FileInputStream(file)) {
+                Scm scm = new MavenXpp3Reader().read(inputStream).getScm();
+                if (scm != null) {
+                    url = scm.getUrl();
+                }
+            } catch (IOException | XmlPullParserException e) {
+                LOGGER.debug("Unable to read POM file {}", file, e);
+            }
+        }
+        scmUrls.put(key, url);
+        return url;
+    }
+
+    /**
+     * Collects sub-graph of a given dependency or takes it from the cache
+     *
+     * @param unitId     source unit ID (used for logging)
+     * @param dependency dependency to collect sub-graph for
+     * @param extension  artifact extension
+     * @return collected node or null if collection failed
+     */
+    private DependencyNode collect(String unitId, RawDependency dependency, String extension) {
+
+        String key = getDependencyKey(dependency, extension);
+        if (nodes.containsKey(key)) {
+            return nodes.get(key);
+        }
+
+        CollectRequest collectRequest = new CollectRequest();
+        // using root-less request to keep the same depth semantics as for the list
+        // of module's dependencies (scope and optional dependency selectors depend on it)
+        collectRequest.setDependencies(Collections.singletonList(toDependency(dependency, extension)));
+        collectRequest.setRepositories(repositories);
+
+        DependencyNode root;
+        try {
+            root = repositorySystem.collectDependencies(repositorySystemSession, collectRequest).getRoot();
+        } catch (DependencyCollectionException e) {
+            LOGGER.warn("Failed to collect dependencies of {} for {} - {}", key, unitId, e.getMessage());
+            root = e.getResult().getRoot();
+        }
+        DependencyNode node = null;
+        if (root != null && !root.getChildren().isEmpty()) {
+            node = root.getChildren().get(0);
+        }
+        nodes.put(key, node);
+        return node;
+    }
+
+    /**
+     * Registers new artifact request if there is no such one and artifact wasn't resolved yet
+     *
+     * @param requests map to register request in (artifact key => request)
+     * @param artifact artifact to make request for
+     */
+    private void addRequest(Map<String, ArtifactRequest> requests, Artifact artifact) {
+        String key = getArtifactKey(artifact);
+        if (files.containsKey(key) || requests.containsKey(key)) {
+            return;
+        }
+        List<RemoteRepository> repos = artifactRepositories.get(getArtifactKey(artifact, null));
+        if (repos == null || repos.isEmpty()) {
+            repos = repositories;
+        }
+        requests.put(key, new ArtifactRequest(artifact, repos, null));
+    }
+
+    /**
+     * Converts raw dependency to Aether's one
+     *
+     * @param dependency raw dependency to convert
+     * @param extension  artifact extension
+     * @return Aether dependency object
+     */
+    private Dependency toDependency(RawDependency dependency, String extension) {
+        ArtifactTypeRegistry artifactTypeRegistry = repositorySystemSession.getArtifactTypeRegistry();
+        Artifact artifact = new DefaultArtifact(dependency.groupID,
+                dependency.artifactID,
+                dependency.classifier,
+                extension,
+                dependency.version,
+                artifactTypeRegistry.get(dependency.type));
+        Collection<Exclusion> exclusions = new ArrayList<>();
+        if (dependency.exclusions != null) {
+            for (String exclusion : dependency.exclusions) {
+                String parts[] = exclusion.split(":", 2);
+                exclusions.add(new Exclusion(parts[0], parts.length > 1 ? parts[1] : "*", "*", "*"));
+            }
+        }
+        return new Dependency(artifact, dependency.scope, false, exclusions);
+    }
+
+    /**
+     * @param dependency raw dependency
+     * @param extension  artifact extension
+     * @return key that identifies sub-graph produced by a given dependency: coordinates, scope, and exclusions
+     */
+    private static String getDependencyKey(RawDependency dependency, String extension) {
+        StringBuilder key = new StringBuilder().
+                append(dependency.groupID).append(':').
+                append(dependency.artifactID).append(':').
+                append(StringUtils.defaultString(dependency.classifier)).append(':').
+                append(StringUtils.defaultString(dependency.type)).append(':').
+                append(extension).append(':').
+                append(dependency.version).append(':').
+                append(StringUtils.defaultString(dependency.scope));
+        if (dependency.exclusions != null) {
+            List<String> exclusions = new ArrayList<>(dependency.exclusions);
+            Collections.sort(exclusions);
+            key.append(':').append(StringUtils.join(exclusions, ','));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param artifact artifact
+     * @return key used to detect version conflicts (everything but version)
+     */
+    private static String getConflictKey(Artifact artifact) {
+        return artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' +
+                artifact.getClassifier() + ':' + artifact.getExtension();
+    }
+
+    /**
+     * @param artifact artifact
+     * @return key that identifies artifact's file
+     */
+    private static String getArtifactKey(Artifact artifact) {
+        return getArtifactKey(artifact, artifact.getExtension());
+    }
+
+    /**
+     * @param artifact  artifact
+     * @param extension extension to use, null matches artifact regardless of extension and classifier
+     * @return key that identifies artifact's file
+     */
+    private static String getArtifactKey(Artifact artifact, String extension) {
+        if (extension == null) {
+            return artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' + artifact.getVersion();
+        }
+        return artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' + artifact.getVersion() + ':' +
+                artifact.getClassifier() + ':' + extension;
+    }
+
+    /**
+     * @param artifact artifact
+     * @return POM artifact with the same coordinates
+     */
+    private static Artifact toPomArtifact(Artifact artifact) {
+        return new DefaultArtifact(artifact.getGroupId(),
+                artifact.getArtifactId(),
+                StringUtils.EMPTY,
+                POM,
+                artifact.getVersion());
+    }
+}
@@ -2,30 +2,26 @@ package com.sourcegraph.javagraph;
 
 import com.google.common.collect.Iterators;
 import com.sourcegraph.javagraph.maven.plugins.MavenPlugins;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.model.*;
 import org.apache.maven.model.building.*;
-import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
 import org.apache.maven.model.resolution.InvalidRepositoryException;
 import org.apache.maven.model.resolution.ModelResolver;
 import org.apache.maven.model.resolution.UnresolvableModelException;
 import org.apache.maven.repository.internal.ArtifactDescriptorUtils;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
 import org.codehaus.plexus.util.DirectoryScanner;
-import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.eclipse.aether.AbstractRepositoryListener;
 import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryEvent;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.artifact.Artifact;
-import org.eclipse.aether.artifact.ArtifactTypeRegistry;
 import org.eclipse.aether.artifact.DefaultArtifact;
-import org.eclipse.aether.collection.CollectRequest;
-import org.eclipse.aether.collection.DependencyCollectionException;
 import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
-import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.impl.DefaultServiceLocator;
 import org.eclipse.aether.impl.RemoteRepositoryManager;
+import org.eclipse.aether.impl.SyncContextFactory;
 import org.eclipse.aether.internal.impl.DefaultRemoteRepositoryManager;
 import org.eclipse.aether.repository.LocalRepository;
 import org.eclipse.aether.repository.RemoteRepository;
@@ -34,17 +30,15 @@ import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
 import org.eclipse.aether.spi.connector.transport.TransporterFactory;
 import org.eclipse.aether.transport.file.FileTransporterFactory;
 import org.eclipse.aether.transport.http.HttpTransporterFactory;
-import org.eclipse.aether.util.graph.visitor.PreorderNodeListGenerator;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class MavenProject implements Project {
@@ -66,6 +60,12 @@ public class MavenProject implements Project {
 
     private SourceUnit unit;
 
+    /**
+     * POM files (other than project's own ones) that projects built by the last scan inherit from, such as parent
+     * POMs outside of current working directory or parent POMs fetched from repository
+     */
+    private static final Set<Path> parentPomFiles = ConcurrentHashMap.newKeySet();
+
     private static RepositorySystem repositorySystem;
     private static RepositorySystemSession repositorySystemSession;
 
@@ -92,6 +92,11 @@ public class MavenProject implements Project {
 
     private transient org.apache.maven.project.MavenProject mavenProject;
 
+    /**
+     * POM model as it was read from file, before inheritance and interpolation
+     */
+    private transient Model rawModel;
+
     /**
      * Fetches and parses POM file if necessary, applies processing plugins
      *
@@ -110,6 +115,16 @@ public class MavenProject implements Project {
                     repositorySystem,
                     repositorySystemSession));
             ModelBuildingResult result = factory.newInstance().build(request);
+            rawModel = result.getRawModel();
+            for (String modelId : result.getModelIds()) {
+                Model model = result.getRawModel(modelId);
+                if (model != null && model.getPomFile() != null) {
+                    Path file = model.getPomFile().toPath().toAbsolutePath().normalize();
+                    if (!file.equals(pomFile.toAbsolutePath().normalize())) {
+                        parentPomFiles.add(file);
+                    }
+                }
+            }
             mavenProject = new org.apache.maven.project.MavenProject(result.getEffectiveModel());
             LOGGER.debug("Maven project structure is built", pomFile);
             // applying all registered plugins to adjust project data
@@ -129,6 +144,11 @@ public class MavenProject implements Project {
         locator.addService(TransporterFactory.class, FileTransporterFactory.class);
         locator.addService(TransporterFactory.class, HttpTransporterFactory.class);
 
+        if (ArtifactCache.isShared()) {
+            // shared repository may be used by multiple processes at once
+            locator.setService(SyncContextFactory.class, ArtifactSyncContextFactory.class);
+        }
+
         locator.setErrorHandler(new DefaultServiceLocator.ErrorHandler() {
             @Override
             public void serviceCreationFailed(Class<?> type, Class<?> impl, Throwable exception) {
@@ -152,6 +172,15 @@ public class MavenProject implements Project {
 
         LocalRepository localRepo = new LocalRepository(repoDir);
         session.setLocalRepositoryManager(system.newLocalRepositoryManager(session, localRepo));
+        if (ArtifactCache.isShared()) {
+            // marking used artifacts to keep them from eviction
+            session.setRepositoryListener(new AbstractRepositoryListener() {
+                @Override
+                public void artifactResolved(RepositoryEvent event) {
+                    ArtifactCache.touch(event.getFile());
+                }
+            });
+        }
 
         return session;
     }
@@ -176,6 +205,11 @@ public class MavenProject implements Project {
             rawDependency.classifier = d.getClassifier();
             rawDependency.type = d.getType();
             rawDependency.repoURI = null;
+            if (d.getExclusions() != null && !d.getExclusions().isEmpty()) {
+                rawDependency.exclusions = d.getExclusions().stream().
+                        map(exclusion -> exclusion.getGroupId() + ':' + exclusion.getArtifactId()).
+                        collect(Collectors.toList());
+            }
             deps.add(rawDependency);
         }
 
@@ -218,9 +252,14 @@ public class MavenProject implements Project {
 
     @Override
     public RawDependency getDepForJAR(Path jarFile) {
+        return getDepForJAR(jarFile, PathUtil.CWD);
+    }
+
+    @Override
+    public RawDependency getDepForJAR(Path jarFile, Path workingDir) {
         for (RawDependency dependency : unit.Data.Dependencies) {
             if (dependency.file != null &&
-                    jarFile.equals(PathUtil.CWD.resolve(dependency.file).toAbsolutePath())) {
+                    jarFile.equals(workingDir.resolve(dependency.file).toAbsolutePath())) {
                 return dependency;
             }
         }
@@ -292,6 +331,7 @@ public class MavenProject implements Project {
     public static Collection<SourceUnit> findAllSourceUnits() throws IOException {
 
         LOGGER.debug("Retrieving source units");
+        parentPomFiles.clear();
 
         // step 1 : process all pom.xml files
         Collection<Path> pomFiles = ScanUtil.findMatchingFiles("pom.xml");
@@ -299,6 +339,7 @@ public class MavenProject implements Project {
         Map<String, String> unitsByPomFile = new HashMap<>();
 
         Collection<BuildAnalysis.BuildInfo> infos = new ArrayList<>();
+        Map<BuildAnalysis.BuildInfo, Model> rawModels = new HashMap<>();
         Collection<Repository> repositories = new HashSet<>();
         for (Path pomFile : pomFiles) {
 
@@ -309,6 +350,7 @@ public class MavenProject implements Project {
                 MavenProject project = new MavenProject(pomFile);
                 BuildAnalysis.BuildInfo info = createBuildInfo(project);
                 infos.add(info);
+                rawModels.put(info, project.rawModel);
                 artifactsByUnitId.put(info.getName() + '/' + info.version, info);
                 unitsByPomFile.put(info.buildFile, info.getName() + '/' + info.version);
                 repositories.addAll(project.getMavenProject().getRepositories());
@@ -319,21 +361,49 @@ public class MavenProject implements Project {
 
         LOGGER.debug("Retrieved source units");
 
-        // step 2: resolve dependencies
+        // step 2: collecting dependencies of all units using shared dependency graph
+
+        List<RemoteRepository> remoteRepositories = repositories.stream().
+                map(ArtifactDescriptorUtils::toRemoteRepository).collect(Collectors.toList());
+        MavenDependencyGraph graph = new MavenDependencyGraph(repositorySystem,
+                repositorySystemSession,
+                remoteRepositories);
 
+        // transitive closures of intra-reactor dependencies are computed once and shared between units
+        TransitiveClosure<String, BuildAnalysis.BuildInfo> closure = new TransitiveClosure<>(artifactsByUnitId::get,
+                info -> getUnitDependencies(info, unitsByPomFile));
+
+        Map<BuildAnalysis.BuildInfo, Collection<SourcePathElement>> sourcePaths = new HashMap<>();
+        Map<BuildAnalysis.BuildInfo, Collection<Artifact>> unitArtifacts = new HashMap<>();
+        Set<Artifact> allArtifacts = new LinkedHashSet<>();
         for (BuildAnalysis.BuildInfo info : infos) {
-            Collection<RawDependency> externalDeps = new ArrayList<>();
+            String unitName = info.getName();
+            Collection<BuildAnalysis.BuildInfo> dependencies = closure.get(unitName + '/' + info.version);
+            Set<SourcePathElement> sourcePath = new HashSet<>();
+            Collection<RawDependency> allDependencies = new ArrayList<>();
+            for (BuildAnalysis.BuildInfo dependency : dependencies) {
+                allDependencies.addAll(dependency.dependencies);
+                sourcePath.addAll(dependency.sourceDirs);
+            }
+            sourcePaths.put(info, sourcePath);
             // if source unit depends on another source units, let's exclude them from the list before
             // trying to resolve, otherwise request may fail
-            externalDeps.addAll(info.dependencies.stream().filter(dep ->
+            Collection<RawDependency> externalDeps = allDependencies.stream().filter(dep ->
                     !artifactsByUnitId.containsKey(dep.groupID + '/' + dep.artifactID + '/' + dep.version)).
-                    collect(Collectors.toList()));
-            // reading POM files to retrieve SCM repositories
-            retrieveRepoUri(info.attrs.groupID + '/' + info.attrs.artifactID, externalDeps, repositories);
-
+                    collect(Collectors.toList());
+            LOGGER.debug("Collecting artifacts for {} [{}]", unitName, info.buildFile);
+            Collection<Artifact> artifacts = graph.getArtifacts(unitName, externalDeps, "jar");
+            unitArtifacts.put(info, artifacts);
+            allArtifacts.addAll(artifacts);
         }
 
-        // step 3: resolving dependencies between units and updating source path and class path
+        // step 3: fetching JAR and POM files of all collected artifacts at once
+
+        LOGGER.debug("Resolving artifacts");
+        graph.resolve(StringUtils.EMPTY, allArtifacts);
+        LOGGER.debug("Resolved artifacts");
+
+        // step 4: updating source path, class path, and SCM URI of dependencies
 
         Collection<SourceUnit> ret = new ArrayList<>();
         for (BuildAnalysis.BuildInfo info : infos) {
@@ -347,35 +417,13 @@ public class MavenProject implements Project {
             unit.Data.POMFile = info.buildFile;
             unit.Data.SourceVersion = info.sourceVersion;
             unit.Data.SourceEncoding = info.sourceEncoding;
-            try {
-                unit.Data.POM = org.json.XML.toJSONObject(IOUtils.toString(new FileInputStream(info.buildFile)));
-            } catch (Exception e) {
-                LOGGER.warn("Unable to embed POM object into the {} unit data", unit.Name, e);
+            Model model = rawModels.get(info);
+            if (model != null) {
+                unit.Data.POM = new EmbeddedPOM(model);
             }
-            Collection<BuildAnalysis.BuildInfo> dependencies = collectDependencies(info.getName() + '/' + info.version,
-                    artifactsByUnitId,
-                    unitsByPomFile);
-            Set<SourcePathElement> sourcePath = new HashSet<>();
-            Collection<RawDependency> allDependencies = new ArrayList<>();
-            for (BuildAnalysis.BuildInfo dependency : dependencies) {
-                allDependencies.addAll(dependency.dependencies);
-                sourcePath.addAll(dependency.sourceDirs);
-            }
-            Collection<RawDependency> externalDeps = new ArrayList<>();
-            // if source unit depends on another source units, let's exclude them from the list before
-            // trying to resolve, otherwise request may fail
-            externalDeps.addAll(allDependencies.stream().filter(dep ->
-                    !artifactsByUnitId.containsKey(dep.groupID + '/' + dep.artifactID + '/' + dep.version)).
-                    collect(Collectors.toList()));
-            LOGGER.debug("Resolving artifacts for {} [{}]", unit.Name, info.buildFile);
-            Collection<Artifact> resolvedArtifacts = resolveDependencyArtifacts(unit.Name,
-                    externalDeps,
-                    repositories,
-                    "jar");
-            LOGGER.debug("Resolved artifacts for {} [{}]", unit.Name, info.buildFile);
             List<String> classPath = new ArrayList<>();
-            for (Artifact artifact : resolvedArtifacts) {
-                File file = artifact.getFile();
+            for (Artifact artifact : unitArtifacts.get(info)) {
+                File file = graph.getFile(artifact);
                 if (file != null) {
                     classPath.add(file.getAbsolutePath());
                     // updating unit dependencies with files after resolution
@@ -389,8 +437,10 @@ public class MavenProject implements Project {
                     }
                 }
             }
+            // reading POM files to retrieve SCM repositories
+            retrieveRepoUri(unitArtifacts.get(info), unit.Data.Dependencies, graph);
             unit.Data.ClassPath = classPath;
-            unit.Data.SourcePath = sourcePath;
+            unit.Data.SourcePath = sourcePaths.get(info);
             if (info.androidSdk != null) {
                 unit.Data.Android = true;
             }
@@ -400,6 +450,22 @@ public class MavenProject implements Project {
         return ret;
     }
 
+    /**
+     * @return build files source units found by {@link #findAllSourceUnits()} depend on
+     * @throws IOException
+     */
+    static Collection<Path> getBuildInputs() throws IOException {
+        return ScanUtil.findMatchingFiles("pom.xml");
+    }
+
+    /**
+     * @return POM files source units found by the last {@link #findAllSourceUnits()} call inherit from, in addition
+     * to {@link #getBuildInputs()}: parent POMs referred by relative path or fetched from repository
+     */
+    static Collection<Path> getParentPomFiles() {
+        return new ArrayList<>(parentPomFiles);
+    }
+
     public static boolean is(SourceUnit unit) {
         return unit.Data.POMFile != null;
     }
@@ -446,7 +512,8 @@ public class MavenProject implements Project {
      * @return location of Maven's local repository
      */
     protected static String getRepoDir() {
-        return REPO_DIR;
+        Path shared = ArtifactCache.getMavenRepository();
+        return shared == null ? REPO_DIR : shared.toString();
     }
 
     /**
@@ -464,52 +531,15 @@ public class MavenProject implements Project {
 
         LOGGER.debug("Resolving dependency artifacts");
 
-        Collection<Artifact> ret = new ArrayList<>();
-
-        List<org.eclipse.aether.graph.Dependency> deps = new ArrayList<>();
-        ArtifactTypeRegistry artifactTypeRegistry = repositorySystemSession.getArtifactTypeRegistry();
-        for (RawDependency dependency : dependencies) {
-            Artifact artifact = new DefaultArtifact(dependency.groupID,
-                    dependency.artifactID,
-                    dependency.classifier,
-                    extension,
-                    dependency.version,
-                    artifactTypeRegistry.get(dependency.type));
-            deps.add(new org.eclipse.aether.graph.Dependency(artifact, dependency.scope));
-        }
-        CollectRequest collectRequest = new CollectRequest();
-        collectRequest.setDependencies(deps);
         List<RemoteRepository> repoz = repositories.stream().
                 map(ArtifactDescriptorUtils::toRemoteRepository).collect(Collectors.toList());
-        collectRequest.setRepositories(repoz);
-
-        DependencyNode node;
-        try {
-            node = repositorySystem.collectDependencies(repositorySystemSession, collectRequest).getRoot();
-        } catch (DependencyCollectionException e) {
-            // TODO
-            LOGGER.warn("Failed to collect dependencies for {} - {}", unitId, e.getMessage(), e);
-            node = e.getResult().getRoot();
-        }
-        LOGGER.debug("Collected dependencies");
-        if (node == null) {
-            LOGGER.warn("Failed to collect dependencies for {} - no dependencies were collected", unitId);
-            return ret;
-        }
-
-        DependencyRequest projectDependencyRequest = new DependencyRequest(node, null);
-        try {
-            repositorySystem.resolveDependencies(repositorySystemSession, projectDependencyRequest);
-        } catch (DependencyResolutionException e) {
-            LOGGER.warn("Failed to resolve dependencies for {} - {}", unitId, e.getMessage());
-        }
-        LOGGER.debug("Resolved dependencies");
-
-        PreorderNodeListGenerator nlg = new PreorderNodeListGenerator();
-        node.accept(nlg);
+        MavenDependencyGraph graph = new MavenDependencyGraph(repositorySystem, repositorySystemSession, repoz);
+        Collection<Artifact> artifacts = graph.getArtifacts(unitId, dependencies, extension);
+        graph.resolve(unitId, artifacts);
 
-        ret.addAll(nlg.getDependencies(true).stream().map(org.eclipse.aether.graph.Dependency::getArtifact).
-                collect(Collectors.toList()));
+        Collection<Artifact> ret = artifacts.stream().
+                map(artifact -> artifact.setFile(graph.getFile(artifact))).
+                collect(Collectors.toList());
 
         LOGGER.debug("Resolved dependency artifacts");
 
@@ -567,95 +597,58 @@ public class MavenProject implements Project {
     }
 
     /**
-     * Gathers BuildInfo objects that represent dependencies of specific artifact.
-     * If dependency has sub-dependencies, they will be collected as well resursively
+     * Lists identifiers of source units given unit directly depends on. Unit may refer to another one either
+     * by regular dependency or by module declaration
      *
-     * @param unitId    source unit identifier (group/artifact/version)
-     * @param unitCache cache that contains build info objects (unitid => buildindo)
-     * @param pomCache  cache that contains build info objects (POM file => unitid)
-     * @return collected objects
+     * @param info     build info object to collect dependencies of
+     * @param pomCache cache that contains build info objects (POM file => unitid)
+     * @return identifiers of units (group/artifact/version) given unit depends on, some of them may refer to
+     * external artifacts
      */
-    private static Collection<BuildAnalysis.BuildInfo> collectDependencies(
-            String unitId,
-            Map<String, BuildAnalysis.BuildInfo> unitCache,
-            Map<String, String> pomCache) {
-        Set<String> visited = new HashSet<>();
-        Collection<BuildAnalysis.BuildInfo> infos = new LinkedHashSet<>();
-        collectDependencies(unitId, infos, unitCache, pomCache, visited);
-        return infos;
-    }
-
-    /**
-     * Recursively collects dependencies of a given unit
-     *
-     * @param unitId    source unit ID to process (group/artifact/version)
-     * @param infos     collection to fill with data
-     * @param unitCache cache that contains build info objects (unitid => buildindo)
-     * @param pomCache  cache that contains build info objects (POM file => unitid)
-     * @param visited   marks visited units to avoid infinite loops
-     */
-    private static void collectDependencies(String unitId,
-                                            Collection<BuildAnalysis.BuildInfo> infos,
-                                            Map<String, BuildAnalysis.BuildInfo> unitCache,
-                                            Map<String, String> pomCache,
-                                            Set<String> visited) {
-        visited.add(unitId);
-        BuildAnalysis.BuildInfo info = unitCache.get(unitId);
-        if (info == null) {
-            return;
-        }
-        infos.add(info);
-
+    private static Collection<String> getUnitDependencies(BuildAnalysis.BuildInfo info,
+                                                          Map<String, String> pomCache) {
+        Collection<String> ret = new ArrayList<>();
         for (RawDependency dependency : info.dependencies) {
-            String depId = dependency.groupID + '/' + dependency.artifactID + '/' + dependency.version;
-            if (!visited.contains(depId)) {
-                collectDependencies(depId, infos, unitCache, pomCache, visited);
-            }
+            ret.add(dependency.groupID + '/' + dependency.artifactID + '/' + dependency.version);
         }
-
         for (BuildAnalysis.ProjectDependency dependency : info.projectDependencies) {
-            unitId = pomCache.get(dependency.buildFile);
+            String unitId = pomCache.get(dependency.buildFile);
             if (unitId != null) {
-                if (!visited.contains(unitId)) {
-                    collectDependencies(unitId, infos, unitCache, pomCache, visited);
-                }
+                ret.add(unitId);
             }
         }
+        return ret;
     }
 
     /**
-     * Fetches POM files for specified dependencies and extract SCM URI if there are any
+     * Updates specified dependencies with SCM URI declared by POM files of resolved artifacts if there are any.
+     * POM file of each artifact is read only once and then its SCM URI is shared by all units
      *
+     * @param artifacts    artifacts to take SCM URI of
      * @param dependencies list of dependencies to collect URI for
-     * @param repositories repositories to use when looking for external files
+     * @param graph        dependency graph that holds resolved POM files
      */
-    private static void retrieveRepoUri(String unitId,
+    private static void retrieveRepoUri(Collection<Artifact> artifacts,
                                         Collection<RawDependency> dependencies,
-                                        Collection<Repository> repositories) {
-
-        Collection<Artifact> pomArtifacts = resolveDependencyArtifacts(unitId, dependencies, repositories, "pom");
-
-        for (Artifact artifact : pomArtifacts) {
-            File file = artifact.getFile();
-            if (file != null && file.exists()) {
-                MavenXpp3Reader xpp3Reader = new MavenXpp3Reader();
-                try (FileInputStream inputStream = new FileInputStream(file)) {
-                    Model model = xpp3Reader.read(inputStream);
-                    Scm scm = model.getScm();
-                    if (scm != null) {
-                        for (RawDependency rawDependency : dependencies) {
-                            if (StringUtils.equals(rawDependency.artifactID, artifact.getArtifactId()) &&
-                                    StringUtils.equals(rawDependency.groupID, artifact.getGroupId()) &&
-                                    StringUtils.equals(rawDependency.version, artifact.getVersion())) {
-                                rawDependency.repoURI = scm.getUrl();
-                                break;
-                            }
-                        }
-                    }
-                } catch (IOException | XmlPullParserException e) {
-                    // ignore
+                                        MavenDependencyGraph graph) {
+
+        for (Artifact artifact : artifacts) {
+            RawDependency dependency = null;
+            for (RawDependency rawDependency : dependencies) {
+                if (StringUtils.equals(rawDependency.artifactID, artifact.getArtifactId()) &&
+                        StringUtils.equals(rawDependency.groupID, artifact.getGroupId()) &&
+                        StringUtils.equals(rawDependency.version, artifact.getVersion())) {
+                    dependency = rawDependency;
+                    break;
                 }
             }
+            if (dependency == null) {
+                continue;
+            }
+            String url = graph.getScmUrl(artifact);
+            if (url != null) {
+                dependency.repoURI = url;
+            }
         }
     }
 
@@ -4,15 +4,43 @@ import com.sun.tools.javac.code.Symbol.ClassSymbol;
 
 import javax.lang.model.element.Element;
 import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * Resolves java file object for java program elements (classes and package)
+ * Resolves java file object for java program elements (classes and package).
+ * Keeps state between calls, each graph context has its own instance
  */
 public class Origins {
 
-    private static JavaFileObject lastElementObject;
+    /**
+     * Last resolved java file object, used when requested resolution of package's java file object,
+     * because we can't reach forElement(package) without reaching forClass() first
+     */
+    private JavaFileObject lastElementObject;
+
+    /**
+     * Signature stubs of units current unit depends on
+     */
+    private final Collection<SignatureStubs> stubs = new ArrayList<>();
 
-    private Origins() {
+    /**
+     * Source file URI => file object that stands for source file of classes read from stubs
+     */
+    private final Map<URI, JavaFileObject> stubSources = new HashMap<>();
+
+    /**
+     * Registers signature stubs, classes read from them are resolved to source files they were compiled from
+     * @param stubs signature stubs
+     */
+    void addStubs(SignatureStubs stubs) {
+        this.stubs.add(stubs);
     }
 
     /**
@@ -20,7 +48,7 @@ public class Origins {
      * @param e java program element
      * @return resolved java file object
      */
-    public static JavaFileObject forElement(Element e) {
+    public JavaFileObject forElement(Element e) {
         switch (e.getKind()) {
             case CLASS:
             case INTERFACE:
@@ -39,11 +67,39 @@ public class Origins {
      * @param s java program element
      * @return resolved java file object
      */
-    public static JavaFileObject forClass(ClassSymbol s) {
-        // alexsaveliev: we keeping last resolved java file object to use it when requested resolution of package's
-        // java file object, because we can't reach forElement(package) without reaching forClass() first
+    public JavaFileObject forClass(ClassSymbol s) {
         lastElementObject = s.classfile == null ? s.sourcefile : s.classfile;
+        if (s.classfile != null && !stubs.isEmpty()) {
+            JavaFileObject source = forStubClass(s);
+            if (source != null) {
+                lastElementObject = source;
+            }
+        }
         return lastElementObject;
     }
 
+    /**
+     * @param s class element read from class file
+     * @return file object of source file class was compiled from if class was read from signature stubs
+     */
+    private JavaFileObject forStubClass(ClassSymbol s) {
+        URI uri = s.classfile.toUri();
+        if (!"file".equals(uri.getScheme())) {
+            return null;
+        }
+        Path classFile = Paths.get(uri);
+        for (SignatureStubs candidate : stubs) {
+            if (classFile.startsWith(candidate.getDir())) {
+                URI source = candidate.getSource(s.outermostClass().flatName().toString());
+                if (source == null) {
+                    return null;
+                }
+                return stubSources.computeIfAbsent(source,
+                        key -> new SimpleJavaFileObject(key, JavaFileObject.Kind.SOURCE) {
+                        });
+            }
+        }
+        return null;
+    }
+
 }
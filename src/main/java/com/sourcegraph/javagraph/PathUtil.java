@@ -6,6 +6,7 @@ import org.apache.commons.lang3.SystemUtils;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.*;
 
 /**
  * Path utilities
@@ -52,8 +53,19 @@ public class PathUtil {
      * for path /foo/bar/baz and CWD /kaboom/bar result will be /foo/bar/baz
      */
     public static String relativizeCwd(Path p) {
-        if (p.startsWith(CWD)) {
-            Path rel = CWD.relativize(p);
+        return relativize(CWD, p);
+    }
+
+    /**
+     * Produces path relative to given directory
+     * @param dir base directory
+     * @param p path to process
+     * @return path translated relative to given directory, if path is located inside of it or
+     * absolute path otherwise
+     */
+    public static String relativize(Path dir, Path p) {
+        if (p.startsWith(dir)) {
+            Path rel = dir.relativize(p);
             if (rel.toString().isEmpty()) {
                 return StringUtils.EMPTY;
             }
@@ -112,5 +124,32 @@ public class PathUtil {
         return concat(parent, new File(child));
     }
 
+    /**
+     * Checks existence of many files at once. Instead of querying each file, lists every parent directory once,
+     * which is much faster for large collections of files located in the same directories
+     * @param files absolute file paths to check
+     * @return paths of existing files
+     */
+    public static Set<String> filterExistingFiles(Collection<String> files) {
+        Map<String, Collection<String>> byParent = new HashMap<>();
+        for (String file : files) {
+            File f = new File(file);
+            byParent.computeIfAbsent(StringUtils.defaultString(f.getParent()), k -> new ArrayList<>()).add(file);
+        }
+        Set<String> ret = new HashSet<>();
+        for (Map.Entry<String, Collection<String>> entry : byParent.entrySet()) {
+            String names[] = new File(entry.getKey()).list();
+            if (names == null) {
+                continue;
+            }
+            Set<String> existing = new HashSet<>(Arrays.asList(names));
+            for (String file : entry.getValue()) {
+                if (existing.contains(new File(file).getName())) {
+                    ret.add(file);
+                }
+            }
+        }
+        return ret;
+    }
 
 }
@@ -47,6 +47,17 @@ public interface Project {
      */
     public RawDependency getDepForJAR(Path jarFile) throws Exception;
 
+    /**
+     * Translates path to JAR file to raw dependency if possible
+     * @param jarFile location of JAR file
+     * @param workingDir directory relative dependency files are resolved against
+     * @return raw dependency matching given JAR file if possible to identify or null
+     * @throws Exception
+     */
+    default RawDependency getDepForJAR(Path jarFile, Path workingDir) throws Exception {
+        return getDepForJAR(jarFile);
+    }
+
     /**
      *
      * @return source code version (Java language level), matches javac's -source command line argument. Null or empty
@@ -2,6 +2,8 @@ package com.sourcegraph.javagraph;
 
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.Collection;
+
 /**
  * A Raw, unresolved source unit dependency.
  */
@@ -39,6 +41,10 @@ public class RawDependency {
      * SCM URI
      */
     String repoURI;
+    /**
+     * Excluded transitive dependencies (groupId:artifactId), used only while resolving dependencies
+     */
+    transient Collection<String> exclusions;
 
     public RawDependency(String groupID, String artifactID, String version, String scope, String file) {
         this.groupID = groupID;
@@ -0,0 +1,332 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.tools.StandardJavaFileManager;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Graphs several source units (for example, modules of Maven reactor or Gradle multi-project build) with a single
+ * javac invocation. Each source file is parsed and attributed once, instead of once by its own unit and then again
+ * by every dependent unit through source path. Definitions and references found in each source file go to the unit
+ * file belongs to. Units should have compatible compiler settings (see {@link #getCompatibilityKey(SourceUnit)})
+ * and should not disagree on artifacts they share (see {@link #group(List)}), class paths and source paths of all
+ * units are merged.
+ * <p>
+ * If units cannot be compiled together (for example, they share source files, compilation fails, or javac reports
+ * errors such as duplicate classes), each unit is graphed separately
+ */
+class ReactorGrapher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactorGrapher.class);
+
+    /**
+     * Versioned archive file name, for example guava-18.0.jar, the first group is artifact name
+     */
+    private static final Pattern VERSIONED_ARCHIVE = Pattern.compile("^(.+?)-\\d[^/\\\\]*\\.(jar|zip|aar)$");
+
+    private final List<GraphContext> contexts;
+
+    private final Path workingDir;
+
+    private final StandardJavaFileManager fileManager;
+
+    /**
+     * @param contexts contexts of units to graph
+     * @param workingDir directory units' relative paths are resolved against
+     * @param fileManager file manager to reuse, null to make new one
+     */
+    ReactorGrapher(List<GraphContext> contexts, Path workingDir, StandardJavaFileManager fileManager) {
+        this.contexts = contexts;
+        this.workingDir = workingDir;
+        this.fileManager = fileManager;
+    }
+
+    /**
+     * @param unit source unit
+     * @return key that is the same for units that may be compiled together: source version, source encoding,
+     * and boot class path
+     * @throws Exception
+     */
+    static String getCompatibilityKey(SourceUnit unit) throws Exception {
+        Project project = unit.getProject();
+        Collection<String> bootClassPath = project.getBootClassPath();
+        return StringUtils.defaultString(project.getSourceCodeVersion()) + '\n' +
+                StringUtils.defaultString(project.getSourceCodeEncoding()) + '\n' +
+                (bootClassPath == null ? StringUtils.EMPTY : StringUtils.join(bootClassPath, '\n'));
+    }
+
+    /**
+     * Splits units into groups that may be compiled together. Units of a group share compiler settings
+     * (see {@link #getCompatibilityKey(SourceUnit)}) and agree on every artifact they have in common
+     * (see {@link #getArtifacts(SourceUnit)}): two units that depend on different versions of the same library,
+     * or read the same upstream unit from different directories, go to different groups, because merged class path
+     * or source path would give one of them classes it was not built against. Each unit joins the first group
+     * it agrees with, units that cannot be read or examined are put in groups of their own
+     * @param units units, may contain nulls
+     * @return groups of unit indexes, ordered by their first units
+     */
+    static List<List<Integer>> group(List<SourceUnit> units) {
+        Map<String, List<Group>> groupsByKey = new HashMap<>();
+        List<Group> groups = new ArrayList<>();
+        for (int i = 0; i < units.size(); i++) {
+            SourceUnit unit = units.get(i);
+            String key = null;
+            Map<String, String> artifacts = null;
+            if (unit != null) {
+                try {
+                    key = getCompatibilityKey(unit);
+                    artifacts = getArtifacts(unit);
+                } catch (Exception e) {
+                    LOGGER.warn("Unable to retrieve compiler settings of {}", unit.Name, e);
+                }
+            }
+            Group target = null;
+            if (artifacts != null) {
+                List<Group> candidates = groupsByKey.computeIfAbsent(key, k -> new ArrayList<>());
+                for (Group candidate : candidates) {
+                    if (candidate.agrees(artifacts)) {
+                        target = candidate;
+                        break;
+                    }
+                }
+                if (target == null) {
+                    target = new Group();
+                    candidates.add(target);
+                    groups.add(target);
+                }
+            } else {
+                target = new Group();
+                groups.add(target);
+            }
+            target.add(i, artifacts);
+        }
+        List<List<Integer>> ret = new ArrayList<>();
+        for (Group group : groups) {
+            ret.add(group.indexes);
+        }
+        return ret;
+    }
+
+    /**
+     * @param unit source unit
+     * @return artifacts unit is compiled against, artifact key => version or location. Keys are
+     * "groupId:artifactId" of raw dependencies (value is version), archive name without version of versioned
+     * class path archives and path of other class path entries (value is path), and names of source path units
+     * (value is directory)
+     * @throws Exception
+     */
+    static Map<String, String> getArtifacts(SourceUnit unit) throws Exception {
+        Map<String, String> ret = new HashMap<>();
+        if (unit.Data.Dependencies != null) {
+            for (RawDependency dependency : unit.Data.Dependencies) {
+                ret.put("dependency:" + dependency.groupID + ':' + dependency.artifactID,
+                        StringUtils.defaultString(dependency.version));
+            }
+        }
+        Collection<String> classPath = unit.getProject().getClassPath();
+        if (classPath != null) {
+            for (String element : classPath) {
+                String name = Paths.get(element).getFileName().toString();
+                Matcher m = VERSIONED_ARCHIVE.matcher(name);
+                ret.put(m.matches() ? "archive:" + m.group(1) : "path:" + element, element);
+            }
+        }
+        if (unit.Data.SourcePath != null) {
+            for (SourcePathElement element : unit.Data.SourcePath) {
+                if (!StringUtils.isEmpty(element.name)) {
+                    ret.put("unit:" + element.name, element.filePath);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Builds graphs of units, never throws
+     * @return graphs built or failures, in the same order contexts were given
+     */
+    List<GraphResult> graph() {
+        if (contexts.size() > 1) {
+            try {
+                return graphTogether();
+            } catch (Exception e) {
+                LOGGER.warn("Unable to graph {} units together, graphing them one by one", contexts.size(), e);
+            }
+        }
+        List<GraphResult> ret = new ArrayList<>();
+        for (GraphContext context : contexts) {
+            ret.add(context.graph());
+        }
+        return ret;
+    }
+
+    /**
+     * Compiles units together
+     * @return graphs built or failures to resolve references of particular units
+     * @throws Exception if units cannot be compiled together
+     */
+    private List<GraphResult> graphTogether() throws Exception {
+        Collection<Project> projects = new ArrayList<>();
+        Map<String, Grapher.Target> targets = new HashMap<>();
+        Collection<String> files = new LinkedHashSet<>();
+        List<GraphData> rawGraphs = new ArrayList<>();
+        List<GraphContext.Emitter> emitters = new ArrayList<>();
+        Collection<String> names = new ArrayList<>();
+
+        for (GraphContext context : contexts) {
+            SourceUnit unit = context.getUnit();
+            names.add(unit.Name);
+            projects.add(unit.getProject());
+            GraphData rawGraph = new GraphData();
+            GraphContext.Emitter emitter = context.newEmitter(rawGraph);
+            rawGraphs.add(rawGraph);
+            emitters.add(emitter);
+            Grapher.Target target = new Grapher.Target(unit, emitter);
+            for (String file : Grapher.collectFiles(workingDir, context.getFiles())) {
+                if (targets.put(file, target) != null) {
+                    throw new IllegalStateException(file + " belongs to more than one unit");
+                }
+                files.add(file);
+            }
+        }
+
+        LOGGER.info("Building graphs of {}", StringUtils.join(names, ", "));
+        SourceUnit reactor = new SourceUnit() {
+            @Override
+            public Project getProject() {
+                return new ReactorProject(projects);
+            }
+        };
+        reactor.Name = StringUtils.join(names, ", ");
+        reactor.Type = SourceUnit.DEFAULT_TYPE;
+
+        Grapher grapher = new Grapher(new GraphContext(reactor, workingDir, fileManager), targets);
+        try {
+            grapher.graphFiles(files);
+            LOGGER.debug("Graph collection complete");
+        } finally {
+            grapher.close();
+        }
+        if (grapher.getErrorCount() > 0) {
+            // merged class path and source path may bring duplicate classes or classes some unit was not built
+            // against, errors of units themselves are reported again when units are graphed alone
+            throw new IllegalStateException("javac reported " + grapher.getErrorCount() +
+                    " errors while compiling units together");
+        }
+
+        List<GraphResult> ret = new ArrayList<>();
+        for (int i = 0; i < contexts.size(); i++) {
+            try {
+                emitters.get(i).check();
+                ret.add(new GraphResult(GraphContext.toGraph(rawGraphs.get(i)), null));
+            } catch (Exception e) {
+                LOGGER.debug("Unable to build graph for {}", contexts.get(i).getUnit().Name, e);
+                ret.add(new GraphResult(e));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Units that may be compiled together
+     */
+    private static class Group {
+
+        private final List<Integer> indexes = new ArrayList<>();
+
+        /**
+         * Artifacts of group's units, artifact key => version or location
+         */
+        private final Map<String, String> artifacts = new HashMap<>();
+
+        /**
+         * @param unitArtifacts artifacts of unit
+         * @return true if unit uses the same versions and locations of artifacts it shares with group's units
+         */
+        boolean agrees(Map<String, String> unitArtifacts) {
+            for (Map.Entry<String, String> entry : unitArtifacts.entrySet()) {
+                String existing = artifacts.get(entry.getKey());
+                if (existing != null && !existing.equals(entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @param index unit index
+         * @param unitArtifacts artifacts of unit, null if unknown
+         */
+        void add(int index, Map<String, String> unitArtifacts) {
+            indexes.add(index);
+            if (unitArtifacts != null) {
+                artifacts.putAll(unitArtifacts);
+            }
+        }
+    }
+
+    /**
+     * Compiler settings of several units: class paths and source paths are merged, the rest is taken from
+     * the first unit
+     */
+    private static class ReactorProject implements Project {
+
+        private final Collection<Project> projects;
+
+        ReactorProject(Collection<Project> projects) {
+            this.projects = projects;
+        }
+
+        @Override
+        public Collection<String> getBootClassPath() throws Exception {
+            return projects.iterator().next().getBootClassPath();
+        }
+
+        @Override
+        public Collection<String> getClassPath() throws Exception {
+            Collection<String> ret = new LinkedHashSet<>();
+            for (Project project : projects) {
+                Collection<String> classPath = project.getClassPath();
+                if (classPath != null) {
+                    ret.addAll(classPath);
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public Collection<String> getSourcePath() throws Exception {
+            Collection<String> ret = new LinkedHashSet<>();
+            for (Project project : projects) {
+                Collection<String> sourcePath = project.getSourcePath();
+                if (sourcePath != null) {
+                    ret.addAll(sourcePath);
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public RawDependency getDepForJAR(Path jarFile) throws Exception {
+            // references are resolved by units' own projects
+            return null;
+        }
+
+        @Override
+        public String getSourceCodeVersion() throws Exception {
+            return projects.iterator().next().getSourceCodeVersion();
+        }
+
+        @Override
+        public String getSourceCodeEncoding() throws Exception {
+            return projects.iterator().next().getSourceCodeEncoding();
+        }
+    }
+}
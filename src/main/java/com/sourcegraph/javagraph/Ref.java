@@ -66,6 +66,69 @@ public class Ref {
         defUnit = target.ToUnit;
     }
 
+    /**
+     * @return key of definition referenced
+     */
+    public DefKey getDefKey() {
+        return defKey;
+    }
+
+    /**
+     * @return repository of definition referenced, may be null
+     */
+    public String getDefRepo() {
+        return defRepo;
+    }
+
+    /**
+     * @return unit type of definition referenced, may be null
+     */
+    public String getDefUnitType() {
+        return defUnitType;
+    }
+
+    /**
+     * @return unit name of definition referenced, may be null
+     */
+    public String getDefUnit() {
+        return defUnit;
+    }
+
+    /**
+     * @return file that holds a reference
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @return start offset in file
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return end offset in file
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * @return true if reference is also a definition
+     */
+    public boolean isDef() {
+        return def;
+    }
+
+    /**
+     * @return name of source unit reference belongs to
+     */
+    public String getUnit() {
+        return unit;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -106,7 +169,8 @@ public class Ref {
     }
 
     /**
-     * JSON serialization rules for reference objects
+     * JSON serialization rules for reference objects. File path is written as is, graph context makes it relative
+     * to unit's working directory before reference leaves grapher
      */
     static class JSONSerializer implements JsonSerializer<Ref> {
 
@@ -124,7 +188,7 @@ public class Ref {
             if (ref.defUnit != null) object.add("DefUnit", new JsonPrimitive(ref.defUnit));
             object.add("DefPath", new JsonPrimitive(ref.defKey.formatPath()));
 
-            object.add("File", new JsonPrimitive(PathUtil.relativizeCwd(ref.file)));
+            object.add("File", new JsonPrimitive(ref.file));
             object.add("Start", new JsonPrimitive(ref.start));
             object.add("End", new JsonPrimitive(ref.end));
             object.add("Def", new JsonPrimitive(ref.def));
@@ -20,6 +20,7 @@ import java.net.URL;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,10 +36,22 @@ public class Resolver {
     private final Project proj;
     private final SourceUnit unit;
 
+    /**
+     * Directory unit's relative paths are resolved against
+     */
+    private final Path workingDir;
+
     private Map<String, DepResolution> depsCache;
 
     private static Map<Pattern, OverrideConfiguration> overrides;
 
+    /**
+     * SCM URLs fetched from Maven Central so far, group:artifact:version => URL (empty if POM does not define it).
+     * Shared by all resolvers made by the same process, to avoid fetching POMs again when the same dependency is
+     * met by another source unit
+     */
+    private static final Map<String, Optional<String>> scmUrls = new ConcurrentHashMap<>();
+
     static {
         overrides = new HashMap<>();
         InputStream is = Resolver.class.getResourceAsStream("/resolver.properties");
@@ -70,8 +83,19 @@ public class Resolver {
      * @param unit source unit
      */
     public Resolver(Project proj, SourceUnit unit) {
+        this(proj, unit, PathUtil.CWD);
+    }
+
+    /**
+     * Constructs new resolver object
+     * @param proj project to use
+     * @param unit source unit
+     * @param workingDir directory unit's relative paths are resolved against
+     */
+    public Resolver(Project proj, SourceUnit unit, Path workingDir) {
         this.proj = proj;
         this.unit = unit;
+        this.workingDir = workingDir;
         this.depsCache = new HashMap<>();
     }
 
@@ -116,7 +140,7 @@ public class Resolver {
 
         RawDependency rawDep = null;
         try {
-            rawDep = proj.getDepForJAR(jarFile);
+            rawDep = proj.getDepForJAR(jarFile, workingDir);
         } catch (Exception e) {
             LOGGER.warn("Error resolving JAR file path {} to dependency", jarFile, e);
         }
@@ -299,7 +323,7 @@ public class Resolver {
 
         try {
 
-            String cloneURL = getScmUrl(d);
+            String cloneURL = getCachedScmUrl(d);
 
             if (cloneURL != null) {
                 res.Raw = d;
@@ -342,7 +366,7 @@ public class Resolver {
             return null;
         }
         File file = new File(origin);
-        File cwd = PathUtil.CWD.toFile();
+        File cwd = workingDir.toFile();
         for (SourcePathElement element : sourceDirs) {
             File root = PathUtil.concat(cwd, element.filePath);
             try {
@@ -414,6 +438,24 @@ public class Resolver {
         return model;
     }
 
+    /**
+     * Retrieves SCM URL of a given dependency, each dependency is looked up once per process
+     * @param dependency dependency to retrieve SCM URL for
+     * @return SCM URL or null
+     * @throws IOException
+     * @throws XmlPullParserException
+     */
+    private static String getCachedScmUrl(RawDependency dependency) throws IOException, XmlPullParserException {
+        String key = dependency.groupID + ':' + dependency.artifactID + ':' + dependency.version;
+        Optional<String> url = scmUrls.get(key);
+        if (url == null) {
+            // failed lookups are not remembered, they might be caused by network errors
+            url = Optional.ofNullable(getScmUrl(dependency));
+            scmUrls.put(key, url);
+        }
+        return url.orElse(null);
+    }
+
     /**
      * This method tries to retrieve SCM URL, if POM model for given dependency does not specify SCM URL and
      * parent model belongs to the same group, we'll try to fecth URL from the parent model
@@ -0,0 +1,502 @@
+package com.sourcegraph.javagraph;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.*;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Persistent cache of scan results. Source units found by each build system scanner (Maven, Gradle, Ant) are
+ * stored along with SHA-1 hashes of all the build files they were made of, including ones located outside of
+ * repository (such as parent POMs). If set of build files found is the same and none of them changed since
+ * the previous scan, units are reused and only their file lists are refreshed from
+ * the repository walk: each unit remembers source roots its files are located in. When unit's files do not cover
+ * its source roots completely (for example, some files were excluded by build file), unit remembers hash of
+ * source roots content instead and cache entry is dropped as soon as source roots content changes.
+ * Cache entry is dropped as well if any of dependency artifacts units refer to disappeared (for example, Maven
+ * repository was removed) or if environment changed: srclib-java version, JDK, exclusion rules of repository root,
+ * or Maven user settings.
+ * Cache entries are kept outside of repository, in user's home directory or in shared cache directory
+ */
+class ScanCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScanCache.class);
+
+    /**
+     * Cache directory, relative to user's home directory, used when artifact caches are not shared
+     */
+    private static final String CACHE_DIR = ".srclib-java-cache/scan";
+
+    /**
+     * Maven user settings, mvn command started by scanners reads them
+     */
+    private static final String MAVEN_SETTINGS = ".m2/settings.xml";
+
+    private static final String ENTRY_EXTENSION = ".json";
+
+    private static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;");
+
+    /**
+     * Java file lines that may not precede package declaration
+     */
+    private static final Pattern DECLARATION_PATTERN = Pattern.compile(
+            "^\\s*(import|public|protected|private|abstract|final|class|interface|enum|@)\\b");
+
+    private final Path dir;
+
+    private final Gson gson;
+
+    /**
+     * @param dir directory to keep cache entries in
+     */
+    ScanCache(Path dir) {
+        this.dir = dir;
+        this.gson = new GsonBuilder().
+                registerTypeAdapter(EmbeddedPOM.class, new EmbeddedPOMAdapter()).
+                create();
+    }
+
+    /**
+     * @return scan cache of current working directory, located in shared cache directory if artifact caches
+     * are shared or in user's home directory otherwise, each working directory gets its own sub-directory
+     */
+    static ScanCache forCurrentDirectory() {
+        Path root = ArtifactCache.getScanCacheRoot();
+        if (root == null) {
+            root = Paths.get(System.getProperty("user.home")).resolve(CACHE_DIR);
+        }
+        return new ScanCache(root.resolve(Hashing.sha1().
+                hashString(PathUtil.CWD.toString(), StandardCharsets.UTF_8).
+                toString()));
+    }
+
+    /**
+     * Loads source units found by previous scan
+     *
+     * @param name   scanner name
+     * @param inputs build files found by the current scan
+     * @return source units with refreshed file lists or null if there is no entry or it's out of date
+     */
+    Collection<SourceUnit> load(String name, Collection<Path> inputs) {
+        Path file = getEntryFile(name);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        Entry entry;
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            entry = gson.fromJson(reader, Entry.class);
+        } catch (IOException | JsonParseException e) {
+            LOGGER.warn("Unable to read scan cache entry {}", file, e);
+            return null;
+        }
+        if (entry == null || !getEnvironment().equals(entry.environment)) {
+            LOGGER.debug("Scan cache entry {} was made by different environment", file);
+            return null;
+        }
+        Set<String> names = new HashSet<>();
+        for (Path input : inputs) {
+            names.add(PathUtil.relativizeCwd(input));
+        }
+        // build file may disappear from walk without being changed, for example when it becomes excluded
+        if (!names.equals(entry.inputs.keySet())) {
+            LOGGER.debug("Scan cache entry {} is out of date, set of build files was changed", file);
+            return null;
+        }
+        try {
+            Map<String, String> expected = new HashMap<>(entry.inputs);
+            expected.putAll(entry.externalInputs);
+            Map<String, String> hashes = hashInputs(expected.keySet());
+            for (Map.Entry<String, String> input : expected.entrySet()) {
+                if (!input.getValue().equals(hashes.get(input.getKey()))) {
+                    LOGGER.debug("Scan cache entry {} is out of date, {} was changed", file, input.getKey());
+                    return null;
+                }
+            }
+            Collection<String> artifacts = new HashSet<>();
+            for (CachedUnit cached : entry.units) {
+                for (String artifact : cached.artifacts) {
+                    artifacts.add(PathUtil.CWD.resolve(artifact).toString());
+                }
+            }
+            if (PathUtil.filterExistingFiles(artifacts).size() != artifacts.size()) {
+                LOGGER.debug("Scan cache entry {} is out of date, some of dependency artifacts are missing", file);
+                return null;
+            }
+            Collection<SourceUnit> ret = new ArrayList<>();
+            for (CachedUnit cached : entry.units) {
+                List<String> files = collectFiles(cached.roots);
+                if (files == null) {
+                    LOGGER.debug("Scan cache entry {} is out of date, source roots of {} are missing",
+                            file, cached.unit.Name);
+                    return null;
+                }
+                if (cached.rootsHash == null) {
+                    cached.unit.Files = files;
+                } else if (!cached.rootsHash.equals(hash(files))) {
+                    LOGGER.debug("Scan cache entry {} is out of date, source roots of {} were changed",
+                            file, cached.unit.Name);
+                    return null;
+                }
+                ret.add(cached.unit);
+            }
+            return ret;
+        } catch (IOException | ExecutionException e) {
+            LOGGER.warn("Unable to check scan cache entry {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores source units, failures are logged and ignored
+     *
+     * @param name           scanner name
+     * @param inputs         build files source units were made of
+     * @param externalInputs other files source units depend on, not found by repository walk (for example,
+     *                       parent POMs located outside of current working directory)
+     * @param units          source units (already normalized) to store
+     */
+    void store(String name,
+               Collection<Path> inputs,
+               Collection<Path> externalInputs,
+               Collection<SourceUnit> units) {
+        Path file = getEntryFile(name);
+        Path tmp = null;
+        try {
+            Entry entry = new Entry();
+            entry.environment = getEnvironment();
+            Collection<String> names = new ArrayList<>();
+            for (Path input : inputs) {
+                names.add(PathUtil.relativizeCwd(input));
+            }
+            entry.inputs = new TreeMap<>(hashInputs(names));
+            Collection<String> externalNames = new ArrayList<>();
+            for (Path input : externalInputs) {
+                externalNames.add(PathUtil.relativizeCwd(input));
+            }
+            entry.externalInputs = new TreeMap<>(hashInputs(externalNames));
+            Map<Path, Path> packageRoots = new HashMap<>();
+            for (SourceUnit unit : units) {
+                CachedUnit cached = new CachedUnit();
+                cached.unit = unit;
+                cached.roots = getRoots(unit, packageRoots);
+                cached.artifacts = getArtifacts(unit);
+                List<String> files = collectFiles(cached.roots);
+                List<String> unitFiles = unit.Files == null ? Collections.emptyList() : unit.Files;
+                if (files == null || !files.equals(unitFiles)) {
+                    cached.rootsHash = files == null ? StringUtils.EMPTY : hash(files);
+                }
+                entry.units.add(cached);
+            }
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, name, ENTRY_EXTENSION);
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                gson.toJson(entry, writer);
+            }
+            // other processes may read the same entry
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.debug("Stored scan cache entry {}", file);
+        } catch (IOException | ExecutionException | JsonIOException e) {
+            LOGGER.warn("Unable to store scan cache entry {}", file, e);
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * @param name scanner name
+     * @return file that keeps cache entry
+     */
+    private Path getEntryFile(String name) {
+        return dir.resolve(name.toLowerCase() + ENTRY_EXTENSION);
+    }
+
+    /**
+     * @return description of environment scan results depend on: srclib-java version, JDK location, and hash of
+     * files that are not build files but affect scan: exclusion rules of current working directory and Maven
+     * user settings
+     */
+    private static String getEnvironment() {
+        Collection<Path> files = new ArrayList<>(ScanUtil.getRootRuleFiles());
+        files.add(Paths.get(System.getProperty("user.home")).resolve(MAVEN_SETTINGS));
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (Path file : files) {
+            hasher.putString(file.toString(), StandardCharsets.UTF_8);
+            try {
+                hasher.putBytes(Files.readAllBytes(file));
+            } catch (IOException e) {
+                // missing file differs from empty one
+                hasher.putByte((byte) 0);
+            }
+            hasher.putChar('\n');
+        }
+        return Main.getVersion() + ':' + System.getProperty("java.home") + ':' + hasher.hash();
+    }
+
+    /**
+     * Computes hashes of build files in parallel
+     *
+     * @param inputs build file paths (relative to current working directory)
+     * @return map path => hash, missing files have no hash
+     * @throws ExecutionException
+     */
+    private static Map<String, String> hashInputs(Collection<String> inputs) throws ExecutionException {
+        List<String> paths = new ArrayList<>(inputs);
+        Collection<Callable<String>> tasks = new ArrayList<>();
+        for (String path : paths) {
+            tasks.add(() -> {
+                Path file = PathUtil.CWD.resolve(path);
+                if (!Files.isRegularFile(file)) {
+                    return null;
+                }
+                return Hashing.sha1().hashBytes(Files.readAllBytes(file)).toString();
+            });
+        }
+        List<String> hashes = WorkerPool.invokeAll(tasks);
+        Map<String, String> ret = new HashMap<>();
+        for (int i = 0; i < paths.size(); i++) {
+            if (hashes.get(i) != null) {
+                ret.put(paths.get(i), hashes.get(i));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param files list of files
+     * @return hash of file list
+     */
+    private static String hash(List<String> files) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (String file : files) {
+            hasher.putString(file, StandardCharsets.UTF_8);
+            hasher.putChar('\n');
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Collects java files located in source roots
+     *
+     * @param roots source roots, relative to current working directory
+     * @return sorted list of java files (relative to current working directory) or null if some of source roots
+     * do not exist
+     * @throws IOException
+     */
+    private static List<String> collectFiles(Collection<String> roots) throws IOException {
+        List<String> ret = new ArrayList<>();
+        for (String root : roots) {
+            Path path = PathUtil.CWD.resolve(root);
+            if (!Files.isDirectory(path)) {
+                return null;
+            }
+            for (Path file : ScanUtil.getJavaFilesRecursively(path)) {
+                ret.add(PathUtil.relativizeCwd(file));
+            }
+        }
+        ret.sort(String::compareTo);
+        return ret;
+    }
+
+    /**
+     * @param unit source unit
+     * @return existing dependency files and class path elements of a given unit
+     */
+    private static List<String> getArtifacts(SourceUnit unit) {
+        Map<String, String> artifacts = new HashMap<>();
+        for (RawDependency dependency : unit.Data.Dependencies) {
+            if (dependency.file != null) {
+                artifacts.put(PathUtil.CWD.resolve(dependency.file).toString(), dependency.file);
+            }
+        }
+        if (unit.Data.ClassPath != null) {
+            for (String element : unit.Data.ClassPath) {
+                artifacts.put(PathUtil.CWD.resolve(element).toString(), element);
+            }
+        }
+        List<String> ret = new ArrayList<>();
+        for (String existing : PathUtil.filterExistingFiles(artifacts.keySet())) {
+            ret.add(artifacts.get(existing));
+        }
+        ret.sort(String::compareTo);
+        return ret;
+    }
+
+    /**
+     * Computes source roots unit's files are located in. Source root of a file is either unit's source path element
+     * that contains it or a directory derived from file's location and package
+     *
+     * @param unit         source unit
+     * @param packageRoots cache of source roots computed from packages, directory => source root
+     * @return source roots (relative to current working directory), none of them contains another one
+     * @throws IOException
+     */
+    private static List<String> getRoots(SourceUnit unit, Map<Path, Path> packageRoots) throws IOException {
+        Collection<Path> sourceDirs = new ArrayList<>();
+        if (unit.Data.SourcePath != null) {
+            for (SourcePathElement element : unit.Data.SourcePath) {
+                sourceDirs.add(PathUtil.CWD.resolve(element.filePath).normalize());
+            }
+        }
+        Set<Path> candidates = new TreeSet<>();
+        if (unit.Files != null) {
+            for (String file : unit.Files) {
+                Path path = PathUtil.CWD.resolve(file).normalize();
+                Path root = null;
+                for (Path sourceDir : sourceDirs) {
+                    if (path.startsWith(sourceDir)) {
+                        root = sourceDir;
+                        break;
+                    }
+                }
+                if (root == null) {
+                    root = packageRoots.get(path.getParent());
+                    if (root == null) {
+                        root = getPackageRoot(path);
+                        packageRoots.put(path.getParent(), root);
+                    }
+                }
+                candidates.add(root);
+            }
+        }
+        List<Path> roots = new ArrayList<>();
+        for (Path candidate : candidates) {
+            if (roots.stream().noneMatch(candidate::startsWith)) {
+                roots.add(candidate);
+            }
+        }
+        List<String> ret = new ArrayList<>();
+        for (Path root : roots) {
+            ret.add(PathUtil.relativizeCwd(root));
+        }
+        return ret;
+    }
+
+    /**
+     * @param file java file
+     * @return directory that is a root of file's package or file's directory if package does not match file location
+     * @throws IOException
+     */
+    private static Path getPackageRoot(Path file) throws IOException {
+        Path dir = file.getParent();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = PACKAGE_PATTERN.matcher(line);
+                if (matcher.find()) {
+                    String packagePath = matcher.group(1).replace('.', File.separatorChar);
+                    Path root = dir;
+                    for (int i = StringUtils.countMatches(packagePath, String.valueOf(File.separatorChar)); i >= 0; i--) {
+                        root = root == null ? null : root.getParent();
+                    }
+                    if (root != null && dir.equals(root.resolve(packagePath))) {
+                        return root;
+                    }
+                    return dir;
+                }
+                if (DECLARATION_PATTERN.matcher(line).find()) {
+                    break;
+                }
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * Cache entry, source units made by single scanner
+     */
+    private static class Entry {
+
+        /**
+         * Environment scan was made in
+         */
+        String environment;
+
+        /**
+         * Build files, path => SHA-1 hash
+         */
+        Map<String, String> inputs = new TreeMap<>();
+
+        /**
+         * Files not found by repository walk units depend on, path => SHA-1 hash
+         */
+        Map<String, String> externalInputs = new TreeMap<>();
+
+        List<CachedUnit> units = new ArrayList<>();
+    }
+
+    /**
+     * Source unit and source roots its files are located in
+     */
+    private static class CachedUnit {
+
+        SourceUnit unit;
+
+        /**
+         * Source roots, relative to current working directory
+         */
+        List<String> roots;
+
+        /**
+         * Hash of java files located in source roots if unit's files do not cover source roots completely,
+         * null otherwise (unit's files are collected from source roots)
+         */
+        String rootsHash;
+
+        /**
+         * Dependency files and class path elements that existed when unit was stored
+         */
+        List<String> artifacts = new ArrayList<>();
+    }
+
+    /**
+     * Keeps embedded POM as XML string
+     */
+    private static class EmbeddedPOMAdapter implements JsonSerializer<EmbeddedPOM>, JsonDeserializer<EmbeddedPOM> {
+
+        @Override
+        public JsonElement serialize(EmbeddedPOM src, Type typeOfSrc,
+                                     JsonSerializationContext context) {
+            if (src.getModel() == null) {
+                return JsonNull.INSTANCE;
+            }
+            StringWriter writer = new StringWriter();
+            try {
+                new MavenXpp3Writer().write(writer, src.getModel());
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+            return new JsonPrimitive(writer.toString());
+        }
+
+        @Override
+        public EmbeddedPOM deserialize(JsonElement json, Type typeOfT,
+                                       JsonDeserializationContext context) {
+            try {
+                Model model = new MavenXpp3Reader().read(new StringReader(json.getAsString()));
+                return new EmbeddedPOM(model);
+            } catch (IOException | XmlPullParserException e) {
+                throw new JsonParseException(e);
+            }
+        }
+    }
+}
@@ -1,36 +1,76 @@
 package com.sourcegraph.javagraph;
 
+import com.beust.jcommander.Parameter;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.PrintStream;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Comparator;
-import java.util.List;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 public class ScanCommand {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ScanCommand.class);
 
+    private static final String POM_ALL = "all";
+    private static final String POM_NONE = "none";
+
+    private static final Comparator<RawDependency> DEPENDENCY_COMPARATOR = Comparator.
+            <RawDependency, String>comparing(dependency -> dependency.artifactID).
+            thenComparing(dependency -> dependency.groupID).
+            thenComparing(dependency -> dependency.version).
+            thenComparing(dependency -> dependency.scope).
+            thenComparing((o1, o2) -> {
+                if (o1.file == null) {
+                    return o2.file == null ? 0 : -1;
+                } else if (o2.file == null) {
+                    return 1;
+                }
+                return o1.file.compareTo(o2.file);
+            });
+
+    private static final Comparator<SourcePathElement> SOURCE_PATH_COMPARATOR = Comparator.
+            <SourcePathElement, String>comparing(sourcePathElement -> sourcePathElement.name).
+            thenComparing(sourcePathElement -> sourcePathElement.version).
+            thenComparing(sourcePathElement -> sourcePathElement.filePath);
+
+    private static final Comparator<Key> KEY_COMPARATOR = Comparator.
+            comparing((Key key) -> key.Name, Comparator.nullsFirst(String::compareTo)).
+            thenComparing(key -> key.Version, Comparator.nullsFirst(String::compareTo)).
+            thenComparing(key -> key.Type, Comparator.nullsFirst(String::compareTo)).
+            thenComparing(key -> key.CommitID, Comparator.nullsFirst(String::compareTo)).
+            thenComparing(key -> key.Repo, Comparator.nullsFirst(String::compareTo));
+
+    @Parameter(names = {"--pom"}, description = "Controls embedding of Maven POM data into source units: \"all\" (default) includes whole POM, \"none\" omits it, comma-separated list of top-level POM elements (for example \"groupId,artifactId,scm\") includes only given elements")
+    String pom = POM_ALL;
+
+    @Parameter(names = {"--gradle-daemon"}, description = "Use Gradle daemon to collect Gradle meta information, daemon started by one scan is reused by subsequent ones")
+    boolean gradleDaemon;
+
+    @Parameter(names = {"-j", "--jobs"}, description = "Number of worker threads used to process independent builds, defaults to number of available processors")
+    int jobs;
+
+    @Parameter(names = {"--exclude-file"}, description = "Path to a file in .gitignore format listing directories to skip while looking for build files, in addition to .gitignore files")
+    String excludeFile;
+
+    @Parameter(names = {"--no-scan-cache"}, description = "Do not reuse source units found by previous scans even if build files were not changed")
+    boolean noScanCache;
+
     /**
      * Main method
      */
     public void Execute() {
-
+        // redirecting all possible output of build tools to stderr to avoid mixing it with toolchain's output,
+        // stdout is kept for source units only
+        PrintStream out = System.out;
+        System.setOut(System.err);
         try {
-            // Scan for source units.
-            List<SourceUnit> units = new ArrayList<>();
-            // Recursively find all Maven and Gradle projects.
-            LOGGER.info("Collecting Maven source units");
-            units.addAll(MavenProject.findAllSourceUnits());
-            LOGGER.info("Collecting Gradle source units");
-            units.addAll(GradleProject.findAllSourceUnits());
-            LOGGER.info("Collecting Ant source units");
-            units.addAll(AntProject.findAllSourceUnits());
-            normalize(units);
-            JSONUtil.writeJSON(units);
+            JSONUtil.writeJSON(scan(), out);
+            out.flush();
         } catch (Exception e) {
             LOGGER.error("Unexpected error occurred while collecting source units", e);
             System.exit(1);
@@ -38,97 +78,233 @@ public class ScanCommand {
     }
 
     /**
-     * Normalizes source units produces by scan command (sorts, relativizes file paths etc)
+     * Collects source units in current working directory. Does not touch stdout, callers redirect it once
+     * for the whole process (see {@link #Execute()} and {@link ServeCommand}) so that concurrent scans never
+     * swap it under each other
+     *
+     * @return source units found
+     * @throws Exception if any of scanners failed
+     */
+    List<SourceUnit> scan() throws Exception {
+
+        BuildAnalysis.Gradle.setDaemon(gradleDaemon);
+        WorkerPool.setParallelism(jobs);
+        // the same process may serve more than one scan (see serve command), build files might be changed since
+        ScanUtil.reset();
+        GradleProject.reset();
+        CachingProjectHelper.reset();
+        ArtifactCache.reset();
+        ScanUtil.setExcludeFile(StringUtils.isEmpty(excludeFile) ? null : Paths.get(excludeFile));
+
+        // Scan for source units.
+        List<SourceUnit> units = new ArrayList<>();
+        // Recursively find all Maven, Gradle, and Ant projects.
+        ScanCache cache = noScanCache ? null : ScanCache.forCurrentDirectory();
+        for (Collection<SourceUnit> found : runScanners(cache)) {
+            units.addAll(found);
+        }
+        filterPOM(units);
+        ArtifactCache.evict();
+        return units;
+    }
+
+    /**
+     * Runs Maven, Gradle, and Ant scanners concurrently. Scanners are independent and spend most of the time
+     * waiting for build tools, network, or disk, thus each of them gets its own thread instead of occupying
+     * shared pool's worker (CPU-bound parts of scanners still go to the shared pool)
+     *
+     * @param cache scan cache to reuse units from, may be null
+     * @return normalized source units found by each scanner, in the same order scanners are listed
+     * @throws Exception if any of scanners failed
+     */
+    private static List<Collection<SourceUnit>> runScanners(ScanCache cache) throws Exception {
+        return runScanners(Arrays.asList(
+                scanner("Maven", cache, MavenProject::getBuildInputs, MavenProject::getParentPomFiles,
+                        MavenProject::findAllSourceUnits),
+                scanner("Gradle", cache, GradleProject::getBuildInputs, Collections::emptyList,
+                        GradleProject::findAllSourceUnits),
+                scanner("Ant", cache, AntProject::getBuildInputs, AntProject::getImportedFiles,
+                        AntProject::findAllSourceUnits)));
+    }
+
+    /**
+     * Runs given scanners concurrently, each one in its own thread
+     *
+     * @param scanners scanners to run
+     * @return source units found by each scanner, in the same order scanners are listed
+     * @throws Exception the first failure of scanners (in order they are listed)
+     */
+    static List<Collection<SourceUnit>> runScanners(List<Callable<Collection<SourceUnit>>> scanners)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(scanners.size());
+        try {
+            List<Collection<SourceUnit>> ret = new ArrayList<>(scanners.size());
+            for (Future<Collection<SourceUnit>> future : executor.invokeAll(scanners)) {
+                try {
+                    ret.add(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+            return ret;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Makes scanner task that reuses source units from scan cache if build files were not changed
+     *
+     * @param name           build system name
+     * @param cache          scan cache, may be null
+     * @param inputs         provides build files source units are made of
+     * @param externalInputs provides files outside of repository walk source units depend on, called after scan
+     * @param scan           collects source units
+     * @return scanner task that produces normalized source units
+     */
+    private static Callable<Collection<SourceUnit>> scanner(String name,
+                                                             ScanCache cache,
+                                                             Callable<Collection<Path>> inputs,
+                                                             Callable<Collection<Path>> externalInputs,
+                                                             Callable<Collection<SourceUnit>> scan) {
+        return () -> {
+            Collection<SourceUnit> units = cache == null ? null : cache.load(name, inputs.call());
+            if (units != null) {
+                LOGGER.info("Reusing cached {} source units", name);
+                normalize(units);
+                return units;
+            }
+            LOGGER.info("Collecting {} source units", name);
+            units = scan.call();
+            normalize(units);
+            if (cache != null) {
+                cache.store(name, inputs.call(), externalInputs.call(), units);
+            }
+            return units;
+        };
+    }
+
+    /**
+     * Normalizes source units produces by scan command (sorts, relativizes file paths etc).
+     * Units are processed in parallel
      *
      * @param units source units to normalize
+     * @throws ExecutionException
      */
-    @SuppressWarnings("unchecked")
-    private static void normalize(Collection<SourceUnit> units) {
-
-        Comparator<RawDependency> dependencyComparator = Comparator.comparing(dependency -> dependency.artifactID);
-        dependencyComparator = dependencyComparator.
-                thenComparing(dependency -> dependency.groupID).
-                thenComparing(dependency -> dependency.version).
-                thenComparing(dependency -> dependency.scope).
-                thenComparing((o1, o2) -> {
-                    if (o1.file == null) {
-                        return o2.file == null ? 0 : -1;
-                    } else if (o2.file == null) {
-                        return 1;
-                    }
-                    return o1.file.compareTo(o2.file);
-                });
-
-        Comparator<SourcePathElement> sourcePathComparator = Comparator.comparing(
-                sourcePathElement -> sourcePathElement.name);
-        sourcePathComparator = sourcePathComparator.
-                thenComparing(sourcePathElement -> sourcePathElement.version).
-                thenComparing(sourcePathElement -> sourcePathElement.filePath);
-
-        Comparator<Key> keyComparator = Comparator.comparing(key -> key.Name, Comparator.nullsFirst(String::compareTo));
-        keyComparator = keyComparator.
-                thenComparing(key -> key.Version, Comparator.nullsFirst(String::compareTo)).
-                thenComparing(key -> key.Type, Comparator.nullsFirst(String::compareTo)).
-                thenComparing(key -> key.CommitID, Comparator.nullsFirst(String::compareTo)).
-                thenComparing(key -> key.Repo, Comparator.nullsFirst(String::compareTo));
+    static void normalize(Collection<SourceUnit> units) throws ExecutionException {
 
+        // dependencies and source path elements may be shared between units (for example, units made from
+        // the same build file), relativizing them once before units are processed concurrently
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
         for (SourceUnit unit : units) {
-            unit.Dir = PathUtil.relativizeCwd(unit.Dir);
-            unit.Data.Dependencies = unit.Data.Dependencies.stream()
-                    .map(dependency -> {
-                        if (dependency.file != null) {
-                            dependency.file = PathUtil.relativizeCwd(dependency.file);
-                        }
-                        return dependency;
-                    })
-                    .sorted(dependencyComparator)
-                    .collect(Collectors.toList());
-
-            unit.Dependencies = unit.Data.Dependencies.stream()
-                    .map(dependency -> {
-                        Key key = new Key();
-                        key.Name = dependency.groupID + '/' + dependency.artifactID;
-                        key.Version = dependency.version;
-                        key.Type = SourceUnit.DEFAULT_TYPE;
-                        return key;
-                    })
-                    .sorted(keyComparator)
-                    .collect(Collectors.toList());
-
-            List<String> internalFiles = new ArrayList<>();
-            List<String> externalFiles = new ArrayList<>();
-            splitInternalAndExternalFiles(unit.Files, internalFiles, externalFiles);
-            unit.Files = internalFiles;
-            if (!externalFiles.isEmpty()) {
-                unit.Data.ExtraSourceFiles = externalFiles;
+            for (RawDependency dependency : unit.Data.Dependencies) {
+                if (dependency.file != null && seen.add(dependency)) {
+                    dependency.file = PathUtil.relativizeCwd(dependency.file);
+                }
             }
-            if (unit.Data.POMFile != null) {
-                unit.Data.POMFile = PathUtil.relativizeCwd(unit.Data.POMFile);
+            if (unit.Data.SourcePath != null) {
+                for (SourcePathElement sourcePathElement : unit.Data.SourcePath) {
+                    if (seen.add(sourcePathElement)) {
+                        sourcePathElement.filePath = PathUtil.relativizeCwd(sourcePathElement.filePath);
+                    }
+                }
             }
+        }
 
-            if (unit.Data.BuildXML != null) {
-                unit.Data.BuildXML = PathUtil.relativizeCwd(unit.Data.BuildXML);
-            }
+        Collection<Callable<Void>> tasks = new ArrayList<>(units.size());
+        for (SourceUnit unit : units) {
+            tasks.add(() -> {
+                normalize(unit);
+                return null;
+            });
+        }
+        WorkerPool.invokeAll(tasks);
+    }
 
-            if (unit.Data.ClassPath != null) {
-                unit.Data.ClassPath = unit.Data.ClassPath.stream().
-                        map(PathUtil::relativizeCwd).
-                        collect(Collectors.toList());
+    /**
+     * Normalizes single source unit, dependencies and source path elements should be relativized already
+     *
+     * @param unit source unit to normalize
+     */
+    @SuppressWarnings("unchecked")
+    private static void normalize(SourceUnit unit) {
+
+        unit.Dir = PathUtil.relativizeCwd(unit.Dir);
+        unit.Data.Dependencies = unit.Data.Dependencies.stream()
+                .sorted(DEPENDENCY_COMPARATOR)
+                .collect(Collectors.toList());
+
+        unit.Dependencies = unit.Data.Dependencies.stream()
+                .map(dependency -> {
+                    Key key = new Key();
+                    key.Name = dependency.groupID + '/' + dependency.artifactID;
+                    key.Version = dependency.version;
+                    key.Type = SourceUnit.DEFAULT_TYPE;
+                    return key;
+                })
+                .sorted(KEY_COMPARATOR)
+                .collect(Collectors.toList());
+
+        List<String> internalFiles = new ArrayList<>();
+        List<String> externalFiles = new ArrayList<>();
+        splitInternalAndExternalFiles(unit.Files, internalFiles, externalFiles);
+        unit.Files = internalFiles;
+        if (!externalFiles.isEmpty()) {
+            unit.Data.ExtraSourceFiles = externalFiles;
+        }
+        if (unit.Data.POMFile != null) {
+            unit.Data.POMFile = PathUtil.relativizeCwd(unit.Data.POMFile);
+        }
+
+        if (unit.Data.BuildXML != null) {
+            unit.Data.BuildXML = PathUtil.relativizeCwd(unit.Data.BuildXML);
+        }
+
+        if (unit.Data.ClassPath != null) {
+            unit.Data.ClassPath = unit.Data.ClassPath.stream().
+                    map(PathUtil::relativizeCwd).
+                    collect(Collectors.toList());
+        }
+        if (unit.Data.BootClassPath != null) {
+            unit.Data.BootClassPath = unit.Data.BootClassPath.stream().
+                    map(PathUtil::relativizeCwd).
+                    sorted().
+                    collect(Collectors.toList());
+        }
+        if (unit.Data.SourcePath != null) {
+            unit.Data.SourcePath = unit.Data.SourcePath.stream().
+                    sorted(SOURCE_PATH_COMPARATOR).
+                    collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Omits POM data or limits it to the selected elements according to command line options
+     *
+     * @param units source units to process
+     */
+    private void filterPOM(Collection<SourceUnit> units) {
+        if (StringUtils.isEmpty(pom) || POM_ALL.equals(pom)) {
+            return;
+        }
+        Collection<String> fields = null;
+        if (!POM_NONE.equals(pom)) {
+            fields = new LinkedHashSet<>();
+            for (String field : StringUtils.split(pom, ',')) {
+                if (!StringUtils.isBlank(field)) {
+                    fields.add(field.trim());
+                }
             }
-            if (unit.Data.BootClassPath != null) {
-                unit.Data.BootClassPath = unit.Data.BootClassPath.stream().
-                        map(PathUtil::relativizeCwd).
-                        sorted().
-                        collect(Collectors.toList());
+        }
+        for (SourceUnit unit : units) {
+            if (unit.Data.POM == null) {
+                continue;
             }
-            if (unit.Data.SourcePath != null) {
-                unit.Data.SourcePath = unit.Data.SourcePath.stream().
-                        map(sourcePathElement -> {
-                            sourcePathElement.filePath = PathUtil.relativizeCwd(sourcePathElement.filePath);
-                            return sourcePathElement;
-                        }).
-                        sorted(sourcePathComparator).
-                        collect(Collectors.toList());
+            if (fields == null) {
+                unit.Data.POM = null;
+            } else {
+                unit.Data.POM.setFields(fields);
             }
         }
     }
@@ -3,13 +3,17 @@ package com.sourcegraph.javagraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * File scan utilities
@@ -21,6 +25,64 @@ public class ScanUtil {
     private ScanUtil() {
     }
 
+    /**
+     * Build file names collected by repository walk
+     */
+    private static final Set<String> BUILD_FILE_NAMES = new HashSet<>(Arrays.asList("pom.xml",
+            "build.gradle",
+            "settings.gradle",
+            "build.xml",
+            "gradle.properties",
+            "gradle-wrapper.properties"));
+
+    /**
+     * Extension of build files collected by repository walk (in addition to ones listed by name)
+     */
+    private static final String GRADLE_EXTENSION = ".gradle";
+
+    private static final String JAVA_EXTENSION = ".java";
+
+    /**
+     * Directories always excluded from walks, in .gitignore format
+     */
+    private static final Collection<String> DEFAULT_EXCLUDES = Arrays.asList("/.gradle-srclib/",
+            "/.m2-srclib/");
+
+    /**
+     * Git's per-repository exclusion file
+     */
+    private static final String GIT_EXCLUDE_FILE = ".git/info/exclude";
+
+    /**
+     * Additional exclusion file in .gitignore format provided by user
+     */
+    private static Path excludeFile;
+
+    /**
+     * Exclusion rules of current working directory, built on the first request
+     */
+    private static IgnoreRules rootRules;
+
+    /**
+     * Build files found in current working directory, file name => files, built on the first request
+     */
+    private static Map<String, Set<Path>> buildFiles;
+
+    /**
+     * Java files found in current working directory, directory => java files located directly in it
+     */
+    private static Map<Path, Collection<Path>> javaFiles;
+
+    /**
+     * Directories visited by repository walk
+     */
+    private static Set<Path> walkedDirs;
+
+    /**
+     * Directories that hold java files, sorted by path, built on the first request
+     */
+    private static NavigableMap<String, Collection<Path>> sortedJavaDirs;
+
     /**
      * Retrieves all matching files in current working directory
      * @param fileName file name to match against
@@ -28,36 +90,272 @@ public class ScanUtil {
      * @throws IOException
      */
     public static HashSet<Path> findMatchingFiles(String fileName) throws IOException {
-        String pat = "glob:**/" + fileName;
-        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(pat);
+        if (isBuildFile(fileName)) {
+            walk();
+            return new HashSet<>(buildFiles.getOrDefault(fileName, Collections.emptySet()));
+        }
         HashSet<Path> result = new HashSet<>();
-
-        Files.walkFileTree(PathUtil.CWD, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (matcher.matches(file))
+        WorkerPool.getPool().invoke(new WalkTask(PathUtil.CWD, getRootRules(), (file, attrs) -> {
+            if (!attrs.isDirectory() && file.getFileName().toString().equals(fileName)) {
+                synchronized (result) {
                     result.add(file.toAbsolutePath().normalize());
+                }
+            }
+        }));
+        return result;
+    }
 
-                return FileVisitResult.CONTINUE;
+    /**
+     * Retrieves build files (pom.xml, build.xml, Gradle scripts and properties) collected by repository walk
+     * @param namePredicate file name filter
+     * @return build files with matching names
+     */
+    public static Collection<Path> findBuildFiles(Predicate<String> namePredicate) {
+        walk();
+        Collection<Path> ret = new ArrayList<>();
+        for (Map.Entry<String, Set<Path>> entry : buildFiles.entrySet()) {
+            if (namePredicate.test(entry.getKey())) {
+                ret.addAll(entry.getValue());
             }
+        }
+        return ret;
+    }
 
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                // Skip common build data directories and dot-directories.
-                String dirName = dir.getFileName().normalize().toString();
-                if (dirName.equals("build") || dirName.equals("target") || dirName.startsWith(".")) {
-                    return FileVisitResult.SKIP_SUBTREE;
-                }
-                return FileVisitResult.CONTINUE;
+    /**
+     * @param name file name
+     * @return true if files with a given name are collected by repository walk
+     */
+    private static boolean isBuildFile(String name) {
+        return BUILD_FILE_NAMES.contains(name) || name.endsWith(GRADLE_EXTENSION);
+    }
+
+    /**
+     * Recursively collects java files located in a given directory. Uses repository walk results when directory
+     * was visited by walk, otherwise (directory is located in skipped one or outside of current working directory)
+     * walks given directory
+     * @param dir directory to collect java files from
+     * @return java files located in a given directory and its sub-directories
+     * @throws IOException
+     */
+    public static Collection<Path> getJavaFilesRecursively(Path dir) throws IOException {
+        walk();
+        dir = dir.toAbsolutePath().normalize();
+        Collection<Path> ret = new ArrayList<>();
+        if (walkedDirs.contains(dir)) {
+            String prefix = dir.toString();
+            // all sub-directories of foo/bar are sorted between "foo/bar/" and "foo/bar0"
+            ret.addAll(getSortedJavaDirs().getOrDefault(prefix, Collections.emptyList()));
+            for (Collection<Path> files : getSortedJavaDirs().subMap(prefix + File.separatorChar, true,
+                    prefix + (char) (File.separatorChar + 1), false).values()) {
+                ret.addAll(files);
             }
+            return ret;
+        }
+        if (!Files.isDirectory(dir)) {
+            return ret;
+        }
+        try (Stream<Path> stream = Files.walk(dir)) {
+            stream.filter(file -> file.getFileName().toString().endsWith(JAVA_EXTENSION) &&
+                    Files.isRegularFile(file)).forEach(ret::add);
+        }
+        return ret;
+    }
+
+    /**
+     * @return directories that hold java files, sorted by path
+     */
+    private static synchronized NavigableMap<String, Collection<Path>> getSortedJavaDirs() {
+        if (sortedJavaDirs == null) {
+            sortedJavaDirs = new TreeMap<>();
+            javaFiles.forEach((dir, files) -> sortedJavaDirs.put(dir.toString(), files));
+        }
+        return sortedJavaDirs;
+    }
+
+    /**
+     * Sets additional exclusion file, should be called before any walk is made
+     * @param file file in .gitignore format, null to use .gitignore files only
+     */
+    public static synchronized void setExcludeFile(Path file) {
+        excludeFile = file == null ? null : file.toAbsolutePath().normalize();
+        rootRules = null;
+    }
+
+    /**
+     * Forgets results of repository walk and exclusion rules, next request walks current working directory again
+     */
+    public static synchronized void reset() {
+        buildFiles = null;
+        javaFiles = null;
+        walkedDirs = null;
+        sortedJavaDirs = null;
+        rootRules = null;
+    }
+
+    /**
+     * @return exclusion rules of current working directory: default ones, Git's exclusion file,
+     * user-provided exclusion file and .gitignore of current working directory
+     */
+    private static synchronized IgnoreRules getRootRules() {
+        if (rootRules == null) {
+            rootRules = getRootRules(PathUtil.CWD, excludeFile);
+        }
+        return rootRules;
+    }
+
+    /**
+     * @param root repository root
+     * @param excludeFile user-provided exclusion file, may be null
+     * @return exclusion rules of a given directory: default ones, Git's exclusion file, user-provided exclusion file
+     * and .gitignore of directory
+     */
+    static IgnoreRules getRootRules(Path root, Path excludeFile) {
+        return IgnoreRules.NONE.
+                add(root, DEFAULT_EXCLUDES).
+                add(root, root.resolve(GIT_EXCLUDE_FILE)).
+                add(root, excludeFile).
+                add(root, root.resolve(IgnoreRules.GITIGNORE));
+    }
+
+    /**
+     * @return files exclusion rules of current working directory are read from: Git's exclusion file,
+     * user-provided exclusion file (if any) and .gitignore of current working directory, some of them may not exist
+     */
+    public static synchronized List<Path> getRootRuleFiles() {
+        List<Path> ret = new ArrayList<>();
+        ret.add(PathUtil.CWD.resolve(GIT_EXCLUDE_FILE));
+        if (excludeFile != null) {
+            ret.add(excludeFile);
+        }
+        ret.add(PathUtil.CWD.resolve(IgnoreRules.GITIGNORE));
+        return ret;
+    }
+
+    /**
+     * @param root repository root
+     * @param rootRules exclusion rules of repository root (see {@link #getRootRules(Path, Path)})
+     * @param dir directory in repository root
+     * @param cache rules computed so far, directory => rules
+     * @return exclusion rules that apply to entries of a given directory, including rules
+     * defined by .gitignore files of all its parents up to repository root
+     */
+    static IgnoreRules getIgnoreRules(Path root, IgnoreRules rootRules, Path dir, Map<Path, IgnoreRules> cache) {
+        dir = dir.toAbsolutePath().normalize();
+        if (!dir.startsWith(root) || dir.equals(root)) {
+            return rootRules;
+        }
+        IgnoreRules rules = cache.get(dir);
+        if (rules == null) {
+            rules = getIgnoreRules(root, rootRules, dir.getParent(), cache).
+                    add(dir, dir.resolve(IgnoreRules.GITIGNORE));
+            cache.put(dir, rules);
+        }
+        return rules;
+    }
 
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
-                return FileVisitResult.CONTINUE;
+    /**
+     * Walks current working directory once, collecting all build files and java files in a single traversal
+     */
+    private static synchronized void walk() {
+        if (buildFiles != null) {
+            return;
+        }
+        LOGGER.debug("Walking {}", PathUtil.CWD);
+        Map<String, Set<Path>> foundBuildFiles = new ConcurrentHashMap<>();
+        Map<Path, Collection<Path>> foundJavaFiles = new ConcurrentHashMap<>();
+        Set<Path> foundDirs = ConcurrentHashMap.newKeySet();
+        foundDirs.add(PathUtil.CWD);
+        WorkerPool.getPool().invoke(new WalkTask(PathUtil.CWD, getRootRules(), (file, attrs) -> {
+            if (attrs.isDirectory()) {
+                foundDirs.add(file.toAbsolutePath().normalize());
+                return;
+            }
+            String name = file.getFileName().toString();
+            if (isBuildFile(name)) {
+                foundBuildFiles.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet()).
+                        add(file.toAbsolutePath().normalize());
+            } else if (name.endsWith(JAVA_EXTENSION)) {
+                foundJavaFiles.computeIfAbsent(file.getParent().toAbsolutePath().normalize(),
+                        k -> new ConcurrentLinkedQueue<>()).add(file);
             }
-        });
+        }));
+        buildFiles = foundBuildFiles;
+        javaFiles = foundJavaFiles;
+        walkedDirs = foundDirs;
+        LOGGER.debug("Walked {}", PathUtil.CWD);
+    }
 
-        return result;
+    /**
+     * Walks directory tree, each sub-directory is processed by its own fork/join task.
+     * Skips common build data directories (build, target), dot-directories and directories ignored by
+     * exclusion rules (ignored subtrees are never descended into), does not follow symbolic links
+     */
+    private static class WalkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final IgnoreRules rules;
+        private final BiConsumer<Path, BasicFileAttributes> visitor;
+
+        /**
+         * @param dir     directory to walk
+         * @param rules   exclusion rules inherited from parent directories
+         * @param visitor receives all the entries found along with their attributes, directories are reported
+         *                only if they are going to be walked
+         */
+        WalkTask(Path dir, IgnoreRules rules, BiConsumer<Path, BasicFileAttributes> visitor) {
+            this.dir = dir;
+            this.rules = rules;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            Map<Path, BasicFileAttributes> files = new LinkedHashMap<>();
+            Map<Path, BasicFileAttributes> dirs = new LinkedHashMap<>();
+            boolean hasIgnoreFile = false;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (!attrs.isDirectory()) {
+                        files.put(entry, attrs);
+                        hasIgnoreFile |= entry.getFileName().toString().equals(IgnoreRules.GITIGNORE);
+                        continue;
+                    }
+                    // Skip common build data directories and dot-directories.
+                    String dirName = entry.getFileName().toString();
+                    if (dirName.equals("build") || dirName.equals("target") || dirName.startsWith(".")) {
+                        continue;
+                    }
+                    dirs.put(entry, attrs);
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                LOGGER.debug("Unable to list {}", dir, e);
+            }
+            // root's .gitignore is already a part of root rules
+            IgnoreRules entryRules = rules;
+            if (hasIgnoreFile && !dir.equals(PathUtil.CWD)) {
+                entryRules = rules.add(dir, dir.resolve(IgnoreRules.GITIGNORE));
+            }
+            files.forEach(visitor);
+            Collection<WalkTask> subTasks = new ArrayList<>();
+            for (Map.Entry<Path, BasicFileAttributes> entry : dirs.entrySet()) {
+                Path subDir = entry.getKey();
+                if (entryRules.isIgnored(subDir, true)) {
+                    LOGGER.debug("Skipping ignored directory {}", subDir);
+                    continue;
+                }
+                visitor.accept(subDir, entry.getValue());
+                subTasks.add(new WalkTask(subDir, entryRules, visitor));
+            }
+            invokeAll(subTasks);
+        }
     }
 
     /**
@@ -0,0 +1,337 @@
+package com.sourcegraph.javagraph;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.google.common.io.BaseEncoding;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * Keeps single process alive and serves scan, graph, and depresolve requests made in current working directory,
+ * so that JVM startup, JIT warm-up, Maven repository system, and resolver caches are paid for once.
+ * <p>
+ * Requests are read either from stdin or from loopback TCP connections, one JSON object per line:
+ * {"id": ..., "dir": "/path/to/repo", "args": ["graph", "--exclude-file", "..."], "input": {source unit}}.
+ * "args" are the same command line arguments toolchain command accepts, "input" holds data toolchain command
+ * reads from stdin (not needed for scan), "id" and "dir" are optional.
+ * Requests made over TCP must also carry "token": random access token server writes on start to a file readable
+ * by current user only (see {@link #getTokenFile(int)}), requests without valid token are rejected.
+ * Each response is a JSON header line {"id": ..., "status": 0, "length": N} followed by N bytes of UTF-8 data
+ * toolchain command would write to stdout. Non-zero status indicates failure ("error" explains it),
+ * "rejected" is set if request was not executed at all (for example, it was made in other directory).
+ * <p>
+ * Requests are executed one at a time
+ */
+public class ServeCommand {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServeCommand.class);
+
+    @Parameter(names = {"--port"}, description = "Accept requests on a given loopback TCP port instead of stdin, 0 picks free port which is printed to stdout")
+    Integer port;
+
+    @Parameter(names = {"--token-file"}, description = "File to write access token of TCP server to, by default ~/.srclib-java-cache/serve/<port>.token")
+    String tokenFile;
+
+    /**
+     * Environment variable that holds path to token file clients should read, overrides default location
+     */
+    static final String TOKEN_FILE_ENV = "SRCLIB_JAVA_SERVER_TOKEN_FILE";
+
+    /**
+     * Directory of token files, relative to user's home directory
+     */
+    private static final String TOKEN_DIR = ".srclib-java-cache/serve";
+
+    private static final int TOKEN_LENGTH = 32;
+
+    /**
+     * Access token TCP requests must carry, null if requests are read from stdin
+     */
+    private byte[] token;
+
+    /**
+     * Main method
+     */
+    public void Execute() {
+        // stdout is reserved for responses or port number, build tools and compiler should not write there
+        PrintStream out = System.out;
+        System.setOut(System.err);
+        try {
+            if (port == null) {
+                LOGGER.info("Serving requests from stdin in {}", PathUtil.CWD);
+                serve(System.in, out);
+            } else {
+                listen(out);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to serve requests", e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Accepts connections on loopback interface, each connection is served by its own thread. Other local users
+     * may connect to loopback interface too, so every request must carry access token written to token file
+     * @param out stream to print port number to
+     * @throws IOException
+     */
+    private void listen(PrintStream out) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            Path file = tokenFile == null ? getTokenFile(serverSocket.getLocalPort()) : Paths.get(tokenFile);
+            writeToken(file);
+            LOGGER.info("Serving requests on port {} in {}, token file is {}",
+                    serverSocket.getLocalPort(),
+                    PathUtil.CWD,
+                    file);
+            out.println(serverSocket.getLocalPort());
+            out.flush();
+            while (true) {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(() -> {
+                    try {
+                        serve(socket.getInputStream(), socket.getOutputStream());
+                    } catch (IOException e) {
+                        LOGGER.warn("Connection {} failed", socket.getRemoteSocketAddress(), e);
+                    } finally {
+                        IOUtils.closeQuietly(socket);
+                    }
+                }, "srclib-java-connection-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Generates new access token and writes it to a given file, file is created anew with permissions that
+     * let current user only read it and is removed on exit
+     * @param file token file
+     * @throws IOException
+     */
+    private void writeToken(Path file) throws IOException {
+        byte[] bytes = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(bytes);
+        token = BaseEncoding.base16().lowerCase().encode(bytes).getBytes(StandardCharsets.UTF_8);
+
+        Path dir = file.toAbsolutePath().getParent();
+        if (!Files.isDirectory(dir)) {
+            Files.createDirectories(dir, ownerOnly("rwx------"));
+        }
+        // file left by previous server is replaced rather than rewritten, so that its permissions are not reused
+        Files.deleteIfExists(file);
+        Files.createFile(file, ownerOnly("rw-------"));
+        Files.write(file, token);
+        file.toFile().deleteOnExit();
+    }
+
+    /**
+     * @param permissions POSIX permissions, for example "rw-------"
+     * @return attributes to create file with given permissions, none if file system does not support POSIX
+     * permissions (then file inherits access rules of its directory, for example user's home directory on Windows)
+     */
+    private static FileAttribute<?>[] ownerOnly(String permissions) {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[0];
+        }
+        return new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(
+                PosixFilePermissions.fromString(permissions))};
+    }
+
+    /**
+     * @param port server port
+     * @return file clients read access token of server listening on a given port from, unless
+     * SRCLIB_JAVA_SERVER_TOKEN_FILE environment variable tells otherwise
+     */
+    static Path getTokenFile(int port) {
+        return Paths.get(System.getProperty("user.home")).resolve(TOKEN_DIR).resolve(port + ".token");
+    }
+
+    /**
+     * Serves requests until end of input
+     * @param in stream to read requests from
+     * @param out stream to write responses to
+     * @throws IOException
+     */
+    private void serve(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+            Response response = new Response();
+            byte[] data;
+            synchronized (this) {
+                data = handle(line, response);
+            }
+            synchronized (out) {
+                out.write(new Gson().toJson(response).getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+                out.write(data);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Executes single request
+     * @param line request in JSON format
+     * @param response response header to fill
+     * @return data produced by command
+     */
+    private byte[] handle(String line, Response response) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Request request;
+        try {
+            request = new Gson().fromJson(line, Request.class);
+        } catch (JsonParseException e) {
+            LOGGER.warn("Malformed request {}", line, e);
+            return reject(response, "Malformed request: " + e.getMessage());
+        }
+        response.id = request.id;
+        if (token != null && (request.token == null ||
+                !MessageDigest.isEqual(token, request.token.getBytes(StandardCharsets.UTF_8)))) {
+            return reject(response, "Invalid access token");
+        }
+        if (request.args == null || request.args.isEmpty()) {
+            return reject(response, "No command specified");
+        }
+        if (request.dir != null && !PathUtil.CWD.equals(Paths.get(request.dir).toAbsolutePath().normalize())) {
+            return reject(response, "Serving requests made in " + PathUtil.CWD + " only");
+        }
+        LOGGER.info("Executing {}", StringUtils.join(request.args, ' '));
+        try {
+            execute(request, data);
+        } catch (Exception e) {
+            LOGGER.error("Unable to execute {}", StringUtils.join(request.args, ' '), e);
+            response.status = 1;
+            response.error = e.toString();
+            data.reset();
+        }
+        response.length = data.size();
+        return data.toByteArray();
+    }
+
+    /**
+     * Marks request as rejected
+     * @param response response header to fill
+     * @param error reason
+     * @return empty data
+     */
+    private static byte[] reject(Response response, String error) {
+        response.status = 1;
+        response.rejected = true;
+        response.error = error;
+        return new byte[0];
+    }
+
+    /**
+     * Parses command line arguments of request and executes command
+     * @param request request to execute
+     * @param out stream to write data toolchain command would write to stdout to
+     * @throws Exception
+     */
+    private static void execute(Request request, OutputStream out) throws Exception {
+        JCommander jc = new JCommander();
+        ScanCommand scan = new ScanCommand();
+        GraphCommand graph = new GraphCommand();
+        DepresolveCommand depresolve = new DepresolveCommand();
+        jc.addCommand("scan", scan);
+        jc.addCommand("graph", graph);
+        jc.addCommand("depresolve", depresolve);
+        jc.parse(request.args.toArray(new String[request.args.size()]));
+
+        String command = jc.getParsedCommand();
+        if (command == null) {
+            throw new IllegalArgumentException("Unknown command " + request.args.get(0));
+        }
+        switch (command) {
+            case "scan":
+                JSONUtil.writeJSON(scan.scan(), out);
+                break;
+            case "graph":
+                graph.writeGraph(readUnit(request.input, graph.debugUnitFile), out);
+                break;
+            case "depresolve":
+                JSONUtil.writeJSON(depresolve.resolve(readUnit(request.input, depresolve.debugUnitFile)), out);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command " + command);
+        }
+    }
+
+    /**
+     * @param input source unit sent along with request, may be null
+     * @param debugUnitFile source unit file specified in request's arguments, may be null
+     * @return source unit to process
+     * @throws IOException
+     */
+    private static SourceUnit readUnit(JsonElement input, String debugUnitFile) throws IOException {
+        if (input != null && !input.isJsonNull()) {
+            return new Gson().fromJson(input, SourceUnit.class);
+        }
+        if (StringUtils.isEmpty(debugUnitFile)) {
+            throw new IllegalArgumentException("Source unit is missing");
+        }
+        try (Reader r = Files.newBufferedReader(PathUtil.CWD.resolve(debugUnitFile))) {
+            return new Gson().fromJson(r, SourceUnit.class);
+        }
+    }
+
+    /**
+     * Single request
+     */
+    static class Request {
+        /**
+         * Request identifier, echoed back in response
+         */
+        JsonElement id;
+        /**
+         * Directory request was made in
+         */
+        String dir;
+        /**
+         * Command line arguments
+         */
+        List<String> args;
+        /**
+         * Data command reads from stdin
+         */
+        JsonElement input;
+        /**
+         * Access token, required by TCP server
+         */
+        String token;
+    }
+
+    /**
+     * Response header, followed by data
+     */
+    static class Response {
+        JsonElement id;
+        int status;
+        boolean rejected;
+        String error;
+        int length;
+    }
+}
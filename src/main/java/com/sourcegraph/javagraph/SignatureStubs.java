@@ -0,0 +1,107 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Signature stubs of a source unit: directory with class files produced while graphing the unit, so that units
+ * depending on it may read compiled signatures from class path instead of parsing and attributing unit's sources
+ * through source path. Stub directory also holds an index that maps each top-level class to source file it was
+ * compiled from, so references to classes read from stubs keep pointing to source files (see {@link Origins})
+ */
+class SignatureStubs {
+
+    /**
+     * Name of index file, top-level class flat name => source file URI
+     */
+    static final String INDEX_FILE = "srclib-java-sources.properties";
+
+    /**
+     * Stub directory
+     */
+    private final Path dir;
+
+    /**
+     * Top-level class flat name => source file URI
+     */
+    private final Map<String, URI> sources;
+
+    private SignatureStubs(Path dir, Map<String, URI> sources) {
+        this.dir = dir;
+        this.sources = sources;
+    }
+
+    /**
+     * @return stub directory
+     */
+    Path getDir() {
+        return dir;
+    }
+
+    /**
+     * @param className top-level class flat name
+     * @return URI of source file class was compiled from or null if class is unknown
+     */
+    URI getSource(String className) {
+        return sources.get(className);
+    }
+
+    /**
+     * Prepares empty stub directory
+     * @param dir directory to write stubs to, removed first if exists
+     * @throws IOException
+     */
+    static void prepare(Path dir) throws IOException {
+        if (Files.exists(dir)) {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * Writes index of stubs, should be called once class files are written
+     * @param dir stub directory
+     * @param sources top-level class flat name => source file URI
+     * @throws IOException
+     */
+    static void writeIndex(Path dir, Map<String, URI> sources) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, URI> entry : sources.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+        try (OutputStream os = Files.newOutputStream(dir.resolve(INDEX_FILE))) {
+            properties.store(os, null);
+        }
+    }
+
+    /**
+     * Reads stubs
+     * @param dir stub directory
+     * @return stubs or null if directory holds no complete stubs
+     * @throws IOException
+     */
+    static SignatureStubs read(Path dir) throws IOException {
+        Path index = dir.resolve(INDEX_FILE);
+        if (!Files.isRegularFile(index)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(index)) {
+            properties.load(is);
+        }
+        Map<String, URI> sources = new HashMap<>();
+        for (String className : properties.stringPropertyNames()) {
+            sources.put(className, URI.create(properties.getProperty(className)));
+        }
+        return new SignatureStubs(dir.toAbsolutePath().normalize(), sources);
+    }
+}
@@ -1,8 +1,5 @@
 package com.sourcegraph.javagraph;
 
-
-import org.json.JSONObject;
-
 import java.util.*;
 
 /**
@@ -78,7 +75,7 @@ public class SourceUnitData {
     /**
      * Maven's POM data
      */
-    JSONObject POM;
+    EmbeddedPOM POM;
 
     /**
      * @return true if source unit represents Android-based project
@@ -0,0 +1,287 @@
+package com.sourcegraph.javagraph;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Computes transitive closures of dependencies between source units (modules or sub-projects).
+ * Units are visited in topological order (dependencies first), closure of each unit is computed only once and then
+ * reused by every unit that depends on it. Units that form a dependency cycle share the same set of members.
+ * Closure of unit U lists U first and then all units it depends on, in the same order a depth-first traversal
+ * of dependencies would produce.
+ * <p>
+ * Closures are not copied: closure of unit refers to closures of its dependencies and members are enumerated
+ * on iteration, so memory taken is proportional to number of units and dependencies rather than to total size
+ * of all closures
+ *
+ * @param <K> unit key type
+ * @param <V> unit type
+ */
+class TransitiveClosure<K, V> {
+
+    /**
+     * Resolves unit key to unit, returns null if there is no such unit
+     */
+    private final Function<K, V> resolver;
+
+    /**
+     * Provides keys of units given unit depends on directly
+     */
+    private final Function<V, Collection<K>> edges;
+
+    /**
+     * Computed closures, unit key => closure
+     */
+    private final Map<K, Closure> closures = new HashMap<>();
+
+    /**
+     * Tarjan's algorithm state
+     */
+    private final Map<K, Integer> index = new HashMap<>();
+    private final Map<K, Integer> lowLink = new HashMap<>();
+    private final Deque<K> stack = new ArrayDeque<>();
+    private final Set<K> onStack = new HashSet<>();
+
+    /**
+     * @param resolver resolves unit key to unit, should return null if there is no such unit
+     * @param edges    provides keys of units given unit directly depends on
+     */
+    TransitiveClosure(Function<K, V> resolver, Function<V, Collection<K>> edges) {
+        this.resolver = resolver;
+        this.edges = edges;
+    }
+
+    /**
+     * @param key unit key
+     * @return unmodifiable transitive closure of a given unit (unit itself first and then all the units it depends on),
+     * empty collection if there is no such unit. Collection is a view that shares structure with closures of
+     * unit's dependencies, each iteration enumerates members again
+     */
+    Collection<V> get(K key) {
+        Closure closure = closures.get(key);
+        if (closure == null) {
+            if (resolver.apply(key) == null) {
+                return Collections.emptyList();
+            }
+            visit(key);
+            closure = closures.get(key);
+        }
+        return closure;
+    }
+
+    /**
+     * @param key    unit key
+     * @param values provides values contributed by unit, such as class path entries. Function is called on every
+     *               iteration, it should return memoized collections
+     * @param <R>    value type
+     * @return unmodifiable distinct values contributed by members of transitive closure of a given unit, in closure
+     * order. Like closure itself, collection is a view: values are not copied, each iteration enumerates them again
+     */
+    <R> Collection<R> flatten(K key, Function<V, Collection<R>> values) {
+        Collection<V> members = get(key);
+        return new AbstractCollection<R>() {
+
+            private int size = -1;
+
+            @Override
+            public Iterator<R> iterator() {
+                Set<R> visited = new HashSet<>();
+                return members.stream().
+                        flatMap(member -> values.apply(member).stream()).
+                        filter(visited::add).
+                        iterator();
+            }
+
+            @Override
+            public int size() {
+                if (size < 0) {
+                    int count = 0;
+                    for (Iterator<R> it = iterator(); it.hasNext(); it.next()) {
+                        count++;
+                    }
+                    size = count;
+                }
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Visits unit and all its dependencies (Tarjan's strongly connected components algorithm), computes closures
+     * of all strongly connected components found in post-order, i.e. dependencies first
+     *
+     * @param key unit key to start from
+     */
+    private void visit(K key) {
+        int i = index.size();
+        index.put(key, i);
+        lowLink.put(key, i);
+        stack.push(key);
+        onStack.add(key);
+
+        V unit = resolver.apply(key);
+        for (K dependency : edges.apply(unit)) {
+            if (resolver.apply(dependency) == null || closures.containsKey(dependency)) {
+                continue;
+            }
+            if (!index.containsKey(dependency)) {
+                visit(dependency);
+                lowLink.put(key, Math.min(lowLink.get(key), lowLink.get(dependency)));
+            } else if (onStack.contains(dependency)) {
+                lowLink.put(key, Math.min(lowLink.get(key), index.get(dependency)));
+            }
+        }
+
+        if (!lowLink.get(key).equals(index.get(key))) {
+            return;
+        }
+
+        // key is a root of strongly connected component, popping all its members
+        Set<K> component = new LinkedHashSet<>();
+        K member;
+        do {
+            member = stack.pop();
+            onStack.remove(member);
+            component.add(member);
+        } while (!member.equals(key));
+
+        if (component.size() == 1) {
+            closures.put(key, merge(key, component));
+            return;
+        }
+        // members of a cycle share the same closure, only the order of the first element differs
+        List<Object> shared = new ArrayList<>();
+        for (K k : component) {
+            shared.add(merge(k, component));
+        }
+        Closure sharedClosure = new Closure(shared);
+        for (K k : component) {
+            closures.put(k, new Closure(Arrays.asList(resolver.apply(k), sharedClosure)));
+        }
+    }
+
+    /**
+     * @param key       unit key
+     * @param component keys of units that belong to the same strongly connected component as a given unit
+     * @return unit itself followed by closures of all its dependencies that are outside of the component,
+     * in declaration order
+     */
+    private Closure merge(K key, Set<K> component) {
+        V unit = resolver.apply(key);
+        List<Object> parts = new ArrayList<>();
+        parts.add(unit);
+        for (K dependency : edges.apply(unit)) {
+            if (component.contains(dependency)) {
+                parts.add(resolver.apply(dependency));
+                continue;
+            }
+            Closure closure = closures.get(dependency);
+            if (closure != null) {
+                parts.add(closure);
+            }
+        }
+        return new Closure(parts);
+    }
+
+    /**
+     * Closure made of units and closures of other units, enumerates distinct units depth-first. Closures form
+     * a directed acyclic graph, closure reached again during the same iteration is skipped as a whole because
+     * all its members were enumerated already
+     */
+    private class Closure extends AbstractCollection<V> {
+
+        /**
+         * Units (V) and closures to splice (Closure), in order
+         */
+        private final List<Object> parts;
+
+        private int size = -1;
+
+        Closure(List<Object> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new ClosureIterator(this);
+        }
+
+        @Override
+        public int size() {
+            if (size < 0) {
+                int count = 0;
+                for (Iterator<V> it = iterator(); it.hasNext(); it.next()) {
+                    count++;
+                }
+                size = count;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Depth-first iterator over closure parts that skips units and closures already visited
+     */
+    private class ClosureIterator implements Iterator<V> {
+
+        private final Set<Object> visited = new HashSet<>();
+
+        /**
+         * Parts being enumerated and position in each of them
+         */
+        private final Deque<List<Object>> parts = new ArrayDeque<>();
+        private final Deque<Integer> positions = new ArrayDeque<>();
+
+        private V next;
+
+        ClosureIterator(Closure root) {
+            visited.add(root);
+            parts.push(root.parts);
+            positions.push(0);
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            V ret = next;
+            advance();
+            return ret;
+        }
+
+        /**
+         * Finds next unit not enumerated yet
+         */
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (!parts.isEmpty()) {
+                List<Object> current = parts.peek();
+                int position = positions.pop();
+                if (position == current.size()) {
+                    parts.pop();
+                    continue;
+                }
+                positions.push(position + 1);
+                Object part = current.get(position);
+                if (!visited.add(part)) {
+                    continue;
+                }
+                if (part instanceof TransitiveClosure.Closure) {
+                    parts.push(((Closure) part).parts);
+                    positions.push(0);
+                } else {
+                    next = (V) part;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -50,6 +50,7 @@ class TreeScanner extends TreePathScanner<Void, Void> {
 
     private final GraphWriter emit;
     private final SourceUnit unit;
+    private final Origins origins;
 
     private final SourcePositions srcPos;
     // We sometimes emit defs or refs multiple times because Spans will
@@ -73,12 +74,14 @@ class TreeScanner extends TreePathScanner<Void, Void> {
      * @param emit graph writer that will process all refs and defs encountered
      * @param trees trees object
      * @param unit current source unit
+     * @param origins resolves java file objects of program elements
      */
-    TreeScanner(GraphWriter emit, Trees trees, SourceUnit unit) {
+    TreeScanner(GraphWriter emit, Trees trees, SourceUnit unit, Origins origins) {
         this.emit = emit;
         this.srcPos = trees.getSourcePositions();
         this.trees = trees;
         this.unit = unit;
+        this.origins = origins;
     }
 
     /**
@@ -218,7 +221,7 @@ class TreeScanner extends TreePathScanner<Void, Void> {
         }
 
         URI defOrigin = null;
-        JavaFileObject f = Origins.forElement(cur);
+        JavaFileObject f = origins.forElement(cur);
         if (f != null) {
             defOrigin = f.toUri();
         }
@@ -406,7 +409,7 @@ class TreeScanner extends TreePathScanner<Void, Void> {
                 if (p == null) return;
                 Element e = trees.getElement(p);
                 if (e == null) return;
-                JavaFileObject f = Origins.forElement(e);
+                JavaFileObject f = origins.forElement(e);
                 URI defOrigin = null;
                 if (f != null) {
                     defOrigin = f.toUri();
@@ -565,7 +568,7 @@ class TreeScanner extends TreePathScanner<Void, Void> {
         if (extendsElement == null) {
             return JAVA_LANG_OBJECT_DEF;
         }
-        JavaFileObject f = Origins.forElement(extendsElement);
+        JavaFileObject f = origins.forElement(extendsElement);
         URI defOrigin = null;
         if (f != null) {
             defOrigin = f.toUri();
@@ -588,7 +591,7 @@ class TreeScanner extends TreePathScanner<Void, Void> {
         if (element == null) {
             return null;
         }
-        JavaFileObject f = Origins.forElement(element);
+        JavaFileObject f = origins.forElement(element);
         URI defOrigin = null;
         if (f != null) {
             defOrigin = f.toUri();
@@ -622,7 +625,7 @@ class TreeScanner extends TreePathScanner<Void, Void> {
         if (!(type.tsym instanceof Symbol.ClassSymbol)) {
             return null;
         }
-        JavaFileObject f = Origins.forClass((Symbol.ClassSymbol) type.tsym);
+        JavaFileObject f = origins.forClass((Symbol.ClassSymbol) type.tsym);
         URI defOrigin = null;
         if (f != null) {
             defOrigin = f.toUri();
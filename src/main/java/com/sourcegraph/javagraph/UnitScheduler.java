@@ -0,0 +1,230 @@
+package com.sourcegraph.javagraph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs tasks over source units of a repository concurrently, each unit starts after units it depends on are done.
+ * Dependencies between units are taken from scan output: names of units listed in source path
+ * ({@link SourceUnitData#SourcePath}), raw dependencies (groupID/artifactID) and source unit dependencies that
+ * refer to other units of the same set. Among units ready to start, units with the longest chain of dependent units
+ * go first. Units that form a dependency cycle are started in input order once nothing else can run
+ */
+class UnitScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnitScheduler.class);
+
+    /**
+     * Units to schedule, may contain nulls (units that cannot be read), such units have no dependencies
+     */
+    private final List<SourceUnit> units;
+
+    /**
+     * Unit index => indexes of units it directly depends on
+     */
+    private final List<Set<Integer>> upstream = new ArrayList<>();
+
+    /**
+     * Unit index => indexes of units that directly depend on it
+     */
+    private final List<Set<Integer>> downstream = new ArrayList<>();
+
+    /**
+     * Unit index => length of the longest chain of units that depend on it, including unit itself
+     */
+    private final int[] height;
+
+    /**
+     * @param units units to schedule, may contain nulls
+     */
+    UnitScheduler(List<SourceUnit> units) {
+        this.units = units;
+        Map<String, List<Integer>> unitsByName = new HashMap<>();
+        for (int i = 0; i < units.size(); i++) {
+            upstream.add(new TreeSet<>());
+            downstream.add(new TreeSet<>());
+            SourceUnit unit = units.get(i);
+            if (unit != null && unit.Name != null) {
+                unitsByName.computeIfAbsent(unit.Name, k -> new ArrayList<>()).add(i);
+            }
+        }
+        for (int i = 0; i < units.size(); i++) {
+            for (String name : getDependencyNames(units.get(i))) {
+                for (Integer j : unitsByName.getOrDefault(name, Collections.emptyList())) {
+                    if (j != i) {
+                        upstream.get(i).add(j);
+                        downstream.get(j).add(i);
+                    }
+                }
+            }
+        }
+        height = new int[units.size()];
+        boolean[] visiting = new boolean[units.size()];
+        for (int i = 0; i < units.size(); i++) {
+            computeHeight(i, visiting);
+        }
+    }
+
+    /**
+     * @param index unit index
+     * @return indexes of units given unit directly depends on
+     */
+    Set<Integer> getUpstream(int index) {
+        return Collections.unmodifiableSet(upstream.get(index));
+    }
+
+    /**
+     * Runs task for each unit, keeping at most "jobs" tasks in flight. Waits for all the tasks to complete
+     * @param executor executor to run tasks with
+     * @param jobs maximum number of tasks running at the same time
+     * @param task task to run for each unit, should not throw
+     * @param listener receives results as tasks complete, always called on the calling thread
+     * @param <R> result type
+     * @throws Exception if task or listener failed
+     */
+    <R> void run(ExecutorService executor, int jobs, Task<R> task, Listener<R> listener) throws Exception {
+        int size = units.size();
+        jobs = Math.max(jobs, 1);
+        List<R> results = new ArrayList<>(Collections.nCopies(size, null));
+        boolean[] started = new boolean[size];
+        boolean[] done = new boolean[size];
+        int[] pending = new int[size];
+        PriorityQueue<Integer> ready = new PriorityQueue<>((a, b) -> height[a] != height[b] ?
+                Integer.compare(height[b], height[a]) :
+                Integer.compare(a, b));
+        for (int i = 0; i < size; i++) {
+            pending[i] = upstream.get(i).size();
+            if (pending[i] == 0) {
+                ready.add(i);
+            }
+        }
+
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+        int inFlight = 0;
+        int completed = 0;
+        while (completed < size) {
+            while (inFlight < jobs && !ready.isEmpty()) {
+                int index = ready.remove();
+                started[index] = true;
+                Map<Integer, R> upstreamResults = new TreeMap<>();
+                for (Integer dependency : upstream.get(index)) {
+                    if (done[dependency]) {
+                        upstreamResults.put(dependency, results.get(dependency));
+                    }
+                }
+                completion.submit(() -> {
+                    results.set(index, task.run(index, upstreamResults));
+                    return index;
+                });
+                inFlight++;
+            }
+            if (inFlight == 0) {
+                // the rest of units wait for each other
+                for (int i = 0; i < size; i++) {
+                    if (!started[i]) {
+                        LOGGER.warn("Units depend on each other, starting {} before units it depends on",
+                                units.get(i).Name);
+                        ready.add(i);
+                        break;
+                    }
+                }
+                continue;
+            }
+            int index;
+            try {
+                index = completion.take().get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            inFlight--;
+            completed++;
+            done[index] = true;
+            listener.completed(index, results.get(index));
+            for (Integer dependent : downstream.get(index)) {
+                if (--pending[dependent] == 0 && !started[dependent]) {
+                    ready.add(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param unit source unit, may be null
+     * @return names of units given unit may depend on
+     */
+    private static Collection<String> getDependencyNames(SourceUnit unit) {
+        Collection<String> ret = new HashSet<>();
+        if (unit == null) {
+            return ret;
+        }
+        if (unit.Dependencies != null) {
+            for (Key key : unit.Dependencies) {
+                ret.add(key.Name);
+            }
+        }
+        if (unit.Data.SourcePath != null) {
+            for (SourcePathElement element : unit.Data.SourcePath) {
+                ret.add(element.name);
+            }
+        }
+        if (unit.Data.Dependencies != null) {
+            for (RawDependency dependency : unit.Data.Dependencies) {
+                ret.add(dependency.groupID + '/' + dependency.artifactID);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Computes length of the longest chain of dependent units, edges that close a cycle are ignored
+     * @param index unit index
+     * @param visiting units on the current path
+     * @return height of a given unit
+     */
+    private int computeHeight(int index, boolean[] visiting) {
+        if (height[index] > 0 || visiting[index]) {
+            return height[index];
+        }
+        visiting[index] = true;
+        int max = 0;
+        for (Integer dependent : downstream.get(index)) {
+            max = Math.max(max, computeHeight(dependent, visiting));
+        }
+        visiting[index] = false;
+        height[index] = max + 1;
+        return height[index];
+    }
+
+    /**
+     * Task to run for each unit
+     * @param <R> result type
+     */
+    interface Task<R> {
+        /**
+         * @param index unit index
+         * @param upstreamResults results of completed units given unit directly depends on, unit index => result.
+         *                        Units of dependency cycle may start before some of their dependencies are done
+         * @return result
+         */
+        R run(int index, Map<Integer, R> upstreamResults);
+    }
+
+    /**
+     * Receives task results
+     * @param <R> result type
+     */
+    interface Listener<R> {
+        /**
+         * @param index unit index
+         * @param result task result
+         * @throws Exception
+         */
+        void completed(int index, R result) throws Exception;
+    }
+}
@@ -0,0 +1,81 @@
+package com.sourcegraph.javagraph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Pool of worker threads shared by all the tasks of the current process (code generation, build files processing
+ * and so on). Tasks may submit sub-tasks to the same pool, waiting threads help to execute them
+ */
+public class WorkerPool {
+
+    /**
+     * Number of worker threads, by default equals to number of available processors
+     */
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private static ForkJoinPool pool;
+
+    private WorkerPool() {
+    }
+
+    /**
+     * Sets number of worker threads. If pool already exists and has different number of threads, it's replaced
+     * with a new one, tasks submitted to old pool are completed by its threads
+     *
+     * @param parallelism number of worker threads, values less than 1 mean number of available processors
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        if (pool != null && parallelism != WorkerPool.parallelism) {
+            pool.shutdown();
+            pool = null;
+        }
+        WorkerPool.parallelism = parallelism;
+    }
+
+    /**
+     * @return number of worker threads
+     */
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return shared pool, creates it if needed
+     */
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * Executes given tasks in the shared pool and waits for completion
+     *
+     * @param tasks tasks to execute
+     * @param <T>   result type
+     * @return task results in the same order tasks were given
+     * @throws ExecutionException if any of tasks failed, holds the first failure
+     */
+    public static <T> List<T> invokeAll(Collection<? extends Callable<T>> tasks) throws ExecutionException {
+        List<T> ret = new ArrayList<>(tasks.size());
+        for (Future<T> future : getPool().invokeAll(tasks)) {
+            try {
+                ret.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExecutionException(e);
+            }
+        }
+        return ret;
+    }
+}
@@ -4,13 +4,17 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.model.PluginManagement;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -20,6 +24,8 @@ public abstract class AbstractMavenPlugin implements MavenPlugin {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractMavenPlugin.class);
 
+    protected static final String GENERATE_SOURCES = "generate-sources";
+
     /**
      * @return Maven plugin's group ID current plugin matches to
      */
@@ -99,19 +105,50 @@ public abstract class AbstractMavenPlugin implements MavenPlugin {
     }
 
     /**
-     * Executes specific Maven goal by running 'mvn ... goal'
+     * @param plugin plugin to collect configurations of
+     * @return configuration of each plugin's execution merged with plugin-level configuration the same way Maven
+     * merges them (execution's parameters win), or plugin-level configuration alone if there are no executions.
+     * Empty configuration stands for missing one
+     */
+    protected static List<Xpp3Dom> getConfigurations(Plugin plugin) {
+        List<Xpp3Dom> ret = new ArrayList<>();
+        Xpp3Dom pluginConfiguration = toXpp3Dom(plugin.getConfiguration());
+        if (plugin.getExecutions().isEmpty()) {
+            ret.add(pluginConfiguration);
+            return ret;
+        }
+        for (PluginExecution execution : plugin.getExecutions()) {
+            ret.add(Xpp3Dom.mergeXpp3Dom(toXpp3Dom(execution.getConfiguration()), pluginConfiguration));
+        }
+        return ret;
+    }
+
+    /**
+     * @param configuration plugin or execution configuration
+     * @return copy of configuration, empty one if configuration is missing
+     */
+    private static Xpp3Dom toXpp3Dom(Object configuration) {
+        if (configuration instanceof Xpp3Dom) {
+            return new Xpp3Dom((Xpp3Dom) configuration);
+        }
+        return new Xpp3Dom("configuration");
+    }
+
+    /**
+     * Executes specific Maven goals in a single Maven invocation by running 'mvn ... goal1 goal2...'
      * @param pomFile location (file) of pom.xml file to use
      * @param repoDir location (directory) of local Maven repository
-     * @param goal goal to execute, for example 'test-compile'
+     * @param goals goals to execute, for example 'generate-sources'
+     * @return true if Maven completed successfully
      */
-    protected static void runMavenGoal(File pomFile, File repoDir, String goal) {
+    protected static boolean runMavenGoals(File pomFile, File repoDir, Collection<String> goals) {
 
-        String cmd[] = new String[] {
-                getMavenCmd(),
-                "-Dmaven.repo.local=" + repoDir,
-                "-f", pomFile.getAbsolutePath(),
-                goal
-        };
+        List<String> cmd = new ArrayList<>();
+        cmd.add(getMavenCmd());
+        cmd.add("-Dmaven.repo.local=" + repoDir);
+        cmd.add("-f");
+        cmd.add(pomFile.getAbsolutePath());
+        cmd.addAll(goals);
 
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.directory(pomFile.getParentFile());
@@ -131,9 +168,12 @@ public abstract class AbstractMavenPlugin implements MavenPlugin {
             }
             if (status != 0) {
                 LOGGER.warn("Exit status of [{}] was {}", StringUtils.join(cmd, ' '), status);
+                return false;
             }
+            return true;
         } catch (IOException | InterruptedException e) {
             LOGGER.warn("Unable to compile Maven project using command [{}]", StringUtils.join(cmd, ' '), e);
+            return false;
         } finally {
             FileUtils.deleteQuietly(log);
         }
@@ -143,7 +183,7 @@ public abstract class AbstractMavenPlugin implements MavenPlugin {
      *
      * @return "mvn" command to use in current environment (mvn.cmd, mvn.bat, mvn)
      */
-    protected static String getMavenCmd() {
+    protected static synchronized String getMavenCmd() {
         if (mavenCmd == null) {
             if (SystemUtils.IS_OS_WINDOWS) {
                 // since 3.3 command name is mvn.cmd, before - mvn.bat
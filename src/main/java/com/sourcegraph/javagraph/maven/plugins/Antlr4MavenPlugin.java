@@ -1,26 +1,57 @@
 package com.sourcegraph.javagraph.maven.plugins;
 
 import com.sourcegraph.javagraph.PathUtil;
+import com.sourcegraph.javagraph.WorkerPool;
+import org.antlr.v4.Tool;
+import org.antlr.v4.tool.ANTLRMessage;
+import org.antlr.v4.tool.ANTLRToolListener;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Plugin;
-import org.apache.maven.model.PluginExecution;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Adds basic support of http://www.antlr.org/api/maven-plugin/latest/
- * Generates source files and updates compile source roots to include directories with generated files
+ * Generates source files (in-process if plugin configuration allows and plugin uses the same ANTLR version
+ * as the bundled one, otherwise by running Maven) and updates compile source roots to include directories
+ * with generated files
  */
 public class Antlr4MavenPlugin extends AbstractMavenPlugin {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Antlr4MavenPlugin.class);
 
+    private static final String GROUP_ID = "org.antlr";
+
+    private static final String GRAMMAR_EXTENSION = ".g4";
+
+    /**
+     * Directory with imported grammars, relative to grammar source directory
+     */
+    private static final String IMPORTS = "imports";
+
+    /**
+     * ANTLR plugin configuration parameters supported by in-process generation
+     */
+    private static final Collection<String> SUPPORTED_PARAMETERS = new HashSet<>(Arrays.asList(
+            "sourceDirectory", "outputDirectory", "libDirectory", "listener", "visitor", "encoding", "atn",
+            "treatWarningsAsErrors", "forceATN", "options", "arguments"));
+
     @Override
     public String getGroupId() {
-        return "org.antlr";
+        return GROUP_ID;
     }
 
     @Override
@@ -34,37 +65,285 @@ public class Antlr4MavenPlugin extends AbstractMavenPlugin {
     }
 
     /**
-     * Invokes Maven goal generate-sources and updates project's source roots with generated source directories
+     * Updates project's source roots with generated source directories
      */
     @Override
     public void apply(MavenProject project,
                       File repoDir) {
-        // Let's create generated source files from ANTLR grammar
-        runMavenGoal(project.getModel().getPomFile(), repoDir, "generate-sources");
         project.getCompileSourceRoots().add(getGeneratedSourceDirectory(project));
     }
 
     /**
-     * @param project Maven project
-     * @return generated sources directory retrieved from ANTLR plugin's configuration
+     * Let's create generated source files from ANTLR grammar
      */
-    private String getGeneratedSourceDirectory(MavenProject project) {
-        Plugin buildHelper = getPlugin(project);
-        if (buildHelper == null) {
-            return getDefaultGeneratedSourceDirectory(project);
+    @Override
+    public Collection<String> getGoals(MavenProject project) {
+        return Collections.singletonList(GENERATE_SOURCES);
+    }
+
+    /**
+     * @return grammar source directory retrieved from ANTLR plugin's configuration
+     */
+    @Override
+    public Collection<File> getInputs(MavenProject project) {
+        String sourceDirectory = getConfigurationValue(project, "sourceDirectory");
+        if (sourceDirectory == null) {
+            return Collections.singletonList(PathUtil.concat(project.getModel().getProjectDirectory(),
+                    "src/main/antlr4"));
+        }
+        return Collections.singletonList(PathUtil.concat(project.getModel().getProjectDirectory(),
+                sourceDirectory));
+    }
+
+    @Override
+    public Collection<File> getOutputs(MavenProject project) {
+        return Collections.singletonList(new File(getGeneratedSourceDirectory(project)));
+    }
+
+    /**
+     * Runs ANTLR tool in-process the same way ANTLR Maven plugin does: grammars are grouped by directory
+     * and each group is processed by a separate ANTLR tool instance, groups are processed in worker pool
+     */
+    @Override
+    public boolean generate(MavenProject project) {
+        Plugin plugin = getPlugin(project);
+        if (!isSupported(plugin)) {
+            LOGGER.debug("ANTLR plugin configuration of {} is not supported, falling back to Maven",
+                    project.getModel().getPomFile());
+            return false;
+        }
+        File sourceDirectory = getInputs(project).iterator().next();
+        if (!sourceDirectory.isDirectory()) {
+            // nothing to generate
+            return true;
+        }
+        File outputDirectory = new File(getGeneratedSourceDirectory(project));
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            LOGGER.warn("Unable to create directory {}", outputDirectory);
+            return false;
+        }
+
+        Map<String, List<String>> grammars;
+        try {
+            grammars = getGrammars(sourceDirectory);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to list ANTLR grammars in {}", sourceDirectory, e);
+            return false;
         }
+        List<String> args = getCommandArguments(project, outputDirectory);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : grammars.entrySet()) {
+            List<String> toolArgs = new ArrayList<>(args);
+            if (!toolArgs.contains("-package") && !entry.getKey().isEmpty()) {
+                toolArgs.add("-package");
+                toolArgs.add(getPackageName(entry.getKey()));
+            }
+            toolArgs.addAll(entry.getValue());
+            tasks.add(() -> runTool(sourceDirectory, toolArgs));
+        }
+        try {
+            int errors = 0;
+            for (Integer result : WorkerPool.invokeAll(tasks)) {
+                errors += result;
+            }
+            if (errors > 0) {
+                LOGGER.warn("ANTLR reported {} errors while processing {}, falling back to Maven",
+                        errors, sourceDirectory);
+                return false;
+            }
+            return true;
+        } catch (ExecutionException e) {
+            LOGGER.warn("Unable to process ANTLR grammars in {}", sourceDirectory, e.getCause());
+            return false;
+        }
+    }
 
-        for (PluginExecution pluginExecution : buildHelper.getExecutions()) {
-            Object configuration = pluginExecution.getConfiguration();
-            if (configuration == null || !(configuration instanceof Xpp3Dom)) {
-                continue;
+    /**
+     * Processes grammars using new ANTLR tool instance
+     *
+     * @param sourceDirectory grammar source directory, grammar file names are relative to it
+     * @param args            ANTLR tool arguments
+     * @return number of errors
+     */
+    private static int runTool(File sourceDirectory, List<String> args) {
+        Tool tool = new Tool(args.toArray(new String[args.size()]));
+        tool.inputDirectory = sourceDirectory;
+        tool.addListener(new ANTLRToolListener() {
+            @Override
+            public void info(String msg) {
+                LOGGER.debug(msg);
+            }
+
+            @Override
+            public void error(ANTLRMessage msg) {
+                LOGGER.warn(tool.errMgr.getMessageTemplate(msg).render());
+            }
+
+            @Override
+            public void warning(ANTLRMessage msg) {
+                LOGGER.debug(tool.errMgr.getMessageTemplate(msg).render());
             }
-            Xpp3Dom xmlConfiguration = (Xpp3Dom) configuration;
-            Xpp3Dom outputDirectory = xmlConfiguration.getChild("outputDirectory");
-            if (outputDirectory != null) {
-                return PathUtil.CWD.resolve(outputDirectory.getValue()).toAbsolutePath().toString();
+        });
+        tool.processGrammarsOnCommandLine();
+        return tool.getNumErrors();
+    }
+
+    /**
+     * @param plugin ANTLR plugin
+     * @return true if plugin's configuration can be handled in-process: plugin runs the same ANTLR version
+     * as the bundled tool, single execution, known parameters
+     */
+    static boolean isSupported(Plugin plugin) {
+        if (plugin == null || !Tool.VERSION.equals(plugin.getVersion()) || plugin.getExecutions().size() > 1) {
+            return false;
+        }
+        for (Dependency dependency : plugin.getDependencies()) {
+            // plugin's ANTLR tool may be overridden by plugin dependencies
+            if (GROUP_ID.equals(dependency.getGroupId()) &&
+                    !Tool.VERSION.equals(dependency.getVersion())) {
+                return false;
             }
         }
+        for (Xpp3Dom configuration : getConfigurations(plugin)) {
+            for (Xpp3Dom parameter : configuration.getChildren()) {
+                if (!SUPPORTED_PARAMETERS.contains(parameter.getName())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds ANTLR tool arguments from plugin's configuration, the same way ANTLR Maven plugin does
+     *
+     * @param project         Maven project
+     * @param outputDirectory output directory
+     * @return ANTLR tool arguments shared by all grammar groups
+     */
+    private List<String> getCommandArguments(MavenProject project, File outputDirectory) {
+        List<String> args = new ArrayList<>();
+        args.add("-o");
+        args.add(outputDirectory.getAbsolutePath());
+
+        String libDirectory = getConfigurationValue(project, "libDirectory");
+        File lib = PathUtil.concat(project.getModel().getProjectDirectory(),
+                libDirectory == null ? "src/main/antlr4/imports" : libDirectory);
+        if (lib.isDirectory()) {
+            args.add("-lib");
+            args.add(lib.getAbsolutePath());
+        }
+        if (Boolean.parseBoolean(getConfigurationValue(project, "atn"))) {
+            args.add("-atn");
+        }
+        String encoding = getConfigurationValue(project, "encoding");
+        if (encoding == null) {
+            encoding = project.getProperties().getProperty("project.build.sourceEncoding");
+        }
+        if (!StringUtils.isEmpty(encoding)) {
+            args.add("-encoding");
+            args.add(encoding);
+        }
+        String listener = getConfigurationValue(project, "listener");
+        args.add(listener == null || Boolean.parseBoolean(listener) ? "-listener" : "-no-listener");
+        args.add(Boolean.parseBoolean(getConfigurationValue(project, "visitor")) ? "-visitor" : "-no-visitor");
+        if (Boolean.parseBoolean(getConfigurationValue(project, "treatWarningsAsErrors"))) {
+            args.add("-Werror");
+        }
+        if (Boolean.parseBoolean(getConfigurationValue(project, "forceATN"))) {
+            args.add("-Xforce-atn");
+        }
+        Xpp3Dom options = getConfiguration(project, "options");
+        if (options != null) {
+            for (Xpp3Dom option : options.getChildren()) {
+                args.add(String.format("-D%s=%s", option.getName(), option.getValue()));
+            }
+        }
+        Xpp3Dom arguments = getConfiguration(project, "arguments");
+        if (arguments != null) {
+            for (Xpp3Dom argument : arguments.getChildren()) {
+                args.add(argument.getValue());
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Collects grammar files (except imported ones) and groups them by directory
+     *
+     * @param sourceDirectory grammar source directory
+     * @return map (directory relative to source directory, ends with separator unless empty => list of
+     * grammar files relative to source directory)
+     * @throws IOException
+     */
+    private static Map<String, List<String>> getGrammars(File sourceDirectory) throws IOException {
+        Path root = sourceDirectory.toPath();
+        Path imports = root.resolve(IMPORTS);
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(root)) {
+            files = stream.filter(path -> path.toString().endsWith(GRAMMAR_EXTENSION) &&
+                    Files.isRegularFile(path) &&
+                    !path.startsWith(imports)).
+                    sorted().
+                    collect(Collectors.toList());
+        }
+        Map<String, List<String>> ret = new TreeMap<>();
+        for (Path file : files) {
+            Path relative = root.relativize(file);
+            String dir = relative.getParent() == null ? StringUtils.EMPTY :
+                    relative.getParent().toString() + File.separatorChar;
+            ret.computeIfAbsent(dir, k -> new ArrayList<>()).add(relative.toString());
+        }
+        return ret;
+    }
+
+    /**
+     * @param dir directory relative to grammar source directory
+     * @return Java package name that corresponds to a given directory
+     */
+    private static String getPackageName(String dir) {
+        return StringUtils.join(StringUtils.split(dir, "/\\."), '.');
+    }
+
+    /**
+     * @param project Maven project
+     * @param name    configuration parameter name
+     * @return value of configuration parameter of ANTLR plugin's executions or plugin itself, null if not found
+     */
+    private String getConfigurationValue(MavenProject project, String name) {
+        Xpp3Dom value = getConfiguration(project, name);
+        return value == null ? null : value.getValue();
+    }
+
+    /**
+     * @param project Maven project
+     * @param name    configuration parameter name
+     * @return configuration parameter of ANTLR plugin's executions merged with plugin-level configuration,
+     * null if not found
+     */
+    private Xpp3Dom getConfiguration(MavenProject project, String name) {
+        Plugin plugin = getPlugin(project);
+        if (plugin == null) {
+            return null;
+        }
+        for (Xpp3Dom configuration : getConfigurations(plugin)) {
+            Xpp3Dom value = configuration.getChild(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param project Maven project
+     * @return generated sources directory retrieved from ANTLR plugin's configuration
+     */
+    private String getGeneratedSourceDirectory(MavenProject project) {
+        Xpp3Dom outputDirectory = getConfiguration(project, "outputDirectory");
+        if (outputDirectory != null) {
+            return PathUtil.CWD.resolve(outputDirectory.getValue()).toAbsolutePath().toString();
+        }
         return getDefaultGeneratedSourceDirectory(project);
     }
 
@@ -1,23 +1,54 @@
 package com.sourcegraph.javagraph.maven.plugins;
 
 import com.sourcegraph.javagraph.PathUtil;
+import com.sourcegraph.javagraph.WorkerPool;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.model.Plugin;
-import org.apache.maven.model.PluginExecution;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.interpolation.InterpolationException;
+import org.codehaus.plexus.interpolation.PrefixedObjectValueSource;
+import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
+import org.codehaus.plexus.interpolation.RegexBasedInterpolator;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Adds basic support of Codehaus templating plugin
- * Updates compile source roots
+ * Expands Java templates (in-process if plugin configuration allows, otherwise by running Maven)
+ * and updates compile source roots
  */
 public class CodehausTemplatingMavenPlugin extends AbstractMavenPlugin {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CodehausTemplatingMavenPlugin.class);
 
+    private static final String DEFAULT_SOURCE_DIRECTORY = "src/main/java-templates";
+    private static final String DEFAULT_OUTPUT_DIRECTORY = "generated-sources/java-templates";
+
+    /**
+     * @...@ expression, the second default delimiter of templating plugin
+     */
+    private static final Pattern AT_EXPRESSION = Pattern.compile("@([^@\\s]+)@");
+
+    /**
+     * Templating plugin configuration parameters supported by in-process expansion
+     */
+    private static final Collection<String> SUPPORTED_PARAMETERS = new HashSet<>(Arrays.asList(
+            "sourceDirectory", "outputDirectory", "overwrite"));
+
     @Override
     public String getGroupId() {
         return "org.codehaus.mojo";
@@ -34,34 +65,165 @@ public class CodehausTemplatingMavenPlugin extends AbstractMavenPlugin {
     }
 
     /**
-     * Updates project compile source roots with "sources" of Codehaus templating plugin configuration
+     * Updates project compile source roots with directories Codehaus templating plugin writes expanded templates to
      */
     @Override
     public void apply(MavenProject project,
                       File repoDir) {
+        for (File outputDirectory : getDirectories(project).values()) {
+            project.getCompileSourceRoots().add(outputDirectory.getPath());
+        }
+    }
+
+    /**
+     * Templates are expanded during generate-sources phase
+     */
+    @Override
+    public Collection<String> getGoals(MavenProject project) {
+        return Collections.singletonList(GENERATE_SOURCES);
+    }
+
+    @Override
+    public Collection<File> getInputs(MavenProject project) {
+        return getDirectories(project).keySet();
+    }
+
+    @Override
+    public Collection<File> getOutputs(MavenProject project) {
+        return getDirectories(project).values();
+    }
+
+    /**
+     * Expands templates in-process: copies template files to output directory replacing ${...} and @...@ expressions
+     * (plugin's default delimiters) with project properties, project model values, and system properties.
+     * Each template is expanded in worker pool. Falls back to Maven if plugin-level or execution configuration
+     * has parameters other than source and output directories (custom delimiters, escape string, etc.)
+     */
+    @Override
+    public boolean generate(MavenProject project) {
+        Plugin plugin = getPlugin(project);
+        if (plugin == null) {
+            return true;
+        }
+        for (Xpp3Dom configuration : getConfigurations(plugin)) {
+            for (Xpp3Dom parameter : configuration.getChildren()) {
+                if (!SUPPORTED_PARAMETERS.contains(parameter.getName())) {
+                    LOGGER.debug("Templating plugin configuration of {} is not supported, falling back to Maven",
+                            project.getModel().getPomFile());
+                    return false;
+                }
+            }
+        }
 
-        Plugin buildHelper = getPlugin(project);
-        if (buildHelper == null) {
-            return;
+        String encoding = project.getProperties().getProperty("project.build.sourceEncoding");
+        Charset charset = StringUtils.isEmpty(encoding) ? Charset.defaultCharset() : Charset.forName(encoding);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        try {
+            for (Map.Entry<File, File> entry : getDirectories(project).entrySet()) {
+                Path source = entry.getKey().toPath();
+                Path target = entry.getValue().toPath();
+                if (!Files.isDirectory(source)) {
+                    continue;
+                }
+                List<Path> templates;
+                try (Stream<Path> stream = Files.walk(source)) {
+                    templates = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+                }
+                for (Path template : templates) {
+                    Path file = target.resolve(source.relativize(template));
+                    tasks.add(() -> {
+                        expand(project, template, file, charset);
+                        return null;
+                    });
+                }
+            }
+            WorkerPool.invokeAll(tasks);
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to list templates of {}", project.getModel().getPomFile(), e);
+            return false;
+        } catch (ExecutionException e) {
+            LOGGER.warn("Unable to expand templates of {}", project.getModel().getPomFile(), e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * Expands single template
+     *
+     * @param project  Maven project
+     * @param template template file
+     * @param file     file to write expanded template to
+     * @param charset  templates encoding
+     * @throws IOException
+     * @throws InterpolationException
+     */
+    private static void expand(MavenProject project,
+                               Path template,
+                               Path file,
+                               Charset charset) throws IOException, InterpolationException {
+        RegexBasedInterpolator interpolator = new RegexBasedInterpolator();
+        interpolator.addValueSource(new PrefixedObjectValueSource(Arrays.asList("project.", "pom."), project, true));
+        interpolator.addValueSource(new PropertiesBasedValueSource(project.getProperties()));
+        interpolator.addValueSource(new PropertiesBasedValueSource(System.getProperties()));
+        String content = new String(Files.readAllBytes(template), charset);
+        Files.createDirectories(file.getParent());
+        Files.write(file, interpolateAt(interpolator, interpolator.interpolate(content)).getBytes(charset));
+    }
+
+    /**
+     * Replaces @...@ expressions. Expression can't span whitespace (so that Java annotations are left alone),
+     * unresolved expressions are kept as is
+     *
+     * @param interpolator interpolator to resolve expressions with
+     * @param content      text to process
+     * @return text with @...@ expressions replaced
+     * @throws InterpolationException
+     */
+    static String interpolateAt(RegexBasedInterpolator interpolator, String content) throws InterpolationException {
+        Matcher matcher = AT_EXPRESSION.matcher(content);
+        StringBuffer ret = new StringBuffer();
+        while (matcher.find()) {
+            String expression = "${" + matcher.group(1) + '}';
+            String value = interpolator.interpolate(expression);
+            matcher.appendReplacement(ret, Matcher.quoteReplacement(
+                    expression.equals(value) ? matcher.group() : value));
+        }
+        matcher.appendTail(ret);
+        return ret.toString();
+    }
+
+    /**
+     * @param project Maven project
+     * @return template directories and directories to write expanded templates to, one pair per plugin execution
+     */
+    private Map<File, File> getDirectories(MavenProject project) {
+        Map<File, File> ret = new LinkedHashMap<>();
+        Plugin plugin = getPlugin(project);
+        if (plugin == null || plugin.getExecutions().isEmpty()) {
+            // plugin is not bound to any phase
+            return ret;
         }
 
         File root = project.getModel().getProjectDirectory();
-        for (PluginExecution pluginExecution : buildHelper.getExecutions()) {
-            Object configuration = pluginExecution.getConfiguration();
-            if (configuration == null || !(configuration instanceof Xpp3Dom)) {
-                project.getCompileSourceRoots().add(PathUtil.concat(project.getModel().getProjectDirectory(),
-                        "src/main/java-templates").getPath());
-                continue;
+        File buildDir = PathUtil.concat(root, project.getBuild().getDirectory());
+        for (Xpp3Dom configuration : getConfigurations(plugin)) {
+            String sourceDirectory = null;
+            String outputDirectory = null;
+            Xpp3Dom sourceDirDom = configuration.getChild("sourceDirectory");
+            if (sourceDirDom != null) {
+                sourceDirectory = sourceDirDom.getValue();
             }
-            Xpp3Dom xmlConfiguration = (Xpp3Dom) configuration;
-            Xpp3Dom sourceDirDom = xmlConfiguration.getChild("sourceDirectory");
-            if (sourceDirDom == null) {
-                project.getCompileSourceRoots().add(PathUtil.concat(project.getModel().getProjectDirectory(),
-                        "src/main/java-templates").getPath());
-            } else {
-                project.getCompileSourceRoots().add(PathUtil.CWD.resolve(sourceDirDom.getValue()).toString());
+            Xpp3Dom outputDirDom = configuration.getChild("outputDirectory");
+            if (outputDirDom != null) {
+                outputDirectory = outputDirDom.getValue();
             }
+            ret.put(PathUtil.concat(root, sourceDirectory == null ? DEFAULT_SOURCE_DIRECTORY : sourceDirectory),
+                    outputDirectory == null ?
+                            PathUtil.concat(buildDir, DEFAULT_OUTPUT_DIRECTORY) :
+                            PathUtil.concat(root, outputDirectory));
         }
+        return ret;
     }
 
 }
@@ -0,0 +1,187 @@
+package com.sourcegraph.javagraph.maven.plugins;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.sourcegraph.javagraph.ArtifactCache;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.project.MavenProject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps copies of files generated by Maven goals (such as generate-sources) keyed by hash of goal inputs:
+ * POM file, plugin configuration, project properties, and files reported by plugins as inputs.
+ * If inputs did not change since the previous scan, generated files are restored from cache instead of running Maven
+ */
+class GeneratedSourcesCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GeneratedSourcesCache.class);
+
+    /**
+     * Cache directory name, relative to Maven repository directory
+     */
+    private static final String CACHE_DIR = ".srclib-generated";
+
+    /**
+     * Marks complete cache entries
+     */
+    private static final String COMPLETE_MARKER = ".complete";
+
+    private final File cacheDir;
+
+    /**
+     * @param repoDir Maven repository directory to keep cache in
+     */
+    GeneratedSourcesCache(File repoDir) {
+        this.cacheDir = new File(repoDir, CACHE_DIR);
+    }
+
+    /**
+     * Restores generated files from cache
+     *
+     * @param key     cache key
+     * @param outputs directories to restore generated files into
+     * @return true if cache entry was found and files were restored
+     */
+    boolean restore(String key, List<File> outputs) {
+        File entry = new File(cacheDir, key);
+        try {
+            Closeable lock = lock(key);
+            try {
+                if (!new File(entry, COMPLETE_MARKER).isFile()) {
+                    return false;
+                }
+                ArtifactCache.touch(entry);
+                for (int i = 0; i < outputs.size(); i++) {
+                    File source = new File(entry, String.valueOf(i));
+                    File target = outputs.get(i);
+                    FileUtils.deleteDirectory(target);
+                    if (source.isDirectory()) {
+                        FileUtils.copyDirectory(source, target);
+                    }
+                }
+                return true;
+            } finally {
+                lock.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to restore generated files from {}", entry, e);
+            return false;
+        }
+    }
+
+    /**
+     * Stores generated files in cache
+     *
+     * @param key     cache key
+     * @param outputs directories with generated files
+     */
+    void store(String key, List<File> outputs) {
+        File entry = new File(cacheDir, key);
+        try {
+            Closeable lock = lock(key);
+            try {
+                FileUtils.deleteDirectory(entry);
+                for (int i = 0; i < outputs.size(); i++) {
+                    File source = outputs.get(i);
+                    if (source.isDirectory()) {
+                        FileUtils.copyDirectory(source, new File(entry, String.valueOf(i)));
+                    }
+                }
+                FileUtils.touch(new File(entry, COMPLETE_MARKER));
+                ArtifactCache.touch(entry);
+            } finally {
+                lock.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to store generated files in {}", entry, e);
+            FileUtils.deleteQuietly(entry);
+        }
+    }
+
+    /**
+     * Locks cache entry, matters only if Maven repository is shared between processes
+     *
+     * @param key cache key
+     * @return handle that releases lock when closed
+     * @throws IOException
+     */
+    private static Closeable lock(String key) throws IOException {
+        return ArtifactCache.lock(Collections.singleton(CACHE_DIR + ':' + key));
+    }
+
+    /**
+     * Computes cache key
+     *
+     * @param project Maven project
+     * @param goals   Maven goals to execute
+     * @param inputs  files and directories goals depend on
+     * @return cache key based on POM file, plugins configuration, project properties, goals, and input files content
+     * @throws IOException
+     */
+    static String getKey(MavenProject project, Collection<String> goals, Collection<File> inputs) throws IOException {
+        Hasher hasher = Hashing.sha1().newHasher();
+        putString(hasher, project.getModel().getPomFile().getAbsolutePath());
+        hasher.putBytes(Files.readAllBytes(project.getModel().getPomFile().toPath()));
+        for (String goal : goals) {
+            putString(hasher, goal);
+        }
+        for (Plugin plugin : project.getBuildPlugins()) {
+            putString(hasher, plugin.getKey() + ':' + plugin.getVersion());
+            putString(hasher, String.valueOf(plugin.getConfiguration()));
+            for (PluginExecution execution : plugin.getExecutions()) {
+                putString(hasher, String.valueOf(execution.getConfiguration()));
+            }
+        }
+        new TreeMap<>(project.getProperties()).forEach((name, value) -> putString(hasher, name + "=" + value));
+        for (File input : inputs) {
+            putFile(hasher, input.toPath());
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Adds file or directory (recursively, in stable order) to hash
+     *
+     * @param hasher hasher to update
+     * @param path   file or directory to add, non-existing ones are counted as well
+     * @throws IOException
+     */
+    private static void putFile(Hasher hasher, Path path) throws IOException {
+        putString(hasher, path.toAbsolutePath().toString());
+        if (!Files.exists(path)) {
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(path)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            putString(hasher, path.relativize(file).toString());
+            hasher.putBytes(Files.readAllBytes(file));
+        }
+    }
+
+    /**
+     * Adds length-prefixed string to hash
+     *
+     * @param hasher hasher to update
+     * @param s      string to add
+     */
+    private static void putString(Hasher hasher, String s) {
+        hasher.putInt(s.length());
+        hasher.putString(s, StandardCharsets.UTF_8);
+    }
+}
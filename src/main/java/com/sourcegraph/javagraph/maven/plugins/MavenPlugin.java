@@ -3,6 +3,8 @@ package com.sourcegraph.javagraph.maven.plugins;
 import org.apache.maven.project.MavenProject;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
 
 /**
  * Adds special processing of Maven projects.
@@ -18,10 +20,47 @@ public interface MavenPlugin {
     boolean isApplicable(MavenProject project);
 
     /**
-     * Applies current plugin against given project
+     * Applies current plugin against given project. Maven goals reported by {@link #getGoals(MavenProject)}
+     * are already executed (or their outputs restored from cache) at this moment
      * @param project Maven project to apply plugin against
      * @param repoDir Maven repository directory to use
      */
     void apply(MavenProject project, File repoDir);
 
+    /**
+     * Goals of all plugins applicable to a project are executed together, in a single Maven invocation
+     * @param project Maven project
+     * @return Maven goals (such as generate-sources) that should be executed before plugin is applied
+     */
+    default Collection<String> getGoals(MavenProject project) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Produces the same files plugin's Maven goals would produce, but in the current process
+     * @param project Maven project
+     * @return true if files were generated, false if configuration is not supported and
+     * Maven goals should be executed instead
+     */
+    default boolean generate(MavenProject project) {
+        return false;
+    }
+
+    /**
+     * @param project Maven project
+     * @return files and directories (such as grammars or resources) Maven goals read, used to decide
+     * if goals may be skipped and their outputs restored from cache
+     */
+    default Collection<File> getInputs(MavenProject project) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param project Maven project
+     * @return directories Maven goals generate files into
+     */
+    default Collection<File> getOutputs(MavenProject project) {
+        return Collections.emptyList();
+    }
+
 }
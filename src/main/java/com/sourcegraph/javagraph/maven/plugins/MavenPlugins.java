@@ -1,6 +1,7 @@
 package com.sourcegraph.javagraph.maven.plugins;
 
 import com.google.common.reflect.ClassPath;
+import com.sourcegraph.javagraph.WorkerPool;
 import org.apache.maven.project.MavenProject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,8 +9,9 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Modifier;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Holds list of registered maven plugins, applies them for a given Maven project with the aim to extract some
@@ -40,18 +42,83 @@ public class MavenPlugins {
     }
 
     /**
-     * Applies all registered plugins to a project
+     * Applies all registered plugins to a project. Files required by applicable plugins are restored from cache,
+     * generated in-process, or produced by executing plugins' Maven goals together in a single Maven invocation
      *
      * @param project project to apply plugins for
      * @param repoDir Maven repository dir to use
      */
     public void apply(MavenProject project, File repoDir) {
+        Collection<MavenPlugin> applicable = new ArrayList<>();
         for (MavenPlugin plugin : getPlugins()) {
             if (plugin.isApplicable(project)) {
-                LOGGER.debug("Applying Maven plugin {}", plugin.getClass());
-                plugin.apply(project, repoDir);
+                applicable.add(plugin);
             }
         }
+        runGoals(project, repoDir, applicable);
+        for (MavenPlugin plugin : applicable) {
+            LOGGER.debug("Applying Maven plugin {}", plugin.getClass());
+            plugin.apply(project, repoDir);
+        }
+    }
+
+    /**
+     * Generates files required by given plugins or restores them from cache. Plugins that support in-process
+     * generation produce files in worker pool, Maven goals of all other plugins are executed in a single
+     * Maven invocation
+     *
+     * @param project project to execute goals for
+     * @param repoDir Maven repository dir to use
+     * @param plugins plugins applicable to a project
+     */
+    private void runGoals(MavenProject project, File repoDir, Collection<MavenPlugin> plugins) {
+        Collection<String> goals = new LinkedHashSet<>();
+        Collection<File> inputs = new LinkedHashSet<>();
+        Collection<File> outputs = new LinkedHashSet<>();
+        for (MavenPlugin plugin : plugins) {
+            goals.addAll(plugin.getGoals(project));
+            inputs.addAll(plugin.getInputs(project));
+            outputs.addAll(plugin.getOutputs(project));
+        }
+        if (goals.isEmpty()) {
+            return;
+        }
+
+        File pomFile = project.getModel().getPomFile();
+        List<File> outputList = new ArrayList<>(outputs);
+        GeneratedSourcesCache cache = new GeneratedSourcesCache(repoDir);
+        String key = null;
+        try {
+            key = GeneratedSourcesCache.getKey(project, goals, inputs);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to compute generated files cache key for {}", pomFile, e);
+        }
+        if (key != null && cache.restore(key, outputList)) {
+            LOGGER.debug("Restored generated files of {} from cache", pomFile);
+            return;
+        }
+        // plugins that support in-process generation are executed in worker pool,
+        // goals of the remaining ones are executed by Maven
+        List<Callable<Collection<String>>> tasks = new ArrayList<>();
+        for (MavenPlugin plugin : plugins) {
+            Collection<String> pluginGoals = plugin.getGoals(project);
+            if (!pluginGoals.isEmpty()) {
+                tasks.add(() -> plugin.generate(project) ? Collections.emptyList() : pluginGoals);
+            }
+        }
+        Collection<String> mavenGoals = new LinkedHashSet<>();
+        try {
+            WorkerPool.invokeAll(tasks).forEach(mavenGoals::addAll);
+        } catch (ExecutionException e) {
+            LOGGER.warn("Unable to generate files of {} in-process", pomFile, e.getCause());
+            mavenGoals = goals;
+        }
+        if (!mavenGoals.isEmpty() && !AbstractMavenPlugin.runMavenGoals(pomFile, repoDir, mavenGoals)) {
+            return;
+        }
+        if (key != null) {
+            cache.store(key, outputList);
+        }
     }
 
     private MavenPlugins() {
@@ -7,6 +7,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 
 /**
  * Adds basic support of http://simpligility.github.io/android-maven-plugin/index.html
@@ -32,20 +35,55 @@ public class SimpligilityAndroidMavenPlugin extends AbstractMavenPlugin {
     }
 
     /**
-     * Invokes 'generate-sources' Maven goal, updates project compile source roots with generated source directories,
+     * Updates project compile source roots with generated source directories,
      * and marks presence of Android SDK in current source unit
      */
     @Override
     public void apply(MavenProject project,
                       File repoDir) {
-        // Let's create generated source file such as R.java, BuildConfig.java and AIDL-based ones
-        runMavenGoal(project.getModel().getPomFile(), repoDir, "generate-sources");
         String sourceRoot = getGeneratedSourceDirectory(project);
         LOGGER.debug("Registering source root {}", sourceRoot);
         project.getCompileSourceRoots().add(sourceRoot);
         project.getProperties().setProperty(com.sourcegraph.javagraph.MavenProject.ANDROID_PROPERTY, StringUtils.EMPTY);
     }
 
+    /**
+     * Let's create generated source file such as R.java, BuildConfig.java and AIDL-based ones
+     */
+    @Override
+    public Collection<String> getGoals(MavenProject project) {
+        return Collections.singletonList(GENERATE_SOURCES);
+    }
+
+    /**
+     * @return Android manifest, resources, assets, and AIDL files generated sources are produced from
+     */
+    @Override
+    public Collection<File> getInputs(MavenProject project) {
+        Collection<File> ret = new ArrayList<>();
+        ret.add(getProjectFile(project, "android.manifestFile", "AndroidManifest.xml"));
+        ret.add(getProjectFile(project, "android.resourceDirectory", "res"));
+        ret.add(getProjectFile(project, "android.assetsDirectory", "assets"));
+        ret.add(getProjectFile(project, "android.aidlSourceDirectory", "src/main/aidl"));
+        return ret;
+    }
+
+    @Override
+    public Collection<File> getOutputs(MavenProject project) {
+        return Collections.singletonList(new File(getGeneratedSourceDirectory(project)));
+    }
+
+    /**
+     * @param project      Maven project
+     * @param property     name of project property that may override default location
+     * @param defaultValue default location relative to project directory
+     * @return file denoted by project property or default one
+     */
+    private static File getProjectFile(MavenProject project, String property, String defaultValue) {
+        String path = project.getProperties().getProperty(property, defaultValue);
+        return PathUtil.concat(project.getModel().getProjectDirectory(), path);
+    }
+
     /**
      *
      * @param project Maven project
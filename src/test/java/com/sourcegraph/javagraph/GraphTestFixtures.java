@@ -0,0 +1,90 @@
+package com.sourcegraph.javagraph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Fixtures shared by tests that graph synthetic Maven-like source units made of files written to temporary directory
+ */
+final class GraphTestFixtures {
+
+    private GraphTestFixtures() {
+    }
+
+    /**
+     * Makes Maven-like source unit whose compiler settings are taken from unit data: Java 1.8, empty class path,
+     * source path that holds unit's own source root NAME/src
+     * @param name unit directory and short name, unit is named test/NAME
+     * @param files unit's source files
+     * @return source unit
+     */
+    static SourceUnit unit(String name, String... files) {
+        SourceUnit unit = new SourceUnit();
+        unit.Name = "test/" + name;
+        unit.Type = SourceUnit.DEFAULT_TYPE;
+        unit.Dir = name;
+        unit.Files = Arrays.asList(files);
+        unit.Data.POMFile = name + "/pom.xml";
+        unit.Data.SourceVersion = "1.8";
+        unit.Data.ClassPath = Collections.emptyList();
+        unit.Data.SourcePath = new ArrayList<>();
+        unit.Data.SourcePath.add(new SourcePathElement(unit.Name, "1.0", name + "/src"));
+        return unit;
+    }
+
+    /**
+     * Adds source roots of upstream units made by {@link #unit(String, String...)} to unit's source path
+     * @param unit unit to update
+     * @param upstream short names of units given unit depends on
+     * @return updated unit
+     */
+    static SourceUnit addUpstream(SourceUnit unit, String... upstream) {
+        for (String dependency : upstream) {
+            unit.Data.SourcePath.add(new SourcePathElement("test/" + dependency, "1.0", dependency + "/src"));
+        }
+        return unit;
+    }
+
+    /**
+     * Writes UTF-8 file, creating parent directories
+     * @param dir base directory
+     * @param path file path relative to base directory
+     * @param content file content
+     * @throws IOException
+     */
+    static void write(Path dir, String path, String content) throws IOException {
+        Path file = dir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param context graph context
+     * @return graph of context's unit
+     * @throws Exception if unit cannot be graphed
+     */
+    static GraphCommand.Graph graph(GraphContext context) throws Exception {
+        GraphResult result = context.graph();
+        if (!result.isSuccess()) {
+            throw result.getError();
+        }
+        return result.getGraph();
+    }
+
+    /**
+     * @param graph graph
+     * @return graph in JSON format
+     * @throws IOException
+     */
+    static byte[] toJSON(GraphCommand.Graph graph) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONUtil.writeJSON(graph, out);
+        return out.toByteArray();
+    }
+}
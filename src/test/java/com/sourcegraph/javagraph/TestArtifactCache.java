@@ -0,0 +1,147 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks eviction of shared Maven repository entries
+ */
+public class TestArtifactCache {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private Path tempDir;
+
+    private Path repository;
+
+    private ArtifactLocks locks;
+
+    private long now;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-cache");
+        repository = tempDir.resolve("maven");
+        locks = new ArtifactLocks(tempDir.resolve("locks"), 0);
+        now = System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * Least recently used entries go first, eviction stops as soon as repository fits the limit
+     */
+    @Test
+    public void testLeastRecentlyUsed() throws Exception {
+        Path oldest = entry("g/a/1.0", "a-1.0.jar", now - 5 * DAY);
+        Path older = entry("g/a/2.0", "a-2.0.jar", now - 4 * DAY);
+        Path old = entry(".srclib-generated/key", "0/A.java", now - 3 * DAY);
+
+        assertEquals(200, ArtifactCache.evict(repository, 250, now - DAY, locks, Collections.emptySet()));
+        assertFalse(Files.exists(oldest));
+        assertTrue(Files.exists(older));
+        assertTrue(Files.exists(old));
+        assertEquals("Lock file of evicted entry is kept", 0, countLockFiles());
+    }
+
+    /**
+     * Entries used recently, used by the current process, or locked by someone else are kept
+     */
+    @Test
+    public void testKeep() throws Exception {
+        Path recent = entry("g/a/1.0", "a-1.0.pom", now);
+        Path used = entry("g/a/2.0", "a-2.0.pom", now - 5 * DAY);
+        Path locked = entry("g/b/1.0", "b-1.0.jar", now - 5 * DAY);
+        Path evicted = entry(".srclib-generated/key", "0/A.java", now - 5 * DAY);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Closeable lock = executor.submit(() -> locks.lock(Collections.singleton("g:b:1.0"))).get();
+            assertEquals(300, ArtifactCache.evict(repository, 0, now - DAY, locks, Collections.singleton(used)));
+            executor.submit(() -> {
+                lock.close();
+                return null;
+            }).get();
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(Files.exists(recent));
+        assertTrue(Files.exists(used));
+        assertTrue(Files.exists(locked));
+        assertFalse(Files.exists(evicted));
+        assertEquals("Lock file of evicted entry is kept", 1, countLockFiles());
+    }
+
+    /**
+     * Lock deleted by its owner is not taken into account by those who waited for it
+     */
+    @Test
+    public void testDeletedLock() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Closeable lock = locks.lock(Collections.singleton("g:a:1.0"));
+            Future<Closeable> waiter = executor.submit(() -> locks.lock(Collections.singleton("g:a:1.0")));
+            Thread.sleep(100);
+            locks.delete("g:a:1.0");
+            lock.close();
+            Closeable waiterLock = waiter.get(10, TimeUnit.SECONDS);
+            assertEquals(1, countLockFiles());
+            assertTrue("Key is taken twice", locks.tryLock("g:a:1.0") == null);
+            executor.submit(() -> {
+                waiterLock.close();
+                return null;
+            }).get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return number of lock files
+     * @throws IOException
+     */
+    private long countLockFiles() throws IOException {
+        Path dir = tempDir.resolve("locks");
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    /**
+     * Makes cache entry holding a single file of 100 bytes
+     * @param dir entry directory, relative to repository
+     * @param file file path, relative to entry directory
+     * @param modified last modification time of entry
+     * @return entry directory
+     * @throws IOException
+     */
+    private Path entry(String dir, String file, long modified) throws IOException {
+        Path entry = repository.resolve(dir);
+        Path path = entry.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.write(path, new byte[100]);
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(modified));
+        return entry;
+    }
+}
@@ -0,0 +1,165 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that artifact locks exclude each other, never deadlock, and are released properly
+ */
+public class TestArtifactLocks {
+
+    private static final long TIMEOUT = 200;
+
+    private Path tempDir;
+
+    private ArtifactLocks locks;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-locks");
+        locks = new ArtifactLocks(tempDir, TIMEOUT);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * Threads locking overlapping key sets in different order never get inside at the same time
+     */
+    @Test
+    public void testContention() throws Exception {
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger maxInside = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            List<String> keys = i % 2 == 0 ? Arrays.asList("a", "b") : Arrays.asList("b", "c", "a");
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 50; j++) {
+                    Closeable lock = locks.lock(keys);
+                    try {
+                        maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+                        Thread.yield();
+                        inside.decrementAndGet();
+                    } finally {
+                        lock.close();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        assertEquals(1, maxInside.get());
+    }
+
+    /**
+     * Key can't be taken while another thread holds it and can be taken once it's released
+     */
+    @Test
+    public void testTryLock() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> holder = hold("a", release);
+
+        assertNull(executor.submit(() -> locks.tryLock("a")).get());
+        Closeable other = locks.tryLock("b");
+        assertNotNull(other);
+        other.close();
+
+        release.countDown();
+        holder.get();
+        Closeable lock = locks.tryLock("a");
+        assertNotNull(lock);
+        lock.close();
+    }
+
+    /**
+     * Thread that already holds a key may lock it again and may lock keys that sort after it
+     */
+    @Test
+    public void testReentrant() throws Exception {
+        Closeable outer = locks.lock(Collections.singleton("a"));
+        Closeable inner = locks.lock(Arrays.asList("a", "b"));
+        inner.close();
+        assertNull(executor.submit(() -> locks.tryLock("a")).get());
+        assertNotNull(executor.submit(() -> {
+            Closeable lock = locks.tryLock("b");
+            if (lock != null) {
+                lock.close();
+            }
+            return lock;
+        }).get());
+        outer.close();
+        assertNotNull(executor.submit(() -> {
+            Closeable lock = locks.tryLock("a");
+            if (lock != null) {
+                lock.close();
+            }
+            return lock;
+        }).get());
+    }
+
+    /**
+     * Key that sorts before the keys held is waited for no longer than a timeout, keys held stay locked
+     */
+    @Test
+    public void testOutOfOrderTimeout() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> holder = hold("a", release);
+
+        Closeable b = locks.lock(Collections.singleton("b"));
+        long start = System.currentTimeMillis();
+        try {
+            locks.lock(Collections.singleton("a"));
+            fail("Out of order lock should time out");
+        } catch (IOException e) {
+            assertTrue(System.currentTimeMillis() - start >= TIMEOUT);
+        }
+        assertNull(executor.submit(() -> locks.tryLock("b")).get());
+        b.close();
+
+        release.countDown();
+        holder.get();
+    }
+
+    /**
+     * Locks a key in another thread until latch is released
+     * @param key key to lock
+     * @param release latch to wait for
+     * @return future that completes once key is released
+     * @throws Exception
+     */
+    private Future<?> hold(String key, CountDownLatch release) throws Exception {
+        CountDownLatch acquired = new CountDownLatch(1);
+        Future<?> future = executor.submit(() -> {
+            Closeable lock = locks.lock(Collections.singleton(key));
+            try {
+                acquired.countDown();
+                release.await();
+            } finally {
+                lock.close();
+            }
+            return null;
+        });
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        return future;
+    }
+}
@@ -0,0 +1,94 @@
+package com.sourcegraph.javagraph;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.json.XML;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that POM written straight from the model matches POM converted by org.json and that it's skipped when
+ * source unit is read
+ */
+public class TestEmbeddedPOM {
+
+    private Model model;
+
+    @Before
+    public void setUp() throws Exception {
+        try (Reader r = Files.newBufferedReader(Paths.get("src/test/resources/pom-embedded.xml"),
+                StandardCharsets.UTF_8)) {
+            model = new MavenXpp3Reader().read(r);
+        }
+    }
+
+    /**
+     * Repeated elements, attributes, text values, empty elements, and entities are converted the same way
+     * {@link XML#toJSONObject(String)} converts them, key order aside
+     */
+    @Test
+    public void testMatchesXMLConversion() throws Exception {
+        StringWriter xml = new StringWriter();
+        new MavenXpp3Writer().write(xml, model);
+        JsonElement expected = toJSON(XML.toJSONObject(xml.toString()));
+
+        assertEquals(expected, toJSON(new EmbeddedPOM(model)));
+    }
+
+    /**
+     * Only selected top-level elements are written
+     */
+    @Test
+    public void testFields() throws Exception {
+        EmbeddedPOM pom = new EmbeddedPOM(model);
+        pom.setFields(Arrays.asList("groupId", "modules", "xmlns", "missing"));
+
+        JsonObject project = toJSON(pom).getAsJsonObject().getAsJsonObject("project");
+        assertEquals(3, project.entrySet().size());
+        assertEquals("g", project.get("groupId").getAsString());
+        assertEquals(2, project.getAsJsonObject("modules").getAsJsonArray("module").size());
+        assertEquals("http://maven.apache.org/POM/4.0.0", project.get("xmlns").getAsString());
+    }
+
+    /**
+     * Source units read back by plain Gson skip embedded POM instead of making empty one
+     */
+    @Test
+    public void testReadSkipsPOM() throws Exception {
+        SourceUnit unit = new SourceUnit();
+        unit.Name = "g/x";
+        unit.Data.POMFile = "pom.xml";
+        unit.Data.POM = new EmbeddedPOM(model);
+
+        SourceUnit read = new Gson().fromJson(toJSON(unit), SourceUnit.class);
+        assertEquals("pom.xml", read.Data.POMFile);
+        assertNull(read.Data.POM);
+    }
+
+    /**
+     * @param o object to write
+     * @return JSON tree of object written by {@link JSONUtil}
+     * @throws Exception
+     */
+    private static JsonElement toJSON(Object o) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONUtil.writeJSON(o, out);
+        return new JsonParser().parse(new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
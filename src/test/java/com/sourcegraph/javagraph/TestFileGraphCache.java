@@ -0,0 +1,245 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.sourcegraph.javagraph.GraphTestFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that graphs built with file cache match graphs built from scratch and that only files that changed
+ * or depend on changed signatures are graphed again
+ */
+public class TestFileGraphCache {
+
+    private Path tempDir;
+
+    private SourceUnit unit;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-file-cache");
+        write(tempDir, "u/src/p/A.java",
+                "package p;\n" +
+                "\n" +
+                "/** Upstream class */\n" +
+                "public class A {\n" +
+                "    public int a() { return 1; }\n" +
+                "}\n");
+        write(tempDir, "u/src/p/B.java",
+                "package p;\n" +
+                "\n" +
+                "public class B {\n" +
+                "    int b() { return new A().a(); }\n" +
+                "}\n");
+        write(tempDir, "u/src/p/C.java",
+                "package p;\n" +
+                "\n" +
+                "public class C {\n" +
+                "    int c() { return new B().b(); }\n" +
+                "}\n");
+        write(tempDir, "u/src/p/D.java",
+                "package p;\n" +
+                "\n" +
+                "public class D {\n" +
+                "    int d;\n" +
+                "}\n");
+        // unit's source path does not include its own source root
+        Files.createDirectories(tempDir.resolve("lib/src"));
+        unit = unit("u", "u/src/p/A.java", "u/src/p/B.java", "u/src/p/C.java", "u/src/p/D.java");
+        unit.Data.SourcePath = Collections.singletonList(new SourcePathElement("test/lib", "1.0", "lib/src"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * Graphs built on empty cache, replayed from cache, and partially replayed after edit are identical to graphs
+     * built without cache
+     */
+    @Test
+    public void testReplayMatchesFresh() throws Exception {
+        assertSameGraph(graph(false, null), graph(true, null));
+        assertSameGraph(graph(false, null), graph(true, null));
+
+        write(tempDir, "u/src/p/A.java",
+                "package p;\n" +
+                "\n" +
+                "/** Upstream class */\n" +
+                "public class A {\n" +
+                "    public int a() { return 2; }\n" +
+                "    public int other() { return a(); }\n" +
+                "}\n");
+        assertSameGraph(graph(false, null), graph(true, null));
+        assertSameGraph(graph(false, null), graph(true, Collections.singletonList("u/src/p/A.java")));
+    }
+
+    /**
+     * Signature edit makes changed file and files that refer to it graphed again, other files are replayed
+     * (edits made to them behind cache's back stay unseen). Edit that keeps signatures graphs changed file only
+     */
+    @Test
+    public void testSignatureChangeGraphsDependents() throws Exception {
+        graph(true, null);
+        List<String> changed = Collections.singletonList("u/src/p/A.java");
+
+        write(tempDir, "u/src/p/A.java",
+                "package p;\n" +
+                "\n" +
+                "/** Upstream class */\n" +
+                "public class A {\n" +
+                "    public int a() { return 1; }\n" +
+                "    public int a2() { return 2; }\n" +
+                "}\n");
+        addField("u/src/p/B.java", "extraB");
+        addField("u/src/p/C.java", "extraC");
+        addField("u/src/p/D.java", "extraD");
+        Set<String> defs = getDefs(graph(true, changed));
+        assertTrue(defs.contains("p/A:type/a2"));
+        assertTrue("Dependent file is not graphed", defs.contains("p/B:type/extraB"));
+        assertFalse("File that depends on unchanged signatures is graphed", defs.contains("p/C:type/extraC"));
+        assertFalse("Independent file is graphed", defs.contains("p/D:type/extraD"));
+
+        write(tempDir, "u/src/p/A.java",
+                "package p;\n" +
+                "\n" +
+                "/** Upstream class */\n" +
+                "public class A {\n" +
+                "    public int a() { return 3; }\n" +
+                "    public int a2() { return 2; }\n" +
+                "}\n");
+        addField("u/src/p/B.java", "extraB2");
+        defs = getDefs(graph(true, changed));
+        assertTrue(defs.contains("p/B:type/extraB"));
+        assertFalse("File that depends on unchanged signatures is graphed", defs.contains("p/B:type/extraB2"));
+    }
+
+    /**
+     * Member added to superclass changes signature of subclass, files that refer to subclass only are graphed
+     * again and resolve calls to the new member
+     */
+    @Test
+    public void testInheritedSignatureChange() throws Exception {
+        write(tempDir, "u/src/p/B.java",
+                "package p;\n" +
+                "\n" +
+                "public class B extends A {\n" +
+                "    public int f(long x) { return 1; }\n" +
+                "}\n");
+        write(tempDir, "u/src/p/C.java",
+                "package p;\n" +
+                "\n" +
+                "public class C {\n" +
+                "    int c() { return new B().f(1); }\n" +
+                "}\n");
+        graph(true, null);
+
+        write(tempDir, "u/src/p/A.java",
+                "package p;\n" +
+                "\n" +
+                "/** Upstream class */\n" +
+                "public class A {\n" +
+                "    public int a() { return 1; }\n" +
+                "    public int f(int x) { return 2; }\n" +
+                "}\n");
+        GraphCommand.Graph graph = graph(true, Collections.singletonList("u/src/p/A.java"));
+        boolean calls = false;
+        for (Ref ref : graph.Refs) {
+            calls |= ref.file.endsWith("C.java") && ref.defKey.formatPath().startsWith("p/A:type/f");
+        }
+        assertTrue("Call is not resolved to inherited member", calls);
+        assertSameGraph(graph(false, null), graph);
+    }
+
+    /**
+     * With changed files known, files of unit's source roots that do not belong to unit stay invisible to javac,
+     * as they are when unit is graphed without cache
+     */
+    @Test
+    public void testChangedFilesHideOtherFiles() throws Exception {
+        write(tempDir, "u/src/p/Stray.java",
+                "package p;\n" +
+                "\n" +
+                "public class Stray {\n" +
+                "}\n");
+        write(tempDir, "u/src/p/D.java",
+                "package p;\n" +
+                "\n" +
+                "public class D {\n" +
+                "    Stray stray;\n" +
+                "}\n");
+        graph(true, null);
+
+        write(tempDir, "u/src/p/D.java",
+                "package p;\n" +
+                "\n" +
+                "public class D {\n" +
+                "    Stray stray;\n" +
+                "    int d;\n" +
+                "}\n");
+        GraphCommand.Graph graph = graph(true, Collections.singletonList("u/src/p/D.java"));
+        for (Ref ref : graph.Refs) {
+            assertFalse("Stray file is visible", "p/Stray:type".equals(ref.defKey.formatPath()));
+        }
+        assertSameGraph(graph(false, null), graph);
+    }
+
+    /**
+     * @param cached true to use file cache
+     * @param changedFiles files changed since the previous run, null if unknown
+     * @return graph of unit
+     * @throws Exception
+     */
+    private GraphCommand.Graph graph(boolean cached, Collection<String> changedFiles) throws Exception {
+        GraphContext context = new GraphContext(unit, tempDir, null);
+        if (cached) {
+            context.setFileCache(tempDir.resolve("cache"));
+            context.setChangedFiles(changedFiles);
+        }
+        return GraphTestFixtures.graph(context);
+    }
+
+    /**
+     * @param graph graph
+     * @return paths of definitions
+     */
+    private static Set<String> getDefs(GraphCommand.Graph graph) {
+        Set<String> ret = new HashSet<>();
+        for (Def def : graph.Defs) {
+            ret.add(def.defKey.formatPath());
+        }
+        return ret;
+    }
+
+    /**
+     * Checks that graphs serialize the same way
+     * @param expected expected graph
+     * @param actual actual graph
+     * @throws IOException
+     */
+    private static void assertSameGraph(GraphCommand.Graph expected, GraphCommand.Graph actual) throws IOException {
+        assertEquals(new String(toJSON(expected), StandardCharsets.UTF_8),
+                new String(toJSON(actual), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds private field (which is not a part of signatures) to the end of the only class of a given file
+     * @param path file path
+     * @param name field name
+     * @throws IOException
+     */
+    private void addField(String path, String name) throws IOException {
+        String content = new String(Files.readAllBytes(tempDir.resolve(path)), StandardCharsets.UTF_8);
+        write(tempDir, path, content.substring(0, content.lastIndexOf('}')) + "    private int " + name + ";\n}\n");
+    }
+}
@@ -0,0 +1,105 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.sourcegraph.javagraph.GraphTestFixtures.write;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks files globs are expanded into, with and without exclusion rules
+ */
+public class TestGlobExpander {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-glob").toRealPath();
+        write(tempDir, "A.java", "");
+        write(tempDir, "src/B.java", "");
+        write(tempDir, "src/b/C.java", "");
+        write(tempDir, "src/b/c/D.java", "");
+        write(tempDir, "src/b/c/notes.txt", "");
+        write(tempDir, "build/E.java", "");
+        write(tempDir, "src/gen/F.java", "");
+        write(tempDir, ".gitignore", "build/\n");
+        write(tempDir, "src/.gitignore", "gen/\n");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * "**" matches zero or more directories, "*" and "?" match characters within path element,
+     * files matched by several globs are listed once
+     */
+    @Test
+    public void testWildcards() throws Exception {
+        assertEquals(paths("A.java", "build/E.java", "src/B.java", "src/b/C.java", "src/b/c/D.java",
+                "src/gen/F.java"),
+                expand(null, "**/*.java", "src/**/?.java"));
+        assertEquals(paths("src/b/C.java", "src/b/c/D.java"), expand(null, "src/b/**/*.java"));
+        assertEquals(paths("src/B.java"), expand(null, "src/*.java"));
+        assertEquals(paths("src/b/c/D.java"), expand(null, "src/*/c/*.java"));
+    }
+
+    /**
+     * Glob that ends with separator matches everything inside of directory, glob without wildcards matches
+     * existing file only, absolute globs are allowed
+     */
+    @Test
+    public void testDirectoriesAndLiterals() throws Exception {
+        assertEquals(paths("src/b/c/D.java", "src/b/c/notes.txt"), expand(null, "src/b/c/"));
+        assertEquals(paths("A.java"), expand(null, "A.java", "Missing.java"));
+        assertEquals(paths("src/B.java"), expand(null, tempDir.resolve("src").toString() + "/*.java"));
+    }
+
+    /**
+     * Directories ignored by root rules and by .gitignore files of sub-directories are not walked
+     * when rules are given, every directory is walked otherwise
+     */
+    @Test
+    public void testIgnoredDirectories() throws Exception {
+        IgnoreRules rules = ScanUtil.getRootRules(tempDir, null);
+        assertEquals(paths("A.java", "src/B.java", "src/b/C.java", "src/b/c/D.java"),
+                expand(rules, "**/*.java"));
+
+        write(tempDir, "exclude", "c/\n");
+        rules = ScanUtil.getRootRules(tempDir, tempDir.resolve("exclude"));
+        assertEquals(paths("A.java", "src/B.java", "src/b/C.java"), expand(rules, "**/*.java"));
+
+        assertEquals(6, expand(null, "**/*.java").size());
+    }
+
+    /**
+     * @param rules    exclusion rules of temporary directory, null to walk every directory
+     * @param patterns globs to expand
+     * @return matching files
+     */
+    private List<String> expand(IgnoreRules rules, String... patterns) {
+        return new GlobExpander(tempDir, Arrays.asList(patterns), rules).expand();
+    }
+
+    /**
+     * @param paths paths relative to temporary directory, in sorted order
+     * @return absolute paths
+     */
+    private List<String> paths(String... paths) {
+        List<String> ret = new ArrayList<>();
+        for (String path : paths) {
+            ret.add(tempDir.resolve(path).toString());
+        }
+        return ret;
+    }
+}
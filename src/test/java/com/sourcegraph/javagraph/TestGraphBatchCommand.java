@@ -0,0 +1,178 @@
+package com.sourcegraph.javagraph;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.sourcegraph.javagraph.GraphTestFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Graphs batches of source units and checks records: input order, failures, and agreement between batch modes
+ */
+public class TestGraphBatchCommand {
+
+    private Path tempDir;
+
+    private String unitA;
+
+    private String unitB;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-batch");
+        write(tempDir, "a/src/a/A.java",
+                "package a;\n" +
+                "\n" +
+                "/** Upstream class */\n" +
+                "public class A {\n" +
+                "    /** Returns one */\n" +
+                "    public int f() { return 1; }\n" +
+                "}\n");
+        write(tempDir, "b/src/b/B.java",
+                "package b;\n" +
+                "\n" +
+                "import a.A;\n" +
+                "\n" +
+                "/** Downstream class */\n" +
+                "public class B {\n" +
+                "    private final A a = new A();\n" +
+                "    int g() { return a.f() + 1; }\n" +
+                "}\n");
+        unitA = new Gson().toJson(unit("a", "a/src/a/A.java"));
+        unitB = new Gson().toJson(addUpstream(unit("b", "b/src/b/B.java"), "a"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * Records come in input order, malformed unit fails alone and does not stop the batch
+     */
+    @Test
+    public void testRecordsInInputOrder() throws Exception {
+        GraphBatchCommand command = new GraphBatchCommand(tempDir);
+        command.jobs = 2;
+        List<JsonObject> records = run(command, unitB, "{malformed", unitA);
+
+        assertEquals(3, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i, records.get(i).get("index").getAsInt());
+        }
+        assertEquals(0, records.get(0).get("status").getAsInt());
+        assertEquals("test/b", records.get(0).get("unit").getAsString());
+        assertTrue(records.get(0).getAsJsonObject("graph").getAsJsonArray("Defs").size() > 0);
+        boolean upstreamRef = false;
+        for (JsonElement ref : records.get(0).getAsJsonObject("graph").getAsJsonArray("Refs")) {
+            upstreamRef |= ref.getAsJsonObject().has("DefUnit") &&
+                    ref.getAsJsonObject().get("DefUnit").getAsString().equals("test/a");
+        }
+        assertTrue("No references to upstream unit", upstreamRef);
+        assertEquals(1, records.get(1).get("status").getAsInt());
+        assertTrue(records.get(1).get("error").getAsString().startsWith("Malformed source unit"));
+        assertEquals(0, records.get(2).get("status").getAsInt());
+        assertEquals("test/a", records.get(2).get("unit").getAsString());
+    }
+
+    /**
+     * Dependency order, signature stubs and single compilation produce the same graphs as units graphed one by one
+     */
+    @Test
+    public void testModesAgree() throws Exception {
+        List<JsonObject> expected = run(new GraphBatchCommand(tempDir), unitB, unitA);
+
+        GraphBatchCommand ordered = new GraphBatchCommand(tempDir);
+        ordered.dependencyOrder = true;
+        ordered.jobs = 2;
+        assertSameGraphs(expected, run(ordered, unitB, unitA));
+
+        GraphBatchCommand stubs = new GraphBatchCommand(tempDir);
+        stubs.dependencyOrder = true;
+        stubs.stubsDir = "stubs";
+        assertSameGraphs(expected, run(stubs, unitB, unitA));
+        assertTrue("No stubs written", Files.isDirectory(tempDir.resolve("stubs")));
+
+        GraphBatchCommand together = new GraphBatchCommand(tempDir);
+        together.singleCompilation = true;
+        assertSameGraphs(expected, run(together, unitB, unitA));
+    }
+
+    /**
+     * With output directory graphs go to files named in records, paths are relative to working directory
+     */
+    @Test
+    public void testOutputDir() throws Exception {
+        List<JsonObject> expected = run(new GraphBatchCommand(tempDir), unitA);
+
+        GraphBatchCommand command = new GraphBatchCommand(tempDir);
+        command.outputDir = "out";
+        List<JsonObject> records = run(command, unitA);
+
+        assertEquals(1, records.size());
+        assertFalse(records.get(0).has("graph"));
+        assertEquals("out/0-test_a.graph.json", records.get(0).get("file").getAsString());
+        try (Reader r = Files.newBufferedReader(tempDir.resolve("out/0-test_a.graph.json"), StandardCharsets.UTF_8)) {
+            assertEquals(expected.get(0).get("graph"), new JsonParser().parse(r));
+        }
+    }
+
+    /**
+     * Batch refuses to combine single compilation with dependency order
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompatibleModes() throws Exception {
+        GraphBatchCommand command = new GraphBatchCommand(tempDir);
+        command.singleCompilation = true;
+        command.dependencyOrder = true;
+        run(command, unitA);
+    }
+
+    /**
+     * @param command command to run
+     * @param lines input lines
+     * @return records written
+     * @throws Exception
+     */
+    private static List<JsonObject> run(GraphBatchCommand command, String... lines) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        command.run(new StringReader(String.join("\n", lines)), out);
+        List<JsonObject> ret = new ArrayList<>();
+        for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                ret.add(new JsonParser().parse(line).getAsJsonObject());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Checks that records hold the same graphs
+     * @param expected records of reference run
+     * @param actual records to check
+     */
+    private static void assertSameGraphs(List<JsonObject> expected, List<JsonObject> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("Record #" + i + " failed: " + actual.get(i).get("error"),
+                    0,
+                    actual.get(i).get("status").getAsInt());
+            JsonElement graph = expected.get(i).get("graph");
+            assertEquals("Graph of " + expected.get(i).get("unit") + " differs", graph, actual.get(i).get("graph"));
+        }
+    }
+}
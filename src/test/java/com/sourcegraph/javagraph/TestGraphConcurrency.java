@@ -0,0 +1,241 @@
+package com.sourcegraph.javagraph;
+
+import com.google.gson.Gson;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Graphs source units concurrently and checks that results are non-empty, refer to files of unit's working
+ * directory, and are byte-identical to sequential run
+ */
+public class TestGraphConcurrency {
+
+    private static final int SYNTHETIC_UNITS = 6;
+
+    private static final int THREADS = 4;
+
+    private static final int REPEATS = 3;
+
+    private Path tempDir;
+
+    private List<Case> cases;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-concurrency");
+        cases = new ArrayList<>();
+        for (int i = 0; i < SYNTHETIC_UNITS; i++) {
+            cases.add(makeSyntheticCase(i));
+        }
+        cases.addAll(collectTestdataCases());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    @Test
+    public void testConcurrentGraphsMatchSequential() throws Exception {
+        Map<Case, byte[]> expected = new HashMap<>();
+        for (Case c : cases) {
+            expected.put(c, graph(c));
+        }
+        for (Case c : cases) {
+            assertArrayEquals("Graph of " + c.unit.Name + " differs between sequential runs",
+                    expected.get(c),
+                    graph(c));
+        }
+
+        List<Case> tasks = new ArrayList<>();
+        for (int i = 0; i < REPEATS; i++) {
+            tasks.addAll(cases);
+        }
+        Collections.shuffle(tasks, new Random(42));
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (Case c : tasks) {
+                results.add(executor.submit(() -> graph(c)));
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                Case c = tasks.get(i);
+                assertArrayEquals("Graph of " + c.unit.Name + " differs from sequential run",
+                        expected.get(c),
+                        results.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Graphs case in its own context
+     * @param c case to graph
+     * @return graph in JSON format
+     * @throws Exception
+     */
+    private static byte[] graph(Case c) throws Exception {
+        GraphResult result = new GraphContext(c.unit, c.workingDir, null).graph();
+        if (!result.isSuccess()) {
+            throw result.getError();
+        }
+        GraphCommand.Graph graph = result.getGraph();
+        assertFalse("No definitions found in " + c.unit.Name, graph.Defs.isEmpty());
+        assertFalse("No references found in " + c.unit.Name, graph.Refs.isEmpty());
+        assertFalse("No docs found in " + c.unit.Name, graph.Docs.isEmpty());
+        for (Def def : graph.Defs) {
+            if (def.file != null) {
+                assertUnitFile(c, def.file);
+            }
+        }
+        for (Ref ref : graph.Refs) {
+            assertUnitFile(c, ref.file);
+        }
+        for (GraphCommand.Doc doc : graph.Docs) {
+            assertUnitFile(c, doc.File);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONUtil.writeJSON(result.getGraph(), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Checks that graph refers to a given file by path relative to unit's working directory
+     * @param c graphed case
+     * @param file file path found in graph
+     */
+    private static void assertUnitFile(Case c, String file) {
+        assertFalse("Absolute path " + file + " in graph of " + c.unit.Name, Paths.get(file).isAbsolute());
+        assertTrue("Graph of " + c.unit.Name + " refers to missing file " + file,
+                Files.isRegularFile(c.workingDir.resolve(file)));
+    }
+
+    /**
+     * Makes source unit in its own directory, classes of unit refer to each other and to JDK
+     * @param index unit index
+     * @return case
+     * @throws IOException
+     */
+    private Case makeSyntheticCase(int index) throws IOException {
+        Path dir = tempDir.resolve("unit" + index);
+        String pkg = "p" + index;
+        Path pkgDir = dir.resolve("src").resolve(pkg);
+        Files.createDirectories(pkgDir);
+        write(pkgDir.resolve("Base.java"),
+                "package " + pkg + ";\n" +
+                "\n" +
+                "import java.util.List;\n" +
+                "\n" +
+                "/** Base class */\n" +
+                "public abstract class Base<T> {\n" +
+                "    protected List<T> items;\n" +
+                "    /** Processes item */\n" +
+                "    public abstract int process(T item);\n" +
+                "}\n");
+        write(pkgDir.resolve("Impl.java"),
+                "package " + pkg + ";\n" +
+                "\n" +
+                "import java.util.ArrayList;\n" +
+                "\n" +
+                "public class Impl extends Base<String> implements Runnable {\n" +
+                "    public Impl() { items = new ArrayList<>(); }\n" +
+                "    @Override\n" +
+                "    public int process(String item) { return item.length() + " + index + "; }\n" +
+                "    @Override\n" +
+                "    public void run() { for (String s : items) { process(s); } }\n" +
+                "}\n");
+        write(pkgDir.resolve("Main.java"),
+                "package " + pkg + ";\n" +
+                "\n" +
+                "public class Main {\n" +
+                "    enum Mode { A, B }\n" +
+                "    public static void main(String[] args) {\n" +
+                "        Impl impl = new Impl();\n" +
+                "        impl.run();\n" +
+                "        System.out.println(Mode.A + \" \" + impl.process(\"x\"));\n" +
+                "    }\n" +
+                "}\n");
+        SourceUnit unit = new SourceUnit();
+        unit.Name = "unit" + index;
+        unit.Type = SourceUnit.DEFAULT_TYPE;
+        unit.Dir = ".";
+        unit.Files = Arrays.asList("src/" + pkg + "/Base.java",
+                "src/" + pkg + "/Impl.java",
+                "src/" + pkg + "/Main.java");
+        return new Case(unit, dir);
+    }
+
+    /**
+     * Collects expected source units from testdata whose case directories are checked out
+     * @return cases found
+     * @throws IOException
+     */
+    private static List<Case> collectTestdataCases() throws IOException {
+        Path expected = Paths.get("testdata", "expected").toAbsolutePath();
+        if (!Files.isDirectory(expected)) {
+            return Collections.emptyList();
+        }
+        List<Path> unitFiles;
+        try (Stream<Path> paths = Files.walk(expected)) {
+            unitFiles = paths.filter(p -> p.getFileName().toString().equals("JavaArtifact.unit.json")).
+                    sorted().
+                    collect(Collectors.toList());
+        }
+        List<Case> ret = new ArrayList<>();
+        for (Path unitFile : unitFiles) {
+            Path caseDir = Paths.get("testdata", "case").
+                    resolve(expected.relativize(unitFile).getName(0)).
+                    toAbsolutePath();
+            SourceUnit unit;
+            try (Reader r = Files.newBufferedReader(unitFile, StandardCharsets.UTF_8)) {
+                unit = new Gson().fromJson(r, SourceUnit.class);
+            }
+            if (unit.Files == null || unit.Files.isEmpty() ||
+                    !unit.Files.stream().allMatch(f -> Files.isRegularFile(caseDir.resolve(f)))) {
+                // case is not checked out
+                continue;
+            }
+            ret.add(new Case(unit, caseDir));
+        }
+        return ret;
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Source unit and directory to graph it in
+     */
+    private static class Case {
+        final SourceUnit unit;
+        final Path workingDir;
+
+        Case(SourceUnit unit, Path workingDir) {
+            this.unit = unit;
+            this.workingDir = workingDir;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static com.sourcegraph.javagraph.GraphTestFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Checks fingerprints of source units and eviction of result cache entries
+ */
+public class TestGraphResultCache {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private Path tempDir;
+
+    private GraphResultCache cache;
+
+    private SourceUnit unit;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-result-cache");
+        cache = new GraphResultCache(tempDir.resolve("cache"), 0);
+        write(tempDir, "one/a/src/a/A.java", "package a;\n\npublic class A {\n}\n");
+        write(tempDir, "one/b/src/b/B.java", "package b;\n\npublic class B extends a.A {\n}\n");
+        unit = addUpstream(unit("b", "b/src/b/B.java"), "a");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * Checkouts of the same repository in different directories share fingerprints, fingerprints are stable
+     * when hashes are taken from memos
+     */
+    @Test
+    public void testKeyIndependentOfWorkingDir() throws Exception {
+        FileUtils.copyDirectory(tempDir.resolve("one").toFile(), tempDir.resolve("two").toFile());
+        String key = getKey("one");
+        assertEquals(key, getKey("two"));
+        assertEquals(key, getKey("one"));
+        assertTrue("Hashes are not memoized", Files.isDirectory(tempDir.resolve("cache/dirs")));
+    }
+
+    /**
+     * Changes of unit's files, of source path files, and of other files of unit's source roots change fingerprint
+     */
+    @Test
+    public void testKeyChanges() throws Exception {
+        String key = getKey("one");
+
+        write(tempDir, "one/b/src/b/B.java", "package b;\n\npublic class B extends a.A {\n    int b;\n}\n");
+        String changedFile = getKey("one");
+        assertFalse(key.equals(changedFile));
+
+        write(tempDir, "one/a/src/a/A.java", "package a;\n\npublic class A {\n    int a;\n}\n");
+        String changedUpstream = getKey("one");
+        assertFalse(changedFile.equals(changedUpstream));
+
+        write(tempDir, "one/b/src/b/Other.java", "package b;\n\nclass Other {\n}\n");
+        assertFalse(changedUpstream.equals(getKey("one")));
+    }
+
+    /**
+     * Least recently used files go first, eviction stops as soon as directory fits the limit,
+     * recently used files are kept
+     */
+    @Test
+    public void testEvict() throws Exception {
+        long now = System.currentTimeMillis();
+        Path dir = tempDir.resolve("evict");
+        Path oldest = file(dir.resolve("1.graph.json"), now - 5 * DAY);
+        Path older = file(dir.resolve("jars/memo"), now - 4 * DAY);
+        Path old = file(dir.resolve("2.graph.json"), now - 3 * DAY);
+        Path recent = file(dir.resolve("3.graph.json"), now);
+
+        assertEquals(300, GraphResultCache.evict(dir, 300, now - DAY));
+        assertFalse(Files.exists(oldest));
+        assertTrue(Files.exists(older));
+        assertTrue(Files.exists(old));
+
+        assertEquals(100, GraphResultCache.evict(dir, 0, now - DAY));
+        assertFalse(Files.exists(older));
+        assertFalse(Files.exists(old));
+        assertTrue(Files.exists(recent));
+    }
+
+    /**
+     * @param checkout directory of repository checkout
+     * @return fingerprint of unit in a given checkout
+     * @throws Exception
+     */
+    private String getKey(String checkout) throws Exception {
+        return cache.getKey(new GraphContext(unit, tempDir.resolve(checkout), null));
+    }
+
+    /**
+     * Makes 100 bytes file
+     * @param file file to make
+     * @param modified modification time
+     * @return file made
+     * @throws IOException
+     */
+    private static Path file(Path file, long modified) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[100]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+        return file;
+    }
+}
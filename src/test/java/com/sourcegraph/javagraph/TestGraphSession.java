@@ -0,0 +1,129 @@
+package com.sourcegraph.javagraph;
+
+import com.google.gson.Gson;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static com.sourcegraph.javagraph.GraphTestFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that graph session produces the same graphs as graph command, reuses state between units safely
+ * and reports failures as exceptions
+ */
+public class TestGraphSession {
+
+    private Path tempDir;
+
+    private SourceUnit first;
+
+    private SourceUnit second;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-session");
+        write(tempDir, "one/src/one/One.java",
+                "package one;\n" +
+                "\n" +
+                "/** First class */\n" +
+                "public class One {\n" +
+                "    /** Counter */\n" +
+                "    int count;\n" +
+                "    void inc() { count++; }\n" +
+                "}\n");
+        write(tempDir, "two/src/two/Two.java",
+                "package two;\n" +
+                "\n" +
+                "import java.util.List;\n" +
+                "\n" +
+                "public class Two {\n" +
+                "    int size(List<String> items) { return items.size(); }\n" +
+                "}\n");
+        first = unit("one", "one/src/one/One.java");
+        second = unit("two", "two/src/two/Two.java");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * Units graphed one after another by the same session match graphs built by separate graph contexts,
+     * file paths are relative to session's working directory
+     */
+    @Test
+    public void testMatchesContextGraphs() throws Exception {
+        try (GraphSession session = new GraphSession(tempDir)) {
+            for (SourceUnit unit : Arrays.asList(first, second, first)) {
+                GraphData data = new GraphData();
+                session.graph(unit, data);
+                assertFalse("No definitions found in " + unit.Name, data.defs.isEmpty());
+                for (Ref ref : data.refs) {
+                    assertFalse("Absolute path " + ref.file, Paths.get(ref.file).isAbsolute());
+                    assertTrue("Missing file " + ref.file, Files.isRegularFile(tempDir.resolve(ref.file)));
+                }
+
+                GraphResult expected = new GraphContext(unit, tempDir, null).graph();
+                assertTrue(expected.isSuccess());
+                assertArrayEquals("Graph of " + unit.Name + " differs",
+                        toJSON(expected.getGraph()),
+                        toJSON(GraphContext.toGraph(data)));
+            }
+        }
+    }
+
+    /**
+     * Failure of caller's writer stops graphing of unit and comes back as exception, session stays usable
+     */
+    @Test
+    public void testWriterFailure() throws Exception {
+        try (GraphSession session = new GraphSession(tempDir)) {
+            try {
+                session.graph(first, new GraphData() {
+                    @Override
+                    public void writeDef(Def s) throws IOException {
+                        throw new IOException("Writer failed");
+                    }
+                });
+                fail("Writer failure is not reported");
+            } catch (IOException e) {
+                assertEquals("Writer failed", e.getMessage());
+            }
+            GraphData data = new GraphData();
+            session.graph(second, data);
+            assertFalse(data.defs.isEmpty());
+        }
+    }
+
+    /**
+     * Closed session refuses to graph
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws Exception {
+        GraphSession session = new GraphSession(tempDir);
+        session.graph(first, new GraphData());
+        session.close();
+        session.graph(first, new GraphData());
+    }
+
+    /**
+     * Unit read from JSON keeps its files and data
+     */
+    @Test
+    public void testReadUnit() throws Exception {
+        SourceUnit unit = GraphSession.readUnit(new StringReader(new Gson().toJson(first)));
+        assertEquals(first.Name, unit.Name);
+        assertEquals(first.Files, unit.Files);
+        assertEquals(first.Data.SourceVersion, unit.Data.SourceVersion);
+    }
+}
@@ -0,0 +1,130 @@
+package com.sourcegraph.javagraph;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that exclusion rules match paths the same way Git does
+ */
+public class TestIgnoreRules {
+
+    private static final Path BASE = Paths.get("/repo");
+
+    /**
+     * Rule without slash matches name at any depth, rule with slash is matched against path relative to base
+     * directory, leading slash anchors rule to base directory
+     */
+    @Test
+    public void testAnchored() throws Exception {
+        IgnoreRules rules = rules("*.log", "/build", "docs/generated");
+
+        assertTrue(isIgnored(rules, "x.log"));
+        assertTrue(isIgnored(rules, "a/b/x.log"));
+        assertTrue(isIgnored(rules, "build"));
+        assertFalse(isIgnored(rules, "a/build"));
+        assertTrue(isIgnored(rules, "docs/generated"));
+        assertFalse(isIgnored(rules, "a/docs/generated"));
+        assertFalse(isIgnored(rules, "x.log.txt"));
+    }
+
+    /**
+     * Rule that ends with slash matches directories only, comments and blank lines are skipped,
+     * escaped characters are literal
+     */
+    @Test
+    public void testDirectoryOnly() throws Exception {
+        IgnoreRules rules = rules("# out", "", "out/", "\\#notes");
+
+        assertTrue(rules.isIgnored(BASE.resolve("out"), true));
+        assertFalse(rules.isIgnored(BASE.resolve("out"), false));
+        assertTrue(rules.isIgnored(BASE.resolve("a/out"), true));
+        assertTrue(isIgnored(rules, "#notes"));
+        assertFalse(isIgnored(rules, "# out"));
+    }
+
+    /**
+     * Negated rule re-includes paths, the last matching rule wins
+     */
+    @Test
+    public void testNegation() throws Exception {
+        IgnoreRules rules = rules("*.log", "!keep.log");
+        assertTrue(isIgnored(rules, "x.log"));
+        assertFalse(isIgnored(rules, "keep.log"));
+        assertFalse(isIgnored(rules, "a/keep.log"));
+
+        rules = rules("!keep.log", "*.log");
+        assertTrue(isIgnored(rules, "keep.log"));
+    }
+
+    /**
+     * "**" followed by slash matches zero or more directories, "**" at the end matches everything inside
+     */
+    @Test
+    public void testAnyDirs() throws Exception {
+        IgnoreRules rules = rules("**/gen", "a/**/z", "lib/**");
+
+        assertTrue(isIgnored(rules, "gen"));
+        assertTrue(isIgnored(rules, "x/y/gen"));
+        assertTrue(isIgnored(rules, "a/z"));
+        assertTrue(isIgnored(rules, "a/b/c/z"));
+        assertFalse(isIgnored(rules, "b/a/z"));
+        assertTrue(isIgnored(rules, "lib/x/y.jar"));
+        assertFalse(isIgnored(rules, "lib"));
+    }
+
+    /**
+     * Character classes match single character, "!" negates class, "?" matches any character but slash
+     */
+    @Test
+    public void testCharacterClasses() throws Exception {
+        IgnoreRules rules = rules("file[0-9].txt", "[!a]*.tmp", "?.bak");
+
+        assertTrue(isIgnored(rules, "file1.txt"));
+        assertFalse(isIgnored(rules, "filex.txt"));
+        assertTrue(isIgnored(rules, "b.tmp"));
+        assertFalse(isIgnored(rules, "a.tmp"));
+        assertTrue(isIgnored(rules, "x.bak"));
+        assertFalse(isIgnored(rules, "xy.bak"));
+    }
+
+    /**
+     * Rules of deeper directories take precedence over rules of their parents and apply inside of their
+     * directories only
+     */
+    @Test
+    public void testDeeperTakesPrecedence() throws Exception {
+        IgnoreRules root = rules("*.log", "tmp/");
+        IgnoreRules sub = root.add(BASE.resolve("sub"), Arrays.asList("!*.log", "/local"));
+
+        assertFalse(isIgnored(sub, "sub/x.log"));
+        assertTrue(isIgnored(sub, "other/x.log"));
+        assertTrue(sub.isIgnored(BASE.resolve("sub/tmp"), true));
+        assertTrue(isIgnored(sub, "sub/local"));
+        assertFalse(isIgnored(sub, "local"));
+        // parent rules are not affected
+        assertTrue(isIgnored(root, "sub/x.log"));
+    }
+
+    /**
+     * @param lines rules in .gitignore format
+     * @return rules relative to base directory
+     */
+    private static IgnoreRules rules(String... lines) {
+        return IgnoreRules.NONE.add(BASE, Arrays.asList(lines));
+    }
+
+    /**
+     * @param rules rules to check
+     * @param path  file path relative to base directory
+     * @return true if file is ignored
+     */
+    private static boolean isIgnored(IgnoreRules rules, String path) {
+        return rules.isIgnored(BASE.resolve(path), false);
+    }
+}
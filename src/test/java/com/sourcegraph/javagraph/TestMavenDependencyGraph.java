@@ -0,0 +1,195 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
+import org.eclipse.aether.impl.DefaultServiceLocator;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
+import org.eclipse.aether.spi.connector.transport.TransporterFactory;
+import org.eclipse.aether.transport.file.FileTransporterFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that classpath derived from shared dependency sub-graphs follows Maven's conflict resolution rules
+ */
+public class TestMavenDependencyGraph {
+
+    private static final String GROUP = "test";
+
+    private Path tempDir;
+
+    private Path remoteDir;
+
+    private MavenDependencyGraph graph;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-depgraph");
+        remoteDir = tempDir.resolve("remote");
+
+        DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
+        locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
+        locator.addService(TransporterFactory.class, FileTransporterFactory.class);
+        RepositorySystem system = locator.getService(RepositorySystem.class);
+        DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+        session.setLocalRepositoryManager(system.newLocalRepositoryManager(session,
+                new LocalRepository(tempDir.resolve("local").toFile())));
+        RemoteRepository remote = new RemoteRepository.Builder("test",
+                "default",
+                remoteDir.toUri().toString()).build();
+        graph = new MavenDependencyGraph(system, session, Collections.singletonList(remote));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * Deeper version of artifact loses to nearer one even if it comes from dependency declared first
+     */
+    @Test
+    public void testNearestWins() throws Exception {
+        publish("a", "1.0", "d:1.0");
+        publish("d", "1.0", "c:2.0");
+        publish("b", "1.0", "c:1.0");
+        publish("c", "1.0");
+        publish("c", "2.0");
+
+        List<Artifact> artifacts = graph.getArtifacts("test", deps("a:1.0", "b:1.0"), "jar");
+        assertEquals(Arrays.asList("a:1.0", "d:1.0", "b:1.0", "c:1.0"), toStrings(artifacts));
+    }
+
+    /**
+     * If there are multiple versions of artifact on the same depth, first declared wins
+     */
+    @Test
+    public void testFirstDeclaredWins() throws Exception {
+        publish("a", "1.0", "c:2.0");
+        publish("b", "1.0", "c:1.0");
+        publish("c", "1.0");
+        publish("c", "2.0");
+
+        assertEquals(Arrays.asList("a:1.0", "c:2.0", "b:1.0"),
+                toStrings(graph.getArtifacts("test", deps("a:1.0", "b:1.0"), "jar")));
+        // sub-graphs collected for the first module are reused in different order
+        assertEquals(Arrays.asList("b:1.0", "c:1.0", "a:1.0"),
+                toStrings(graph.getArtifacts("test", deps("b:1.0", "a:1.0"), "jar")));
+    }
+
+    /**
+     * Artifacts shared by modules are resolved once, files and POM files of all of them become available
+     */
+    @Test
+    public void testResolve() throws Exception {
+        publish("a", "1.0", "c:1.0");
+        publish("b", "1.0", "c:1.0");
+        publish("c", "1.0");
+
+        List<Artifact> first = graph.getArtifacts("first", deps("a:1.0"), "jar");
+        List<Artifact> second = graph.getArtifacts("second", deps("b:1.0"), "jar");
+        graph.resolve("first", first);
+        // removing shared artifact from remote repository to make sure it is not fetched again
+        FileUtils.deleteDirectory(remoteDir.resolve(GROUP).resolve("c").toFile());
+        graph.resolve("second", second);
+
+        for (Artifact artifact : second) {
+            assertNotNull("No file of " + artifact, graph.getFile(artifact));
+            assertNotNull("No POM file of " + artifact, graph.getPomFile(artifact));
+        }
+    }
+
+    /**
+     * SCM URL is read from POM file of resolved artifact once and then taken from cache
+     */
+    @Test
+    public void testScmUrl() throws Exception {
+        publish("a", "1.0", "c:1.0");
+        publish("c", "1.0");
+        Path pom = remoteDir.resolve(GROUP).resolve("a").resolve("1.0").resolve("a-1.0.pom");
+        String content = new String(Files.readAllBytes(pom), StandardCharsets.UTF_8);
+        Files.write(pom, content.replace("</project>", "  <scm><url>https://example.com/a</url></scm>\n</project>").
+                getBytes(StandardCharsets.UTF_8));
+
+        List<Artifact> artifacts = graph.getArtifacts("test", deps("a:1.0"), "jar");
+        graph.resolve("test", artifacts);
+        assertEquals("https://example.com/a", graph.getScmUrl(artifacts.get(0)));
+        assertNull(graph.getScmUrl(artifacts.get(1)));
+
+        Files.delete(graph.getPomFile(artifacts.get(0)).toPath());
+        assertEquals("https://example.com/a", graph.getScmUrl(artifacts.get(0)));
+    }
+
+    /**
+     * Writes JAR and POM files of artifact to remote repository
+     * @param artifactId artifact ID
+     * @param version artifact version
+     * @param dependencies artifactId:version of compile dependencies
+     * @throws IOException
+     */
+    private void publish(String artifactId, String version, String... dependencies) throws IOException {
+        Path dir = remoteDir.resolve(GROUP).resolve(artifactId).resolve(version);
+        Files.createDirectories(dir);
+        StringBuilder pom = new StringBuilder().
+                append("<project>\n").
+                append("  <modelVersion>4.0.0</modelVersion>\n").
+                append("  <groupId>").append(GROUP).append("</groupId>\n").
+                append("  <artifactId>").append(artifactId).append("</artifactId>\n").
+                append("  <version>").append(version).append("</version>\n").
+                append("  <dependencies>\n");
+        for (String dependency : dependencies) {
+            String parts[] = dependency.split(":");
+            pom.append("    <dependency><groupId>").append(GROUP).
+                    append("</groupId><artifactId>").append(parts[0]).
+                    append("</artifactId><version>").append(parts[1]).
+                    append("</version></dependency>\n");
+        }
+        pom.append("  </dependencies>\n</project>\n");
+        String name = artifactId + '-' + version;
+        Files.write(dir.resolve(name + ".pom"), pom.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve(name + ".jar"), new byte[0]);
+    }
+
+    /**
+     * @param coordinates artifactId:version of dependencies
+     * @return compile dependencies in a given order
+     */
+    private static List<RawDependency> deps(String... coordinates) {
+        List<RawDependency> ret = new ArrayList<>();
+        for (String c : coordinates) {
+            String parts[] = c.split(":");
+            RawDependency dependency = new RawDependency(GROUP, parts[0], parts[1], "compile", null);
+            dependency.type = "jar";
+            ret.add(dependency);
+        }
+        return ret;
+    }
+
+    /**
+     * @param artifacts artifacts
+     * @return artifactId:version of each artifact
+     */
+    private static List<String> toStrings(List<Artifact> artifacts) {
+        return artifacts.stream().
+                map(artifact -> artifact.getArtifactId() + ':' + artifact.getVersion()).
+                collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,189 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static com.sourcegraph.javagraph.GraphTestFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Checks which units are compiled together and that units compiled together get the same graphs as units
+ * graphed one by one
+ */
+public class TestReactorGrapher {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-reactor");
+        library("1.0", "one");
+        library("2.0", "two");
+        write(tempDir, "x/src/x/X.java",
+                "package x;\n" +
+                "\n" +
+                "import lib.Lib;\n" +
+                "\n" +
+                "public class X {\n" +
+                "    int f() { return Lib.one(); }\n" +
+                "}\n");
+        write(tempDir, "y/src/y/Y.java",
+                "package y;\n" +
+                "\n" +
+                "import lib.Lib;\n" +
+                "\n" +
+                "public class Y {\n" +
+                "    int g() { return Lib.two(); }\n" +
+                "}\n");
+        write(tempDir, "z/src/z/Z.java",
+                "package z;\n" +
+                "\n" +
+                "import lib.Lib;\n" +
+                "\n" +
+                "public class Z {\n" +
+                "    int h() { return Lib.one() + 1; }\n" +
+                "}\n");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * Modules that depend on different versions of the same library go to different groups, modules that agree
+     * on versions share a group
+     */
+    @Test
+    public void testGroupsByDependencyVersions() throws Exception {
+        SourceUnit x = unit("x", "x/src/x/X.java", "1.0");
+        SourceUnit y = unit("y", "y/src/y/Y.java", "2.0");
+        SourceUnit z = unit("z", "z/src/z/Z.java", "1.0");
+        assertEquals(Arrays.asList(Arrays.asList(0, 2), Collections.singletonList(1)),
+                ReactorGrapher.group(Arrays.asList(x, y, z)));
+
+        // raw dependencies are compared as well, even if class paths agree
+        SourceUnit other = unit("y", "y/src/y/Y.java", "1.0");
+        x.Data.Dependencies = Collections.singletonList(new RawDependency("g", "lib", "1.0", "compile", null));
+        other.Data.Dependencies = Collections.singletonList(new RawDependency("g", "lib", "1.1", "compile", null));
+        assertEquals(Arrays.asList(Collections.singletonList(0), Collections.singletonList(1),
+                Collections.singletonList(2)),
+                ReactorGrapher.group(Arrays.asList(x, other, null)));
+    }
+
+    /**
+     * Modules on different versions of one library compiled together still get graphs they get alone:
+     * javac errors caused by merged class path make group fall back to graphing units one by one
+     */
+    @Test
+    public void testConflictingVersionsFallBack() throws Exception {
+        assertSameAsAlone(unit("x", "x/src/x/X.java", "1.0"), unit("y", "y/src/y/Y.java", "2.0"));
+    }
+
+    /**
+     * Modules that define the same class compiled together still get graphs they get alone
+     */
+    @Test
+    public void testDuplicateClassesFallBack() throws Exception {
+        write(tempDir, "p/src/dup/Dup.java",
+                "package dup;\n" +
+                "\n" +
+                "public class Dup {\n" +
+                "    int p;\n" +
+                "}\n");
+        write(tempDir, "q/src/dup/Dup.java",
+                "package dup;\n" +
+                "\n" +
+                "public class Dup {\n" +
+                "    int q;\n" +
+                "}\n");
+        SourceUnit p = unit("p", "p/src/dup/Dup.java", "1.0");
+        SourceUnit q = unit("q", "q/src/dup/Dup.java", "1.0");
+        assertEquals(Collections.singletonList(Arrays.asList(0, 1)), ReactorGrapher.group(Arrays.asList(p, q)));
+        assertSameAsAlone(p, q);
+    }
+
+    /**
+     * Modules that agree on dependencies compiled together get graphs they get alone
+     */
+    @Test
+    public void testCompatibleTogether() throws Exception {
+        assertSameAsAlone(unit("x", "x/src/x/X.java", "1.0"), unit("z", "z/src/z/Z.java", "1.0"));
+    }
+
+    /**
+     * Graphs units with a single reactor grapher and checks that each unit gets the graph it gets alone
+     * @param units units to graph together
+     * @throws Exception
+     */
+    private void assertSameAsAlone(SourceUnit... units) throws Exception {
+        List<GraphContext> contexts = new ArrayList<>();
+        for (SourceUnit unit : units) {
+            contexts.add(new GraphContext(unit, tempDir, null));
+        }
+        List<GraphResult> results = new ReactorGrapher(contexts, tempDir, null).graph();
+        assertEquals(units.length, results.size());
+        for (int i = 0; i < units.length; i++) {
+            GraphResult expected = new GraphContext(units[i], tempDir, null).graph();
+            assertTrue(expected.isSuccess());
+            assertTrue("Unable to graph " + units[i].Name, results.get(i).isSuccess());
+            assertFalse(results.get(i).getGraph().Defs.isEmpty());
+            assertArrayEquals("Graph of " + units[i].Name + " differs",
+                    toJSON(expected.getGraph()),
+                    toJSON(results.get(i).getGraph()));
+        }
+    }
+
+    /**
+     * Builds libs/lib-VERSION.jar that holds class lib.Lib with a single static method
+     * @param version library version
+     * @param method method name
+     * @throws IOException
+     */
+    private void library(String version, String method) throws IOException {
+        Path src = tempDir.resolve("lib-src-" + version);
+        write(tempDir, tempDir.relativize(src).resolve("lib/Lib.java").toString(),
+                "package lib;\n" +
+                "\n" +
+                "public class Lib {\n" +
+                "    public static int " + method + "() { return 1; }\n" +
+                "}\n");
+        Path classes = tempDir.resolve("lib-classes-" + version);
+        Files.createDirectories(classes);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null,
+                "-proc:none", "-d", classes.toString(), src.resolve("lib/Lib.java").toString()));
+        Path jar = tempDir.resolve("libs/lib-" + version + ".jar");
+        Files.createDirectories(jar.getParent());
+        try (OutputStream os = Files.newOutputStream(jar);
+             JarOutputStream jos = new JarOutputStream(os)) {
+            jos.putNextEntry(new JarEntry("lib/Lib.class"));
+            jos.write(Files.readAllBytes(classes.resolve("lib/Lib.class")));
+            jos.closeEntry();
+        }
+    }
+
+    /**
+     * @param name unit directory and short name
+     * @param file unit's source file
+     * @param version version of library unit is compiled against
+     * @return source unit whose compiler settings are taken from unit data
+     */
+    private static SourceUnit unit(String name, String file, String version) {
+        SourceUnit unit = GraphTestFixtures.unit(name, file);
+        unit.Data.ClassPath = Collections.singletonList("libs/lib-" + version + ".jar");
+        return unit;
+    }
+}
@@ -0,0 +1,119 @@
+package com.sourcegraph.javagraph;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that concurrent scanners and concurrent normalization produce the same results sequential ones would
+ */
+public class TestScanCommand {
+
+    /**
+     * Scanners run at the same time, results keep scanners' order even if they complete in reverse order
+     */
+    @Test
+    public void testRunScannersOrder() throws Exception {
+        CyclicBarrier started = new CyclicBarrier(3);
+        CountDownLatch thirdDone = new CountDownLatch(1);
+        CountDownLatch secondDone = new CountDownLatch(1);
+        List<Callable<Collection<SourceUnit>>> scanners = Arrays.asList(
+                scanner(started, secondDone, null, "first"),
+                scanner(started, thirdDone, secondDone, "second"),
+                scanner(started, null, thirdDone, "third"));
+
+        List<String> names = new ArrayList<>();
+        for (Collection<SourceUnit> units : ScanCommand.runScanners(scanners)) {
+            for (SourceUnit unit : units) {
+                names.add(unit.Name);
+            }
+        }
+        assertEquals(Arrays.asList("first", "second", "third"), names);
+    }
+
+    /**
+     * Failure of scanner is reported as is
+     */
+    @Test
+    public void testRunScannersFailure() throws Exception {
+        IOException failure = new IOException("broken build file");
+        List<Callable<Collection<SourceUnit>>> scanners = Arrays.asList(
+                Collections::emptyList,
+                () -> {
+                    throw failure;
+                });
+        try {
+            ScanCommand.runScanners(scanners);
+            fail("Failure of scanner should be reported");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    /**
+     * Dependencies and source path elements shared by units normalized concurrently are relativized once and
+     * each unit gets sorted dependencies
+     */
+    @Test
+    public void testNormalizeShared() throws Exception {
+        RawDependency shared = new RawDependency("g", "b", "1.0", "compile",
+                PathUtil.CWD.resolve("lib").resolve("b.jar").toString());
+        SourcePathElement sourcePath = new SourcePathElement("g/b", "1.0",
+                PathUtil.CWD.resolve("b").resolve("src").toString());
+        List<SourceUnit> units = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            SourceUnit unit = new SourceUnit();
+            unit.Name = "unit" + i;
+            unit.Dir = PathUtil.CWD.resolve("unit" + i).toString();
+            unit.Files = new ArrayList<>();
+            unit.Data.Dependencies.add(shared);
+            unit.Data.Dependencies.add(new RawDependency("g", "a", "1.0", "compile", null));
+            unit.Data.SourcePath = Collections.singletonList(sourcePath);
+            units.add(unit);
+        }
+
+        ScanCommand.normalize(units);
+
+        assertEquals("lib/b.jar", PathUtil.normalize(shared.file));
+        assertEquals("b/src", PathUtil.normalize(sourcePath.filePath));
+        for (SourceUnit unit : units) {
+            assertEquals(unit.Name, unit.Dir);
+            Iterator<RawDependency> dependencies = unit.Data.Dependencies.iterator();
+            assertEquals("a", dependencies.next().artifactID);
+            assertSame(shared, dependencies.next());
+            assertEquals(2, unit.Dependencies.size());
+        }
+    }
+
+    /**
+     * @param started barrier all scanners wait at, it breaks if scanners are not running concurrently
+     * @param await latch to wait for before completion, may be null
+     * @param done latch to release on completion, may be null
+     * @param name name of unit scanner produces
+     * @return scanner that produces single unit
+     */
+    private static Callable<Collection<SourceUnit>> scanner(CyclicBarrier started,
+                                                             CountDownLatch await,
+                                                             CountDownLatch done,
+                                                             String name) {
+        return () -> {
+            started.await(10, TimeUnit.SECONDS);
+            if (await != null) {
+                assertTrue(await.await(10, TimeUnit.SECONDS));
+            }
+            SourceUnit unit = new SourceUnit();
+            unit.Name = name;
+            if (done != null) {
+                done.countDown();
+            }
+            return Collections.singletonList(unit);
+        };
+    }
+}
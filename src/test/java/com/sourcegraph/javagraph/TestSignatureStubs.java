@@ -0,0 +1,178 @@
+package com.sourcegraph.javagraph;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static com.sourcegraph.javagraph.GraphTestFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Checks writing and reading of signature stubs and resolution of classes read from stubs to their source files
+ */
+public class TestSignatureStubs {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-stubs");
+        write(tempDir, "a/src/a/A.java",
+                "package a;\n" +
+                "\n" +
+                "public class A {\n" +
+                "    public static class Inner {\n" +
+                "        public int value;\n" +
+                "    }\n" +
+                "    public Inner make() { return new Inner(); }\n" +
+                "}\n");
+        write(tempDir, "a/src/a/B.java",
+                "package a;\n" +
+                "\n" +
+                "public interface B {\n" +
+                "    int size();\n" +
+                "}\n");
+        write(tempDir, "c/src/c/C.java",
+                "package c;\n" +
+                "\n" +
+                "import a.A;\n" +
+                "import a.B;\n" +
+                "\n" +
+                "public class C implements B {\n" +
+                "    public int size() { return new A().make().value; }\n" +
+                "}\n");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * Index maps classes to source URIs, directory without index holds no complete stubs,
+     * preparing directory removes stubs written before
+     */
+    @Test
+    public void testIndex() throws Exception {
+        Path dir = tempDir.resolve("stubs");
+        SignatureStubs.prepare(dir);
+        assertNull(SignatureStubs.read(dir));
+
+        URI source = tempDir.resolve("a/src/a/A.java").toUri();
+        SignatureStubs.writeIndex(dir, Collections.singletonMap("a.A", source));
+        SignatureStubs stubs = SignatureStubs.read(dir);
+        assertNotNull(stubs);
+        assertEquals(source, stubs.getSource("a.A"));
+        assertNull(stubs.getSource("a.B"));
+
+        SignatureStubs.prepare(dir);
+        assertNull(SignatureStubs.read(dir));
+    }
+
+    /**
+     * Unit that compiles writes class files and index of its top-level classes
+     */
+    @Test
+    public void testWrittenOnSuccess() throws Exception {
+        Path dir = tempDir.resolve("stubs-a");
+        GraphContext context = new GraphContext(unit("a", "a/src/a/A.java", "a/src/a/B.java"), tempDir, null);
+        context.setStubOutput(dir);
+        GraphResult result = context.graph();
+        assertTrue(result.isSuccess());
+        assertEquals(dir, result.getStubs());
+
+        assertTrue(Files.isRegularFile(dir.resolve("a/A.class")));
+        assertTrue(Files.isRegularFile(dir.resolve("a/A$Inner.class")));
+        SignatureStubs stubs = SignatureStubs.read(dir);
+        assertNotNull(stubs);
+        assertEquals(tempDir.resolve("a/src/a/A.java").toUri(), stubs.getSource("a.A"));
+        assertEquals(tempDir.resolve("a/src/a/B.java").toUri(), stubs.getSource("a.B"));
+        assertNull("Nested classes are resolved through top-level ones", stubs.getSource("a.A$Inner"));
+    }
+
+    /**
+     * Unit with compilation errors is still graphed, but its stubs are not written
+     */
+    @Test
+    public void testNotWrittenOnErrors() throws Exception {
+        write(tempDir, "a/src/a/Broken.java",
+                "package a;\n" +
+                "\n" +
+                "public class Broken extends Missing {\n" +
+                "}\n");
+        Path dir = tempDir.resolve("stubs-a");
+        GraphContext context = new GraphContext(unit("a", "a/src/a/A.java", "a/src/a/Broken.java"), tempDir, null);
+        context.setStubOutput(dir);
+        GraphResult result = context.graph();
+        assertTrue(result.isSuccess());
+        assertNull(result.getStubs());
+        assertNull(SignatureStubs.read(dir));
+    }
+
+    /**
+     * Downstream unit reads upstream classes from stubs rather than from upstream sources, references to them
+     * (including members of nested classes) point to upstream source files and unit as if sources were read
+     */
+    @Test
+    public void testReferencesResolveToSources() throws Exception {
+        Path dir = tempDir.resolve("stubs-a");
+        GraphContext upstream = new GraphContext(unit("a", "a/src/a/A.java", "a/src/a/B.java"), tempDir, null);
+        upstream.setStubOutput(dir);
+        assertEquals(dir, upstream.graph().getStubs());
+        GraphCommand.Graph expected = graphC(null);
+
+        // method used by downstream unit is gone from sources, but not from stubs
+        write(tempDir, "a/src/a/A.java",
+                "package a;\n" +
+                "\n" +
+                "public class A {\n" +
+                "    public static class Inner {\n" +
+                "        public int value;\n" +
+                "    }\n" +
+                "    public Inner create() { return new Inner(); }\n" +
+                "}\n");
+        GraphCommand.Graph actual = graphC(dir);
+
+        Map<String, Path> origins = new TreeMap<>();
+        for (Ref ref : actual.Refs) {
+            if ("test/a".equals(ref.defUnit)) {
+                origins.put(ref.defKey.formatPath(), Paths.get(ref.defKey.getOrigin()));
+            }
+        }
+        Path sourceA = tempDir.resolve("a/src/a/A.java");
+        assertEquals(sourceA, origins.get("a/A:type"));
+        assertEquals(sourceA, origins.get("a/A:type/make"));
+        assertEquals(sourceA, origins.get("a/A:type/Inner:type/value"));
+        assertEquals(tempDir.resolve("a/src/a/B.java"), origins.get("a/B:type"));
+
+        assertEquals(expected.Refs.size(), actual.Refs.size());
+        for (int i = 0; i < expected.Refs.size(); i++) {
+            Ref e = expected.Refs.get(i);
+            Ref a = actual.Refs.get(i);
+            assertEquals(e.defKey.formatPath(), a.defKey.formatPath());
+            assertEquals(e.defKey.getOrigin(), a.defKey.getOrigin());
+            assertEquals(e.defUnit, a.defUnit);
+            assertEquals(e.start, a.start);
+        }
+    }
+
+    /**
+     * @param stubs signature stubs of upstream unit, null to read upstream sources
+     * @return graph of downstream unit
+     * @throws Exception
+     */
+    private GraphCommand.Graph graphC(Path stubs) throws Exception {
+        GraphContext context = new GraphContext(addUpstream(unit("c", "c/src/c/C.java"), "a"), tempDir, null);
+        if (stubs != null) {
+            context.addUpstreamStubs("test/a", stubs);
+        }
+        return graph(context);
+    }
+}
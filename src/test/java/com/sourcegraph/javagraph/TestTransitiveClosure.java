@@ -0,0 +1,87 @@
+package com.sourcegraph.javagraph;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks order of units in transitive closures, including closures of units that form a cycle, and values
+ * collected over closures
+ */
+public class TestTransitiveClosure {
+
+    /**
+     * Closure lists unit first and then its dependencies depth-first, in declaration order, without duplicates
+     */
+    @Test
+    public void testOrder() throws Exception {
+        TransitiveClosure<String, String> closure = newClosure(
+                "a", "b,c",
+                "b", "d",
+                "c", "d,e",
+                "d", "",
+                "e", "missing");
+
+        assertEquals(Arrays.asList("a", "b", "d", "c", "e"), new ArrayList<>(closure.get("a")));
+        assertEquals(Arrays.asList("c", "d", "e"), new ArrayList<>(closure.get("c")));
+        assertEquals(5, closure.get("a").size());
+        assertTrue(closure.get("missing").isEmpty());
+    }
+
+    /**
+     * Members of a cycle share the same units, each one comes first in its own closure
+     */
+    @Test
+    public void testCycle() throws Exception {
+        TransitiveClosure<String, String> closure = newClosure(
+                "a", "b",
+                "b", "c,x",
+                "c", "a,y",
+                "x", "",
+                "y", "x");
+
+        // shared part lists members in order they leave Tarjan's stack, each followed by its outer dependencies
+        assertEquals(Arrays.asList("a", "c", "y", "x", "b"), new ArrayList<>(closure.get("a")));
+        assertEquals(Arrays.asList("b", "c", "a", "y", "x"), new ArrayList<>(closure.get("b")));
+        assertEquals(Arrays.asList("c", "a", "y", "x", "b"), new ArrayList<>(closure.get("c")));
+        assertEquals(Arrays.asList("y", "x"), new ArrayList<>(closure.get("y")));
+    }
+
+    /**
+     * Values contributed by closure members are listed in closure order, without duplicates
+     */
+    @Test
+    public void testFlatten() throws Exception {
+        TransitiveClosure<String, String> closure = newClosure(
+                "a", "b,c",
+                "b", "c",
+                "c", "");
+        Map<String, Collection<String>> values = new HashMap<>();
+        values.put("a", Arrays.asList("a.jar", "common.jar"));
+        values.put("b", Arrays.asList("common.jar", "b.jar"));
+        values.put("c", Arrays.asList("c.jar", "b.jar"));
+
+        Collection<String> flattened = closure.flatten("a", values::get);
+        assertEquals(Arrays.asList("a.jar", "common.jar", "b.jar", "c.jar"), new ArrayList<>(flattened));
+        assertEquals(Arrays.asList("a.jar", "common.jar", "b.jar", "c.jar"), new ArrayList<>(flattened));
+        assertEquals(4, flattened.size());
+        assertTrue(closure.flatten("missing", values::get).isEmpty());
+    }
+
+    /**
+     * @param graph pairs of unit and comma-separated list of its dependencies
+     * @return closure over a given graph
+     */
+    private static TransitiveClosure<String, String> newClosure(String... graph) {
+        Map<String, Collection<String>> edges = new HashMap<>();
+        for (int i = 0; i < graph.length; i += 2) {
+            edges.put(graph[i], graph[i + 1].isEmpty() ?
+                    Collections.emptyList() :
+                    Arrays.asList(graph[i + 1].split(",")));
+        }
+        return new TransitiveClosure<>(key -> edges.containsKey(key) ? key : null, edges::get);
+    }
+}
@@ -0,0 +1,165 @@
+package com.sourcegraph.javagraph;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks dependencies derived from source units and order units are started in
+ */
+public class TestUnitScheduler {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Dependencies come from source path, source unit dependencies, and raw dependencies that name units of the set
+     */
+    @Test
+    public void testUpstream() throws Exception {
+        SourceUnit a = unit("g/a");
+        SourceUnit b = unit("g/b");
+        b.Data.SourcePath = Arrays.asList(new SourcePathElement("g/b", "1.0", "b"),
+                new SourcePathElement("g/a", "1.0", "a"));
+        SourceUnit c = unit("g/c");
+        c.Dependencies = Collections.singletonList(key("g/b"));
+        SourceUnit d = unit("g/d");
+        d.Data.Dependencies = Arrays.asList(new RawDependency("g", "c", "1.0", "compile", null),
+                new RawDependency("other", "lib", "1.0", "compile", null));
+
+        UnitScheduler scheduler = new UnitScheduler(Arrays.asList(a, b, c, null, d));
+        assertEquals(Collections.emptySet(), scheduler.getUpstream(0));
+        assertEquals(Collections.singleton(0), scheduler.getUpstream(1));
+        assertEquals(Collections.singleton(1), scheduler.getUpstream(2));
+        assertEquals(Collections.emptySet(), scheduler.getUpstream(3));
+        assertEquals(Collections.singleton(2), scheduler.getUpstream(4));
+    }
+
+    /**
+     * Each unit starts after units it depends on are done and receives their results
+     */
+    @Test
+    public void testDependenciesFirst() throws Exception {
+        List<SourceUnit> units = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            SourceUnit unit = unit("g/u" + i);
+            List<Key> dependencies = new ArrayList<>();
+            // u0, u1 are roots, others depend on one or two units with smaller indexes
+            if (i >= 2) {
+                dependencies.add(key("g/u" + (i / 2)));
+                dependencies.add(key("g/u" + (i - 2)));
+            }
+            unit.Dependencies = dependencies;
+            units.add(unit);
+        }
+        UnitScheduler scheduler = new UnitScheduler(units);
+
+        Set<Integer> done = ConcurrentHashMap.newKeySet();
+        List<Integer> completed = new ArrayList<>();
+        scheduler.<Integer>run(executor, 3, (index, upstreamResults) -> {
+            for (Integer dependency : scheduler.getUpstream(index)) {
+                assertTrue("u" + index + " started before u" + dependency, done.contains(dependency));
+                assertEquals(Integer.valueOf(dependency * 10), upstreamResults.get(dependency));
+            }
+            done.add(index);
+            return index * 10;
+        }, (index, result) -> {
+            assertEquals(Integer.valueOf(index * 10), result);
+            completed.add(index);
+        });
+        assertEquals(units.size(), completed.size());
+    }
+
+    /**
+     * Among ready units the one with the longest chain of dependent units goes first, ties are broken by input order
+     */
+    @Test
+    public void testLongestChainFirst() throws Exception {
+        SourceUnit x = unit("g/x");
+        SourceUnit a = unit("g/a");
+        SourceUnit b = unit("g/b");
+        b.Dependencies = Collections.singletonList(key("g/a"));
+        SourceUnit c = unit("g/c");
+        c.Dependencies = Collections.singletonList(key("g/b"));
+
+        assertEquals(Arrays.asList(1, 2, 0, 3), runSequentially(Arrays.asList(x, a, b, c)));
+    }
+
+    /**
+     * Units that depend on each other are started in input order once nothing else can run
+     */
+    @Test
+    public void testCycle() throws Exception {
+        SourceUnit a = unit("g/a");
+        a.Dependencies = Collections.singletonList(key("g/b"));
+        SourceUnit b = unit("g/b");
+        b.Dependencies = Collections.singletonList(key("g/a"));
+        SourceUnit c = unit("g/c");
+
+        assertEquals(Arrays.asList(2, 0, 1), runSequentially(Arrays.asList(a, b, c)));
+    }
+
+    /**
+     * Failure of task stops the run
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testTaskFailure() throws Exception {
+        new UnitScheduler(Arrays.asList(unit("g/a"), unit("g/b"))).<Integer>run(executor, 2, (index, upstream) -> {
+            throw new IllegalStateException("Task failed");
+        }, (index, result) -> {
+        });
+    }
+
+    /**
+     * @param units units to schedule
+     * @return indexes of units in order they were started with a single job
+     * @throws Exception
+     */
+    private List<Integer> runSequentially(List<SourceUnit> units) throws Exception {
+        List<Integer> started = Collections.synchronizedList(new ArrayList<>());
+        new UnitScheduler(units).<Integer>run(executor, 1, (index, upstream) -> {
+            started.add(index);
+            return index;
+        }, (index, result) -> {
+        });
+        return started;
+    }
+
+    /**
+     * @param name unit name
+     * @return key of unit with a given name
+     */
+    private static Key key(String name) {
+        Key key = new Key();
+        key.Name = name;
+        key.Type = SourceUnit.DEFAULT_TYPE;
+        return key;
+    }
+
+    /**
+     * @param name unit name
+     * @return unit without dependencies
+     */
+    private static SourceUnit unit(String name) {
+        SourceUnit unit = new SourceUnit();
+        unit.Name = name;
+        unit.Type = SourceUnit.DEFAULT_TYPE;
+        return unit;
+    }
+}
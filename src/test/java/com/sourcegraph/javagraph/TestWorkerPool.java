@@ -0,0 +1,38 @@
+package com.sourcegraph.javagraph;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that number of worker threads may be changed after shared pool was created
+ */
+public class TestWorkerPool {
+
+    @After
+    public void tearDown() throws Exception {
+        WorkerPool.setParallelism(0);
+    }
+
+    /**
+     * New parallelism replaces existing pool, the same parallelism keeps it
+     */
+    @Test
+    public void testSetParallelism() throws Exception {
+        WorkerPool.setParallelism(2);
+        ForkJoinPool pool = WorkerPool.getPool();
+        assertEquals(2, pool.getParallelism());
+
+        WorkerPool.setParallelism(2);
+        assertSame(pool, WorkerPool.getPool());
+
+        WorkerPool.setParallelism(3);
+        assertEquals(3, WorkerPool.getPool().getParallelism());
+        assertTrue(pool.isShutdown());
+    }
+}
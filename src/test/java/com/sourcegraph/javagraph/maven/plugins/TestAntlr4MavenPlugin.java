@@ -0,0 +1,66 @@
+package com.sourcegraph.javagraph.maven.plugins;
+
+import org.antlr.v4.Tool;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which ANTLR plugin configurations are handled in-process
+ */
+public class TestAntlr4MavenPlugin {
+
+    private Plugin plugin;
+
+    @Before
+    public void setUp() throws Exception {
+        plugin = new Plugin();
+        plugin.setGroupId("org.antlr");
+        plugin.setArtifactId("antlr4-maven-plugin");
+        plugin.setVersion(Tool.VERSION);
+        PluginExecution execution = new PluginExecution();
+        execution.setConfiguration(TestCodehausTemplatingMavenPlugin.configuration("visitor", "true"));
+        plugin.addExecution(execution);
+    }
+
+    @Test
+    public void testSupported() throws Exception {
+        assertTrue(Antlr4MavenPlugin.isSupported(plugin));
+    }
+
+    /**
+     * Other ANTLR versions generate different code, Maven should run them
+     */
+    @Test
+    public void testOtherVersion() throws Exception {
+        plugin.setVersion("4.7.1");
+        assertFalse(Antlr4MavenPlugin.isSupported(plugin));
+    }
+
+    /**
+     * ANTLR tool version may be overridden by plugin dependency
+     */
+    @Test
+    public void testOverriddenTool() throws Exception {
+        Dependency dependency = new Dependency();
+        dependency.setGroupId("org.antlr");
+        dependency.setArtifactId("antlr4");
+        dependency.setVersion("4.7.1");
+        plugin.addDependency(dependency);
+        assertFalse(Antlr4MavenPlugin.isSupported(plugin));
+    }
+
+    /**
+     * Plugin-level configuration applies to executions as well
+     */
+    @Test
+    public void testUnsupportedPluginConfiguration() throws Exception {
+        plugin.setConfiguration(TestCodehausTemplatingMavenPlugin.configuration("includes", "*.g4"));
+        assertFalse(Antlr4MavenPlugin.isSupported(plugin));
+    }
+}
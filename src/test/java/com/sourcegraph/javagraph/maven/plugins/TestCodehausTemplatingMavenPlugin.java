@@ -0,0 +1,103 @@
+package com.sourcegraph.javagraph.maven.plugins;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks in-process template expansion: both default delimiters and plugin-level configuration
+ */
+public class TestCodehausTemplatingMavenPlugin {
+
+    private Path tempDir;
+
+    private MavenProject project;
+
+    private Plugin plugin;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-templating");
+        Model model = new Model();
+        model.setPomFile(tempDir.resolve("pom.xml").toFile());
+        model.setVersion("1.2");
+        model.setBuild(new Build());
+        model.getBuild().setDirectory("target");
+        model.addProperty("vendor", "ACME");
+        plugin = new Plugin();
+        plugin.setGroupId("org.codehaus.mojo");
+        plugin.setArtifactId("templating-maven-plugin");
+        plugin.addExecution(new PluginExecution());
+        model.getBuild().addPlugin(plugin);
+        project = new MavenProject(model);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * Source directory comes from plugin-level configuration, ${...} and @...@ expressions are expanded,
+     * annotations and unknown expressions are kept
+     */
+    @Test
+    public void testGenerate() throws Exception {
+        plugin.setConfiguration(configuration("sourceDirectory", "src/templates"));
+        write(tempDir.resolve("src/templates/p/Version.java"),
+                "package p;\n" +
+                "public class Version {\n" +
+                "    @Override public String toString() { return \"${project.version} @vendor@ @unknown@\"; }\n" +
+                "}\n");
+
+        assertTrue(new CodehausTemplatingMavenPlugin().generate(project));
+
+        Path expanded = tempDir.resolve("target/generated-sources/java-templates/p/Version.java");
+        assertEquals("package p;\n" +
+                "public class Version {\n" +
+                "    @Override public String toString() { return \"1.2 ACME @unknown@\"; }\n" +
+                "}\n", new String(Files.readAllBytes(expanded), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Unsupported parameters in plugin-level configuration make plugin fall back to Maven
+     */
+    @Test
+    public void testUnsupportedPluginConfiguration() throws Exception {
+        plugin.setConfiguration(configuration("escapeString", "\\\\"));
+        assertFalse(new CodehausTemplatingMavenPlugin().generate(project));
+    }
+
+    /**
+     * @param name  parameter name
+     * @param value parameter value
+     * @return plugin configuration with a single parameter
+     */
+    static Xpp3Dom configuration(String name, String value) {
+        Xpp3Dom ret = new Xpp3Dom("configuration");
+        Xpp3Dom parameter = new Xpp3Dom(name);
+        parameter.setValue(value);
+        ret.addChild(parameter);
+        return ret;
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,115 @@
+package com.sourcegraph.javagraph.maven.plugins;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.project.MavenProject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that generated files are restored only while goal inputs stay the same
+ */
+public class TestGeneratedSourcesCache {
+
+    private static final List<String> GOALS = Collections.singletonList("generate-sources");
+
+    private Path tempDir;
+
+    private MavenProject project;
+
+    private File input;
+
+    private GeneratedSourcesCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("srclib-java-generated");
+        Path pomFile = tempDir.resolve("pom.xml");
+        write(pomFile, "<project/>");
+        input = tempDir.resolve("src/main/antlr4/Grammar.g4").toFile();
+        write(input.toPath(), "grammar Grammar;");
+
+        Model model = new Model();
+        model.setPomFile(pomFile.toFile());
+        model.setBuild(new Build());
+        Plugin plugin = new Plugin();
+        plugin.setGroupId("org.antlr");
+        plugin.setArtifactId("antlr4-maven-plugin");
+        plugin.setVersion("4.5.3");
+        model.getBuild().addPlugin(plugin);
+        project = new MavenProject(model);
+
+        cache = new GeneratedSourcesCache(tempDir.resolve("repo").toFile());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(tempDir.toFile());
+    }
+
+    /**
+     * Key depends on content of POM file, input files, properties, and goals
+     */
+    @Test
+    public void testKey() throws Exception {
+        List<File> inputs = Collections.singletonList(input.getParentFile());
+        String key = GeneratedSourcesCache.getKey(project, GOALS, inputs);
+        assertEquals(key, GeneratedSourcesCache.getKey(project, GOALS, inputs));
+
+        write(input.toPath(), "grammar Grammar; r : 'x';");
+        String changedInput = GeneratedSourcesCache.getKey(project, GOALS, inputs);
+        assertFalse(key.equals(changedInput));
+
+        project.getProperties().setProperty("antlr.version", "4.5.3");
+        String changedProperty = GeneratedSourcesCache.getKey(project, GOALS, inputs);
+        assertFalse(changedInput.equals(changedProperty));
+
+        assertFalse(changedProperty.equals(GeneratedSourcesCache.getKey(project,
+                Arrays.asList("generate-sources", "process-sources"),
+                inputs)));
+
+        write(project.getModel().getPomFile().toPath(), "<project></project>");
+        assertFalse(changedProperty.equals(GeneratedSourcesCache.getKey(project, GOALS, inputs)));
+    }
+
+    /**
+     * Stored files are restored into output directories, stale files are removed from them
+     */
+    @Test
+    public void testStoreAndRestore() throws Exception {
+        File first = tempDir.resolve("target/generated-sources/antlr4").toFile();
+        File second = tempDir.resolve("target/generated-sources/annotations").toFile();
+        List<File> outputs = Arrays.asList(first, second);
+        write(first.toPath().resolve("p/GrammarParser.java"), "class GrammarParser {}");
+
+        assertFalse(cache.restore("key", outputs));
+        cache.store("key", outputs);
+
+        FileUtils.deleteDirectory(first);
+        write(second.toPath().resolve("Stale.java"), "class Stale {}");
+        assertTrue(cache.restore("key", outputs));
+        assertEquals("class GrammarParser {}", new String(Files.readAllBytes(
+                first.toPath().resolve("p/GrammarParser.java")), StandardCharsets.UTF_8));
+        assertFalse(second.exists());
+
+        assertFalse(cache.restore("other", outputs));
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}